@@ -1,9 +1,12 @@
 package com.capitalone;
 
 import com.capitalone.controller.MeasurementsController;
+import com.capitalone.model.BatchResult;
 import com.capitalone.model.Measurement;
+import com.capitalone.model.MeasurementPage;
 import com.capitalone.service.MeasurementsServiceImpl;
 import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
@@ -25,6 +28,7 @@ import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 
 /**
@@ -92,6 +96,45 @@ public class MeasurementsControllerIT extends JerseyTest {
         assertEquals("Reason should be 'Bad Request'", "Bad Request", response.getStatusInfo().getReasonPhrase());
     }
 
+    /**
+     * Batch post measurement tests.
+     */
+    @Test
+    public void postMeasurements_jsonArrayCreatesNewAndReportsConflicts() {
+        setupMeasurements2();
+        final List<Measurement> batch = ImmutableList.of(
+                new Measurement("2015-09-01T16:10:00.000Z", createMetrics(1f, 1f, 1f)),
+                new Measurement("2015-09-01T16:20:00.000Z", createMetrics(27.5f, 17.1f, 0f)),
+                new Measurement("2015-09-01T16:30:00.000Z", createMetrics(27.4f, 17.3f, 0f)));
+        final Response response = target("measurements/batch").request().post(Entity.json(batch));
+        assertEquals("Status is 200", 200, response.getStatus());
+
+        final BatchResult result = response.readEntity(BatchResult.class);
+        assertEquals("Two measurements are created", 2, result.getCreated());
+        assertEquals("The existing measurement is a conflict", ImmutableList.of(Timestamps.parse("2015-09-01T16:10:00.000Z")), result.getConflicts());
+        assertBeforeAfter("After", "unmodified", "2015-09-01T16:10:00.000Z", createMetrics(27.3f, 16.9f, 0f));
+        assertBeforeAfter("After", "created", "2015-09-01T16:30:00.000Z", createMetrics(27.4f, 17.3f, 0f));
+    }
+
+    @Test
+    public void postMeasurements_ndjsonStreamCreatesAllMeasurements() {
+        final String body = "{\"timestamp\":\"2015-09-01T16:00:00.000Z\",\"metrics\":{\"temperature\":27.1}}\n"
+                + "{\"timestamp\":\"2015-09-01T16:10:00.000Z\",\"metrics\":{\"temperature\":27.3}}\n";
+        final Response response = target("measurements/batch").request().post(Entity.entity(body, MeasurementsController.APPLICATION_NDJSON));
+        assertEquals("Status is 200", 200, response.getStatus());
+        assertEquals("Two measurements are created", 2, response.readEntity(BatchResult.class).getCreated());
+        assertBeforeAfter("After", "created", "2015-09-01T16:10:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 27.3f));
+    }
+
+    @Test
+    public void postMeasurements_invalidItemReturnsStatus400AndCreatesNothing() {
+        final String body = "{\"timestamp\":\"2015-09-01T16:00:00.000Z\",\"metrics\":{\"temperature\":27.1}}\n"
+                + "{\"metrics\":{\"temperature\":27.3}}\n";
+        final Response response = target("measurements/batch").request().post(Entity.entity(body, MeasurementsController.APPLICATION_NDJSON));
+        assertEquals("Status is 400", 400, response.getStatus());
+        assertEquals("Status is 404", 404, target("measurements/2015-09-01T16:00:00.000Z").request().get().getStatus());
+    }
+
     /**
      * Get measurement tests.
      */
@@ -107,7 +150,7 @@ public class MeasurementsControllerIT extends JerseyTest {
         final Response response = target("measurements/" + timestamp).request().get();
         final Measurement m = response.readEntity(Measurement.class);
         assertEquals("Status is 200", expectedStatus, response.getStatus());
-        assertEquals("Timestamp matches", timestamp, m.getTimestamp());
+        assertEquals("Timestamp matches", Timestamps.parse(timestamp), m.getTimestamp());
         assertEquals("Temperature matches", expectedTemperature, m.getMetrics().get(Constants.TEMPERATURE), 0f);
         assertEquals("DewPoint matches", expectedDewPoint, m.getMetrics().get(Constants.DEW_POINT), 0f);
         assertEquals("Precipitation matches", expectedPrecipitation, m.getMetrics().get(Constants.PRECIPITATION), 0f);
@@ -129,11 +172,11 @@ public class MeasurementsControllerIT extends JerseyTest {
 
         final Collection<Measurement> actual = response.readEntity(new GenericType<List<Measurement>>() {});
         final Collection<Measurement> expected = measurements.stream()
-                .filter(m -> m.getTimestamp().startsWith(date))
+                .filter(m -> Timestamps.format(m.getTimestamp()).startsWith(date))
                 .collect(Collectors.toList());
 
         assertEquals("Resulting measurement count should be " + expected.size(), expected.size(), actual.size());
-        final Map<String, Measurement> actualAsMap = Maps.uniqueIndex(actual, Measurement::getTimestamp);
+        final Map<Long, Measurement> actualAsMap = Maps.uniqueIndex(actual, Measurement::getTimestamp);
         expected.forEach(e -> {
             final Map<String, Float> actualMetrics = actualAsMap.get(e.getTimestamp()).getMetrics();
             final Map<String, Float> expectedMetrics = e.getMetrics();
@@ -151,15 +194,105 @@ public class MeasurementsControllerIT extends JerseyTest {
         assertEquals("Status is 404", 404, response.getStatus());
     }
 
+    @Test
+    public void getMeasurement_existingDateAsNdjsonReturnsOneMeasurementPerLine() {
+        setupMeasurements1();
+        final Response response = target("measurements/2015-09-01").request(MeasurementsController.APPLICATION_NDJSON).get();
+        assertEquals("Status is 200", 200, response.getStatus());
+        assertEquals("Content type is NDJSON", MeasurementsController.APPLICATION_NDJSON, response.getMediaType().toString());
+
+        final String[] lines = response.readEntity(String.class).split("\n");
+        assertEquals("One line per measurement on the date", 5, lines.length);
+        assertEquals("Lines are in timestamp order",
+                "{\"timestamp\":\"2015-09-01T16:00:00.000Z\",\"metrics\":{\"temperature\":27.1,\"dewPoint\":16.7,\"precipitation\":0.0}}", lines[0]);
+    }
+
+    /**
+     * Get measurements in range tests.
+     */
+    @Test
+    public void getMeasurements_rangeReturnsMeasurementsFromInclusiveToExclusive() {
+        setupMeasurements1();
+        final Response response = target("measurements")
+                .queryParam("fromDateTime", "2015-09-01T16:10:00.000Z")
+                .queryParam("toDateTime", "2015-09-02T16:00:00.000Z")
+                .request().get();
+        assertEquals("Status is 200", 200, response.getStatus());
+
+        final List<Measurement> actual = response.readEntity(new GenericType<List<Measurement>>() {});
+        assertEquals("Four measurements in range", 4, actual.size());
+        assertEquals("First is the 'from' timestamp", Timestamps.parse("2015-09-01T16:10:00.000Z"), actual.get(0).getTimestamp());
+        assertEquals("Last is before the 'to' timestamp", Timestamps.parse("2015-09-01T16:40:00.000Z"), actual.get(3).getTimestamp());
+    }
+
+    @Test
+    public void getMeasurements_rangeWithoutMeasurementsReturnsEmptyArray() {
+        setupMeasurements1();
+        final Response response = target("measurements")
+                .queryParam("fromDateTime", "2015-09-03T00:00:00.000Z")
+                .queryParam("toDateTime", "2015-09-04T00:00:00.000Z")
+                .request().get();
+        assertEquals("Status is 200", 200, response.getStatus());
+        assertEquals("No measurements", 0, response.readEntity(new GenericType<List<Measurement>>() {}).size());
+    }
+
+    @Test
+    public void getMeasurements_rangeWithoutToDateTimeReturnsStatus400() {
+        final Response response = target("measurements")
+                .queryParam("fromDateTime", "2015-09-01T16:00:00.000Z")
+                .request().get();
+        assertEquals("Status is 400", 400, response.getStatus());
+    }
+
+    @Test
+    public void getMeasurementsPage_cursorWalksTheRangeOnePageAtATime() {
+        setupMeasurements1();
+        final MeasurementPage first = target("measurements/page")
+                .queryParam("fromDateTime", "2015-09-01T16:10:00.000Z")
+                .queryParam("toDateTime", "2015-09-02T16:00:00.000Z")
+                .queryParam("limit", 3)
+                .request().get(MeasurementPage.class);
+        assertEquals("First page is full", 3, first.getMeasurements().size());
+        assertEquals("First page starts at 'from'", Timestamps.parse("2015-09-01T16:10:00.000Z"), first.getMeasurements().get(0).getTimestamp());
+        assertNotNull("First page has a cursor", first.getNext());
+
+        final MeasurementPage second = target("measurements/page")
+                .queryParam("fromDateTime", "2015-09-01T16:10:00.000Z")
+                .queryParam("toDateTime", "2015-09-02T16:00:00.000Z")
+                .queryParam("limit", 3)
+                .queryParam("cursor", first.getNext())
+                .request().get(MeasurementPage.class);
+        assertEquals("Second page has the rest", 1, second.getMeasurements().size());
+        assertEquals("Second page continues after the first", Timestamps.parse("2015-09-01T16:40:00.000Z"), second.getMeasurements().get(0).getTimestamp());
+        assertNull("Last page has no cursor", second.getNext());
+    }
+
+    @Test
+    public void getMeasurementsPage_invalidLimitOrCursorReturnsStatus400() {
+        final Response badLimit = target("measurements/page")
+                .queryParam("fromDateTime", "2015-09-01T16:00:00.000Z")
+                .queryParam("toDateTime", "2015-09-02T16:00:00.000Z")
+                .queryParam("limit", 0)
+                .request().get();
+        assertEquals("Status is 400", 400, badLimit.getStatus());
+
+        final Response badCursor = target("measurements/page")
+                .queryParam("fromDateTime", "2015-09-01T16:00:00.000Z")
+                .queryParam("toDateTime", "2015-09-02T16:00:00.000Z")
+                .queryParam("cursor", "not-a-cursor")
+                .request().get();
+        assertEquals("Status is 400", 400, badCursor.getStatus());
+    }
+
     /**
      * Put measurement tests.
      */
     @Test
     public void putMeasurement_existingValidMeasurementReturnsCorrectStatusAndPreviousMeasurementCompletelyReplaced() {
-        final Map<String, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
+        final Map<Long, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
         final String timestamp = "2015-09-01T16:00:00.000Z";
 
-        final Map<String, Float> beforeMetrics = measurements.get(timestamp).getMetrics();
+        final Map<String, Float> beforeMetrics = measurements.get(Timestamps.parse(timestamp)).getMetrics();
         assertBeforeAfter("Before", "unmodified", timestamp, beforeMetrics);
 
         final float newTemp = beforeMetrics.get(Constants.TEMPERATURE);
@@ -173,10 +306,10 @@ public class MeasurementsControllerIT extends JerseyTest {
 
     @Test
     public void putMeasurement_existingInvalidMeasurementReturnsStatus400AndUnmodifiedMeasurement() {
-        final Map<String, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
+        final Map<Long, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
         final String timestamp = "2015-09-01T16:00:00.000Z";
 
-        final Map<String, Float> beforeMetrics = measurements.get(timestamp).getMetrics();
+        final Map<String, Float> beforeMetrics = measurements.get(Timestamps.parse(timestamp)).getMetrics();
         assertBeforeAfter("Before", "unmodified", timestamp, beforeMetrics);
 
         final String newTemp = "not a number";
@@ -193,10 +326,10 @@ public class MeasurementsControllerIT extends JerseyTest {
 
     @Test
     public void putMeasurement_mismatchTimestampWithMeasurementReturnsStatus409AndUnmodifiedMeasurement() {
-        final Map<String, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
+        final Map<Long, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
         final String timestamp = "2015-09-01T16:00:00.000Z";
 
-        final Map<String, Float> beforeMetrics = measurements.get(timestamp).getMetrics();
+        final Map<String, Float> beforeMetrics = measurements.get(Timestamps.parse(timestamp)).getMetrics();
         assertBeforeAfter("Before", "unmodified", timestamp, beforeMetrics);
 
         final String mismatchTimestamp = "2015-09-02T16:00:00.000Z";
@@ -226,10 +359,10 @@ public class MeasurementsControllerIT extends JerseyTest {
      */
     @Test
     public void patchMeasurement_existingValidMeasurementReturnsCorrectStatusAndPreviousMeasurementWithDeltaUpdate() {
-        final Map<String, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
+        final Map<Long, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
         final String timestamp = "2015-09-01T16:00:00.000Z";
 
-        final Map<String, Float> beforeMetrics = measurements.get(timestamp).getMetrics();
+        final Map<String, Float> beforeMetrics = measurements.get(Timestamps.parse(timestamp)).getMetrics();
         assertBeforeAfter("Before", "unmodified", timestamp, beforeMetrics);
 
         final float newPrecipitation = 12.3f;
@@ -242,10 +375,10 @@ public class MeasurementsControllerIT extends JerseyTest {
 
     @Test
     public void patchMeasurement_existingInvalidMeasurementReturnsStatus400AndUnmodifiedMeasurement() {
-        final Map<String, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
+        final Map<Long, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
         final String timestamp = "2015-09-01T16:00:00.000Z";
 
-        final Map<String, Float> beforeMetrics = measurements.get(timestamp).getMetrics();
+        final Map<String, Float> beforeMetrics = measurements.get(Timestamps.parse(timestamp)).getMetrics();
         assertBeforeAfter("Before", "unmodified", timestamp, beforeMetrics);
 
         final String newPrecipitation = "not a number";
@@ -258,10 +391,10 @@ public class MeasurementsControllerIT extends JerseyTest {
 
     @Test
     public void patchMeasurement_mismatchTimestampWithMeasurementReturnsStatus409AndUnmodifiedMeasurement() {
-        final Map<String, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
+        final Map<Long, Measurement> measurements = Maps.uniqueIndex(setupMeasurements2(), Measurement::getTimestamp);
         final String timestamp = "2015-09-01T16:00:00.000Z";
 
-        final Map<String, Float> beforeMetrics = measurements.get(timestamp).getMetrics();
+        final Map<String, Float> beforeMetrics = measurements.get(Timestamps.parse(timestamp)).getMetrics();
         assertBeforeAfter("Before", "unmodified", timestamp, beforeMetrics);
 
         final String mismatchTimestamp = "2015-09-02T16:00:00.000Z";
@@ -314,10 +447,10 @@ public class MeasurementsControllerIT extends JerseyTest {
 
         //Verify that no measurement has been deleted
         measurements.forEach(m -> {
-            final Response getUnmodified = target("measurements/" + m.getTimestamp()).request().get();
+            final Response getUnmodified = target("measurements/" + Timestamps.format(m.getTimestamp())).request().get();
             assertEquals("Status is 200", 200, getUnmodified.getStatus());
             assertNotNull("Non matching measurement still exists", getUnmodified.readEntity(Measurement.class));
-            assertBeforeAfter("DELETE", "unmodified", m.getTimestamp(), m.getMetrics());
+            assertBeforeAfter("DELETE", "unmodified", Timestamps.format(m.getTimestamp()), m.getMetrics());
 
         });
 
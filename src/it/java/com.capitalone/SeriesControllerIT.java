@@ -0,0 +1,99 @@
+package com.capitalone;
+
+import com.capitalone.controller.MeasurementsController;
+import com.capitalone.controller.SeriesController;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.Series;
+import com.capitalone.model.SeriesPoint;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.Test;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Integration test class covering the test cases for endpoint 'series'.
+ */
+public class SeriesControllerIT extends JerseyTest {
+    private static final String METRIC = "metric";
+    private static final String METHOD = "method";
+    private static final String POINTS = "points";
+    private static final String FROM_DATE_TIME = "fromDateTime";
+    private static final String TO_DATE_TIME = "toDateTime";
+
+    @Override
+    protected Application configure() {
+        return new ResourceConfig(MeasurementsController.class, SeriesController.class);
+    }
+
+    @Test
+    public void getSeries_averagePerBucket() {
+        setupMeasurements();
+        final Response response = target("series")
+                .queryParam(METRIC, Constants.TEMPERATURE)
+                .queryParam(METRIC, Constants.PRECIPITATION)
+                .queryParam(POINTS, 2)
+                .queryParam(FROM_DATE_TIME, "2015-10-01T16:00:00.000Z")
+                .queryParam(TO_DATE_TIME, "2015-10-01T17:00:00.000Z")
+                .request().get();
+        assertEquals("Status is 200", 200, response.getStatus());
+        final List<Series> series = response.readEntity(new GenericType<List<Series>>(){});
+        assertEquals("One series per metric", 2, series.size());
+        assertEquals("Average of each half hour", ImmutableList.of(
+                new SeriesPoint(Timestamps.parse("2015-10-01T16:00:00.000Z"), 27.3f),
+                new SeriesPoint(Timestamps.parse("2015-10-01T16:30:00.000Z"), 27.3f)), series.get(0).getPoints());
+        assertEquals("Unreported metric has no points", 0, series.get(1).getPoints().size());
+    }
+
+    @Test
+    public void getSeries_lttbKeepsTheFirstAndLastReadings() {
+        setupMeasurements();
+        final Response response = target("series")
+                .queryParam(METRIC, Constants.TEMPERATURE)
+                .queryParam(METHOD, "lttb")
+                .queryParam(POINTS, 3)
+                .queryParam(FROM_DATE_TIME, "2015-10-01T16:00:00.000Z")
+                .queryParam(TO_DATE_TIME, "2015-10-01T17:00:00.000Z")
+                .request().get();
+        assertEquals("Status is 200", 200, response.getStatus());
+        final List<SeriesPoint> points = response.readEntity(new GenericType<List<Series>>(){}).get(0).getPoints();
+        assertEquals("Three points", 3, points.size());
+        assertEquals("First reading", new SeriesPoint(Timestamps.parse("2015-10-01T16:00:00.000Z"), 27.1f), points.get(0));
+        assertEquals("Peak reading", new SeriesPoint(Timestamps.parse("2015-10-01T16:20:00.000Z"), 27.5f), points.get(1));
+        assertEquals("Last reading", new SeriesPoint(Timestamps.parse("2015-10-01T16:40:00.000Z"), 27.2f), points.get(2));
+    }
+
+    @Test
+    public void getSeries_unsupportedMethodReturnsStatus400() {
+        final Response response = target("series")
+                .queryParam(METRIC, Constants.TEMPERATURE)
+                .queryParam(METHOD, "median")
+                .queryParam(FROM_DATE_TIME, "2015-10-01T16:00:00.000Z")
+                .queryParam(TO_DATE_TIME, "2015-10-01T17:00:00.000Z")
+                .request().get();
+        assertEquals("Status is 400", 400, response.getStatus());
+    }
+
+    /**
+     * Helper methods.
+     */
+    private void setupMeasurements() {
+        final ImmutableList.Builder<Measurement> builder = ImmutableList.builder();
+        builder.add(new Measurement("2015-10-01T16:00:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 27.1f)));
+        builder.add(new Measurement("2015-10-01T16:10:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 27.3f)));
+        builder.add(new Measurement("2015-10-01T16:20:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 27.5f)));
+        builder.add(new Measurement("2015-10-01T16:30:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 27.4f)));
+        builder.add(new Measurement("2015-10-01T16:40:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 27.2f)));
+        builder.build().forEach(m -> target("measurements").request().post(Entity.json(m)));
+    }
+}
@@ -0,0 +1,114 @@
+package com.capitalone;
+
+import com.capitalone.controller.StationsController;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.Stat;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.Test;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Integration test class covering the test cases for endpoint 'stations'. Every test uses stations of its own, since
+ * the Store of a station outlives the test.
+ */
+public class StationsControllerIT extends JerseyTest {
+    private static final String TIMESTAMP = "2015-09-01T16:00:00.000Z";
+    private static final Map<String, Float> METRICS = ImmutableMap.of(Constants.TEMPERATURE, 27.1f, Constants.DEW_POINT, 16.7f);
+
+    /**
+     * Jersey test configuration setup
+     */
+    @Override
+    protected void configureClient(final ClientConfig config) {
+    }
+
+    @Override
+    protected Application configure() {
+        return new ResourceConfig(StationsController.class);
+    }
+
+    @Test
+    public void postMeasurement_isOnlyReturnedByItsStation() {
+        final Response response = target("stations/it-post-north/measurements").request().post(Entity.json(new Measurement(Timestamps.parse(TIMESTAMP), METRICS)));
+        assertEquals("Status is 201", 201, response.getStatus());
+        assertEquals("The redirect URI is under the station", "/stations/it-post-north/measurements/" + TIMESTAMP,
+                response.getLocation().toString().replaceFirst("http://localhost:\\d{4}", ""));
+
+        final Measurement m = target("stations/it-post-north/measurements/" + TIMESTAMP).request().get(Measurement.class);
+        assertEquals("Stamped with the station", "it-post-north", m.getStation());
+        assertEquals("Temperature matches", 27.1f, m.getMetrics().get(Constants.TEMPERATURE), 0f);
+        assertEquals("Other station", 404, target("stations/it-post-south/measurements/" + TIMESTAMP).request().get().getStatus());
+        assertTrue("Listed", target("stations").request().get(new GenericType<Set<String>>(){}).contains("it-post-north"));
+    }
+
+    @Test
+    public void postMeasurement_namingAnotherStationReturnsStatus409() {
+        final Response conflict = target("stations/it-conflict-north/measurements").request()
+                .post(Entity.json(new Measurement("it-conflict-south", Timestamps.parse(TIMESTAMP), METRICS)));
+        assertEquals("Status is 409", 409, conflict.getStatus());
+        assertEquals("Nothing is created", 404, target("stations/it-conflict-north/measurements/" + TIMESTAMP).request().get().getStatus());
+
+        final Response created = target("stations/it-conflict-north/measurements").request()
+                .post(Entity.json(new Measurement("it-conflict-north", Timestamps.parse(TIMESTAMP), METRICS)));
+        assertEquals("Naming the same station", 201, created.getStatus());
+        final Response put = target("stations/it-conflict-north/measurements/" + TIMESTAMP).request()
+                .put(Entity.json(new Measurement("it-conflict-south", Timestamps.parse(TIMESTAMP), METRICS)));
+        assertEquals("Status is 409", 409, put.getStatus());
+    }
+
+    @Test
+    public void getMeasurements_unknownStationIsEmptyAndNotCreated() {
+        assertEquals("Status is 404", 404, target("stations/it-typo/measurements/" + TIMESTAMP).request().get().getStatus());
+        assertEquals("No measurements on the date", 404, target("stations/it-typo/measurements/2015-09-01").request().get().getStatus());
+        final List<Stat> stats = target("stations/it-typo/stats")
+                .queryParam("stat", "count")
+                .queryParam("metric", Constants.TEMPERATURE)
+                .queryParam("fromDateTime", "2015-09-01T00:00:00.000Z")
+                .queryParam("toDateTime", "2015-09-02T00:00:00.000Z")
+                .request().get(new GenericType<List<Stat>>(){});
+        assertTrue("No stats", stats.isEmpty());
+        assertEquals("Status is 404", 404, target("stations/it-typo/measurements/" + TIMESTAMP).request().delete().getStatus());
+
+        assertFalse("Not listed", target("stations").request().get(new GenericType<Set<String>>(){}).contains("it-typo"));
+    }
+
+    @Test
+    public void invalidStationReturnsStatus400() {
+        assertEquals("Measurements", 400, target("stations/it.invalid/measurements/" + TIMESTAMP).request().get().getStatus());
+        assertEquals("Stats", 400, target("stations/it-valid,it.invalid/stats").queryParam("stat", "count").queryParam("metric", Constants.TEMPERATURE).request().get().getStatus());
+    }
+
+    @Test
+    public void getStats_overSeveralStations() {
+        target("stations/it-stats-east/measurements").request().post(Entity.json(new Measurement(Timestamps.parse(TIMESTAMP), METRICS)));
+        target("stations/it-stats-west/measurements").request().post(Entity.json(new Measurement(Timestamps.parse(TIMESTAMP), ImmutableMap.of(Constants.TEMPERATURE, 28.1f))));
+        final List<Stat> stats = target("stations/it-stats-east,it-stats-west/stats")
+                .queryParam("stat", "count")
+                .queryParam("stat", "max")
+                .queryParam("metric", Constants.TEMPERATURE)
+                .queryParam("fromDateTime", "2015-09-01T00:00:00.000Z")
+                .queryParam("toDateTime", "2015-09-02T00:00:00.000Z")
+                .request().get(new GenericType<List<Stat>>(){});
+        assertEquals("Two stat results", 2, stats.size());
+        final Map<String, Stat> actualStats = Maps.uniqueIndex(stats, s -> s.getMetric() + ":" + s.getStat());
+        assertEquals("Readings of both stations", 2, actualStats.get("temperature:count").getValue(), 0);
+        assertEquals("Max of both stations", 28.1f, (float) actualStats.get("temperature:max").getValue(), 0f);
+    }
+}
@@ -120,13 +120,43 @@ public class StatsControllerIT extends JerseyTest {
         verifyExpectedStats(actualStats, expectedValues);
     }
 
+    @Test
+    public void getStats_percentiles() {
+        setupMeasurements();
+        final Response response = target("stats")
+                .queryParam(STAT, "median")
+                .queryParam(STAT, "p95")
+                .queryParam(STAT, "p12.5")
+                .queryParam(METRIC, Constants.TEMPERATURE)
+                .queryParam(FROM_DATE_TIME, "2015-09-01T16:00:00.000Z")
+                .queryParam(TO_DATE_TIME, "2015-09-01T17:00:00.000Z")
+                .request().get();
+        final List<Stat> stats = response.readEntity(new GenericType<List<Stat>>(){});
+        assertEquals("Status is 200", 200, response.getStatus());
+        assertEquals("Three stat results", 3, stats.size());
+        assertEquals("Median", 27.3f, stats.get(0).getValue(), 0.00001f);
+        assertEquals("p95", 27.5f, stats.get(1).getValue(), 0.00001f);
+        assertEquals("Arbitrary percentile is returned as a quantile", 0.125, stats.get(2).getQuantile(), 0);
+    }
+
+    @Test
+    public void getStats_unsupportedPercentileReturnsStatus400() {
+        final Response response = target("stats")
+                .queryParam(STAT, "p100")
+                .queryParam(METRIC, Constants.TEMPERATURE)
+                .queryParam(FROM_DATE_TIME, "2015-09-01T16:00:00.000Z")
+                .queryParam(TO_DATE_TIME, "2015-09-01T17:00:00.000Z")
+                .request().get();
+        assertEquals("Status is 400", 400, response.getStatus());
+    }
+
     /**
      * Helper methods.
      */
     private void verifyExpectedStats(final Map<String, Stat> actualStats, final Map<String, Float> expectedValues) {
         expectedValues.entrySet().forEach(e -> {
             final String key = e.getKey();
-            final float actualValue = actualStats.get(key).getValue();
+            final float actualValue = (float) actualStats.get(key).getValue();
             final float expectedValue = e.getValue();
             assertEquals(String.format("%s should be %f", key, expectedValue), expectedValue, actualValue, 0f);
         });
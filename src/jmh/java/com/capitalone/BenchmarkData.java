@@ -0,0 +1,108 @@
+package com.capitalone;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.service.store.ColumnarMeasurementStore;
+import com.capitalone.service.store.ConcurrentInMemoryStore;
+import com.capitalone.service.store.IndexedMeasurementStore;
+import com.capitalone.service.store.MeasurementStores;
+import com.capitalone.service.store.RollupMeasurementStore;
+import com.capitalone.service.store.SortedInMemoryStore;
+import com.capitalone.service.store.Store;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates the Measurement's the benchmarks run against. Every benchmark uses the same fixed seed, so each run
+ * measures exactly the same data.
+ */
+public final class BenchmarkData {
+    public static final long START = Timestamps.parse("2015-01-01T00:00:00.000Z");
+    public static final long INTERVAL = Timestamps.MILLIS_PER_MINUTE;
+    public static final List<String> METRICS = ImmutableList.of(
+            Constants.TEMPERATURE, Constants.DEW_POINT, Constants.PRECIPITATION, "humidity", "windSpeed", "pressure");
+    public static final long SEED = 20150101L;
+
+    private static final int BATCH_SIZE = 10000;
+
+    private BenchmarkData() {}
+
+    /**
+     * @param row the row number, which sets the timestamp
+     * @param metricCount the number of metrics to report, taken from the start of METRICS
+     * @param random the source of the metric values
+     * @return a Measurement reported one INTERVAL after the previous row
+     */
+    public static Measurement measurement(final long row, final int metricCount, final Random random) {
+        final Map<String, Float> metrics = Maps.newHashMapWithExpectedSize(metricCount);
+        for (int i = 0; i < metricCount; i++)
+            metrics.put(METRICS.get(i), random.nextFloat() * 100);
+        return new Measurement(START + row * INTERVAL, metrics);
+    }
+
+    /**
+     * Creates an empty store of the type named as for {@value MeasurementStores#STORE_PROPERTY}.
+     * @param storeType the store type
+     * @return the empty store
+     */
+    public static Store<Long, Measurement> newStore(final String storeType) {
+        switch (storeType) {
+            case MeasurementStores.CONCURRENT:
+                return new ConcurrentInMemoryStore<>();
+            case MeasurementStores.SORTED:
+                final Store<Long, Measurement> sorted = SortedInMemoryStore.getInstance();
+                sorted.clear();
+                return sorted;
+            case MeasurementStores.COLUMNAR:
+                return new ColumnarMeasurementStore();
+            default:
+                throw new IllegalArgumentException("Unsupported store type: " + storeType);
+        }
+    }
+
+    /**
+     * Wraps a store with the index named as for {@value MeasurementStores#INDEX_PROPERTY}.
+     * @param store the store to wrap
+     * @param indexType the index type
+     * @return the indexed store
+     */
+    public static Store<Long, Measurement> indexed(final Store<Long, Measurement> store, final String indexType) {
+        switch (indexType) {
+            case MeasurementStores.TREE_INDEX:
+                return new IndexedMeasurementStore(store);
+            case MeasurementStores.ROLLUPS_INDEX:
+                return new RollupMeasurementStore(store);
+            case MeasurementStores.NO_INDEX:
+                return store;
+            default:
+                throw new IllegalArgumentException("Unsupported index type: " + indexType);
+        }
+    }
+
+    /**
+     * Fills the store with consecutive rows, starting at row 0.
+     * @param store the store to fill
+     * @param size the number of rows
+     * @param metricCount the number of metrics per row
+     * @return the store
+     */
+    public static Store<Long, Measurement> fill(final Store<Long, Measurement> store, final long size, final int metricCount) {
+        final Random random = new Random(SEED);
+        final Map<Long, Measurement> batch = Maps.newLinkedHashMapWithExpectedSize(BATCH_SIZE);
+        for (long row = 0; row < size; row++) {
+            final Measurement m = measurement(row, metricCount, random);
+            batch.put(m.getTimestamp(), m);
+            if (batch.size() == BATCH_SIZE) {
+                store.createAll(batch);
+                batch.clear();
+            }
+        }
+        store.createAll(batch);
+        return store;
+    }
+}
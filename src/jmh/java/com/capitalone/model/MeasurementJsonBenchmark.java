@@ -0,0 +1,88 @@
+package com.capitalone.model;
+
+import com.capitalone.BenchmarkData;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of Jackson serialization and deserialization of Measurement's, singly as for POST and GET by timestamp, and
+ * as a day of readings as for GET by date and batch ingest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MeasurementJsonBenchmark {
+    private static final int DAY = 24 * 60;
+
+    @Param({"1", "3", "6"})
+    public int metricCount;
+
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private ObjectWriter listWriter;
+    private ObjectReader listReader;
+    private Measurement measurement;
+    private List<Measurement> day;
+    private byte[] measurementJson;
+    private byte[] dayJson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final TypeReference<List<Measurement>> listType = new TypeReference<List<Measurement>>() {};
+        writer = mapper.writerFor(Measurement.class);
+        reader = mapper.reader(Measurement.class);
+        listWriter = mapper.writerFor(listType);
+        listReader = mapper.reader(listType);
+
+        final Random random = new Random(BenchmarkData.SEED);
+        day = Lists.newArrayListWithCapacity(DAY);
+        for (int row = 0; row < DAY; row++)
+            day.add(BenchmarkData.measurement(row, metricCount, random));
+        measurement = day.get(0);
+        measurementJson = writer.writeValueAsBytes(measurement);
+        dayJson = listWriter.writeValueAsBytes(day);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(measurement);
+    }
+
+    @Benchmark
+    public Measurement deserialize() throws IOException {
+        return reader.readValue(measurementJson);
+    }
+
+    @Benchmark
+    public byte[] serializeDay() throws IOException {
+        return listWriter.writeValueAsBytes(day);
+    }
+
+    @Benchmark
+    public List<Measurement> deserializeDay() throws IOException {
+        return listReader.readValue(dayJson);
+    }
+}
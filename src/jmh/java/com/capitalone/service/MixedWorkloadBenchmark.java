@@ -0,0 +1,88 @@
+package com.capitalone.service;
+
+import com.capitalone.BenchmarkData;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.Stat;
+import com.capitalone.model.StatType;
+import com.capitalone.service.store.MeasurementStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a dashboard-like mix of concurrent requests against one MeasurementsService: two threads computing
+ * day-long stats, one thread reading single readings and one thread rewriting existing readings.
+ *
+ * The writer updates rather than creates, so the store stays the same size for the whole run. JMH reports the
+ * throughput of each thread group as well as the total.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class MixedWorkloadBenchmark {
+    private static final int SIZE = 365 * 24 * 60;
+    private static final int RANGE_MINUTES = 24 * 60;
+    private static final List<String> METRICS = BenchmarkData.METRICS.subList(0, 3);
+    private static final List<StatType> STAT_TYPES = Arrays.asList(StatType.MIN, StatType.MAX, StatType.AVERAGE);
+
+    @Param({MeasurementStores.SORTED, MeasurementStores.CONCURRENT, MeasurementStores.COLUMNAR})
+    public String storeType;
+
+    @Param({MeasurementStores.NO_INDEX, MeasurementStores.TREE_INDEX})
+    public String indexType;
+
+    private MeasurementsService measurementsService;
+    private StatsService statsService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        measurementsService = new MeasurementsServiceImpl(BenchmarkData.indexed(
+                BenchmarkData.fill(BenchmarkData.newStore(storeType), SIZE, METRICS.size()), indexType));
+        statsService = new StatsServiceImpl(measurementsService);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public List<Stat> stats() {
+        final long from = timestamp(ThreadLocalRandom.current().nextInt(SIZE - RANGE_MINUTES));
+        return statsService.getStats(METRICS, STAT_TYPES, from, from + RANGE_MINUTES * BenchmarkData.INTERVAL);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Measurement retrieve() {
+        return measurementsService.retrieve(timestamp(ThreadLocalRandom.current().nextInt(SIZE)));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Measurement update() {
+        final int row = ThreadLocalRandom.current().nextInt(SIZE);
+        return measurementsService.updateWhole(BenchmarkData.measurement(row, METRICS.size(), ThreadLocalRandom.current()));
+    }
+
+    private static long timestamp(final long row) {
+        return BenchmarkData.START + row * BenchmarkData.INTERVAL;
+    }
+}
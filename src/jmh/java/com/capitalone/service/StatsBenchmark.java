@@ -0,0 +1,71 @@
+package com.capitalone.service;
+
+import com.capitalone.BenchmarkData;
+import com.capitalone.model.Stat;
+import com.capitalone.model.StatType;
+import com.capitalone.service.store.MeasurementStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of StatsServiceImpl.getStats over two years of one-minute readings, for ranges from an hour to a year and
+ * for each store and index type.
+ *
+ * Each invocation picks a random range that does not start on a minute boundary, so the indexes are measured with
+ * ragged edges as the /stats endpoint sees them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class StatsBenchmark {
+    private static final int SIZE = 2 * 365 * 24 * 60;
+    private static final List<StatType> STAT_TYPES = Arrays.asList(StatType.MIN, StatType.MAX, StatType.AVERAGE);
+
+    @Param({MeasurementStores.CONCURRENT, MeasurementStores.COLUMNAR})
+    public String storeType;
+
+    @Param({MeasurementStores.NO_INDEX, MeasurementStores.TREE_INDEX, MeasurementStores.ROLLUPS_INDEX})
+    public String indexType;
+
+    @Param({"60", "1440", "43200", "525600"})
+    public int rangeMinutes;
+
+    @Param({"1", "3", "6"})
+    public int metricCount;
+
+    private StatsService statsService;
+    private List<String> metrics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        statsService = new StatsServiceImpl(new MeasurementsServiceImpl(BenchmarkData.indexed(
+                BenchmarkData.fill(BenchmarkData.newStore(storeType), SIZE, BenchmarkData.METRICS.size()), indexType)));
+        metrics = BenchmarkData.METRICS.subList(0, metricCount);
+    }
+
+    @Benchmark
+    public List<Stat> getStats() {
+        final long from = BenchmarkData.START
+                + ThreadLocalRandom.current().nextInt(SIZE - rangeMinutes) * BenchmarkData.INTERVAL
+                + BenchmarkData.INTERVAL / 2;
+        return statsService.getStats(metrics, STAT_TYPES, from, from + rangeMinutes * BenchmarkData.INTERVAL);
+    }
+}
@@ -0,0 +1,95 @@
+package com.capitalone.service.store;
+
+import com.capitalone.BenchmarkData;
+import com.capitalone.model.Measurement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded latency of the basic Store operations at increasing store sizes.
+ *
+ * The create benchmarks delete what they create in the same invocation, so the store stays at the configured size
+ * for the whole run. 10^8 rows needs a much larger heap than the default fork is given; run it with
+ * -p size=100000000 -jvmArgsAppend -Xmx64g.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@org.openjdk.jmh.annotations.Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class StoreBenchmark {
+    @Param({MeasurementStores.SORTED, MeasurementStores.CONCURRENT, MeasurementStores.COLUMNAR})
+    public String storeType;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int size;
+
+    private Store<Long, Measurement> store;
+    private Measurement template;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = BenchmarkData.fill(BenchmarkData.newStore(storeType), size, 3);
+        template = BenchmarkData.measurement(0, 3, new Random(BenchmarkData.SEED));
+    }
+
+    @Benchmark
+    public Measurement retrieve() {
+        return store.retrieve(timestamp(ThreadLocalRandom.current().nextInt(size)));
+    }
+
+    @Benchmark
+    public Collection<Measurement> retrieveInRange(final Range range) {
+        final long from = timestamp(ThreadLocalRandom.current().nextInt(Math.max(size - range.rangeSize, 1)));
+        return store.retrieveInRange(from, true, from + range.rangeSize * BenchmarkData.INTERVAL, false);
+    }
+
+    /**
+     * Creates a reading half way between two existing ones, then deletes it again.
+     */
+    @Benchmark
+    public Measurement createInMiddleThenDelete() {
+        final long timestamp = timestamp(ThreadLocalRandom.current().nextInt(size)) + BenchmarkData.INTERVAL / 2;
+        store.create(new Measurement(timestamp, template.getMetrics()), timestamp);
+        return store.delete(timestamp);
+    }
+
+    /**
+     * Creates a reading after the newest one, as a station reporting live does, then deletes it again.
+     */
+    @Benchmark
+    public Measurement appendThenDelete() {
+        final long timestamp = timestamp(size);
+        store.create(new Measurement(timestamp, template.getMetrics()), timestamp);
+        return store.delete(timestamp);
+    }
+
+    private static long timestamp(final long row) {
+        return BenchmarkData.START + row * BenchmarkData.INTERVAL;
+    }
+
+    /**
+     * The number of readings in a range, a parameter of the range benchmarks only, so that the other benchmarks are
+     * not run once per range size.
+     */
+    @State(Scope.Benchmark)
+    public static class Range {
+        @Param({"100", "10000"})
+        public int rangeSize;
+    }
+}
@@ -1,5 +1,7 @@
 package com.capitalone;
 
+import com.capitalone.service.ingest.IngestListener;
+import com.capitalone.service.replication.Replication;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
@@ -8,6 +10,8 @@ import org.glassfish.jersey.server.ServerProperties;
 import org.glassfish.jersey.servlet.ServletContainer;
 
 public class AppServer {
+	public static final String PORT_PROPERTY = "server.port";
+	public static final int DEFAULT_PORT = 2222;
 
 	public static void main(String[] args) {
 		ResourceConfig config = new ResourceConfig();
@@ -15,13 +19,19 @@ public class AppServer {
 		//Allows bean validation error information to be sent to client
 		config.property(ServerProperties.BV_SEND_ERROR_IN_RESPONSE, true);
 		ServletHolder servlet = new ServletHolder(new ServletContainer(config));
+		//Slow queries are answered from the QueryExecutor's threads, after the request thread has been let go
+		servlet.setAsyncSupported(true);
 
-		Server server = new Server(2222);
+		Server server = new Server(Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT));
 		String pathSpec = "/*";
 		ServletContextHandler context = new ServletContextHandler(server, pathSpec);
 		context.addServlet(servlet, pathSpec);
 
 		try {
+			//A replica starts applying the primary's mutations before it serves reads
+			Replication.getInstance().start();
+			//Readings can also arrive over plain TCP and UDP, if the ingest ports are set
+			IngestListener.start();
 			server.start();
 			server.join();
 
@@ -0,0 +1,197 @@
+package com.capitalone.controller;
+
+
+import com.capitalone.controller.httpm.PATCH;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.exception.client.BadRequestException;
+import com.capitalone.exception.client.NotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricSketch;
+import com.capitalone.model.MetricTotals;
+import com.capitalone.service.MeasurementsService;
+import com.capitalone.service.MeasurementsServiceImpl;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.QuantileSketch;
+import com.capitalone.service.store.MeasurementStores;
+import com.capitalone.util.Stations;
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A controller class that is responsible for the routes the nodes of a cluster call on each other, under the end
+ * point 'cluster'. They only work on the Store's of this node, whichever node the Measurement's belong to, so they
+ * are not meant for clients. Timestamps are in epoch milliseconds.
+ *
+ * Stats are returned as the running totals and the quantile sketch centroids of each metric with readings in the
+ * range, for the calling node to merge with those of the other nodes.
+ */
+@Slf4j
+@Path("/cluster")
+public class ClusterController {
+
+    /**
+     * Returns the ids of the stations with measurements on this node.
+     */
+    @GET
+    @Path("/stations")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Set<String> getStations() {
+        return MeasurementStores.stations();
+    }
+
+    /**
+     * Creates the measurements and returns the timestamps of those that already exist.
+     */
+    @POST
+    @Path("/{station}/measurements")
+    @Consumes({MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    public Collection<Long> postMeasurements(
+            @PathParam("station") final String station,
+            @NotNull(message = "Measurements cannot be null.") final List<Measurement> measurements
+    ) {
+        if (log.isDebugEnabled())
+            log.debug("Creating batch of {} measurements of station {} for the cluster", measurements.size(), station);
+        return service(station).createAll(measurements);
+    }
+
+    /**
+     * Returns the measurements in a range, at most limit of them unless the limit is 0.
+     */
+    @GET
+    @Path("/{station}/measurements")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Collection<Measurement> getMeasurements(
+            @PathParam("station") final String station,
+            @QueryParam("from") final long fromTimestamp,
+            @QueryParam("to") final long toTimestamp,
+            @DefaultValue("0") @QueryParam("limit") final int limit
+    ) {
+        final MeasurementsService measurementsService = service(station);
+        return limit > 0 ? measurementsService.retrieveAll(fromTimestamp, toTimestamp, limit) : measurementsService.retrieveAll(fromTimestamp, toTimestamp);
+    }
+
+    @GET
+    @Path("/{station}/measurements/{timestamp : -?\\d+}")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Measurement getMeasurement(@PathParam("station") final String station, @PathParam("timestamp") final long timestamp) {
+        try {
+            return service(station).retrieve(timestamp);
+        } catch (EntityNotFoundException e) {
+            throw new NotFoundException("Could not retrieve. Measurement not found with timestamp: " + timestamp, e);
+        }
+    }
+
+    @PUT
+    @Path("/{station}/measurements/{timestamp : -?\\d+}")
+    @Consumes({MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    public Measurement putMeasurement(
+            @PathParam("station") final String station,
+            @PathParam("timestamp") final long timestamp,
+            @NotNull(message = "Measurement cannot be null.") final Measurement m
+    ) {
+        checkTimestamp(timestamp, m);
+        try {
+            return service(station).updateWhole(m);
+        } catch (EntityNotFoundException e) {
+            throw new NotFoundException("Cannot update. Measurement not found with timestamp: " + timestamp, e);
+        }
+    }
+
+    @PATCH
+    @Path("/{station}/measurements/{timestamp : -?\\d+}")
+    @Consumes({MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    public Measurement patchMeasurement(
+            @PathParam("station") final String station,
+            @PathParam("timestamp") final long timestamp,
+            @NotNull(message = "Measurement cannot be null.") final Measurement m
+    ) {
+        checkTimestamp(timestamp, m);
+        try {
+            return service(station).updatePartial(m);
+        } catch (EntityNotFoundException e) {
+            throw new NotFoundException("Cannot update. Measurement not found with timestamp: " + timestamp, e);
+        }
+    }
+
+    @DELETE
+    @Path("/{station}/measurements/{timestamp : -?\\d+}")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Measurement deleteMeasurement(@PathParam("station") final String station, @PathParam("timestamp") final long timestamp) {
+        try {
+            return service(station).delete(timestamp);
+        } catch (EntityNotFoundException e) {
+            throw new NotFoundException("Could not delete. Measurement not found with timestamp: " + timestamp, e);
+        }
+    }
+
+    /**
+     * Returns the running totals of each metric with readings in the range.
+     */
+    @GET
+    @Path("/{station}/totals")
+    @Produces({MediaType.APPLICATION_JSON})
+    public List<MetricTotals> getTotals(
+            @PathParam("station") final String station,
+            @QueryParam("metric") final List<String> metrics,
+            @QueryParam("from") final long fromTimestamp,
+            @QueryParam("to") final long toTimestamp
+    ) {
+        final ImmutableList.Builder<MetricTotals> totals = ImmutableList.builder();
+        for (final Map.Entry<String, MetricAccumulator> entry : service(station).aggregate(metrics, fromTimestamp, toTimestamp).entrySet()) {
+            final MetricAccumulator accumulator = entry.getValue();
+            if (!accumulator.isEmpty())
+                totals.add(new MetricTotals(entry.getKey(), accumulator.getCount(), accumulator.getSum(), accumulator.getM2(), accumulator.getMin(), accumulator.getMax()));
+        }
+        return totals.build();
+    }
+
+    /**
+     * Returns the quantile sketch of each metric with readings in the range.
+     */
+    @GET
+    @Path("/{station}/sketches")
+    @Produces({MediaType.APPLICATION_JSON})
+    public List<MetricSketch> getSketches(
+            @PathParam("station") final String station,
+            @QueryParam("metric") final List<String> metrics,
+            @QueryParam("from") final long fromTimestamp,
+            @QueryParam("to") final long toTimestamp
+    ) {
+        final ImmutableList.Builder<MetricSketch> sketches = ImmutableList.builder();
+        for (final Map.Entry<String, QuantileSketch> entry : service(station).sketch(metrics, fromTimestamp, toTimestamp).entrySet()) {
+            final QuantileSketch sketch = entry.getValue();
+            if (!sketch.isEmpty())
+                sketches.add(new MetricSketch(entry.getKey(), sketch.getMin(), sketch.getMax(), sketch.getMeans(), sketch.getWeights()));
+        }
+        return sketches.build();
+    }
+
+    /**
+     * @return the service over this node's Store for the station
+     * @throws BadRequestException if the station id is not well formed
+     */
+    private static MeasurementsService service(final String station) {
+        try {
+            return new MeasurementsServiceImpl(Stations.check(station));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+    }
+
+    private static void checkTimestamp(final long timestamp, final Measurement m) {
+        if (timestamp != m.getTimestamp())
+            throw new BadRequestException("Timestamp mismatch. Timestamp param (" + timestamp + ") should match Measurement.timestamp (" + m.getTimestamp() + ").");
+    }
+}
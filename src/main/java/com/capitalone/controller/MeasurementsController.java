@@ -1,40 +1,93 @@
 package com.capitalone.controller;
 
 
+import com.capitalone.controller.async.QueryExecutor;
 import com.capitalone.controller.httpm.PATCH;
+import com.capitalone.controller.param.CursorParam;
+import com.capitalone.controller.param.FromToDateTimeParam;
 import com.capitalone.exception.EntityExistsException;
 import com.capitalone.exception.EntityNotFoundException;
 import com.capitalone.exception.client.BadRequestException;
 import com.capitalone.exception.client.ConflictException;
 import com.capitalone.exception.client.NotFoundException;
+import com.capitalone.model.BatchResult;
 import com.capitalone.model.Measurement;
+import com.capitalone.model.MeasurementPage;
 import com.capitalone.service.MeasurementsService;
-import com.capitalone.service.MeasurementsServiceImpl;
+import com.capitalone.service.cluster.Cluster;
+import com.capitalone.util.Stations;
+import com.capitalone.util.Timestamps;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * A controller class that is responsible for setting up and handling the routes
  * belonging to 'measurements'.
+ *
+ * The routes at /measurements belong to the default station. StationsController hands the routes at
+ * /stations/{station}/measurements to another instance for each station. A Measurement sent to a station's routes
+ * may leave out its station, or must name that station.
+ *
+ * The measurements of a date or a range are read by the QueryExecutor rather than on the request thread, within the
+ * limit and timeout of its {@value QueryExecutor#MEASUREMENTS} endpoint, so that large scans cannot hold up the
+ * requests for one timestamp.
  */
 @Slf4j
 @Path("/measurements")
 public class MeasurementsController {
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+    //NDJSON is only returned when asked for; a client accepting anything gets a JSON array
+    private static final String APPLICATION_NDJSON_LOW_QUALITY = APPLICATION_NDJSON + ";qs=0.5";
+    private static final int MAX_PAGE_LIMIT = 1000;
+    private static final String PAGE_LIMIT_MESSAGE = "limit must be between 1 and " + MAX_PAGE_LIMIT + ".";
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    private static final ObjectReader MEASUREMENT_READER = MAPPER.reader(Measurement.class);
+    private static final ObjectWriter MEASUREMENT_WRITER = MAPPER.writerFor(Measurement.class);
+
+    private final String station;
     private final MeasurementsService measurementsService;
 
     public MeasurementsController() {
-        this(new MeasurementsServiceImpl());
+        this(Cluster.getInstance().measurementsService(Stations.DEFAULT));
     }
 
     public MeasurementsController(final MeasurementsService measurementsService) {
+        this(Stations.DEFAULT, measurementsService);
+    }
+
+    /**
+     * @param station the id of the station the routes belong to
+     * @param measurementsService the service working on the station's Measurement's
+     */
+    public MeasurementsController(final String station, final MeasurementsService measurementsService) {
+        this.station = station;
         this.measurementsService = measurementsService;
     }
 
@@ -44,17 +97,48 @@ public class MeasurementsController {
             @NotNull(message = "Measurement cannot be null.")
             @Valid final Measurement m
     ) throws URISyntaxException {
+		checkStation(m);
 		try {
             log.info("Creating new measurement: {}", m);
             measurementsService.create(m);
             log.info("Done: Creating new measurement: {}", m);
-            return Response.temporaryRedirect(new URI("measurements/" + m.getTimestamp())).status(Response.Status.CREATED).build();
+            final String path = Stations.DEFAULT.equals(station) ? "measurements/" : "stations/" + station + "/measurements/";
+            return Response.temporaryRedirect(new URI(path + Timestamps.format(m.getTimestamp()))).status(Response.Status.CREATED).build();
         } catch (EntityExistsException e) {
             //Wrap EntityExistsException inside a 400 BAD_REQUEST exception so that it can be handled correctly by server
-            throw new BadRequestException("Cannot create. Measurement already exists with timestamp: " + m.getTimestamp(), e);
+            throw new BadRequestException("Cannot create. Measurement already exists with timestamp: " + Timestamps.format(m.getTimestamp()), e);
         }
 	}
 
+    @POST
+    @Path("/batch")
+    @Consumes({MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    public BatchResult postMeasurements(
+            @NotNull(message = "Measurements cannot be null.")
+            @Valid final List<Measurement> measurements
+    ) {
+        return createAll(measurements);
+    }
+
+    @POST
+    @Path("/batch")
+    @Consumes({APPLICATION_NDJSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    public BatchResult postMeasurementsStream(final InputStream body) {
+        final List<Measurement> measurements = Lists.newArrayList();
+        try (final MappingIterator<Measurement> iterator = MEASUREMENT_READER.readValues(body)) {
+            while (iterator.hasNextValue())
+                measurements.add(iterator.nextValue());
+        } catch (JsonProcessingException e) {
+            //Wrap the parse failure inside a 400 BAD_REQUEST exception, nothing from the batch is created
+            throw new BadRequestException(String.format("Invalid measurement at item %d: %s", measurements.size() + 1, e.getOriginalMessage()), e);
+        } catch (IOException e) {
+            throw new BadRequestException("Could not read measurements: " + e.getMessage(), e);
+        }
+        return createAll(measurements);
+    }
+
 	@GET
 	@Path("/{timestamp : \\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}.\\d{3}Z}")
     @Produces({MediaType.APPLICATION_JSON})
@@ -62,7 +146,7 @@ public class MeasurementsController {
         log.info("Get measurement with timestamp: {}", timestamp);
         final Measurement m;
         try {
-            m = measurementsService.retrieve(timestamp);
+            m = measurementsService.retrieve(toEpochMillis(timestamp));
             log.info("Done: Get measurement with timestamp: {} - {}", timestamp, m);
         } catch (EntityNotFoundException e) {
             //Wrap EntityNotFoundException inside a 404 NOT_FOUND exception so that it can be handled correctly by server
@@ -75,17 +159,72 @@ public class MeasurementsController {
 	@GET
 	@Path("/{date : \\d{4}-\\d{2}-\\d{2}}")
     @Produces({MediaType.APPLICATION_JSON})
-    public Collection<Measurement> getMeasurementsOnDate(@PathParam("date") final String date) {
-        log.info("Get all measurements with date: {}", date);
-        final Collection<Measurement> retrieveResult = measurementsService.retrieveAll(date);
+    public void getMeasurementsOnDate(@Suspended final AsyncResponse response, @PathParam("date") final String date) {
+        query(response, () -> Response.ok(jsonArray(measurementsOnDate(date))).build());
+	}
 
-        //If no result then throw the NotFoundException to flag this as a status code 404 - NOT_FOUND
-        if (retrieveResult == null || retrieveResult.isEmpty())
-            throw new NotFoundException("No measurements found for date: " + date);
+    @GET
+    @Path("/{date : \\d{4}-\\d{2}-\\d{2}}")
+    @Produces({APPLICATION_NDJSON_LOW_QUALITY})
+    public void getMeasurementsOnDateStream(@Suspended final AsyncResponse response, @PathParam("date") final String date) {
+        query(response, () -> Response.ok(ndjson(measurementsOnDate(date)), APPLICATION_NDJSON).build());
+    }
 
-        log.info("Done: Get all measurements with date: {}", date);
-        return retrieveResult;
-	}
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public void getMeasurementsInRange(
+            @Suspended final AsyncResponse response,
+            @NotNull(message = "Both fromDateTime and toDateTime must be specified.")
+            @Valid @QueryParam("fromDateTime") final FromToDateTimeParam fromDateTime,
+            @NotNull(message = "Both fromDateTime and toDateTime must be specified.")
+            @Valid @QueryParam("toDateTime") final FromToDateTimeParam toDateTime
+    ) {
+        query(response, () -> Response.ok(jsonArray(measurementsInRange(fromDateTime, toDateTime))).build());
+    }
+
+    @GET
+    @Produces({APPLICATION_NDJSON_LOW_QUALITY})
+    public void getMeasurementsInRangeStream(
+            @Suspended final AsyncResponse response,
+            @NotNull(message = "Both fromDateTime and toDateTime must be specified.")
+            @Valid @QueryParam("fromDateTime") final FromToDateTimeParam fromDateTime,
+            @NotNull(message = "Both fromDateTime and toDateTime must be specified.")
+            @Valid @QueryParam("toDateTime") final FromToDateTimeParam toDateTime
+    ) {
+        query(response, () -> Response.ok(ndjson(measurementsInRange(fromDateTime, toDateTime)), APPLICATION_NDJSON).build());
+    }
+
+    @GET
+    @Path("/page")
+    @Produces({MediaType.APPLICATION_JSON})
+    public MeasurementPage getMeasurementsPage(
+            @NotNull(message = "Both fromDateTime and toDateTime must be specified.")
+            @Valid @QueryParam("fromDateTime") final FromToDateTimeParam fromDateTime,
+            @NotNull(message = "Both fromDateTime and toDateTime must be specified.")
+            @Valid @QueryParam("toDateTime") final FromToDateTimeParam toDateTime,
+            @Min(value = 1, message = PAGE_LIMIT_MESSAGE)
+            @Max(value = MAX_PAGE_LIMIT, message = PAGE_LIMIT_MESSAGE)
+            @DefaultValue("100") @QueryParam("limit") final int limit,
+            @QueryParam("cursor") final CursorParam cursor
+    ) {
+        log.info("Get page of {} measurements from {} until {} after {}", limit, fromDateTime, toDateTime, cursor);
+        final long from = fromDateTime.toEpochMillis();
+        final long to = toDateTime.toEpochMillis();
+        //One more measurement than the limit is read to tell whether there is a next page
+        final Collection<Measurement> measurements;
+        if (cursor == null) {
+            measurements = measurementsService.retrieveAll(from, to, limit + 1);
+        } else {
+            //A cursor from before the range cannot skip measurements that are in it
+            final long after = cursor.afterTimestamp();
+            measurements = after < from ? measurementsService.retrieveAll(from, to, limit + 1) : measurementsService.retrieveAfter(after, to, limit + 1);
+        }
+
+        final List<Measurement> page = ImmutableList.copyOf(Iterables.limit(measurements, limit));
+        final String next = measurements.size() > limit ? CursorParam.after(page.get(limit - 1).getTimestamp()) : null;
+        log.info("Done: Get page of {} measurements from {} until {} after {}. Next: {}", page.size(), fromDateTime, toDateTime, cursor, next);
+        return new MeasurementPage(page, next);
+    }
 
 	@PUT
     @Path("/{timestamp : \\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}.\\d{3}Z}")
@@ -96,8 +235,9 @@ public class MeasurementsController {
     ) {
         log.info("Put measurement with timestamp: {} and measurement: {}", timestamp, m);
         //Check if timestamp param and Measurement object timestamp are equal otherwise throw appropriate WebApplicationException
-        if (!timestamp.equals(m.getTimestamp()))
-            throw new ConflictException(String.format("Timestamp mismatch. Timestamp param (%s) should match Measurement.timestamp (%s).", timestamp, m.getTimestamp()));
+        if (toEpochMillis(timestamp) != m.getTimestamp())
+            throw new ConflictException(String.format("Timestamp mismatch. Timestamp param (%s) should match Measurement.timestamp (%s).", timestamp, Timestamps.format(m.getTimestamp())));
+        checkStation(m);
 
         try {
             //Try to perform the put operation
@@ -117,9 +257,10 @@ public class MeasurementsController {
     ) {
         log.info("Patch measurement with timestamp: {} and measurement-delta: {}", timestamp, m);
         //Check if timestamp param and Measurement object timestamp are equal...
-        if (!timestamp.equals(m.getTimestamp()))
+        if (toEpochMillis(timestamp) != m.getTimestamp())
             //...otherwise throw ConflictException
-            throw new ConflictException("Timestamp mismatch. Timestamp param ("+timestamp+") should match Measurement.timestamp ("+m.getTimestamp()+").");
+            throw new ConflictException("Timestamp mismatch. Timestamp param ("+timestamp+") should match Measurement.timestamp ("+Timestamps.format(m.getTimestamp())+").");
+        checkStation(m);
 
         try {
             //Try to perform the patch operation
@@ -137,11 +278,127 @@ public class MeasurementsController {
         log.info("Delete measurement with timestamp: {}", timestamp);
         try {
             //Try to perform the delete operation
-            final Measurement deleteResult = measurementsService.delete(timestamp);
+            final Measurement deleteResult = measurementsService.delete(toEpochMillis(timestamp));
             log.info("Done: Delete measurement with timestamp: {}, {}", timestamp, deleteResult);
         } catch (final EntityNotFoundException e) {
             //Wrap EntityNotFoundException inside a 404 NOT_FOUND exception so that it can be handled correctly by server
             throw new NotFoundException("Could not delete. Measurement not found with timestamp: " + timestamp, e);
         }
 	}
+
+    /**
+     * Creates a batch of measurements. Measurements that already exist are reported back instead of failing the batch.
+     * @param measurements the measurements to create
+     * @return the number of measurements created and the timestamps of those that conflict
+     */
+    private BatchResult createAll(final List<Measurement> measurements) {
+        for (final Measurement m : measurements)
+            checkStation(m);
+        log.info("Creating batch of {} measurements", measurements.size());
+        final Collection<Long> conflicts = measurementsService.createAll(measurements);
+        log.info("Done: Creating batch of {} measurements. Conflicts: {}", measurements.size(), conflicts.size());
+        return new BatchResult(measurements.size() - conflicts.size(), conflicts);
+    }
+
+    /**
+     * Checks that a Measurement sent to the routes of a station leaves out its station or names that station.
+     * @param m the Measurement
+     * @throws ConflictException if the Measurement names another station
+     */
+    private void checkStation(final Measurement m) {
+        if (!Stations.DEFAULT.equals(m.getStation()) && !station.equals(m.getStation()))
+            throw new ConflictException(String.format("Station mismatch. Measurement.station (%s) should match the station (%s).", m.getStation(), station));
+    }
+
+    /**
+     * Runs a scan of the measurements on the QueryExecutor, which writes the response as the scan goes.
+     * @param response the suspended response of the request
+     * @param query the scan, returning the Response to write
+     */
+    private static void query(final AsyncResponse response, final Supplier<Response> query) {
+        QueryExecutor.getInstance().submit(QueryExecutor.MEASUREMENTS, response, query);
+    }
+
+    /**
+     * Starts iterating over the measurements on a date.
+     * @param date the date path param, already matched against the date pattern
+     * @return an iterator with at least one measurement
+     * @throws BadRequestException if the date is not a real date e.g. 2015-02-30
+     * @throws NotFoundException if there are no measurements on the date
+     */
+    private Iterator<Measurement> measurementsOnDate(final String date) {
+        log.info("Get all measurements with date: {}", date);
+        final long from;
+        try {
+            from = Timestamps.parseDate(date);
+        } catch (IllegalArgumentException e) {
+            //The date matched the path pattern but is not a real date e.g. 2015-02-30
+            throw new BadRequestException(e.getMessage(), e);
+        }
+
+        //Only the first page is read here, the rest is read while the response is written
+        final Iterator<Measurement> measurements = measurementsService.iterateAll(from, from + Timestamps.MILLIS_PER_DAY);
+        //If no result then throw the NotFoundException to flag this as a status code 404 - NOT_FOUND
+        if (!measurements.hasNext())
+            throw new NotFoundException("No measurements found for date: " + date);
+        return measurements;
+    }
+
+    /**
+     * Starts iterating over the measurements in a range.
+     * @param fromDateTime the inclusive 'from' date-time
+     * @param toDateTime the exclusive 'to' date-time
+     * @return an iterator over the measurements, which may be empty
+     */
+    private Iterator<Measurement> measurementsInRange(final FromToDateTimeParam fromDateTime, final FromToDateTimeParam toDateTime) {
+        log.info("Get all measurements from {} until {}", fromDateTime, toDateTime);
+        return measurementsService.iterateAll(fromDateTime.toEpochMillis(), toDateTime.toEpochMillis());
+    }
+
+    /**
+     * Writes the measurements as a single JSON array, one measurement at a time as they are read from the store.
+     * @param measurements the measurements to write
+     * @return the response entity
+     */
+    private static StreamingOutput jsonArray(final Iterator<Measurement> measurements) {
+        return output -> {
+            try (final JsonGenerator generator = MAPPER.getFactory().createGenerator(output)) {
+                generator.writeStartArray();
+                while (measurements.hasNext())
+                    MEASUREMENT_WRITER.writeValue(generator, measurements.next());
+                generator.writeEndArray();
+            }
+        };
+    }
+
+    /**
+     * Writes the measurements as newline delimited JSON, one measurement at a time as they are read from the store.
+     * @param measurements the measurements to write
+     * @return the response entity
+     */
+    private static StreamingOutput ndjson(final Iterator<Measurement> measurements) {
+        return output -> {
+            try (final JsonGenerator generator = MAPPER.getFactory().createGenerator(output)) {
+                generator.setRootValueSeparator(null);
+                while (measurements.hasNext()) {
+                    MEASUREMENT_WRITER.writeValue(generator, measurements.next());
+                    generator.writeRaw('\n');
+                }
+            }
+        };
+    }
+
+    /**
+     * Parses a timestamp path param into epoch milliseconds.
+     * @param timestamp the timestamp path param, already matched against the UTC pattern
+     * @return the epoch milliseconds
+     * @throws BadRequestException if the timestamp is not a valid date-time e.g. 2015-02-30T16:00:00.000Z
+     */
+    private static long toEpochMillis(final String timestamp) {
+        try {
+            return Timestamps.parse(timestamp);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+    }
 }
@@ -0,0 +1,124 @@
+package com.capitalone.controller;
+
+
+import com.capitalone.exception.client.GoneException;
+import com.capitalone.exception.client.NotFoundException;
+import com.capitalone.exception.client.ServiceUnavailableException;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MutationBatch;
+import com.capitalone.model.ReplicationStatus;
+import com.capitalone.service.MeasurementsServiceImpl;
+import com.capitalone.service.replication.Replication;
+import com.capitalone.service.replication.ReplicationLog;
+import com.capitalone.service.store.MeasurementStores;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.Iterator;
+import java.util.Set;
+
+
+/**
+ * A controller class that is responsible for the routes of replication, under the end point 'replication'.
+ *
+ * /replication/status reports the role of this process and, on a replica, how far behind the primary it is. The
+ * other routes are only served by a primary, for its replicas to read: /replication/log returns the mutations after
+ * a sequence, and /replication/snapshot every Measurement of every station as newline delimited JSON, with the epoch
+ * and the sequence of the latest mutation before the copy was taken in the {@value Replication#EPOCH_HEADER} and
+ * {@value Replication#SEQUENCE_HEADER} headers.
+ */
+@Slf4j
+@Path("/replication")
+public class ReplicationController {
+    private static final int MAX_LIMIT = 10_000;
+    private static final long MAX_WAIT_MILLIS = 30_000;
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    private static final ObjectWriter MEASUREMENT_WRITER = MAPPER.writerFor(Measurement.class);
+
+    @GET
+    @Path("/status")
+    @Produces({MediaType.APPLICATION_JSON})
+    public ReplicationStatus getStatus() {
+        return Replication.getInstance().status();
+    }
+
+    /**
+     * Returns the mutations after a sequence, waiting up to wait milliseconds for one if there are none yet.
+     * @throws GoneException if the epoch is not the current one, or the log no longer holds the mutations
+     */
+    @GET
+    @Path("/log")
+    @Produces({MediaType.APPLICATION_JSON})
+    public MutationBatch getLog(
+            @QueryParam("epoch") final String epoch,
+            @QueryParam("after") final long after,
+            @Min(value = 1, message = "limit must be between 1 and " + MAX_LIMIT + ".")
+            @Max(value = MAX_LIMIT, message = "limit must be between 1 and " + MAX_LIMIT + ".")
+            @DefaultValue("1000") @QueryParam("limit") final int limit,
+            @Min(value = 0, message = "wait must be between 0 and " + MAX_WAIT_MILLIS + ".")
+            @Max(value = MAX_WAIT_MILLIS, message = "wait must be between 0 and " + MAX_WAIT_MILLIS + ".")
+            @DefaultValue("0") @QueryParam("wait") final long waitMillis
+    ) {
+        final ReplicationLog replicationLog = primaryLog();
+        if (epoch != null && !epoch.equals(replicationLog.getEpoch()))
+            throw new GoneException("Replication epoch " + epoch + " has ended, the current one is " + replicationLog.getEpoch());
+        final MutationBatch batch;
+        try {
+            batch = replicationLog.read(after, limit, waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted while waiting for mutations", e);
+        }
+        if (batch == null)
+            throw new GoneException("The replication log no longer holds the mutations after sequence " + after);
+        return batch;
+    }
+
+    @GET
+    @Path("/snapshot")
+    @Produces({MeasurementsController.APPLICATION_NDJSON})
+    public Response getSnapshot() {
+        final ReplicationLog replicationLog = primaryLog();
+        //Every mutation up to this sequence is already in the stores, so the copy holds it
+        final long sequence = replicationLog.head();
+        final Set<String> stations = MeasurementStores.stations();
+        log.info("Copying the stores of {} stations for a replica at sequence {}", stations.size(), sequence);
+        final StreamingOutput snapshot = output -> {
+            try (final JsonGenerator generator = MAPPER.getFactory().createGenerator(output)) {
+                generator.setRootValueSeparator(null);
+                for (final String station : stations) {
+                    final Iterator<Measurement> measurements = new MeasurementsServiceImpl(station).iterateAll(Long.MIN_VALUE, Long.MAX_VALUE);
+                    while (measurements.hasNext()) {
+                        MEASUREMENT_WRITER.writeValue(generator, measurements.next());
+                        generator.writeRaw('\n');
+                    }
+                }
+            }
+        };
+        return Response.ok(snapshot, MeasurementsController.APPLICATION_NDJSON)
+                .header(Replication.EPOCH_HEADER, replicationLog.getEpoch())
+                .header(Replication.SEQUENCE_HEADER, sequence)
+                .build();
+    }
+
+    /**
+     * @throws NotFoundException if this process is not a primary
+     */
+    private static ReplicationLog primaryLog() {
+        if (!Replication.getInstance().isPrimary())
+            throw new NotFoundException("This process is not a replication primary");
+        return Replication.getInstance().getLog();
+    }
+}
@@ -0,0 +1,70 @@
+package com.capitalone.controller;
+
+
+import com.capitalone.controller.param.FromToDateTimeParam;
+import com.capitalone.exception.client.BadRequestException;
+import com.capitalone.model.DownsampleMethod;
+import com.capitalone.model.Series;
+import com.capitalone.service.SeriesService;
+import com.capitalone.service.SeriesServiceImpl;
+import com.capitalone.service.cluster.Cluster;
+import com.capitalone.util.Stations;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+
+import static com.capitalone.model.DownsampleMethod.UNSUPPORTED;
+
+
+/**
+ * A controller class that is responsible for downsampled metric series for the end point 'series'.
+ */
+@Slf4j
+@Path("/series")
+public class SeriesController {
+    private static final int MAX_POINTS = 10000;
+    private static final String POINTS_MESSAGE = "points must be between 2 and " + MAX_POINTS + ".";
+
+    private final SeriesService seriesService;
+
+    public SeriesController() {
+        this(new SeriesServiceImpl(Cluster.getInstance().measurementsService(Stations.DEFAULT)));
+    }
+
+    public SeriesController(final SeriesService seriesService) {
+        this.seriesService = seriesService;
+    }
+
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public List<Series> get(
+            @QueryParam("metric") final List<String> metrics,
+            @DefaultValue("average") @QueryParam("method") final String method,
+            @Min(value = 2, message = POINTS_MESSAGE)
+            @Max(value = MAX_POINTS, message = POINTS_MESSAGE)
+            @DefaultValue("500") @QueryParam("points") final int points,
+            @NotNull(message = "Both fromDateTime and toDateTime must be specified.")
+            @Valid @QueryParam("fromDateTime") final FromToDateTimeParam fromDateTime,
+            @NotNull(message = "Both fromDateTime and toDateTime must be specified.")
+            @Valid @QueryParam("toDateTime") final FromToDateTimeParam toDateTime
+    ) {
+        if (metrics.isEmpty())
+            throw new BadRequestException("At least one metric must be specified.");
+        final DownsampleMethod downsampleMethod = DownsampleMethod.fromString(method);
+        if (downsampleMethod == UNSUPPORTED) {
+            log.error("Unsupported DownsampleMethod passed: {}", method);
+            throw new BadRequestException("Unsupported DownsampleMethod: " + method);
+        }
+        return seriesService.getSeries(metrics, downsampleMethod, points, fromDateTime.toEpochMillis(), toDateTime.toEpochMillis());
+    }
+}
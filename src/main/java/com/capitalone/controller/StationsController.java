@@ -0,0 +1,72 @@
+package com.capitalone.controller;
+
+
+import com.capitalone.exception.client.BadRequestException;
+import com.capitalone.service.SeriesServiceImpl;
+import com.capitalone.service.cluster.Cluster;
+import com.capitalone.util.Stations;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.Collection;
+import java.util.Set;
+
+
+/**
+ * A controller class that is responsible for the routes of each station, under the end point 'stations'.
+ *
+ * /stations/{station}/measurements, /stations/{station}/stats and /stations/{station}/series are handled by the same
+ * controllers as /measurements, /stats and /series, over the station's own Store. The stats of several stations
+ * together are at /stations/{station},{station}.../stats, or /stations/{@value Stations#ALL}/stats for every station.
+ * Reading a station that has never been written to does not create it: its measurements are not found and its
+ * stats are empty.
+ */
+@Slf4j
+@Path("/stations")
+public class StationsController {
+
+    /**
+     * Returns the ids of the stations that have measurements, on any node of the cluster.
+     */
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public Set<String> getStations() {
+        return Cluster.getInstance().stations();
+    }
+
+    @Path("/{station}/measurements")
+    public MeasurementsController measurements(@PathParam("station") final String station) {
+        return new MeasurementsController(station, Cluster.getInstance().measurementsService(checkStation(station)));
+    }
+
+    @Path("/{stations}/stats")
+    public StatsController stats(@PathParam("stations") final String stations) {
+        final Collection<String> parsed;
+        try {
+            parsed = Stations.ALL.equals(stations) ? Cluster.getInstance().stations() : Stations.parseList(stations);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+        return new StatsController(Cluster.getInstance().statsService(parsed));
+    }
+
+    @Path("/{station}/series")
+    public SeriesController series(@PathParam("station") final String station) {
+        return new SeriesController(new SeriesServiceImpl(Cluster.getInstance().measurementsService(checkStation(station))));
+    }
+
+    /**
+     * @throws BadRequestException if the station id is not well formed
+     */
+    private static String checkStation(final String station) {
+        try {
+            return Stations.check(station);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package com.capitalone.controller;
 
 
+import com.capitalone.controller.async.QueryExecutor;
 import com.capitalone.controller.param.FromToDateTimeParam;
 import com.capitalone.exception.client.BadRequestException;
 import com.capitalone.model.Stat;
 import com.capitalone.model.StatType;
+import com.capitalone.model.CacheCounters;
 import com.capitalone.service.StatsService;
-import com.capitalone.service.StatsServiceImpl;
+import com.capitalone.service.cache.StatsCache;
+import com.capitalone.service.cluster.Cluster;
+import com.capitalone.util.Stations;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 
@@ -15,24 +20,34 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
-import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import static com.capitalone.model.StatType.QUANTILE;
 import static com.capitalone.model.StatType.UNSUPPORTED;
 
 
 /**
  * A controller class that is responsible for retrieving statistics for the end point 'stats'.
+ *
+ * Stats of a long range can take a while, so they are computed by the QueryExecutor rather than on the request
+ * thread, within the limit and timeout of its {@value QueryExecutor#STATS} endpoint.
  */
 
 @Slf4j
 @Path("/stats")
 public class StatsController {
+    //Any percentile below 100 can be asked for as p followed by the percentile e.g. p75 or p99.9
+    private static final Pattern PERCENTILE = Pattern.compile("[pP](\\d{1,2}(\\.\\d+)?)");
+
     private final StatsService statsService;
 
     public StatsController() {
-        this(new StatsServiceImpl());
+        this(Cluster.getInstance().statsService(ImmutableList.of(Stations.DEFAULT)));
     }
 
     public StatsController(final StatsService statsService) {
@@ -41,56 +56,60 @@ public class StatsController {
 
     @GET
     @Produces({MediaType.APPLICATION_JSON})
-	public List<Stat> get(
+	public void get(
+			@Suspended final AsyncResponse response,
 			@QueryParam("stat") final List<String> statTypes,
 			@QueryParam("metric") final List<String> metrics,
             @Valid @QueryParam("fromDateTime") final FromToDateTimeParam fromDateTime,
             @Valid @QueryParam("toDateTime") final FromToDateTimeParam toDateTime
 	) {
-        final String prettyStatTypes = Arrays.toString(statTypes.toArray());
-        final String prettyMetrics = Arrays.toString(metrics.toArray());
-        log.info("Getting statTypes{} and metrics{} from {} until {}", prettyStatTypes, prettyMetrics, fromDateTime, toDateTime);
-        final List<Stat> result = collect(toStatTypes(statTypes), metrics, fromDateTime.getTimestamp(), toDateTime.getTimestamp());
-        log.info("Done: Getting statTypes[{}] and metrics[{}] from {} until {}", prettyStatTypes, prettyMetrics, fromDateTime, toDateTime);
-		return result;
+        QueryExecutor.getInstance().submit(QueryExecutor.STATS, response, () -> getStats(statTypes, metrics, fromDateTime, toDateTime));
 	}
 
-    private List<Stat> collect(final List<StatType> statTypes, final List<String> metrics, final String fromDateTime, final String toDateTime) {
-        final List<Stat> response = Lists.newArrayListWithCapacity(statTypes.size() * metrics.size());
-        for (final String metric: metrics) {
-            for (final StatType statType : statTypes) {
-                switch (statType) {
-                    case AVERAGE:
-                        final Stat average = statsService.getAverage(metric, fromDateTime, toDateTime);
-                        if (average != null)
-                            response.add(average);
-                        break;
-                    case MAX:
-                        final Stat max = statsService.getMax(metric, fromDateTime, toDateTime);
-                        if (max != null)
-                            response.add(max);
-                        break;
-                    case MIN:
-                        final Stat min = statsService.getMin(metric, fromDateTime, toDateTime);
-                        if (min != null)
-                            response.add(min);
-                        break;
-                }
-            }
-        }
-        return response;
+    /**
+     * Returns the counters of the stats result cache, for monitoring.
+     */
+    @GET
+    @Path("/cache")
+    @Produces({MediaType.APPLICATION_JSON})
+    public CacheCounters getCacheCounters() {
+        return StatsCache.getInstance().getCounters();
+    }
+
+    private List<Stat> getStats(
+            final List<String> statTypes,
+            final List<String> metrics,
+            final FromToDateTimeParam fromDateTime,
+            final FromToDateTimeParam toDateTime
+    ) {
+        // Dashboards poll this endpoint, so the request is only logged when debugging
+        if (log.isDebugEnabled())
+            log.debug("Getting statTypes{} and metrics{} from {} until {}", statTypes, metrics, fromDateTime, toDateTime);
+        final List<StatType> namedStatTypes = Lists.newArrayList();
+        final List<Double> quantiles = Lists.newArrayList();
+        toStatTypes(statTypes, namedStatTypes, quantiles);
+        final List<Stat> result = statsService.getStats(metrics, namedStatTypes, quantiles, fromDateTime.toEpochMillis(), toDateTime.toEpochMillis());
+        if (log.isDebugEnabled())
+            log.debug("Done: Getting statTypes{} and metrics{} from {} until {}", statTypes, metrics, fromDateTime, toDateTime);
+        return result;
     }
 
-    private List<StatType> toStatTypes(final List<String> stats) {
-        final List<StatType> statTypes = Lists.newArrayList();
+    /**
+     * Splits the stat params into the named StatType's and the arbitrary percentiles, as quantiles between 0 and 1.
+     */
+    private void toStatTypes(final List<String> stats, final List<StatType> statTypes, final List<Double> quantiles) {
         for (final String s : stats) {
             final StatType statType = StatType.fromString(s);
-            if (statType == UNSUPPORTED) {
-                log.error("Unsupported StatType passed: {}", s);
-                throw new BadRequestException("Unsupported StatType: " + s);
+            if (statType == UNSUPPORTED || statType == QUANTILE) {
+                final Matcher percentile = PERCENTILE.matcher(s);
+                if (!percentile.matches()) {
+                    log.error("Unsupported StatType passed: {}", s);
+                    throw new BadRequestException("Unsupported StatType: " + s);
+                }
+                quantiles.add(Double.parseDouble(percentile.group(1)) / 100);
+                continue;
             }
             statTypes.add(statType);
         }
-        return statTypes;
     }
 }
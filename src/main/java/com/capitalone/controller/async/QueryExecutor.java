@@ -0,0 +1,142 @@
+package com.capitalone.controller.async;
+
+import com.capitalone.exception.client.ServiceUnavailableException;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.ws.rs.container.AsyncResponse;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs the slow queries of the controllers, such as stats and the measurements of a whole day, off the server's
+ * request threads, so that a burst of them cannot hold up cheap requests such as reading one timestamp.
+ *
+ * The queries run on a bounded pool of {@value #THREADS_PROPERTY} threads (twice the number of processors by
+ * default), with up to {@value #QUEUE_PROPERTY} queries waiting for one. Each endpoint has a limit of its own on the
+ * queries it has waiting or running at once, the system property query.&lt;endpoint&gt;.concurrency (half the
+ * threads by default, so that neither the stats nor the measurements endpoint can take every thread), and on how
+ * long a client waits for one to answer, query.&lt;endpoint&gt;.timeout.millis (30 seconds by default). A query
+ * beyond the limit, or one that finds the queue full, fails at once with 503 SERVICE_UNAVAILABLE, and so does one
+ * that times out, whose thread is interrupted. A query that times out still counts towards its endpoint's limit
+ * until its thread is done with it, so queries that ignore the interrupt cannot pile up. A query that answers with a
+ * streamed response has answered once it returns the Response; the stream is then written on the same thread, within
+ * the limit but without the timeout.
+ */
+@Slf4j
+public final class QueryExecutor {
+    public static final String THREADS_PROPERTY = "query.threads";
+    public static final String QUEUE_PROPERTY = "query.queue";
+    public static final String CONCURRENCY_PROPERTY = "query.%s.concurrency";
+    public static final String TIMEOUT_PROPERTY = "query.%s.timeout.millis";
+    public static final int DEFAULT_QUEUE = 256;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+    public static final String STATS = "stats";
+    public static final String MEASUREMENTS = "measurements";
+
+    private static QueryExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<String, Endpoint> endpoints = Maps.newConcurrentMap();
+
+    /**
+     * @param threads the number of threads to run queries on
+     * @param queue the number of queries that can wait for a thread
+     */
+    QueryExecutor(final int threads, final int queue) {
+        if (threads <= 0 || queue <= 0)
+            throw new IllegalArgumentException(String.format("Invalid %s or %s: %d, %d", THREADS_PROPERTY, QUEUE_PROPERTY, threads, queue));
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue),
+                new ThreadFactoryBuilder().setNameFormat("query-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Returns the instance shared by every controller, reading the system properties on first use.
+     * @return the QueryExecutor
+     */
+    public synchronized static QueryExecutor getInstance() {
+        if (instance == null) {
+            final int threads = Integer.getInteger(THREADS_PROPERTY, 2 * Runtime.getRuntime().availableProcessors());
+            final int queue = Integer.getInteger(QUEUE_PROPERTY, DEFAULT_QUEUE);
+            log.info("Running queries on {} threads with {} waiting at most", threads, queue);
+            instance = new QueryExecutor(threads, queue);
+        }
+        return instance;
+    }
+
+    /**
+     * Runs a query in the background and resumes the response with its result, or with the exception it throws.
+     * @param endpoint the name of the endpoint, which picks its limit and timeout
+     * @param response the suspended response of the request
+     * @param query the query, which may return an entity or a Response
+     */
+    public void submit(final String endpoint, final AsyncResponse response, final Supplier<?> query) {
+        final Endpoint limits = endpoints.computeIfAbsent(endpoint, this::endpoint);
+        if (!limits.permits.tryAcquire()) {
+            response.resume(new ServiceUnavailableException("Too many " + endpoint + " queries at once, try again later"));
+            return;
+        }
+
+        //Whichever of the query and the timeout claims the query first gives back its permit
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final AtomicReference<Future<?>> running = new AtomicReference<>();
+        response.setTimeoutHandler(timedOut -> {
+            //Answered before the query is interrupted, so that the interrupted query cannot answer first
+            timedOut.resume(new ServiceUnavailableException("The " + endpoint + " query did not finish within " + limits.timeoutMillis + " ms"));
+            if (claimed.compareAndSet(false, true)) {
+                limits.permits.release();
+            } else {
+                final Future<?> future = running.get();
+                if (future != null) future.cancel(true);
+            }
+        });
+        response.setTimeout(limits.timeoutMillis, TimeUnit.MILLISECONDS);
+
+        try {
+            running.set(executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true))
+                    return;
+                try {
+                    response.resume(query.get());
+                } catch (RuntimeException | Error e) {
+                    response.resume(e);
+                } finally {
+                    limits.permits.release();
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            if (claimed.compareAndSet(false, true))
+                limits.permits.release();
+            response.resume(new ServiceUnavailableException("Too many queries waiting, try again later", e));
+        }
+    }
+
+    private Endpoint endpoint(final String endpoint) {
+        final int concurrency = Integer.getInteger(String.format(CONCURRENCY_PROPERTY, endpoint), Math.max(1, executor.getMaximumPoolSize() / 2));
+        final long timeoutMillis = Long.getLong(String.format(TIMEOUT_PROPERTY, endpoint), DEFAULT_TIMEOUT_MILLIS);
+        log.info("Running up to {} {} queries at once, each for up to {} ms", concurrency, endpoint, timeoutMillis);
+        return new Endpoint(concurrency, timeoutMillis);
+    }
+
+    /**
+     * The limits of one endpoint.
+     */
+    private static final class Endpoint {
+        private final Semaphore permits;
+        private final long timeoutMillis;
+
+        Endpoint(final int concurrency, final long timeoutMillis) {
+            this.permits = new Semaphore(concurrency);
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+}
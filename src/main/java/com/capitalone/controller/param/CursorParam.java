@@ -0,0 +1,49 @@
+package com.capitalone.controller.param;
+
+import com.capitalone.exception.client.BadRequestException;
+import lombok.Data;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * An opaque cursor that marks where the next page of a range starts.
+ *
+ * The cursor is the URL-safe base64 of a version byte followed by the timestamp of the last Measurement returned, so
+ * the next page is read by seeking straight to that timestamp instead of skipping over an offset. Clients must pass
+ * it back unchanged; its format is not part of the API and may change with the version byte.
+ */
+@Data
+public final class CursorParam {
+    private static final byte VERSION = 1;
+    private static final int LENGTH = Byte.BYTES + Long.BYTES;
+
+    private final String cursor;
+
+    /**
+     * Builds the cursor that resumes after a timestamp.
+     * @param timestamp the timestamp of the last Measurement returned, in epoch milliseconds
+     * @return the opaque cursor
+     */
+    public static String after(final long timestamp) {
+        final ByteBuffer buffer = ByteBuffer.allocate(LENGTH).put(VERSION).putLong(timestamp);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Decodes the cursor.
+     * @return the timestamp of the last Measurement returned, in epoch milliseconds
+     * @throws BadRequestException if the cursor was not built by this class
+     */
+    public long afterTimestamp() {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor: " + cursor, e);
+        }
+        if (bytes.length != LENGTH || bytes[0] != VERSION)
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        return ByteBuffer.wrap(bytes, Byte.BYTES, Long.BYTES).getLong();
+    }
+}
@@ -1,5 +1,7 @@
 package com.capitalone.controller.param;
 
+import com.capitalone.exception.client.BadRequestException;
+import com.capitalone.util.Timestamps;
 import lombok.Data;
 import org.hibernate.validator.constraints.NotBlank;
 import javax.validation.constraints.Pattern;
@@ -16,4 +18,16 @@ public final class FromToDateTimeParam {
     )
     private final String timestamp;
 
+    /**
+     * Parses the timestamp into epoch milliseconds.
+     * @return the epoch milliseconds
+     * @throws BadRequestException if the timestamp matches the pattern but is not a valid date-time
+     */
+    public long toEpochMillis() {
+        try {
+            return Timestamps.parse(timestamp);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+    }
 }
@@ -0,0 +1,17 @@
+package com.capitalone.exception.client;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * For issues pertaining to writes sent to a read-only replica.
+ * Uses HTTP Response status code 403 FORBIDDEN
+ */
+public class ForbiddenException extends PropagateMessageToClientException {
+    public ForbiddenException(final String message) {
+        super(Response.Status.FORBIDDEN, message);
+    }
+
+    public ForbiddenException(final String message, final Throwable cause) {
+        super(Response.Status.FORBIDDEN, message, cause);
+    }
+}
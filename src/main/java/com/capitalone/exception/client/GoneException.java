@@ -0,0 +1,17 @@
+package com.capitalone.exception.client;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * For issues pertaining to replication log positions the primary no longer holds.
+ * Uses HTTP Response status code 410 GONE
+ */
+public class GoneException extends PropagateMessageToClientException {
+    public GoneException(final String message) {
+        super(Response.Status.GONE, message);
+    }
+
+    public GoneException(final String message, final Throwable cause) {
+        super(Response.Status.GONE, message, cause);
+    }
+}
@@ -0,0 +1,17 @@
+package com.capitalone.exception.client;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * For issues pertaining to another cluster node that cannot be reached or fails.
+ * Uses HTTP Response status code 503 SERVICE_UNAVAILABLE
+ */
+public class ServiceUnavailableException extends PropagateMessageToClientException {
+    public ServiceUnavailableException(final String message) {
+        super(Response.Status.SERVICE_UNAVAILABLE, message);
+    }
+
+    public ServiceUnavailableException(final String message, final Throwable cause) {
+        super(Response.Status.SERVICE_UNAVAILABLE, message, cause);
+    }
+}
@@ -0,0 +1,32 @@
+package com.capitalone.model;
+
+import com.capitalone.model.json.TimestampDeserializer;
+import com.capitalone.model.json.TimestampSerializer;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableList;
+import lombok.Value;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class represents the response to the client for a batch of measurements.
+ * The conflicts are the timestamps of the measurements that were not created because they already exist.
+ */
+@Value
+public class BatchResult {
+    private final int created;
+    @JsonSerialize(contentUsing = TimestampSerializer.class)
+    private final List<Long> conflicts;
+
+    @JsonCreator
+    public BatchResult(
+            @JsonProperty("created") final int created,
+            @JsonProperty("conflicts") @JsonDeserialize(contentUsing = TimestampDeserializer.class) final Collection<Long> conflicts) {
+        this.created = created;
+        this.conflicts = ImmutableList.copyOf(conflicts);
+    }
+}
@@ -0,0 +1,32 @@
+package com.capitalone.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+
+/**
+ * This class represents the counters of the stats result cache, for monitoring.
+ * Evictions are entries dropped for size or age; invalidations are entries dropped because a write touched their range.
+ */
+@Value
+public class CacheCounters {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long invalidations;
+    private final long size;
+
+    @JsonCreator
+    public CacheCounters(
+            @JsonProperty("hits") final long hits,
+            @JsonProperty("misses") final long misses,
+            @JsonProperty("evictions") final long evictions,
+            @JsonProperty("invalidations") final long invalidations,
+            @JsonProperty("size") final long size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.size = size;
+    }
+}
@@ -0,0 +1,48 @@
+package com.capitalone.model;
+
+/**
+ * This class represents the supported ways of reducing a metric series to fewer points.
+ *  - AVERAGE, MAX and MIN split the range into equal time buckets and return one value per bucket
+ *  - LTTB (Largest-Triangle-Three-Buckets) keeps the readings that best preserve the visual shape of the series
+ * As with StatType, UNSUPPORTED is returned by fromString instead of a null value.
+ */
+public enum DownsampleMethod {
+    AVERAGE("average"),
+    MAX("max"),
+    MIN("min"),
+    LTTB("lttb"),
+    UNSUPPORTED("unsupported");
+
+    private final String name;
+
+    DownsampleMethod(String s) {
+        name = s;
+    }
+
+    /**
+     * Determines equality between this DownsampleMethod and a string value.
+     * The check is case insensitive.
+     * @param otherName the string value to compare
+     * @return true if equal, otherwise false
+     */
+    private boolean equalsName(final String otherName) {
+        return otherName != null && name.equalsIgnoreCase(otherName);
+    }
+
+    public String toString() {
+        return this.name;
+    }
+
+    /**
+     * Takes a string value and attempts to find the corresponding DownsampleMethod.
+     * UNSUPPORTED is returned if none found.
+     * @param methodName the string name of the downsample method
+     * @return the DownsampleMethod enum
+     */
+    public static DownsampleMethod fromString(final String methodName) {
+        for (final DownsampleMethod method : DownsampleMethod.values())
+            if (method.equalsName(methodName))
+                return method;
+        return UNSUPPORTED;
+    }
+}
@@ -1,29 +1,99 @@
 package com.capitalone.model;
 
+import com.capitalone.model.json.TimestampDeserializer;
+import com.capitalone.model.json.TimestampSerializer;
+import com.capitalone.util.Stations;
+import com.capitalone.util.Timestamps;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.collect.ImmutableMap;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.Value;
-import org.hibernate.validator.constraints.NotBlank;
 
 import java.util.Map;
 
 /**
  * This class represents the Measurement data. For flexibility in creating new measurement devices,
- * the metrics are stored as String (metric name) to Float (metric value) map.
+ * the metrics are stored as String (metric name) to Float (metric value) map. The map is a compact MetricValues
+ * that refers to the metric names by their MetricDictionary id. A Measurement read from JSON only registers new
+ * metric names once it is written, see registered.
+ *
+ * The timestamp is held as epoch milliseconds. On the wire it is a UTC string in the format 2016-09-01T16:00:00.000Z,
+ * which is parsed once when the Measurement is deserialized.
+ *
+ * Every Measurement belongs to a station, which is the default station unless one is given. The station is only
+ * written to JSON when it is not the default one, so single station clients see the same JSON as before.
  */
 @Value
 public class Measurement {
-    //The expected type is string and the format is: 2016-09-01T16:00:00.000Z
-    @NotBlank(message = "The timestamp must be specified.")
-    private final String timestamp;
-    private final Map<String, Float> metrics;
+    @JsonIgnore
+    private final String station;
+    @JsonSerialize(using = TimestampSerializer.class)
+    private final long timestamp;
+    private final MetricValues metrics;
 
-    @JsonCreator
-    public Measurement(
-            @JsonProperty("timestamp") final String timestamp,
-            @JsonProperty("metrics") final Map<String, Float> metrics) {
+    public Measurement(final long timestamp, final Map<String, Float> metrics) {
+        this(Stations.DEFAULT, timestamp, metrics);
+    }
+
+    /**
+     * Creates a Measurement of a station.
+     * @param station the id of the station that took the reading
+     * @param timestamp the timestamp in epoch milliseconds
+     * @param metrics the metric values
+     */
+    public Measurement(final String station, final long timestamp, final Map<String, Float> metrics) {
+        this(station, timestamp, MetricValues.copyOf(metrics));
+    }
+
+    private Measurement(final String station, final long timestamp, final MetricValues metrics) {
+        this.station = station;
         this.timestamp = timestamp;
-        this.metrics = ImmutableMap.copyOf(metrics);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates a Measurement from a UTC timestamp string.
+     * @param timestamp the timestamp in the format 2016-09-01T16:00:00.000Z
+     * @param metrics the metric values
+     */
+    public Measurement(final String timestamp, final Map<String, Float> metrics) {
+        this(Timestamps.parse(timestamp), metrics);
+    }
+
+    @JsonCreator
+    static Measurement fromJson(
+            @JsonProperty("timestamp") @JsonDeserialize(using = TimestampDeserializer.class) final Long timestamp,
+            @JsonProperty("metrics") final Map<String, Float> metrics,
+            @JsonProperty("station") final String station) {
+        if (timestamp == null)
+            throw new IllegalArgumentException("The timestamp must be specified.");
+        return new Measurement(station == null ? Stations.DEFAULT : Stations.check(station), timestamp, MetricValues.parse(metrics));
+    }
+
+    /**
+     * @return the same reading for another station, sharing the metric values
+     */
+    public Measurement withStation(final String station) {
+        return this.station.equals(station) ? this : new Measurement(station, timestamp, metrics);
+    }
+
+    /**
+     * To be called once the Measurement is accepted for writing, since stores find its metrics by id.
+     * @return the same reading with its metric names registered with the MetricDictionary, which is this if they are
+     *         already
+     * @throws com.capitalone.exception.client.BadRequestException if the dictionary is full
+     */
+    public Measurement registered() {
+        final MetricValues registered = metrics.registered();
+        return registered == metrics ? this : new Measurement(station, timestamp, registered);
+    }
+
+    @JsonProperty("station")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    String getStationIfNotDefault() {
+        return Stations.DEFAULT.equals(station) ? null : station;
     }
 }
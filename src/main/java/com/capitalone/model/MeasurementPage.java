@@ -0,0 +1,27 @@
+package com.capitalone.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import lombok.Value;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class represents one page of the measurements in a range.
+ * The next cursor is passed back to read the following page; it is null on the last page.
+ */
+@Value
+public class MeasurementPage {
+    private final List<Measurement> measurements;
+    private final String next;
+
+    @JsonCreator
+    public MeasurementPage(
+            @JsonProperty("measurements") final Collection<Measurement> measurements,
+            @JsonProperty("next") final String next) {
+        this.measurements = ImmutableList.copyOf(measurements);
+        this.next = next;
+    }
+}
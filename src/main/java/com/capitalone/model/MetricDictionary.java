@@ -0,0 +1,89 @@
+package com.capitalone.model;
+
+import com.capitalone.exception.client.BadRequestException;
+import com.capitalone.util.Constants;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps every metric name that has been reported to a small int id, in the order the names were first seen.
+ *
+ * Stations report the same handful of metric names over and over, so a Measurement holds the ids of its metrics
+ * rather than its own copy of the names, and code that reads many Measurement's can find a metric by id with an
+ * array index instead of hashing its name for every reading. The names handed back are the ones first registered, so
+ * there is a single String instance per metric across all of the Measurement's.
+ *
+ * Ids are never reused or removed. The number of names is capped at {@value #MAX_SIZE} so that a client sending
+ * made-up names cannot grow the dictionary without bound. Names are only registered for Measurement's that are
+ * written, so requests that are rejected do not count towards the cap, and once it is reached only the writes with a
+ * new name are rejected.
+ */
+public final class MetricDictionary {
+    public static final int MAX_SIZE = 1 << 16;
+
+    private static final ConcurrentMap<String, Integer> IDS = Maps.newConcurrentMap();
+    private static volatile String[] names = new String[16];
+    private static volatile int size;
+
+    static {
+        idOf(Constants.TEMPERATURE);
+        idOf(Constants.DEW_POINT);
+        idOf(Constants.PRECIPITATION);
+    }
+
+    private MetricDictionary() {}
+
+    /**
+     * Returns the id of the metric name, registering the name if it has not been seen before.
+     * @param name the metric name
+     * @return the id of the metric
+     * @throws BadRequestException if the dictionary already holds {@value #MAX_SIZE} names
+     */
+    public static int idOf(final String name) {
+        final Integer id = IDS.get(name);
+        return id != null ? id : register(name);
+    }
+
+    /**
+     * Returns the id of the metric name without registering it.
+     * @param name the metric name
+     * @return the id of the metric, or -1 if no Measurement has reported it
+     */
+    public static int lookup(final String name) {
+        final Integer id = IDS.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @param id the id of a metric
+     * @return the metric name
+     */
+    public static String nameOf(final int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the number of metric names registered, which is one more than the largest id
+     */
+    public static int size() {
+        return size;
+    }
+
+    private static synchronized int register(final String name) {
+        final Integer existing = IDS.get(name);
+        if (existing != null)
+            return existing;
+        final int id = size;
+        if (id == MAX_SIZE)
+            throw new BadRequestException("Too many distinct metric names, cannot add: " + name);
+        //The name is written before its id is published so that any id a reader can see has a name
+        if (id == names.length)
+            names = Arrays.copyOf(names, id * 2);
+        names[id] = name;
+        size = id + 1;
+        IDS.put(name, id);
+        return id;
+    }
+}
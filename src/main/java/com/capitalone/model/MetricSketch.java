@@ -0,0 +1,32 @@
+package com.capitalone.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+
+/**
+ * This class represents the quantile sketch of one metric over the readings a cluster node holds in a range, as the
+ * centroids of the sketch. The coordinator merges the sketches of every node to estimate the quantiles.
+ */
+@Value
+public class MetricSketch {
+    private final String metric;
+    private final double min;
+    private final double max;
+    private final double[] means;
+    private final double[] weights;
+
+    @JsonCreator
+    public MetricSketch(
+            @JsonProperty("metric") final String metric,
+            @JsonProperty("min") final double min,
+            @JsonProperty("max") final double max,
+            @JsonProperty("means") final double[] means,
+            @JsonProperty("weights") final double[] weights) {
+        this.metric = metric;
+        this.min = min;
+        this.max = max;
+        this.means = means;
+        this.weights = weights;
+    }
+}
@@ -0,0 +1,35 @@
+package com.capitalone.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+
+/**
+ * This class represents the running totals of one metric over the readings a cluster node holds in a range.
+ * The coordinator merges the totals of every node into the stats, so the readings never leave the nodes.
+ */
+@Value
+public class MetricTotals {
+    private final String metric;
+    private final long count;
+    private final double sum;
+    private final double m2;
+    private final float min;
+    private final float max;
+
+    @JsonCreator
+    public MetricTotals(
+            @JsonProperty("metric") final String metric,
+            @JsonProperty("count") final long count,
+            @JsonProperty("sum") final double sum,
+            @JsonProperty("m2") final double m2,
+            @JsonProperty("min") final float min,
+            @JsonProperty("max") final float max) {
+        this.metric = metric;
+        this.count = count;
+        this.sum = sum;
+        this.m2 = m2;
+        this.min = min;
+        this.max = max;
+    }
+}
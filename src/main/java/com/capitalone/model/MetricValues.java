@@ -0,0 +1,218 @@
+package com.capitalone.model;
+
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The immutable metric values of a Measurement, held as a single long[] sorted by MetricDictionary id. Each long
+ * packs the id of a metric in its upper half and the bits of the float value in its lower half. This takes about a
+ * third of the heap of a map with an entry object, a boxed Float and a String key for every metric of every reading.
+ *
+ * It is still a Map of metric name to value for the API and JSON, but code that reads many Measurement's can use
+ * size, idAt and valueAt to find the metrics by id without any hashing or boxing.
+ *
+ * Metrics read from a request with a name the MetricDictionary does not know yet keep their names instead, so that a
+ * request that is then rejected does not take up room in the dictionary. They have no ids until registered, which is
+ * done once the Measurement is written.
+ */
+public final class MetricValues extends AbstractMap<String, Float> {
+    private static final MetricValues EMPTY = new MetricValues(new long[0], null);
+
+    private final long[] entries;
+    //The name of each entry while the names are not registered, null once they are
+    private final String[] names;
+
+    private MetricValues(final long[] entries, final String[] names) {
+        this.entries = entries;
+        this.names = names;
+    }
+
+    /**
+     * Copies the metrics, registering any new metric names with the MetricDictionary.
+     * @param metrics the metric name to value map, without null names or values
+     * @return the compact copy, or the metrics themselves if they are already registered MetricValues
+     * @throws com.capitalone.exception.client.BadRequestException if the dictionary is full
+     */
+    public static MetricValues copyOf(final Map<String, Float> metrics) {
+        if (metrics instanceof MetricValues)
+            return ((MetricValues) metrics).registered();
+        if (metrics.isEmpty())
+            return EMPTY;
+
+        final long[] entries = new long[metrics.size()];
+        int i = 0;
+        for (final Map.Entry<String, Float> metric : metrics.entrySet()) {
+            final int id = MetricDictionary.idOf(Preconditions.checkNotNull(metric.getKey()));
+            final float value = Preconditions.checkNotNull(metric.getValue(), "null value for metric %s", metric.getKey());
+            entries[i++] = (long) id << 32 | Float.floatToRawIntBits(value) & 0xFFFFFFFFL;
+        }
+        //Ids are never negative, so sorting the packed longs sorts by id
+        Arrays.sort(entries);
+        return new MetricValues(entries, null);
+    }
+
+    /**
+     * Copies the metrics without registering any new metric names, as for a request that may yet be rejected.
+     * @param metrics the metric name to value map, without null names or values
+     * @return the compact copy if every name is known already, otherwise a copy that keeps the names
+     */
+    public static MetricValues parse(final Map<String, Float> metrics) {
+        if (metrics instanceof MetricValues)
+            return (MetricValues) metrics;
+        for (final String name : metrics.keySet()) {
+            if (MetricDictionary.lookup(Preconditions.checkNotNull(name)) < 0)
+                return unregistered(metrics);
+        }
+        return copyOf(metrics);
+    }
+
+    private static MetricValues unregistered(final Map<String, Float> metrics) {
+        final long[] entries = new long[metrics.size()];
+        final String[] names = new String[metrics.size()];
+        int i = 0;
+        for (final Map.Entry<String, Float> metric : metrics.entrySet()) {
+            final float value = Preconditions.checkNotNull(metric.getValue(), "null value for metric %s", metric.getKey());
+            names[i] = metric.getKey();
+            entries[i++] = Float.floatToRawIntBits(value) & 0xFFFFFFFFL;
+        }
+        return new MetricValues(entries, names);
+    }
+
+    /**
+     * @return these metric values with their names registered with the MetricDictionary, which is this if they are
+     *         already
+     * @throws com.capitalone.exception.client.BadRequestException if the dictionary is full
+     */
+    public MetricValues registered() {
+        if (names == null)
+            return this;
+        final long[] registered = new long[entries.length];
+        for (int i = 0; i < entries.length; i++)
+            registered[i] = (long) MetricDictionary.idOf(names[i]) << 32 | entries[i] & 0xFFFFFFFFL;
+        Arrays.sort(registered);
+        return new MetricValues(registered, null);
+    }
+
+    /**
+     * Creates the metric values from MetricDictionary ids, such as those read back from a Store's own encoding.
+     * @param ids the ids of the metrics, each at most once
+     * @param values the value of each metric, at the same position as its id
+     * @param count the number of metrics to use from the start of the arrays
+     * @return the metric values
+     */
+    public static MetricValues of(final int[] ids, final float[] values, final int count) {
+        if (count == 0)
+            return EMPTY;
+        final long[] entries = new long[count];
+        for (int i = 0; i < count; i++)
+            entries[i] = (long) ids[i] << 32 | Float.floatToRawIntBits(values[i]) & 0xFFFFFFFFL;
+        Arrays.sort(entries);
+        return new MetricValues(entries, null);
+    }
+
+    /**
+     * @param index the position of a metric, from 0 to size - 1
+     * @return the MetricDictionary id of the metric at the position
+     * @throws IllegalStateException if the names are not registered
+     */
+    public int idAt(final int index) {
+        if (names != null)
+            throw new IllegalStateException("Metric names are not registered");
+        return (int) (entries[index] >>> 32);
+    }
+
+    /**
+     * @param index the position of a metric, from 0 to size - 1
+     * @return the value of the metric at the position
+     */
+    public float valueAt(final int index) {
+        return Float.intBitsToFloat((int) entries[index]);
+    }
+
+    /**
+     * @param id the MetricDictionary id of a metric
+     * @return the position of the metric, or a negative number if the Measurement does not report it
+     * @throws IllegalStateException if the names are not registered
+     */
+    public int indexOf(final int id) {
+        if (names != null)
+            throw new IllegalStateException("Metric names are not registered");
+        int low = 0;
+        int high = entries.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midId = idAt(mid);
+            if (midId < id) low = mid + 1;
+            else if (midId > id) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public int size() {
+        return entries.length;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return indexOfName(key) >= 0;
+    }
+
+    @Override
+    public Float get(final Object key) {
+        final int index = indexOfName(key);
+        return index >= 0 ? valueAt(index) : null;
+    }
+
+    @Override
+    public Set<Entry<String, Float>> entrySet() {
+        return new AbstractSet<Entry<String, Float>>() {
+            @Override
+            public Iterator<Entry<String, Float>> iterator() {
+                return new Iterator<Entry<String, Float>>() {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < entries.length;
+                    }
+
+                    @Override
+                    public Entry<String, Float> next() {
+                        if (index == entries.length)
+                            throw new NoSuchElementException();
+                        final Entry<String, Float> entry = new SimpleImmutableEntry<>(nameAt(index), valueAt(index));
+                        index++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.length;
+            }
+        };
+    }
+
+    private String nameAt(final int index) {
+        return names != null ? names[index] : MetricDictionary.nameOf(idAt(index));
+    }
+
+    private int indexOfName(final Object key) {
+        if (!(key instanceof String))
+            return -1;
+        if (names != null)
+            return Arrays.asList(names).indexOf(key);
+        final int id = MetricDictionary.lookup((String) key);
+        return id >= 0 ? indexOf(id) : -1;
+    }
+}
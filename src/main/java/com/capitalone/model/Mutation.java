@@ -0,0 +1,49 @@
+package com.capitalone.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+
+/**
+ * This class represents one change a replication primary made to the Measurement's of a station, in the order the
+ * primary applied it. The sequence numbers of a primary's mutations have no gaps, so a replica knows where to carry
+ * on from.
+ *
+ * A create or update carries the whole Measurement as it was stored, and a delete the Measurement it removed. A clear
+ * of the station carries no Measurement.
+ */
+@Value
+public class Mutation {
+    private final long sequence;
+    private final long time;
+    private final Operation operation;
+    private final String station;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Measurement measurement;
+
+    /**
+     * @param sequence the position of the mutation in the primary's log, starting at 1
+     * @param time when the primary applied it, in epoch milliseconds
+     * @param operation the kind of change
+     * @param station the id of the station changed
+     * @param measurement the Measurement created, updated or deleted, or null for a clear
+     */
+    @JsonCreator
+    public Mutation(
+            @JsonProperty("sequence") final long sequence,
+            @JsonProperty("time") final long time,
+            @JsonProperty("operation") final Operation operation,
+            @JsonProperty("station") final String station,
+            @JsonProperty("measurement") final Measurement measurement) {
+        this.sequence = sequence;
+        this.time = time;
+        this.operation = operation;
+        this.station = station;
+        this.measurement = measurement;
+    }
+
+    public enum Operation {
+        CREATE, UPDATE, DELETE, CLEAR
+    }
+}
@@ -0,0 +1,34 @@
+package com.capitalone.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * This class represents the mutations a replica reads from the primary's replication log in one request.
+ *
+ * The epoch identifies the primary's log since it started; sequence numbers from another epoch mean nothing to it.
+ * The head is the sequence of the primary's latest mutation and the time is the primary's clock when it answered, so
+ * a replica can tell how far behind it is without comparing clocks with the primary.
+ */
+@Value
+public class MutationBatch {
+    private final String epoch;
+    private final long head;
+    private final long time;
+    private final List<Mutation> mutations;
+
+    @JsonCreator
+    public MutationBatch(
+            @JsonProperty("epoch") final String epoch,
+            @JsonProperty("head") final long head,
+            @JsonProperty("time") final long time,
+            @JsonProperty("mutations") final List<Mutation> mutations) {
+        this.epoch = epoch;
+        this.head = head;
+        this.time = time;
+        this.mutations = mutations;
+    }
+}
@@ -0,0 +1,44 @@
+package com.capitalone.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+
+/**
+ * This class represents the replication state of a process, for monitoring.
+ *
+ * For a primary the sequence is that of its latest mutation. For a replica it is that of the last mutation it
+ * applied. The lag is how many of the primary's mutations the replica has still to apply, as of its last read from
+ * the primary, and lagMillis how much earlier than that read, on the primary's clock, the last mutation it applied
+ * was made; both are 0 once it has caught up. The replica fields are left out for a primary.
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReplicationStatus {
+    private final String role;
+    private final String epoch;
+    private final long sequence;
+    private final String state;
+    private final Long primarySequence;
+    private final Long lag;
+    private final Long lagMillis;
+
+    @JsonCreator
+    public ReplicationStatus(
+            @JsonProperty("role") final String role,
+            @JsonProperty("epoch") final String epoch,
+            @JsonProperty("sequence") final long sequence,
+            @JsonProperty("state") final String state,
+            @JsonProperty("primarySequence") final Long primarySequence,
+            @JsonProperty("lag") final Long lag,
+            @JsonProperty("lagMillis") final Long lagMillis) {
+        this.role = role;
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.state = state;
+        this.primarySequence = primarySequence;
+        this.lag = lag;
+        this.lagMillis = lagMillis;
+    }
+}
@@ -0,0 +1,30 @@
+package com.capitalone.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import lombok.Value;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class represents the downsampled series of one metric returned to the client.
+ * The points are in timestamp order; a metric without readings in the range has no points.
+ */
+@Value
+public class Series {
+    private final String metric;
+    private final DownsampleMethod method;
+    private final List<SeriesPoint> points;
+
+    @JsonCreator
+    public Series(
+            @JsonProperty("metric") final String metric,
+            @JsonProperty("method") final DownsampleMethod method,
+            @JsonProperty("points") final Collection<SeriesPoint> points) {
+        this.metric = metric;
+        this.method = method;
+        this.points = ImmutableList.copyOf(points);
+    }
+}
@@ -0,0 +1,27 @@
+package com.capitalone.model;
+
+import com.capitalone.model.json.TimestampDeserializer;
+import com.capitalone.model.json.TimestampSerializer;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Value;
+
+/**
+ * This class represents a single point of a downsampled metric series.
+ */
+@Value
+public class SeriesPoint {
+    @JsonSerialize(using = TimestampSerializer.class)
+    private final long timestamp;
+    private final float value;
+
+    @JsonCreator
+    public SeriesPoint(
+            @JsonProperty("timestamp") @JsonDeserialize(using = TimestampDeserializer.class) final long timestamp,
+            @JsonProperty("value") final float value) {
+        this.timestamp = timestamp;
+        this.value = value;
+    }
+}
@@ -1,25 +1,55 @@
 package com.capitalone.model;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Value;
 
 /**
  * This class represents the statistic response to the client.
+ * The quantile is only present for StatType.QUANTILE, to tell the requested quantiles apart.
+ *
+ * The value is a double so that a count or sum over a long range is not rounded to a float's 24 bit mantissa.
+ * Statistics of the scale of the readings themselves only have float precision, like the readings, and are given as
+ * the double closest to the float's shortest decimal form, so that they are written to JSON as the float would be.
  */
 @Value
 public class Stat {
     private final String metric;
     private final StatType stat;
-    private final float value;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Double quantile;
+    private final double value;
+
+    public Stat(final String metric, final StatType stat, final double value) {
+        this(metric, stat, null, value);
+    }
+
+    /**
+     * Creates a statistic of float precision, such as the min of a metric.
+     */
+    public Stat(final String metric, final StatType stat, final float value) {
+        this(metric, stat, null, floatPrecision(value));
+    }
 
     @JsonCreator
     public Stat(
             @JsonProperty("metric") final String metric,
             @JsonProperty("stat") final StatType stat,
-            @JsonProperty("value") final float value) {
+            @JsonProperty("quantile") final Double quantile,
+            @JsonProperty("value") final double value) {
         this.metric = metric;
         this.stat = stat;
+        this.quantile = quantile;
         this.value = value;
     }
+
+    /**
+     * @param value a value of float precision
+     * @return the double closest to the shortest decimal form of the value as a float, e.g. 27.1 rather than
+     *         27.100000381469727
+     */
+    public static double floatPrecision(final double value) {
+        return Double.parseDouble(Float.toString((float) value));
+    }
 }
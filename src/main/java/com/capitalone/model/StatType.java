@@ -2,6 +2,8 @@ package com.capitalone.model;
 
 /**
  * This class represents the supported statistic calculations.
+ * MEDIAN and the named percentiles are estimated from quantile sketches rather than the running totals, as is
+ * QUANTILE, whose quantile is given separately by the caller.
  * To allow handling of unsupported StatType's there is an enum named UNSUPPORTED.
  * Instead of dealing with a null value, the user of fromString method can use this enum value to handle
  * the unsupported case appropriately.
@@ -10,12 +12,41 @@ public enum StatType {
     AVERAGE("average"),
     MAX("max"),
     MIN("min"),
+    COUNT("count"),
+    SUM("sum"),
+    VARIANCE("variance"),
+    STANDARD_DEVIATION("stddev"),
+    MEDIAN("median", 0.5),
+    P90("p90", 0.9),
+    P95("p95", 0.95),
+    P99("p99", 0.99),
+    QUANTILE("quantile"),
     UNSUPPORTED("unsupported");
 
     private final String name;
+    private final double quantile;
 
     StatType(String s) {
+        this(s, Double.NaN);
+    }
+
+    StatType(String s, double q) {
         name = s;
+        quantile = q;
+    }
+
+    /**
+     * @return true if the statistic is estimated from a quantile sketch
+     */
+    public boolean isQuantile() {
+        return this == QUANTILE || !Double.isNaN(quantile);
+    }
+
+    /**
+     * @return the fixed quantile of MEDIAN and the named percentiles, otherwise NaN
+     */
+    public double getQuantile() {
+        return quantile;
     }
 
     /**
@@ -0,0 +1,25 @@
+package com.capitalone.model.json;
+
+import com.capitalone.util.Timestamps;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+
+/**
+ * Deserializes a UTC timestamp string (e.g. 2015-09-01T16:00:00.000Z) into epoch milliseconds.
+ * The timestamp is parsed once, on ingest, so that everything behind the controllers can work with longs.
+ */
+public final class TimestampDeserializer extends JsonDeserializer<Long> {
+
+    @Override
+    public Long deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+        final String timestamp = parser.getValueAsString();
+        try {
+            return Timestamps.parse(timestamp);
+        } catch (IllegalArgumentException e) {
+            throw context.weirdStringException(timestamp, Long.class, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.capitalone.model.json;
+
+import com.capitalone.util.Timestamps;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Serializes epoch milliseconds as a UTC timestamp string (e.g. 2015-09-01T16:00:00.000Z).
+ */
+public final class TimestampSerializer extends JsonSerializer<Long> {
+
+    @Override
+    public void serialize(final Long epochMillis, final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+        generator.writeString(Timestamps.format(epochMillis));
+    }
+}
@@ -0,0 +1,131 @@
+package com.capitalone.service;
+
+import com.capitalone.model.Stat;
+import com.capitalone.model.StatType;
+import com.capitalone.service.cache.StatsCache;
+import com.capitalone.util.Stations;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A StatsService that answers repeated queries from a StatsCache and only asks the wrapped StatsService for the
+ * metrics that are not cached. The wrapped StatsService must compute the stats over the given stations.
+ */
+public class CachingStatsService implements StatsService {
+    private final StatsService statsService;
+    private final StatsCache statsCache;
+    private final Collection<String> stations;
+
+    public CachingStatsService() {
+        this(ImmutableList.of(Stations.DEFAULT));
+    }
+
+    /**
+     * Computes the stats over the readings of all the stations together.
+     * @param stations the station ids
+     */
+    public CachingStatsService(final Collection<String> stations) {
+        this(new StatsServiceImpl(stations), StatsCache.getInstance(), stations);
+    }
+
+    public CachingStatsService(final StatsService statsService, final StatsCache statsCache) {
+        this(statsService, statsCache, ImmutableList.of(Stations.DEFAULT));
+    }
+
+    public CachingStatsService(final StatsService statsService, final StatsCache statsCache, final Collection<String> stations) {
+        this.statsService = statsService;
+        this.statsCache = statsCache;
+        this.stations = ImmutableList.copyOf(stations);
+    }
+
+    @Override
+    public Stat getAverage(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.AVERAGE, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getMax(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.MAX, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getMin(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.MIN, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getCount(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.COUNT, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getSum(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.SUM, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getVariance(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.VARIANCE, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getStandardDeviation(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.STANDARD_DEVIATION, fromDateTime, toDateTime);
+    }
+
+    /**
+     * The stats of each metric are cached separately, so a dashboard asking for a metric that is already cached
+     * alongside a new one only aggregates the new one.
+     */
+    @Override
+    public List<Stat> getStats(
+            final Collection<String> metrics,
+            final Collection<StatType> statTypes,
+            final Collection<Double> quantiles,
+            final long fromDateTime,
+            final long toDateTime
+    ) {
+        if (!statsCache.isEnabled())
+            return statsService.getStats(metrics, statTypes, quantiles, fromDateTime, toDateTime);
+
+        final Map<String, List<Stat>> statsByMetric = Maps.newHashMap();
+        final List<String> missing = Lists.newArrayList();
+        for (final String metric : metrics) {
+            if (statsByMetric.containsKey(metric) || missing.contains(metric))
+                continue;
+            final List<Stat> cached = statsCache.get(stations, metric, statTypes, quantiles, fromDateTime, toDateTime);
+            if (cached == null)
+                missing.add(metric);
+            else
+                statsByMetric.put(metric, cached);
+        }
+
+        if (!missing.isEmpty()) {
+            try (StatsCache.Computation computation = statsCache.begin(stations, statTypes, quantiles, fromDateTime, toDateTime)) {
+                final Map<String, List<Stat>> computed = Maps.newHashMap();
+                for (final String metric : missing)
+                    computed.put(metric, Lists.newArrayList());
+                for (final Stat stat : statsService.getStats(missing, statTypes, quantiles, fromDateTime, toDateTime))
+                    computed.get(stat.getMetric()).add(stat);
+                for (final Map.Entry<String, List<Stat>> entry : computed.entrySet())
+                    computation.put(entry.getKey(), entry.getValue());
+                statsByMetric.putAll(computed);
+            }
+        }
+
+        final List<Stat> stats = Lists.newArrayListWithCapacity(metrics.size() * (statTypes.size() + quantiles.size()));
+        for (final String metric : metrics)
+            stats.addAll(statsByMetric.get(metric));
+        return stats;
+    }
+
+    private Stat getStat(final String metric, final StatType statType, final long fromDateTime, final long toDateTime) {
+        final List<Stat> stats = getStats(ImmutableList.of(metric), ImmutableList.of(statType), fromDateTime, toDateTime);
+        return stats.isEmpty() ? null : stats.get(0);
+    }
+}
@@ -1,8 +1,12 @@
 package com.capitalone.service;
 
 import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.QuantileSketch;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * A service level interface that defines all of the operations that can be performed on a Measurement.
@@ -15,27 +19,93 @@ public interface MeasurementsService {
      */
     void create(Measurement m);
 
+    /**
+     * Creates many new Measurement's in the persistence layer with a single store operation.
+     * A Measurement whose timestamp already exists, either in the store or earlier in the same batch, is not created
+     * and does not prevent the others from being created.
+     * @param measurements the Measurement's to persist
+     * @return the timestamps in epoch milliseconds of the Measurement's that were not created because they conflict
+     */
+    Collection<Long> createAll(Collection<Measurement> measurements);
+
     /**
      * Retrieves a Measurement by timestamp.
-     * @param timestamp the timestamp of the Measurement
+     * @param timestamp the timestamp of the Measurement in epoch milliseconds
      * @return the retrieved Measurement
      */
-    Measurement retrieve(String timestamp);
+    Measurement retrieve(long timestamp);
 
     /**
      * Retrieves all Measurement's from a specific date.
-     * @param date the measurement date
+     * @param date the measurement date in the format yyyy-MM-dd
      * @return the collection of Measurement's
      */
     Collection<Measurement> retrieveAll(String date);
 
     /**
      * Retrieves all Measurement's within a timestamp range.
-     * @param fromTimestamp the 'from' timestamp
-     * @param toTimestamp the 'to' timestamp
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
      * @return the collection of Measurement's
      */
-    Collection<Measurement> retrieveAll(String fromTimestamp, String toTimestamp);
+    Collection<Measurement> retrieveAll(long fromTimestamp, long toTimestamp);
+
+    /**
+     * Retrieves the earliest Measurement's within a timestamp range.
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @param limit the maximum number of Measurement's to return
+     * @return at most limit Measurement's, in timestamp order
+     */
+    Collection<Measurement> retrieveAll(long fromTimestamp, long toTimestamp, int limit);
+
+    /**
+     * Retrieves the earliest Measurement's after a timestamp within a range, so that reading a range can carry on
+     * from the last Measurement of the previous call without reading the ones before it again.
+     * @param afterTimestamp the exclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @param limit the maximum number of Measurement's to return
+     * @return at most limit Measurement's, in timestamp order
+     */
+    Collection<Measurement> retrieveAfter(long afterTimestamp, long toTimestamp, int limit);
+
+    /**
+     * Iterates over all Measurement's within a timestamp range in timestamp order, reading them from the store a page
+     * at a time so that only one page is held in memory however large the range is. Measurement's created, updated
+     * or deleted during the iteration may or may not be seen.
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @return an iterator over the Measurement's
+     */
+    Iterator<Measurement> iterateAll(long fromTimestamp, long toTimestamp);
+
+    /**
+     * Collects the running totals of the metrics within a timestamp range. By default every Measurement in the
+     * range is scanned once; implementations with pre-aggregated totals can answer without the scan.
+     * @param metrics the metrics for which to collect values
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @return an accumulator for each of the metrics
+     */
+    default Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+        MetricAccumulator.addAll(accumulators, retrieveAll(fromTimestamp, toTimestamp));
+        return accumulators;
+    }
+
+    /**
+     * Collects a quantile sketch of the metrics within a timestamp range. By default every Measurement in the range
+     * is read once, a page at a time; implementations with pre-built sketches can answer without the scan.
+     * @param metrics the metrics for which to collect values
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @return a sketch for each of the metrics
+     */
+    default Map<String, QuantileSketch> sketch(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Map<String, QuantileSketch> sketches = QuantileSketch.forMetrics(metrics);
+        QuantileSketch.addAll(sketches, () -> iterateAll(fromTimestamp, toTimestamp));
+        return sketches;
+    }
 
     /**
      * Updates an existing Measurement by taking the passed in Measurement as a "whole" update.
@@ -55,8 +125,8 @@ public interface MeasurementsService {
 
     /**
      * Deletes the Measurement at the specified timestamp.
-     * @param timestamp the timestamp of the Measurement
+     * @param timestamp the timestamp of the Measurement in epoch milliseconds
      * @return the Measurement deleted
      */
-    Measurement delete(String timestamp);
+    Measurement delete(long timestamp);
 }
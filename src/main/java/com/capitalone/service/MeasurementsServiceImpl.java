@@ -2,71 +2,217 @@ package com.capitalone.service;
 
 import com.capitalone.exception.EntityNotFoundException;
 import com.capitalone.model.Measurement;
-import com.capitalone.service.store.SortedInMemoryStore;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.ParallelAggregation;
+import com.capitalone.service.aggregate.QuantileAggregator;
+import com.capitalone.service.aggregate.QuantileSketch;
+import com.capitalone.service.aggregate.RangeAggregator;
+import com.capitalone.service.cache.StatsCache;
+import com.capitalone.service.store.MeasurementStores;
 import com.capitalone.service.store.Store;
+import com.capitalone.util.Stations;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
  * A service level class that implements all of the operations that can be performed on a Measurement.
+ * Every successful write invalidates the cached stats whose range holds the written timestamps.
+ *
+ * Each instance works on the Measurement's of one station, held in that station's own Store. Measurement's are
+ * stamped with the station on the way in and out, since some stores only keep the timestamp and metric values.
+ * The Store of a station is only created by the first create; until then the station has no Measurement's to read,
+ * update or delete.
  */
 public class MeasurementsServiceImpl implements MeasurementsService {
-    private final Store<String, Measurement> measurementStore;
+    private static final int PAGE_SIZE = 1024;
+
+    private final String station;
+    private final StatsCache statsCache;
+    private volatile Store<Long, Measurement> measurementStore;
 
     public MeasurementsServiceImpl() {
-        this(SortedInMemoryStore.getInstance());
+        this(Stations.DEFAULT);
+    }
+
+    /**
+     * @param station the id of the station whose Measurement's to work on
+     * @throws IllegalArgumentException if the station id is not well formed
+     */
+    public MeasurementsServiceImpl(final String station) {
+        this(station, MeasurementStores.find(station), StatsCache.getInstance());
     }
 
     /**
      * Inject another implementation of the Store interface.
      * @param store the store to use must use Long and store Measurement.
      */
-    MeasurementsServiceImpl(final Store<String, Measurement> store) {
+    MeasurementsServiceImpl(final Store<Long, Measurement> store) {
+        this(store, StatsCache.disabled());
+    }
+
+    /**
+     * Inject another implementation of the Store interface and the cache of stats over it.
+     * @param store the store to use must use Long and store Measurement.
+     * @param statsCache the cache to invalidate on writes
+     */
+    MeasurementsServiceImpl(final Store<Long, Measurement> store, final StatsCache statsCache) {
+        this(Stations.DEFAULT, store, statsCache);
+    }
+
+    /**
+     * Inject the Store of a station and the cache of stats over it.
+     * @param station the id of the station whose Measurement's the store holds
+     * @param store the store to use must use Long and store Measurement.
+     * @param statsCache the cache to invalidate on writes
+     */
+    MeasurementsServiceImpl(final String station, final Store<Long, Measurement> store, final StatsCache statsCache) {
+        this.station = station;
         this.measurementStore = store;
+        this.statsCache = statsCache;
     }
 
     @Override
     public void create(final Measurement m) {
-        measurementStore.create(m, m.getTimestamp());
+        createdStore().create(m.withStation(station).registered(), m.getTimestamp());
+        statsCache.invalidate(station, m.getTimestamp());
     }
 
     @Override
-    public Measurement retrieve(final String timestamp) {
-        return measurementStore.retrieve(timestamp);
+    public Collection<Long> createAll(final Collection<Measurement> measurements) {
+        final Map<Long, Measurement> batch = Maps.newLinkedHashMapWithExpectedSize(measurements.size());
+        final List<Long> conflicts = Lists.newArrayList();
+        for (final Measurement m : measurements) {
+            if (batch.putIfAbsent(m.getTimestamp(), m.withStation(station).registered()) != null)
+                conflicts.add(m.getTimestamp());
+        }
+        final Collection<Long> existing = createdStore().createAll(batch);
+        batch.keySet().removeAll(existing);
+        statsCache.invalidateAll(station, batch.keySet());
+        conflicts.addAll(existing);
+        return conflicts;
+    }
+
+    @Override
+    public Measurement retrieve(final long timestamp) {
+        return stamped(existingStore().retrieve(timestamp));
     }
 
     @Override
     public Collection<Measurement> retrieveAll(final String date) {
-        final String fromTimestamp = date + "T00:00:00.000Z";
-        final String toTimestamp = date + "T23:59:59.999Z";
-        return measurementStore.retrieveInRange(fromTimestamp, true, toTimestamp, true);
+        final long fromTimestamp = Timestamps.parseDate(date);
+        return retrieveAll(fromTimestamp, fromTimestamp + Timestamps.MILLIS_PER_DAY);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAll(final long fromTimestamp, final long toTimestamp) {
+        final Store<Long, Measurement> store = findStore();
+        if (store == null)
+            return Collections.emptyList();
+        return stamped(store.retrieveInRange(fromTimestamp, true, toTimestamp, false));
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAll(final long fromTimestamp, final long toTimestamp, final int limit) {
+        final Store<Long, Measurement> store = findStore();
+        if (store == null || fromTimestamp >= toTimestamp)
+            return Collections.emptyList();
+        return stamped(store.retrieveInRange(fromTimestamp, true, toTimestamp, false, limit));
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAfter(final long afterTimestamp, final long toTimestamp, final int limit) {
+        final Store<Long, Measurement> store = findStore();
+        if (store == null || afterTimestamp >= toTimestamp)
+            return Collections.emptyList();
+        return stamped(store.retrieveInRange(afterTimestamp, false, toTimestamp, false, limit));
+    }
+
+    @Override
+    public Iterator<Measurement> iterateAll(final long fromTimestamp, final long toTimestamp) {
+        return new AbstractIterator<Measurement>() {
+            private long from = fromTimestamp;
+            private boolean fromInclusive = true;
+            private Iterator<Measurement> page = nextPage();
+
+            @Override
+            protected Measurement computeNext() {
+                if (!page.hasNext())
+                    page = nextPage();
+                if (!page.hasNext())
+                    return endOfData();
+
+                final Measurement m = stamped(page.next());
+                from = m.getTimestamp();
+                fromInclusive = false;
+                return m;
+            }
+
+            private Iterator<Measurement> nextPage() {
+                final Store<Long, Measurement> store = findStore();
+                if (store == null || from >= toTimestamp)
+                    return Collections.emptyIterator();
+                return store.retrieveInRange(from, fromInclusive, toTimestamp, false, PAGE_SIZE).iterator();
+            }
+        };
     }
 
+    /**
+     * Uses the pre-aggregated totals of the store if it keeps them, otherwise scans the range, splitting large
+     * ranges across the cores.
+     */
     @Override
-    public Collection<Measurement> retrieveAll(final String fromTimestamp, final String toTimestamp) {
-        return measurementStore.retrieveInRange(fromTimestamp, true, toTimestamp, false);
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Store<Long, Measurement> store = findStore();
+        if (store instanceof RangeAggregator)
+            return ((RangeAggregator) store).aggregate(metrics, fromTimestamp, toTimestamp);
+        return ParallelAggregation.aggregate(this::retrieveAll, metrics, fromTimestamp, toTimestamp);
+    }
+
+    /**
+     * Uses the pre-built sketches of the store if it keeps them, otherwise scans the range.
+     */
+    @Override
+    public Map<String, QuantileSketch> sketch(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Store<Long, Measurement> store = findStore();
+        if (store instanceof QuantileAggregator)
+            return ((QuantileAggregator) store).sketch(metrics, fromTimestamp, toTimestamp);
+        return MeasurementsService.super.sketch(metrics, fromTimestamp, toTimestamp);
     }
 
     @Override
     public Measurement updateWhole(final Measurement m) {
-        return measurementStore.update(m, m.getTimestamp());
+        final Measurement previous = existingStore().update(m.withStation(station).registered(), m.getTimestamp());
+        statsCache.invalidate(station, m.getTimestamp());
+        return stamped(previous);
     }
 
     @Override
     public Measurement updatePartial(final Measurement m) {
-        final Measurement existingM = measurementStore.retrieve(m.getTimestamp());
+        final Store<Long, Measurement> store = existingStore();
+        final Measurement existingM = store.retrieve(m.getTimestamp());
         if (existingM == null)
             throw new EntityNotFoundException(String.format("Measurement with id %s not found.", m.getTimestamp()));
         final Measurement updatedM = applyPartialUpdate(existingM, m);
 
-        return measurementStore.update(updatedM, m.getTimestamp());
+        final Measurement previous = store.update(updatedM, m.getTimestamp());
+        statsCache.invalidate(station, m.getTimestamp());
+        return stamped(previous);
     }
 
     @Override
-    public Measurement delete(final String timestamp) {
-        return measurementStore.delete(timestamp);
+    public Measurement delete(final long timestamp) {
+        final Measurement deleted = existingStore().delete(timestamp);
+        statsCache.invalidate(station, timestamp);
+        return stamped(deleted);
     }
 
     /**
@@ -74,7 +220,40 @@ public class MeasurementsServiceImpl implements MeasurementsService {
      * This can be used during testing to reset the state of the store.
      */
     protected void clearAll() {
-        measurementStore.clear();
+        final Store<Long, Measurement> store = findStore();
+        if (store == null)
+            return;
+        store.clear();
+        statsCache.invalidateAll(station);
+    }
+
+    /**
+     * @return the Store of the station, or null if nothing has been created in it yet
+     */
+    private Store<Long, Measurement> findStore() {
+        if (measurementStore == null)
+            measurementStore = MeasurementStores.find(station);
+        return measurementStore;
+    }
+
+    /**
+     * @return the Store of the station
+     * @throws EntityNotFoundException if nothing has been created in it yet
+     */
+    private Store<Long, Measurement> existingStore() {
+        final Store<Long, Measurement> store = findStore();
+        if (store == null)
+            throw new EntityNotFoundException(String.format("Station %s has no measurements.", station));
+        return store;
+    }
+
+    /**
+     * @return the Store of the station, which is created if it has none yet
+     */
+    private Store<Long, Measurement> createdStore() {
+        if (measurementStore == null)
+            measurementStore = MeasurementStores.getInstance(station);
+        return measurementStore;
     }
 
     /**
@@ -88,7 +267,22 @@ public class MeasurementsServiceImpl implements MeasurementsService {
         updatedMetrics.putAll(existing.getMetrics());
         updatedMetrics.putAll(deltaUpdate.getMetrics());
 
-        return new Measurement(existing.getTimestamp(), updatedMetrics);
+        return new Measurement(station, existing.getTimestamp(), updatedMetrics);
+    }
+
+    private Measurement stamped(final Measurement m) {
+        return m == null ? null : m.withStation(station);
+    }
+
+    /**
+     * @return the Measurement's themselves if they are all stamped with the station already, otherwise stamped copies
+     */
+    private Collection<Measurement> stamped(final Collection<Measurement> measurements) {
+        for (final Measurement m : measurements) {
+            if (!station.equals(m.getStation()))
+                return Lists.newArrayList(Collections2.transform(measurements, this::stamped));
+        }
+        return measurements;
     }
 
 }
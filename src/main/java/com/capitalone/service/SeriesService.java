@@ -0,0 +1,25 @@
+package com.capitalone.service;
+
+import com.capitalone.model.DownsampleMethod;
+import com.capitalone.model.Series;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A service level interface that defines the downsampled series operations for a measurement.
+ */
+public interface SeriesService {
+    /**
+     * Reduces the readings of each metric within the bounds of {@code fromDateTime} and {@code toDateTime} to at
+     * most {@code points} points. The measurements in the range are only read once, a page at a time, regardless of
+     * the number of metrics requested.
+     * @param metrics the metrics to build a series for
+     * @param method how the readings are reduced
+     * @param points the maximum number of points in each series
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
+     * @return a series for each metric, in the order requested
+     */
+    List<Series> getSeries(Collection<String> metrics, DownsampleMethod method, int points, long fromDateTime, long toDateTime);
+}
@@ -0,0 +1,67 @@
+package com.capitalone.service;
+
+import com.capitalone.model.DownsampleMethod;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricDictionary;
+import com.capitalone.model.MetricValues;
+import com.capitalone.model.Series;
+import com.capitalone.service.downsample.Downsampler;
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A service level class that implements the downsampled series operations for a measurement.
+ */
+@Slf4j
+public class SeriesServiceImpl implements SeriesService {
+    private final MeasurementsService measurementsService;
+
+    public SeriesServiceImpl() {
+        this(new MeasurementsServiceImpl());
+    }
+
+    public SeriesServiceImpl(final MeasurementsService measurementsService) {
+        this.measurementsService = measurementsService;
+    }
+
+    @Override
+    public List<Series> getSeries(
+            final Collection<String> metrics,
+            final DownsampleMethod method,
+            final int points,
+            final long fromDateTime,
+            final long toDateTime
+    ) {
+        final boolean debug = log.isDebugEnabled();
+        if (debug)
+            log.debug("Getting {} series of {} points for metrics {} from {} to {}", method, points, metrics, fromDateTime, toDateTime);
+        final String[] names = metrics.toArray(new String[metrics.size()]);
+        final int[] ids = new int[names.length];
+        final Downsampler[] downsamplers = new Downsampler[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = MetricDictionary.lookup(names[i]);
+            downsamplers[i] = Downsampler.of(method, fromDateTime, toDateTime, points);
+        }
+
+        final Iterator<Measurement> measurements = measurementsService.iterateAll(fromDateTime, toDateTime);
+        while (measurements.hasNext()) {
+            final Measurement m = measurements.next();
+            final MetricValues values = m.getMetrics();
+            for (int i = 0; i < names.length; i++) {
+                final int index = ids[i] >= 0 ? values.indexOf(ids[i]) : -1;
+                if (index >= 0) downsamplers[i].add(m.getTimestamp(), values.valueAt(index));
+            }
+        }
+
+        final ImmutableList.Builder<Series> series = ImmutableList.builder();
+        for (int i = 0; i < names.length; i++)
+            series.add(new Series(names[i], method, downsamplers[i].finish()));
+        if (debug)
+            log.debug("Done: Getting {} series of {} points for metrics {} from {} to {}", method, points, metrics, fromDateTime, toDateTime);
+        return series.build();
+    }
+}
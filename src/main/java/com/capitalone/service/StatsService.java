@@ -1,6 +1,11 @@
 package com.capitalone.service;
 
 import com.capitalone.model.Stat;
+import com.capitalone.model.StatType;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A service level interface that defines the supported statistic operations for a measurement.
@@ -9,28 +14,93 @@ public interface StatsService {
     /**
      * Gets the average for the metric within the bounds of {@code fromDateTime} and {@code toDateTime}
      * @param metric the metric to use for the average
-     * @param fromDateTime the date-time to retrieve the metric data FROM
-     * @param toDateTime the date-time to retrieve the metric data UNTIL
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
      * @return the calculated average as a Stat
      */
-    Stat getAverage(final String metric, final String fromDateTime, final String toDateTime);
+    Stat getAverage(final String metric, final long fromDateTime, final long toDateTime);
 
     /**
      * Gets the maximum for the metric within the bounds of {@code fromDateTime} and {@code toDateTime}
      * @param metric the metric to scan for the maximum
-     * @param fromDateTime the date-time to retrieve the metric data FROM
-     * @param toDateTime the date-time to retrieve the metric data UNTIL
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
      * @return the calculated maximum as a Stat
      */
-    Stat getMax(final String metric, final String fromDateTime, final String toDateTime);
+    Stat getMax(final String metric, final long fromDateTime, final long toDateTime);
 
 
     /**
      * Gets the minimum for the metric within the bounds of {@code fromDateTime} and {@code toDateTime}
      * @param metric the metric to scan for the minimum
-     * @param fromDateTime the date-time to retrieve the metric data FROM
-     * @param toDateTime the date-time to retrieve the metric data UNTIL
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
      * @return the calculated minimum as a Stat
      */
-    Stat getMin(final String metric, final String fromDateTime, final String toDateTime);
+    Stat getMin(final String metric, final long fromDateTime, final long toDateTime);
+
+    /**
+     * Gets the number of readings of the metric within the bounds of {@code fromDateTime} and {@code toDateTime}
+     * @param metric the metric to count
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
+     * @return the number of readings as a Stat
+     */
+    Stat getCount(final String metric, final long fromDateTime, final long toDateTime);
+
+    /**
+     * Gets the sum for the metric within the bounds of {@code fromDateTime} and {@code toDateTime}
+     * @param metric the metric to sum
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
+     * @return the calculated sum as a Stat
+     */
+    Stat getSum(final String metric, final long fromDateTime, final long toDateTime);
+
+    /**
+     * Gets the population variance for the metric within the bounds of {@code fromDateTime} and {@code toDateTime}
+     * @param metric the metric to use for the variance
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
+     * @return the calculated variance as a Stat
+     */
+    Stat getVariance(final String metric, final long fromDateTime, final long toDateTime);
+
+    /**
+     * Gets the population standard deviation for the metric within the bounds of {@code fromDateTime} and
+     * {@code toDateTime}
+     * @param metric the metric to use for the standard deviation
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
+     * @return the calculated standard deviation as a Stat
+     */
+    Stat getStandardDeviation(final String metric, final long fromDateTime, final long toDateTime);
+
+    /**
+     * Gets every requested statistic for every requested metric within the bounds of {@code fromDateTime} and
+     * {@code toDateTime}. The measurements in the range are only scanned once, regardless of the number of
+     * metrics and statistics requested.
+     * @param metrics the metrics to compute the statistics for
+     * @param statTypes the statistics to compute for each metric
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
+     * @return the calculated statistics ordered by metric and then by stat type. Metrics without data are omitted.
+     */
+    default List<Stat> getStats(final Collection<String> metrics, final Collection<StatType> statTypes, final long fromDateTime, final long toDateTime) {
+        return getStats(metrics, statTypes, Collections.emptyList(), fromDateTime, toDateTime);
+    }
+
+    /**
+     * Gets every requested statistic and quantile for every requested metric within the bounds of
+     * {@code fromDateTime} and {@code toDateTime}. The running totals are collected in a single pass and, only if
+     * a quantile statistic is requested, the quantile sketches in one more.
+     * @param metrics the metrics to compute the statistics for
+     * @param statTypes the statistics to compute for each metric, which must not include QUANTILE
+     * @param quantiles the quantiles between 0 and 1 to estimate for each metric, returned as QUANTILE stats
+     * @param fromDateTime the date-time in epoch milliseconds to retrieve the metric data FROM
+     * @param toDateTime the date-time in epoch milliseconds to retrieve the metric data UNTIL
+     * @return the calculated statistics ordered by metric, then by stat type and then by quantile. Metrics without
+     * data are omitted.
+     */
+    List<Stat> getStats(final Collection<String> metrics, final Collection<StatType> statTypes, final Collection<Double> quantiles, final long fromDateTime, final long toDateTime);
 }
@@ -1,93 +1,175 @@
 package com.capitalone.service;
 
-import com.capitalone.model.Measurement;
 import com.capitalone.model.Stat;
 import com.capitalone.model.StatType;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.QuantileSketch;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
-import java.util.OptionalDouble;
+import java.util.Map;
 
 /**
  * A service level class that implements the supported statistic operations for a measurement.
+ *
+ * The stats can be over the readings of several stations together. Each station's store is aggregated on its own
+ * and the totals and sketches of the stations are then merged, so the readings are never gathered in one place.
  */
 @Slf4j
 public class StatsServiceImpl implements StatsService {
-    private final MeasurementsService measurementsService;
+    private final List<MeasurementsService> measurementsServices;
 
     public StatsServiceImpl() {
         this(new MeasurementsServiceImpl());
     }
 
     public StatsServiceImpl(final MeasurementsService measurementsService) {
-        this.measurementsService = measurementsService;
+        this.measurementsServices = ImmutableList.of(measurementsService);
+    }
+
+    /**
+     * Computes the stats over the readings of all the stations together.
+     * @param stations the station ids
+     */
+    public StatsServiceImpl(final Collection<String> stations) {
+        final ImmutableList.Builder<MeasurementsService> measurementsServices = ImmutableList.builder();
+        for (final String station : stations)
+            measurementsServices.add(new MeasurementsServiceImpl(station));
+        this.measurementsServices = measurementsServices.build();
+    }
+
+    /**
+     * Computes the stats over the Measurement's of all the services together.
+     * @param measurementsServices the services, e.g. one for each station
+     */
+    public StatsServiceImpl(final List<MeasurementsService> measurementsServices) {
+        this.measurementsServices = ImmutableList.copyOf(measurementsServices);
     }
 
     @Override
-    public Stat getAverage(final String metric, final String fromDateTime, final String toDateTime) {
-        log.info("Getting average for metric {} from {} to {}", metric, fromDateTime, toDateTime);
-        final Stat avgStat;
-        final Collection<Float> metrics = collect(fromDateTime, toDateTime, metric);
-        if (!metrics.isEmpty()) {
-            final OptionalDouble calc = metrics.stream().mapToDouble(v -> v).average();
-            avgStat = calc.isPresent() ? new Stat(metric, StatType.AVERAGE, (float)calc.getAsDouble()) : null;
-        } else {
-            log.info("Return null. No metrics for {} between {} and {}.", metric, fromDateTime, toDateTime);
-            avgStat = null;
-        }
-        log.info("Done: Getting average for metric {} from {} to {}", metric, fromDateTime, toDateTime);
-        return avgStat;
+    public Stat getAverage(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.AVERAGE, fromDateTime, toDateTime);
     }
 
     @Override
-    public Stat getMax(final String metric, final String fromDateTime, final String toDateTime) {
-        log.info("Getting max for metric {} from {} to {}", metric, fromDateTime, toDateTime);
-        final Stat maxStat;
-        final Collection<Float> metrics = collect(fromDateTime, toDateTime, metric);
-        if (!metrics.isEmpty()) {
-            final Optional<Float> calc = metrics.stream().max(Float::compare);
-            maxStat = calc.isPresent() ? new Stat(metric, StatType.MAX, calc.get()) : null;
-        } else {
-            log.info("Return null. No metrics for {} between {} and {}.", metric, fromDateTime, toDateTime);
-            maxStat = null;
-        }
-        log.info("Done: Getting max for metric {} from {} to {}", metric, fromDateTime, toDateTime);
-        return maxStat;
+    public Stat getMax(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.MAX, fromDateTime, toDateTime);
     }
 
     @Override
-    public Stat getMin(final String metric, final String fromDateTime, final String toDateTime) {
-        log.info("Getting min for metric {} from {} to {}", metric, fromDateTime, toDateTime);
-        final Stat minStat;
-        final Collection<Float> metrics = collect(fromDateTime, toDateTime, metric);
-        if (!metrics.isEmpty()) {
-            final Optional<Float> calc = metrics.stream().min(Float::compare);
-            minStat = calc.isPresent() ? new Stat(metric, StatType.MIN, calc.get()) : null;
-        } else {
-            log.info("Return null. No metrics for {} between {} and {}.", metric, fromDateTime, toDateTime);
-            minStat = null;
+    public Stat getMin(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.MIN, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getCount(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.COUNT, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getSum(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.SUM, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getVariance(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.VARIANCE, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public Stat getStandardDeviation(final String metric, final long fromDateTime, final long toDateTime) {
+        return getStat(metric, StatType.STANDARD_DEVIATION, fromDateTime, toDateTime);
+    }
+
+    @Override
+    public List<Stat> getStats(
+            final Collection<String> metrics,
+            final Collection<StatType> statTypes,
+            final Collection<Double> quantiles,
+            final long fromDateTime,
+            final long toDateTime
+    ) {
+        final boolean debug = log.isDebugEnabled();
+        if (debug)
+            log.debug("Getting stats {} and quantiles {} for metrics {} from {} to {}", statTypes, quantiles, metrics, fromDateTime, toDateTime);
+        final Map<String, MetricAccumulator> accumulators = aggregate(metrics, fromDateTime, toDateTime);
+        final Map<String, QuantileSketch> sketches = needsSketches(statTypes, quantiles)
+                ? sketch(metrics, fromDateTime, toDateTime)
+                : Collections.emptyMap();
+        final List<Stat> stats = Lists.newArrayListWithCapacity(metrics.size() * (statTypes.size() + quantiles.size()));
+        for (final String metric : metrics) {
+            final MetricAccumulator accumulator = accumulators.get(metric);
+            if (accumulator.isEmpty()) {
+                if (debug)
+                    log.debug("No metrics for {} between {} and {}.", metric, fromDateTime, toDateTime);
+                continue;
+            }
+            for (final StatType statType : statTypes) {
+                final double value = statType.isQuantile()
+                        ? Stat.floatPrecision(sketches.get(metric).quantile(statType.getQuantile()))
+                        : accumulator.getValue(statType);
+                stats.add(new Stat(metric, statType, value));
+            }
+            for (final Double quantile : quantiles)
+                stats.add(new Stat(metric, StatType.QUANTILE, quantile, Stat.floatPrecision(sketches.get(metric).quantile(quantile))));
+        }
+        if (debug)
+            log.debug("Done: Getting stats {} for metrics {} from {} to {}", statTypes, metrics, fromDateTime, toDateTime);
+        return stats;
+    }
+
+    /**
+     * @return the totals of each metric over every station, merged from the totals of each station
+     */
+    private Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromDateTime, final long toDateTime) {
+        if (measurementsServices.size() == 1)
+            return measurementsServices.get(0).aggregate(metrics, fromDateTime, toDateTime);
+        final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+        for (final MeasurementsService measurementsService : measurementsServices) {
+            for (final Map.Entry<String, MetricAccumulator> entry : measurementsService.aggregate(metrics, fromDateTime, toDateTime).entrySet())
+                accumulators.get(entry.getKey()).merge(entry.getValue());
         }
-        log.info("Done: Getting min for metric {} from {} to {}", metric, fromDateTime, toDateTime);
-        return minStat;
+        return accumulators;
     }
 
     /**
-     * Collects all metric values within the specified date-time range.
+     * @return the sketch of each metric over every station, merged from the sketches of each station
+     */
+    private Map<String, QuantileSketch> sketch(final Collection<String> metrics, final long fromDateTime, final long toDateTime) {
+        if (measurementsServices.size() == 1)
+            return measurementsServices.get(0).sketch(metrics, fromDateTime, toDateTime);
+        final Map<String, QuantileSketch> sketches = QuantileSketch.forMetrics(metrics);
+        for (final MeasurementsService measurementsService : measurementsServices) {
+            for (final Map.Entry<String, QuantileSketch> entry : measurementsService.sketch(metrics, fromDateTime, toDateTime).entrySet())
+                sketches.get(entry.getKey()).merge(entry.getValue());
+        }
+        return sketches;
+    }
+
+    private static boolean needsSketches(final Collection<StatType> statTypes, final Collection<Double> quantiles) {
+        if (!quantiles.isEmpty())
+            return true;
+        for (final StatType statType : statTypes) {
+            if (statType.isQuantile())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Computes a single statistic for a single metric.
+     * @param metric the metric to compute the statistic for
+     * @param statType the statistic to compute
      * @param fromDateTime the date-time to retrieve the metric data FROM
      * @param toDateTime the date-time to retrieve the metric data UNTIL
-     * @param metric the metric for which to collect values
-     * @return the collection of metric values
+     * @return the calculated Stat or null if there are no values for the metric within the range
      */
-    private Collection<Float> collect(final String fromDateTime, final String toDateTime, final String metric) {
-        final Collection<Measurement> measurements = measurementsService.retrieveAll(fromDateTime, toDateTime);
-        final List<Float> values = Lists.newArrayList();
-        for (final Measurement m : measurements) {
-            final Float value = m.getMetrics().get(metric);
-            if (value != null) values.add(value);
-        }
-        return values;
+    private Stat getStat(final String metric, final StatType statType, final long fromDateTime, final long toDateTime) {
+        final List<Stat> stats = getStats(ImmutableList.of(metric), ImmutableList.of(statType), fromDateTime, toDateTime);
+        return stats.isEmpty() ? null : stats.get(0);
     }
 }
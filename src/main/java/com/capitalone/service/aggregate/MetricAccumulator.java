@@ -0,0 +1,201 @@
+package com.capitalone.service.aggregate;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricDictionary;
+import com.capitalone.model.MetricValues;
+import com.capitalone.model.Stat;
+import com.capitalone.model.StatType;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A mutable, single-pass accumulator for the values of one metric.
+ * All of the supported StatType's are derived from the same running totals so that a range only needs to be
+ * scanned once regardless of how many statistics are requested.
+ *
+ * The variance is tracked with Welford's algorithm, which updates the mean and the sum of squared differences from
+ * the mean with every value rather than subtracting two large sums of squares, so it stays accurate for readings
+ * such as temperatures that vary little around a large mean. Partial results from independent scans, partitions or
+ * threads can be combined with merge, which uses the pairwise form of the same update.
+ *
+ * This class is not thread-safe.
+ */
+public final class MetricAccumulator {
+    private long count;
+    private double sum;
+    private double mean;
+    private double m2;
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+
+    /**
+     * Creates an empty accumulator for each of the metrics.
+     * @param metrics the metric names
+     * @return a mutable map of metric name to accumulator
+     */
+    public static Map<String, MetricAccumulator> forMetrics(final Collection<String> metrics) {
+        final Map<String, MetricAccumulator> accumulators = Maps.newHashMapWithExpectedSize(metrics.size());
+        for (final String metric : metrics)
+            accumulators.put(metric, new MetricAccumulator());
+        return accumulators;
+    }
+
+    /**
+     * Lays the accumulators out by MetricDictionary id, so that a scan finds the accumulator of each value without
+     * hashing the metric name.
+     * @param accumulators the accumulators keyed by metric name
+     * @return the accumulators at the id of their metric, null for metrics without one or that were never reported
+     */
+    public static MetricAccumulator[] byId(final Map<String, MetricAccumulator> accumulators) {
+        final MetricAccumulator[] targets = new MetricAccumulator[MetricDictionary.size()];
+        for (final Map.Entry<String, MetricAccumulator> entry : accumulators.entrySet()) {
+            final int id = MetricDictionary.lookup(entry.getKey());
+            if (id >= 0 && id < targets.length)
+                targets[id] = entry.getValue();
+        }
+        return targets;
+    }
+
+    /**
+     * Adds the values reported by each Measurement to the accumulator for that metric. Metrics without an
+     * accumulator are ignored.
+     * @param accumulators the accumulators keyed by metric name
+     * @param measurements the Measurement's to add
+     */
+    public static void addAll(final Map<String, MetricAccumulator> accumulators, final Iterable<Measurement> measurements) {
+        final MetricAccumulator[] targets = byId(accumulators);
+        for (final Measurement m : measurements) {
+            final MetricValues values = m.getMetrics();
+            for (int i = 0; i < values.size(); i++) {
+                final int id = values.idAt(i);
+                if (id < targets.length && targets[id] != null)
+                    targets[id].add(values.valueAt(i));
+            }
+        }
+    }
+
+    /**
+     * Adds a single metric value to the running totals.
+     * @param value the metric value
+     */
+    public void add(final float value) {
+        count++;
+        sum += value;
+        final double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    /**
+     * Combines the running totals of another accumulator into this one.
+     * @param other the accumulator to merge
+     */
+    public void merge(final MetricAccumulator other) {
+        if (other.count == 0)
+            return;
+        merge(other.count, other.sum, other.mean, other.m2, other.min, other.max);
+    }
+
+    /**
+     * Combines pre-computed running totals into this one.
+     * @param otherCount the number of values
+     * @param otherSum the sum of the values
+     * @param otherM2 the sum of the squared differences of the values from their mean
+     * @param otherMin the smallest value
+     * @param otherMax the largest value
+     */
+    public void merge(final long otherCount, final double otherSum, final double otherM2, final float otherMin, final float otherMax) {
+        if (otherCount == 0)
+            return;
+        merge(otherCount, otherSum, otherSum / otherCount, otherM2, otherMin, otherMax);
+    }
+
+    private void merge(final long otherCount, final double otherSum, final double otherMean, final double otherM2, final float otherMin, final float otherMax) {
+        final long total = count + otherCount;
+        final double delta = otherMean - mean;
+        mean += delta * otherCount / total;
+        m2 += otherM2 + delta * delta * ((double) count * otherCount / total);
+        count = total;
+        sum += otherSum;
+        if (otherMin < min) min = otherMin;
+        if (otherMax > max) max = otherMax;
+    }
+
+    /**
+     * @return true if no values have been accumulated
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the sum of the squared differences of the values from their mean, which can be merged into another
+     * accumulator together with the count, sum, min and max
+     */
+    public double getM2() {
+        return m2;
+    }
+
+    public float getMin() {
+        return min;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    public float getAverage() {
+        return (float) (sum / count);
+    }
+
+    /**
+     * @return the population variance of the values, i.e. the mean squared difference from their mean
+     */
+    public double getVariance() {
+        return m2 / count;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Gets the value of the statistic from the running totals. Must not be called on an empty accumulator.
+     * The count is exact and the sum keeps the precision of the running sum, since both outgrow a float over long
+     * ranges; the other statistics have the float precision of the readings, as given by Stat.floatPrecision.
+     * @param statType the statistic to compute
+     * @return the statistic value
+     */
+    public double getValue(final StatType statType) {
+        switch (statType) {
+            case AVERAGE:
+                return Stat.floatPrecision(getAverage());
+            case MAX:
+                return Stat.floatPrecision(getMax());
+            case MIN:
+                return Stat.floatPrecision(getMin());
+            case COUNT:
+                return count;
+            case SUM:
+                return sum;
+            case VARIANCE:
+                return Stat.floatPrecision(getVariance());
+            case STANDARD_DEVIATION:
+                return Stat.floatPrecision(getStandardDeviation());
+            default:
+                throw new IllegalArgumentException("Unsupported StatType: " + statType);
+        }
+    }
+}
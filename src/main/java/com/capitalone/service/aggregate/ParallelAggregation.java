@@ -0,0 +1,170 @@
+package com.capitalone.service.aggregate;
+
+import com.capitalone.model.Measurement;
+import com.google.common.collect.Iterables;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Totals up large ranges in parallel on a dedicated ForkJoinPool. A range holding more readings than the threshold
+ * is split into sub-ranges of the sorted timestamps, each sub-range is totalled into its own MetricAccumulator's and
+ * the partial totals are merged on the way back up. Ranges at or below the threshold are totalled on the calling
+ * thread as before.
+ *
+ * The pool is separate from the common pool so that a long analytics query cannot starve parallel streams elsewhere
+ * in the process, and is sized with the system property {@value #PARALLELISM_PROPERTY}, defaulting to the number of
+ * cores. The threshold is the system property {@value #THRESHOLD_PROPERTY}.
+ */
+public final class ParallelAggregation {
+    public static final String THRESHOLD_PROPERTY = "measurement.aggregate.parallel.threshold";
+    public static final String PARALLELISM_PROPERTY = "measurement.aggregate.parallelism";
+    public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+    private static final int THRESHOLD = Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()),
+            pool -> {
+                final ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                worker.setName("range-aggregation-" + worker.getPoolIndex());
+                return worker;
+            },
+            null,
+            false);
+
+    private ParallelAggregation() {}
+
+    /**
+     * Reads the earliest Measurement's within a timestamp range, such as MeasurementsService.retrieveAll.
+     */
+    @FunctionalInterface
+    public interface RangeReader {
+        /**
+         * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+         * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+         * @param limit the maximum number of Measurement's to return
+         * @return at most limit Measurement's, in timestamp order
+         */
+        Collection<Measurement> read(long fromTimestamp, long toTimestamp, int limit);
+    }
+
+    /**
+     * @return the number of readings above which a range is totalled in parallel
+     */
+    public static int threshold() {
+        return THRESHOLD;
+    }
+
+    /**
+     * Runs a task on the aggregation pool and waits for its result.
+     * @param task the task to run
+     * @param <T> the type of the result
+     * @return the result of the task
+     */
+    public static <T> T invoke(final ForkJoinTask<T> task) {
+        return POOL.invoke(task);
+    }
+
+    /**
+     * Totals up the metrics within a timestamp range, in parallel if it holds more than the threshold readings.
+     * @param reader reads the Measurement's of a sub-range
+     * @param metrics the metrics for which to collect values
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @return an accumulator for each of the metrics
+     */
+    public static Map<String, MetricAccumulator> aggregate(final RangeReader reader, final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        return aggregate(reader, metrics, fromTimestamp, toTimestamp, THRESHOLD);
+    }
+
+    /**
+     * Totals up the metrics within a timestamp range, in parallel if it holds more than the threshold readings.
+     * @param reader reads the Measurement's of a sub-range
+     * @param metrics the metrics for which to collect values
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @param threshold the number of readings above which the range is split
+     * @return an accumulator for each of the metrics
+     */
+    public static Map<String, MetricAccumulator> aggregate(
+            final RangeReader reader,
+            final Collection<String> metrics,
+            final long fromTimestamp,
+            final long toTimestamp,
+            final int threshold
+    ) {
+        final ScanTask task = new ScanTask(reader, metrics, fromTimestamp, toTimestamp, threshold);
+        //The first read tells whether the range is small enough to stay on this thread
+        if (!task.readFirst())
+            return task.compute();
+        return invoke(task);
+    }
+
+    /**
+     * Merges partial totals into the totals of the same metrics.
+     * @param accumulators the totals to merge into
+     * @param partial the partial totals, keyed by the same metrics
+     */
+    public static void mergeAll(final Map<String, MetricAccumulator> accumulators, final Map<String, MetricAccumulator> partial) {
+        for (final Map.Entry<String, MetricAccumulator> entry : accumulators.entrySet())
+            entry.getValue().merge(partial.get(entry.getKey()));
+    }
+
+    /**
+     * Totals up the first threshold readings of its range itself and splits the rest of the range in two.
+     * Nothing is read twice apart from the one reading past the threshold that shows there is more to do.
+     */
+    private static final class ScanTask extends RecursiveTask<Map<String, MetricAccumulator>> {
+        private final RangeReader reader;
+        private final Collection<String> metrics;
+        private final long fromTimestamp;
+        private final long toTimestamp;
+        private final int threshold;
+        private Collection<Measurement> first;
+
+        ScanTask(final RangeReader reader, final Collection<String> metrics, final long fromTimestamp, final long toTimestamp, final int threshold) {
+            this.reader = reader;
+            this.metrics = metrics;
+            this.fromTimestamp = fromTimestamp;
+            this.toTimestamp = toTimestamp;
+            this.threshold = threshold;
+        }
+
+        /**
+         * Reads up to one reading past the threshold.
+         * @return true if the range holds more than the threshold readings
+         */
+        boolean readFirst() {
+            first = fromTimestamp < toTimestamp ? reader.read(fromTimestamp, toTimestamp, threshold + 1) : Collections.emptyList();
+            return first.size() > threshold;
+        }
+
+        @Override
+        protected Map<String, MetricAccumulator> compute() {
+            final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+            if (first == null)
+                readFirst();
+            if (first.size() <= threshold) {
+                MetricAccumulator.addAll(accumulators, first);
+                return accumulators;
+            }
+
+            //The rest of the range starts just after the last reading totalled here
+            final long restFrom = Iterables.get(first, threshold - 1).getTimestamp() + 1;
+            final long middle = restFrom + ((toTimestamp - restFrom) >>> 1);
+            final ScanTask lower = new ScanTask(reader, metrics, restFrom, middle, threshold);
+            final ScanTask upper = new ScanTask(reader, metrics, middle, toTimestamp, threshold);
+            lower.fork();
+            MetricAccumulator.addAll(accumulators, Iterables.limit(first, threshold));
+            first = null;
+            mergeAll(accumulators, upper.compute());
+            mergeAll(accumulators, lower.join());
+            return accumulators;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.capitalone.service.aggregate;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricDictionary;
+import com.capitalone.model.MetricValues;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A mergeable sketch of the distribution of one metric's values that answers quantile queries, based on the merging
+ * t-digest. The values are summarised as centroids (a mean and a weight) that are kept small near the tails and
+ * larger near the median, so extreme quantiles such as p99 stay accurate while the sketch never holds more than a
+ * few hundred centroids however many values it has seen.
+ *
+ * Until the number of values approaches the compression, every value is its own centroid and quantiles are exact.
+ * Sketches of disjoint sets of values, such as the values of two time buckets, can be combined with merge; the
+ * result is as accurate as a sketch built from all of the values.
+ *
+ * New values are appended to a buffer and folded into the centroids once the buffer is full or the sketch is read,
+ * so adding a value is usually just an array store. This class is not thread-safe.
+ */
+public final class QuantileSketch {
+    private static final double COMPRESSION = 100;
+    private static final int MAX_SIZE = (int) (6 * COMPRESSION);
+    private static final double K_MAX = COMPRESSION / 4;
+
+    //The first 'merged' entries are the sorted centroids, the rest are values and centroids waiting to be merged
+    private double[] means = new double[8];
+    private double[] weights = new double[8];
+    private int merged;
+    private int size;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates an empty sketch for each of the metrics.
+     * @param metrics the metric names
+     * @return a mutable map of metric name to sketch
+     */
+    public static Map<String, QuantileSketch> forMetrics(final Collection<String> metrics) {
+        final Map<String, QuantileSketch> sketches = Maps.newHashMapWithExpectedSize(metrics.size());
+        for (final String metric : metrics)
+            sketches.put(metric, new QuantileSketch());
+        return sketches;
+    }
+
+    /**
+     * Adds the values reported by each Measurement to the sketch for that metric. Metrics without a sketch are
+     * ignored.
+     * @param sketches the sketches keyed by metric name
+     * @param measurements the Measurement's to add
+     */
+    public static void addAll(final Map<String, QuantileSketch> sketches, final Iterable<Measurement> measurements) {
+        final QuantileSketch[] targets = new QuantileSketch[MetricDictionary.size()];
+        for (final Map.Entry<String, QuantileSketch> entry : sketches.entrySet()) {
+            final int id = MetricDictionary.lookup(entry.getKey());
+            if (id >= 0 && id < targets.length)
+                targets[id] = entry.getValue();
+        }
+
+        for (final Measurement m : measurements) {
+            final MetricValues values = m.getMetrics();
+            for (int i = 0; i < values.size(); i++) {
+                final int id = values.idAt(i);
+                if (id < targets.length && targets[id] != null)
+                    targets[id].add(values.valueAt(i));
+            }
+        }
+    }
+
+    /**
+     * Adds a single metric value to the sketch.
+     * @param value the metric value
+     */
+    public void add(final float value) {
+        add(value, 1);
+    }
+
+    /**
+     * Combines the values of another sketch into this one.
+     * @param other the sketch to merge, which is not changed
+     */
+    public void merge(final QuantileSketch other) {
+        if (other.totalWeight == 0)
+            return;
+        for (int i = 0; i < other.size; i++)
+            add(other.means[i], other.weights[i]);
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    /**
+     * Combines centroids taken from another sketch into this one, e.g. a sketch sent by another node.
+     * @param otherMeans the means of the centroids
+     * @param otherWeights the weights of the centroids, in the same order as their means
+     * @param otherMin the smallest value
+     * @param otherMax the largest value
+     */
+    public void merge(final double[] otherMeans, final double[] otherWeights, final double otherMin, final double otherMax) {
+        if (otherMeans.length != otherWeights.length)
+            throw new IllegalArgumentException("Centroid means and weights differ in length: " + otherMeans.length + ", " + otherWeights.length);
+        if (otherMeans.length == 0)
+            return;
+        for (int i = 0; i < otherMeans.length; i++)
+            add(otherMeans[i], otherWeights[i]);
+        if (otherMin < min) min = otherMin;
+        if (otherMax > max) max = otherMax;
+    }
+
+    /**
+     * @return a copy of the means of the centroids, in ascending order
+     */
+    public double[] getMeans() {
+        compress();
+        return Arrays.copyOf(means, merged);
+    }
+
+    /**
+     * @return a copy of the weights of the centroids, in the order of their means
+     */
+    public double[] getWeights() {
+        compress();
+        return Arrays.copyOf(weights, merged);
+    }
+
+    /**
+     * @return the smallest value added, or positive infinity if the sketch is empty
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value added, or negative infinity if the sketch is empty
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return true if no values have been added
+     */
+    public boolean isEmpty() {
+        return totalWeight == 0;
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getCount() {
+        return (long) totalWeight;
+    }
+
+    /**
+     * Estimates a quantile by interpolating between the centres of the centroids either side of it.
+     * @param quantile the quantile between 0 and 1, e.g. 0.5 for the median
+     * @return the estimated value at the quantile, or NaN if the sketch is empty
+     */
+    public double quantile(final double quantile) {
+        if (!(quantile >= 0 && quantile <= 1))
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+        compress();
+        if (merged == 0)
+            return Double.NaN;
+        if (merged == 1)
+            return means[0];
+
+        final double index = quantile * totalWeight;
+        //Half of the first and last centroids lies between their mean and the smallest or largest value
+        if (index < weights[0] / 2)
+            return min + (means[0] - min) * index / (weights[0] / 2);
+        final int last = merged - 1;
+        if (index > totalWeight - weights[last] / 2)
+            return max - (max - means[last]) * (totalWeight - index) / (weights[last] / 2);
+
+        double weightSoFar = weights[0] / 2;
+        for (int i = 0; i < last; i++) {
+            final double between = (weights[i] + weights[i + 1]) / 2;
+            if (weightSoFar + between > index)
+                return means[i] + (means[i + 1] - means[i]) * (index - weightSoFar) / between;
+            weightSoFar += between;
+        }
+        return means[last];
+    }
+
+    private void add(final double mean, final double weight) {
+        if (size == MAX_SIZE)
+            compress();
+        if (size == means.length) {
+            means = Arrays.copyOf(means, Math.min(size * 2, MAX_SIZE));
+            weights = Arrays.copyOf(weights, means.length);
+        }
+        means[size] = mean;
+        weights[size++] = weight;
+        totalWeight += weight;
+        if (mean < min) min = mean;
+        if (mean > max) max = mean;
+    }
+
+    /**
+     * Sorts the buffered entries into the centroids, then merges neighbouring centroids for as long as each stays
+     * within the weight the scale function allows at its quantile.
+     */
+    private void compress() {
+        if (merged == size)
+            return;
+        sort(0, size - 1);
+
+        int out = 0;
+        double weightBefore = 0;
+        double limit = totalWeight * q(k(0) + 1);
+        for (int i = 1; i < size; i++) {
+            final double proposed = weights[out] + weights[i];
+            if (weightBefore + proposed <= limit) {
+                weights[out] = proposed;
+                means[out] += (means[i] - means[out]) * weights[i] / proposed;
+            } else {
+                weightBefore += weights[out];
+                limit = totalWeight * q(k(weightBefore / totalWeight) + 1);
+                out++;
+                means[out] = means[i];
+                weights[out] = weights[i];
+            }
+        }
+        merged = size = out + 1;
+    }
+
+    /**
+     * The k1 scale function, which maps a quantile to a scale on which every centroid may span at most one unit.
+     */
+    private static double k(final double q) {
+        return COMPRESSION / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+
+    private static double q(final double k) {
+        if (k >= K_MAX)
+            return 1;
+        return (Math.sin(k * 2 * Math.PI / COMPRESSION) + 1) / 2;
+    }
+
+    /**
+     * Sorts the entries by mean, keeping each weight with its mean.
+     */
+    private void sort(int low, int high) {
+        while (low < high) {
+            if (high - low < 16) {
+                for (int i = low + 1; i <= high; i++) {
+                    final double mean = means[i];
+                    final double weight = weights[i];
+                    int j = i - 1;
+                    while (j >= low && means[j] > mean) {
+                        means[j + 1] = means[j];
+                        weights[j + 1] = weights[j];
+                        j--;
+                    }
+                    means[j + 1] = mean;
+                    weights[j + 1] = weight;
+                }
+                return;
+            }
+            final double pivot = means[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (means[i] < pivot) i++;
+                while (means[j] > pivot) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            //Recurse into the smaller half so the stack stays shallow
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+    }
+
+    private void swap(final int i, final int j) {
+        final double mean = means[i];
+        means[i] = means[j];
+        means[j] = mean;
+        final double weight = weights[i];
+        weights[i] = weights[j];
+        weights[j] = weight;
+    }
+}
@@ -0,0 +1,18 @@
+package com.capitalone.service.aggregate;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Totals up the values of metrics over a timestamp range without the caller scanning every Measurement in it.
+ */
+public interface RangeAggregator {
+    /**
+     * Collects the running totals of the metrics within a timestamp range.
+     * @param metrics the metrics for which to collect values
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @return an accumulator for each of the metrics, empty if the metric has no values in the range
+     */
+    Map<String, MetricAccumulator> aggregate(Collection<String> metrics, long fromTimestamp, long toTimestamp);
+}
@@ -0,0 +1,214 @@
+package com.capitalone.service.aggregate;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An ordered map of timestamp to metric value that can total up (count, sum, sum of squared differences from the
+ * mean, min, max) the values in any timestamp range in O(log n) time.
+ *
+ * It is a treap: a binary search tree on timestamp that is kept balanced by giving every node a random priority and
+ * keeping the priorities in heap order. Each node also holds the totals of its whole subtree, so a range is answered
+ * by walking the two paths to its boundaries and merging the totals of the subtrees hanging between them, the same
+ * way a segment tree combines its nodes, while still supporting inserts and removals anywhere in O(log n).
+ *
+ * This class is not thread-safe.
+ */
+public final class RangeTree {
+    private Node root;
+
+    /**
+     * Sets the value at a timestamp, replacing any value already there.
+     * @param timestamp the timestamp in epoch milliseconds
+     * @param value the metric value
+     */
+    public void put(final long timestamp, final float value) {
+        if (!replace(root, timestamp, value))
+            root = insert(root, new Node(timestamp, value));
+    }
+
+    /**
+     * Removes the value at a timestamp, if there is one.
+     * @param timestamp the timestamp in epoch milliseconds
+     */
+    public void remove(final long timestamp) {
+        root = remove(root, timestamp);
+    }
+
+    /**
+     * @return the number of values in the tree
+     */
+    public long size() {
+        return root == null ? 0 : root.count;
+    }
+
+    /**
+     * Merges the totals of the values within a timestamp range into the accumulator.
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @param accumulator the accumulator to merge into
+     */
+    public void aggregate(final long fromTimestamp, final long toTimestamp, final MetricAccumulator accumulator) {
+        // Find the highest node within the range; everything else in range hangs below it
+        Node node = root;
+        while (node != null && (node.timestamp < fromTimestamp || node.timestamp >= toTimestamp))
+            node = node.timestamp < fromTimestamp ? node.right : node.left;
+        if (node == null)
+            return;
+
+        accumulator.add(node.value);
+        // Left of the split node everything is below toTimestamp, so only fromTimestamp needs checking
+        for (Node left = node.left; left != null; ) {
+            if (left.timestamp >= fromTimestamp) {
+                accumulator.add(left.value);
+                mergeSubtree(left.right, accumulator);
+                left = left.left;
+            } else {
+                left = left.right;
+            }
+        }
+        // And right of it everything is at or above fromTimestamp
+        for (Node right = node.right; right != null; ) {
+            if (right.timestamp < toTimestamp) {
+                accumulator.add(right.value);
+                mergeSubtree(right.left, accumulator);
+                right = right.right;
+            } else {
+                right = right.left;
+            }
+        }
+    }
+
+    private static void mergeSubtree(final Node node, final MetricAccumulator accumulator) {
+        if (node != null)
+            accumulator.merge(node.count, node.sum, node.m2, node.min, node.max);
+    }
+
+    /**
+     * Replaces the value of an existing node, updating the totals on the path back up.
+     * @return false if there is no node with the timestamp
+     */
+    private static boolean replace(final Node node, final long timestamp, final float value) {
+        if (node == null)
+            return false;
+        final boolean replaced;
+        if (timestamp == node.timestamp) {
+            node.value = value;
+            replaced = true;
+        } else {
+            replaced = replace(timestamp < node.timestamp ? node.left : node.right, timestamp, value);
+        }
+        if (replaced)
+            node.update();
+        return replaced;
+    }
+
+    /**
+     * Inserts the node as a leaf, then rotates it up until its priority is back in heap order.
+     */
+    private static Node insert(final Node node, final Node inserted) {
+        if (node == null)
+            return inserted;
+        if (inserted.timestamp < node.timestamp) {
+            node.left = insert(node.left, inserted);
+            if (node.left.priority > node.priority)
+                return rotateRight(node);
+        } else {
+            node.right = insert(node.right, inserted);
+            if (node.right.priority > node.priority)
+                return rotateLeft(node);
+        }
+        node.update();
+        return node;
+    }
+
+    private static Node rotateRight(final Node node) {
+        final Node left = node.left;
+        node.left = left.right;
+        node.update();
+        left.right = node;
+        left.update();
+        return left;
+    }
+
+    private static Node rotateLeft(final Node node) {
+        final Node right = node.right;
+        node.right = right.left;
+        node.update();
+        right.left = node;
+        right.update();
+        return right;
+    }
+
+    private static Node remove(final Node node, final long timestamp) {
+        if (node == null)
+            return null;
+        if (timestamp == node.timestamp)
+            return join(node.left, node.right);
+        if (timestamp < node.timestamp)
+            node.left = remove(node.left, timestamp);
+        else
+            node.right = remove(node.right, timestamp);
+        node.update();
+        return node;
+    }
+
+    /**
+     * Joins two subtrees where every timestamp on the left is below every timestamp on the right.
+     */
+    private static Node join(final Node left, final Node right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left.priority > right.priority) {
+            left.right = join(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = join(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static final class Node {
+        private final long timestamp;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private float value;
+        private Node left;
+        private Node right;
+        // The totals of this node and its whole subtree
+        private long count;
+        private double sum;
+        private double m2;
+        private float min;
+        private float max;
+
+        Node(final long timestamp, final float value) {
+            this.timestamp = timestamp;
+            this.value = value;
+            update();
+        }
+
+        void update() {
+            count = 1;
+            sum = value;
+            m2 = 0;
+            min = value;
+            max = value;
+            include(left);
+            include(right);
+        }
+
+        private void include(final Node child) {
+            if (child == null)
+                return;
+            // Pairwise combination of the squared differences, as in MetricAccumulator.merge
+            final double delta = child.sum / child.count - sum / count;
+            m2 += child.m2 + delta * delta * ((double) count * child.count / (count + child.count));
+            count += child.count;
+            sum += child.sum;
+            if (child.min < min) min = child.min;
+            if (child.max > max) max = child.max;
+        }
+    }
+}
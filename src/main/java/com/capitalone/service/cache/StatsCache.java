@@ -0,0 +1,334 @@
+package com.capitalone.service.cache;
+
+import com.capitalone.model.CacheCounters;
+import com.capitalone.model.Stat;
+import com.capitalone.model.StatType;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of stats results, so that dashboards polling the same query do not aggregate the range every time.
+ *
+ * An entry holds the stats of one metric for one combination of stations, requested stats, quantiles and timestamp
+ * range; an empty entry means the metric has no readings in the range. Entries are evicted once there are more than the system
+ * property {@value #SIZE_PROPERTY} of them, or once they are older than {@value #TTL_PROPERTY} seconds. A size of 0
+ * turns the cache off.
+ *
+ * Writes must call invalidate with the station and the timestamps they created, updated or deleted. Only the entries
+ * of that station whose range holds one of those timestamps are dropped. Stats that are being computed while the
+ * write happens are not cached, since the computation may or may not have seen the write. The entries of each station
+ * are indexed by the end of their range, so a write only looks at the entries whose range ends after its earliest
+ * timestamp rather than at the whole cache; writes of recent readings skip every entry over older ranges.
+ *
+ * This class is singleton, like the Stores, because the cached stats are only valid for the one Store instance of
+ * each station that every MeasurementsService writes to.
+ */
+@Slf4j
+public final class StatsCache {
+    public static final String SIZE_PROPERTY = "stats.cache.size";
+    public static final String TTL_PROPERTY = "stats.cache.ttl";
+    public static final long DEFAULT_SIZE = 10_000;
+    public static final long DEFAULT_TTL_SECONDS = 60;
+
+    private static StatsCache instance;
+
+    private static final Comparator<Entry> BY_RANGE_END = Comparator.<Entry>comparingLong(entry -> entry.key.toTimestamp).thenComparingLong(entry -> entry.sequence);
+
+    private final Cache<Key, Entry> cache;
+    private final ConcurrentMap<String, NavigableSet<Entry>> index = new ConcurrentHashMap<>();
+    private final Set<Computation> computations = Sets.newConcurrentHashSet();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maximumSize the maximum number of entries, or 0 to cache nothing
+     * @param ttl how long an entry is kept after it is computed
+     * @param unit the unit of the ttl
+     */
+    public StatsCache(final long maximumSize, final long ttl, final TimeUnit unit) {
+        this(maximumSize, ttl, unit, Ticker.systemTicker());
+    }
+
+    StatsCache(final long maximumSize, final long ttl, final TimeUnit unit, final Ticker ticker) {
+        //Entries leave the index however they leave the cache, including when a newer Entry replaces them
+        final RemovalListener<Key, Entry> unindex = notification -> unindex(notification.getValue());
+        this.cache = maximumSize > 0
+                ? CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl, unit).ticker(ticker).recordStats().removalListener(unindex).build()
+                : null;
+    }
+
+    /**
+     * Returns the instance shared by every service, creating it on first use.
+     * @return the StatsCache for the Store returned by MeasurementStores
+     */
+    public synchronized static StatsCache getInstance() {
+        if (instance == null) {
+            final long size = Long.getLong(SIZE_PROPERTY, DEFAULT_SIZE);
+            final long ttl = Long.getLong(TTL_PROPERTY, DEFAULT_TTL_SECONDS);
+            log.info("Caching up to {} stats results for {} seconds", size, ttl);
+            instance = new StatsCache(size, ttl, TimeUnit.SECONDS);
+        }
+        return instance;
+    }
+
+    /**
+     * @return a cache that holds nothing, for services whose Store is not the shared one
+     */
+    public static StatsCache disabled() {
+        return new StatsCache(0, 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return false if the cache holds nothing
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Looks up the stats of a metric, counting a hit or a miss.
+     * @param stations the stations whose readings the stats are over
+     * @param metric the metric
+     * @param statTypes the requested stats, in order
+     * @param quantiles the requested quantiles, in order
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @return the cached stats, empty if the metric had no readings, or null if they are not cached
+     */
+    public List<Stat> get(
+            final Collection<String> stations,
+            final String metric,
+            final Collection<StatType> statTypes,
+            final Collection<Double> quantiles,
+            final long fromTimestamp,
+            final long toTimestamp
+    ) {
+        if (cache == null)
+            return null;
+        final Entry entry = cache.getIfPresent(new Key(ImmutableSortedSet.copyOf(stations), metric, ImmutableList.copyOf(statTypes), ImmutableList.copyOf(quantiles), fromTimestamp, toTimestamp));
+        return entry == null ? null : entry.stats;
+    }
+
+    /**
+     * Starts computing stats that are to be cached. The Computation must be closed once they are put.
+     * @param stations the stations whose readings the stats are over
+     * @param statTypes the requested stats, in order
+     * @param quantiles the requested quantiles, in order
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @return the Computation to put the stats of each metric to
+     */
+    public Computation begin(
+            final Collection<String> stations,
+            final Collection<StatType> statTypes,
+            final Collection<Double> quantiles,
+            final long fromTimestamp,
+            final long toTimestamp
+    ) {
+        final Computation computation = new Computation(ImmutableSortedSet.copyOf(stations), ImmutableList.copyOf(statTypes), ImmutableList.copyOf(quantiles), fromTimestamp, toTimestamp);
+        computations.add(computation);
+        return computation;
+    }
+
+    /**
+     * Drops the entries over the station whose range holds the timestamp.
+     * @param station the station that was written to
+     * @param timestamp the timestamp that was written, in epoch milliseconds
+     */
+    public void invalidate(final String station, final long timestamp) {
+        invalidateAll(station, Collections.singleton(timestamp));
+    }
+
+    /**
+     * Drops the entries over the station whose range holds any of the timestamps.
+     * @param station the station that was written to
+     * @param timestamps the timestamps that were written, in epoch milliseconds
+     */
+    public void invalidateAll(final String station, final Collection<Long> timestamps) {
+        if (cache == null || timestamps.isEmpty())
+            return;
+        final long[] sorted = Longs.toArray(timestamps);
+        Arrays.sort(sorted);
+        //Computations are marked first, so that one that puts after the entries are dropped below is never cached
+        for (final Computation computation : computations) {
+            if (computation.stations.contains(station) && holdsAny(computation.fromTimestamp, computation.toTimestamp, sorted))
+                computation.markStale();
+        }
+        final NavigableSet<Entry> entries = index.get(station);
+        if (entries == null)
+            return;
+        //Only the entries whose range ends after the earliest timestamp can hold any of them
+        long dropped = 0;
+        for (final Entry entry : entries.tailSet(new Entry(new Key(null, null, null, null, sorted[0], sorted[0]), null, Long.MAX_VALUE), false)) {
+            if (holdsAny(entry.key.fromTimestamp, entry.key.toTimestamp, sorted) && drop(entry))
+                dropped++;
+        }
+        invalidations.addAndGet(dropped);
+    }
+
+    /**
+     * Drops every entry over the station, for when its Store is cleared.
+     * @param station the station that was cleared
+     */
+    public void invalidateAll(final String station) {
+        if (cache == null)
+            return;
+        for (final Computation computation : computations) {
+            if (computation.stations.contains(station))
+                computation.markStale();
+        }
+        final NavigableSet<Entry> entries = index.get(station);
+        if (entries == null)
+            return;
+        long dropped = 0;
+        for (final Entry entry : entries) {
+            if (drop(entry))
+                dropped++;
+        }
+        invalidations.addAndGet(dropped);
+    }
+
+    /**
+     * @return the hit, miss, eviction and invalidation counts since the cache was created, and its current size
+     */
+    public CacheCounters getCounters() {
+        if (cache == null)
+            return new CacheCounters(0, 0, 0, 0, 0);
+        final CacheStats stats = cache.stats();
+        return new CacheCounters(stats.hitCount(), stats.missCount(), stats.evictionCount(), invalidations.get(), cache.size());
+    }
+
+    /**
+     * @return the number of entries in the index of the station, which only holds the entries that are in the cache
+     */
+    int indexSize(final String station) {
+        final NavigableSet<Entry> entries = index.get(station);
+        return entries == null ? 0 : entries.size();
+    }
+
+    /**
+     * Removes the Entry from the cache, unless it was already replaced or removed.
+     * @return true if the Entry was removed
+     */
+    private boolean drop(final Entry entry) {
+        final boolean dropped = cache.asMap().remove(entry.key, entry);
+        unindex(entry);
+        return dropped;
+    }
+
+    private void unindex(final Entry entry) {
+        for (final String station : entry.key.stations) {
+            final NavigableSet<Entry> entries = index.get(station);
+            if (entries != null)
+                entries.remove(entry);
+        }
+    }
+
+    /**
+     * @return true if any of the sorted timestamps is within the range
+     */
+    private static boolean holdsAny(final long fromTimestamp, final long toTimestamp, final long[] sorted) {
+        int index = Arrays.binarySearch(sorted, fromTimestamp);
+        if (index < 0)
+            index = -(index + 1);
+        return index < sorted.length && sorted[index] < toTimestamp;
+    }
+
+    @Value
+    private static class Key {
+        private final Set<String> stations;
+        private final String metric;
+        private final List<StatType> statTypes;
+        private final List<Double> quantiles;
+        private final long fromTimestamp;
+        private final long toTimestamp;
+    }
+
+    /**
+     * The cached stats of a Key. Entries are only equal to themselves, so a removed Entry never unindexes the one that
+     * replaced it.
+     */
+    private static final class Entry {
+        private final Key key;
+        private final List<Stat> stats;
+        private final long sequence;
+
+        private Entry(final Key key, final List<Stat> stats, final long sequence) {
+            this.key = key;
+            this.stats = stats;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Stats being computed for one request. They are only cached if no write touched the range in the meantime.
+     */
+    public final class Computation implements AutoCloseable {
+        private final Set<String> stations;
+        private final List<StatType> statTypes;
+        private final List<Double> quantiles;
+        private final long fromTimestamp;
+        private final long toTimestamp;
+        private boolean stale;
+
+        private Computation(
+                final Set<String> stations,
+                final List<StatType> statTypes,
+                final List<Double> quantiles,
+                final long fromTimestamp,
+                final long toTimestamp
+        ) {
+            this.stations = stations;
+            this.statTypes = statTypes;
+            this.quantiles = quantiles;
+            this.fromTimestamp = fromTimestamp;
+            this.toTimestamp = toTimestamp;
+        }
+
+        /**
+         * Caches the stats of a metric, unless a write has touched the range since the Computation began.
+         * @param metric the metric
+         * @param stats the stats of the metric, empty if it has no readings in the range
+         */
+        public synchronized void put(final String metric, final List<Stat> stats) {
+            if (stale || cache == null)
+                return;
+            final Entry entry = new Entry(new Key(stations, metric, statTypes, quantiles, fromTimestamp, toTimestamp), ImmutableList.copyOf(stats), sequence.incrementAndGet());
+            //Indexed before it is cached, so that an invalidation never misses an Entry that is in the cache
+            for (final String station : stations)
+                index.computeIfAbsent(station, s -> new ConcurrentSkipListSet<>(BY_RANGE_END)).add(entry);
+            cache.put(entry.key, entry);
+        }
+
+        private synchronized void markStale() {
+            stale = true;
+        }
+
+        @Override
+        public void close() {
+            computations.remove(this);
+        }
+    }
+}
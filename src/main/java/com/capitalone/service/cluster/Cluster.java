@@ -0,0 +1,243 @@
+package com.capitalone.service.cluster;
+
+import com.capitalone.exception.client.ServiceUnavailableException;
+import com.capitalone.service.CachingStatsService;
+import com.capitalone.service.MeasurementsService;
+import com.capitalone.service.MeasurementsServiceImpl;
+import com.capitalone.service.StatsService;
+import com.capitalone.service.StatsServiceImpl;
+import com.capitalone.service.store.MeasurementStores;
+import com.capitalone.util.Stations;
+import com.capitalone.util.Timestamps;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.glassfish.jersey.jackson.JacksonFeature;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The nodes of the cluster, and which of them holds each Measurement.
+ *
+ * Without the system property {@value #NODES_PROPERTY} there is no cluster, and every service works on the Store's
+ * of this process. Otherwise it is the comma separated base URIs of the nodes, e.g.
+ * {@code http://localhost:2222,http://localhost:2223}, the same on every node, and {@value #NODE_PROPERTY} is the
+ * position of this process in the list. A process without {@value #NODE_PROPERTY} holds no Measurement's and only
+ * coordinates.
+ *
+ * The Measurement's of a station are partitioned into buckets of {@value #PARTITION_PROPERTY} milliseconds (an hour
+ * by default), and each bucket is held by one node, picked by consistent hashing on the station and the bucket. A
+ * station's readings are therefore spread over every node, while a short range only touches a few of them, and
+ * adding a node only moves the buckets the new node takes over. Every node coordinates the requests it receives: a
+ * write or a read of one timestamp is sent to the node holding it, a range is read from every node holding part of it
+ * and merged in timestamp order, and stats merge the running totals and quantile sketches of each node. The requests
+ * to several nodes are sent from a pool of at most {@value #THREADS_PROPERTY} threads (four times the number of
+ * processors by default); once they are all busy, the request thread sends its own.
+ *
+ * The nodes serve each other from the routes of ClusterController, which only touch their own Store's.
+ */
+@Slf4j
+public final class Cluster {
+    public static final String NODES_PROPERTY = "cluster.nodes";
+    public static final String NODE_PROPERTY = "cluster.node";
+    public static final String PARTITION_PROPERTY = "cluster.partition.millis";
+    public static final String TIMEOUT_PROPERTY = "cluster.timeout.millis";
+    public static final String THREADS_PROPERTY = "cluster.threads";
+    public static final long DEFAULT_PARTITION_MILLIS = Timestamps.MILLIS_PER_HOUR;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 10_000;
+    //A range over more buckets than this per node is sent to every node instead of working out which hold it
+    private static final int BUCKETS_PER_NODE = 4;
+    private static final GenericType<List<String>> STATIONS = new GenericType<List<String>>() {};
+
+    private static Cluster instance;
+
+    private final List<URI> nodes;
+    private final int self;
+    private final long partitionMillis;
+    private final Client client;
+    private final ExecutorService executor;
+
+    /**
+     * @param nodes the base URIs of the nodes, or none for no cluster
+     * @param self the position of this process in nodes, or -1 if it only coordinates
+     * @param partitionMillis the length of the buckets each held by one node
+     * @param timeoutMillis how long to wait to connect to another node, and then for its response
+     * @param threads the most threads to send requests to several nodes from
+     */
+    Cluster(final List<URI> nodes, final int self, final long partitionMillis, final int timeoutMillis, final int threads) {
+        if (self < -1 || self >= nodes.size())
+            throw new IllegalArgumentException("Invalid " + NODE_PROPERTY + ": " + self + " of " + nodes.size() + " nodes");
+        if (partitionMillis <= 0)
+            throw new IllegalArgumentException("Invalid " + PARTITION_PROPERTY + ": " + partitionMillis);
+        if (threads <= 0)
+            throw new IllegalArgumentException("Invalid " + THREADS_PROPERTY + ": " + threads);
+        this.nodes = ImmutableList.copyOf(nodes);
+        this.self = self;
+        this.partitionMillis = partitionMillis;
+        if (nodes.isEmpty()) {
+            this.client = null;
+            this.executor = null;
+        } else {
+            this.client = ClientBuilder.newClient()
+                    .register(JacksonFeature.class)
+                    .property(ClientProperties.CONNECT_TIMEOUT, timeoutMillis)
+                    .property(ClientProperties.READ_TIMEOUT, timeoutMillis)
+                    //HttpURLConnection does not allow PATCH otherwise
+                    .property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true);
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    new ThreadFactoryBuilder().setNameFormat("cluster-%d").setDaemon(true).build(), new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+    }
+
+    /**
+     * Returns the cluster of this process, reading the system properties on first use.
+     * @return the Cluster, which has no nodes if this process is not part of one
+     */
+    public synchronized static Cluster getInstance() {
+        if (instance == null) {
+            final String nodes = System.getProperty(NODES_PROPERTY, "");
+            final ImmutableList.Builder<URI> uris = ImmutableList.builder();
+            for (final String node : Splitter.on(',').trimResults().omitEmptyStrings().split(nodes))
+                uris.add(URI.create(node));
+            instance = new Cluster(uris.build(), Integer.getInteger(NODE_PROPERTY, -1),
+                    Long.getLong(PARTITION_PROPERTY, DEFAULT_PARTITION_MILLIS), Integer.getInteger(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MILLIS),
+                    Integer.getInteger(THREADS_PROPERTY, 4 * Runtime.getRuntime().availableProcessors()));
+            if (instance.isEnabled())
+                log.info("Node {} of cluster {}, partitioned every {} ms", instance.self, instance.nodes, instance.partitionMillis);
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if this process is part of a cluster
+     */
+    public boolean isEnabled() {
+        return !nodes.isEmpty();
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Gets the node that holds the Measurement's of a station in the bucket of a timestamp.
+     * @param station the station id
+     * @param timestamp the timestamp in epoch milliseconds
+     * @return the position of the node
+     */
+    public int owner(final String station, final long timestamp) {
+        final HashCode hash = Hashing.murmur3_128().newHasher()
+                .putUnencodedChars(station)
+                .putLong(Math.floorDiv(timestamp, partitionMillis))
+                .hash();
+        return Hashing.consistentHash(hash, nodes.size());
+    }
+
+    /**
+     * Gets the nodes that hold a station's Measurement's within a timestamp range.
+     * @param station the station id
+     * @param fromTimestamp the inclusive 'from' timestamp in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp in epoch milliseconds
+     * @return the positions of the nodes, in ascending order
+     */
+    public Set<Integer> owners(final String station, final long fromTimestamp, final long toTimestamp) {
+        final ImmutableSortedSet.Builder<Integer> owners = ImmutableSortedSet.naturalOrder();
+        if (toTimestamp <= fromTimestamp)
+            return owners.build();
+        final long first = Math.floorDiv(fromTimestamp, partitionMillis);
+        final long last = Math.floorDiv(toTimestamp - 1, partitionMillis);
+        //The difference overflows for ranges such as Long.MIN_VALUE to Long.MAX_VALUE
+        if (last - first < 0 || last - first >= (long) BUCKETS_PER_NODE * nodes.size()) {
+            for (int node = 0; node < nodes.size(); node++)
+                owners.add(node);
+            return owners.build();
+        }
+        for (long bucket = first; bucket <= last; bucket++)
+            owners.add(owner(station, bucket * partitionMillis));
+        return owners.build();
+    }
+
+    /**
+     * Gets the service for a station's Measurement's.
+     * @param station the station id
+     * @return a service over this process's Store, or one that routes to the nodes holding each Measurement
+     */
+    public MeasurementsService measurementsService(final String station) {
+        if (!isEnabled())
+            return new MeasurementsServiceImpl(station);
+        final ImmutableList.Builder<MeasurementsService> services = ImmutableList.builder();
+        for (int node = 0; node < nodes.size(); node++)
+            services.add(node == self ? new MeasurementsServiceImpl(station) : new RemoteMeasurementsService(client, nodes.get(node), station));
+        return new ClusterMeasurementsService(this, station, services.build());
+    }
+
+    /**
+     * Gets the service for the stats of the stations together. The stats of a cluster are not cached, since a write
+     * sent to another node could not invalidate them.
+     * @param stations the station ids
+     * @return the StatsService
+     */
+    public StatsService statsService(final Collection<String> stations) {
+        if (!isEnabled())
+            return new CachingStatsService(stations);
+        final ImmutableList.Builder<MeasurementsService> services = ImmutableList.builder();
+        for (final String station : stations)
+            services.add(measurementsService(station));
+        return new StatsServiceImpl(services.build());
+    }
+
+    /**
+     * Gets the ids of the stations with Measurement's on any node.
+     * @return the station ids, sorted
+     */
+    public Set<String> stations() {
+        if (!isEnabled())
+            return MeasurementStores.stations();
+        final ImmutableSortedSet.Builder<String> stations = ImmutableSortedSet.naturalOrder();
+        stations.add(Stations.DEFAULT);
+        for (int node = 0; node < nodes.size(); node++) {
+            if (node == self) {
+                stations.addAll(MeasurementStores.stations());
+                continue;
+            }
+            final URI uri = nodes.get(node);
+            try {
+                stations.addAll(client.target(uri).path("cluster/stations").request(MediaType.APPLICATION_JSON).get(STATIONS));
+            } catch (WebApplicationException | ProcessingException e) {
+                throw new ServiceUnavailableException("Cluster node " + uri + " failed: " + e.getMessage(), e);
+            }
+        }
+        return stations.build();
+    }
+
+    /**
+     * @return the executor the requests to several nodes are sent from
+     */
+    ExecutorService executor() {
+        return executor;
+    }
+}
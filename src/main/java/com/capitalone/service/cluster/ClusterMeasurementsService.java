@@ -0,0 +1,211 @@
+package com.capitalone.service.cluster;
+
+import com.capitalone.exception.client.ServiceUnavailableException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.MeasurementsService;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.QuantileSketch;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MultimapBuilder;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * A service level class that implements the operations on a station's Measurement's across the nodes of a Cluster.
+ *
+ * Each operation on one timestamp is sent to the node holding it. A batch is split by node and the parts are sent
+ * at the same time, as are the reads of a range from each node holding part of it. The Measurement's of a range are
+ * merged in timestamp order, and the totals and sketches of each node are merged into those of the whole range.
+ */
+public class ClusterMeasurementsService implements MeasurementsService {
+    private static final Comparator<Measurement> BY_TIMESTAMP = Comparator.comparingLong(Measurement::getTimestamp);
+
+    private final Cluster cluster;
+    private final String station;
+    private final List<MeasurementsService> nodes;
+
+    /**
+     * @param cluster the nodes and how the Measurement's are partitioned between them
+     * @param station the id of the station
+     * @param nodes the service for the station on each node, in the order of the Cluster's nodes
+     */
+    ClusterMeasurementsService(final Cluster cluster, final String station, final List<MeasurementsService> nodes) {
+        if (nodes.size() != cluster.size())
+            throw new IllegalArgumentException("Expected a service for each of the " + cluster.size() + " nodes: " + nodes.size());
+        this.cluster = cluster;
+        this.station = station;
+        this.nodes = ImmutableList.copyOf(nodes);
+    }
+
+    @Override
+    public void create(final Measurement m) {
+        owner(m.getTimestamp()).create(m);
+    }
+
+    @Override
+    public Collection<Long> createAll(final Collection<Measurement> measurements) {
+        final ListMultimap<Integer, Measurement> byNode = MultimapBuilder.treeKeys().arrayListValues().build();
+        for (final Measurement m : measurements)
+            byNode.put(cluster.owner(station, m.getTimestamp()), m);
+        final List<Collection<Long>> conflicts = fanOut(byNode.keySet(), node -> nodes.get(node).createAll(byNode.get(node)));
+        return ImmutableList.copyOf(Iterables.concat(conflicts));
+    }
+
+    @Override
+    public Measurement retrieve(final long timestamp) {
+        return owner(timestamp).retrieve(timestamp);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAll(final String date) {
+        final long fromTimestamp = Timestamps.parseDate(date);
+        return retrieveAll(fromTimestamp, fromTimestamp + Timestamps.MILLIS_PER_DAY);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAll(final long fromTimestamp, final long toTimestamp) {
+        final Set<Integer> owners = cluster.owners(station, fromTimestamp, toTimestamp);
+        return merged(fanOut(owners, node -> nodes.get(node).retrieveAll(fromTimestamp, toTimestamp)), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAll(final long fromTimestamp, final long toTimestamp, final int limit) {
+        final Set<Integer> owners = cluster.owners(station, fromTimestamp, toTimestamp);
+        return merged(fanOut(owners, node -> nodes.get(node).retrieveAll(fromTimestamp, toTimestamp, limit)), limit);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAfter(final long afterTimestamp, final long toTimestamp, final int limit) {
+        if (afterTimestamp == Long.MAX_VALUE)
+            return ImmutableList.of();
+        final Set<Integer> owners = cluster.owners(station, afterTimestamp + 1, toTimestamp);
+        return merged(fanOut(owners, node -> nodes.get(node).retrieveAfter(afterTimestamp, toTimestamp, limit)), limit);
+    }
+
+    /**
+     * Merges the iterators of each node holding part of the range, so each node is read a page at a time as the
+     * merged iterator reaches its Measurement's.
+     */
+    @Override
+    public Iterator<Measurement> iterateAll(final long fromTimestamp, final long toTimestamp) {
+        final List<Iterator<Measurement>> iterators = Lists.newArrayList();
+        for (final int node : cluster.owners(station, fromTimestamp, toTimestamp))
+            iterators.add(nodes.get(node).iterateAll(fromTimestamp, toTimestamp));
+        return Iterators.mergeSorted(iterators, BY_TIMESTAMP);
+    }
+
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Set<Integer> owners = cluster.owners(station, fromTimestamp, toTimestamp);
+        final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+        for (final Map<String, MetricAccumulator> partial : fanOut(owners, node -> nodes.get(node).aggregate(metrics, fromTimestamp, toTimestamp))) {
+            for (final Map.Entry<String, MetricAccumulator> entry : partial.entrySet())
+                accumulators.get(entry.getKey()).merge(entry.getValue());
+        }
+        return accumulators;
+    }
+
+    @Override
+    public Map<String, QuantileSketch> sketch(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Set<Integer> owners = cluster.owners(station, fromTimestamp, toTimestamp);
+        final Map<String, QuantileSketch> sketches = QuantileSketch.forMetrics(metrics);
+        for (final Map<String, QuantileSketch> partial : fanOut(owners, node -> nodes.get(node).sketch(metrics, fromTimestamp, toTimestamp))) {
+            for (final Map.Entry<String, QuantileSketch> entry : partial.entrySet())
+                sketches.get(entry.getKey()).merge(entry.getValue());
+        }
+        return sketches;
+    }
+
+    @Override
+    public Measurement updateWhole(final Measurement m) {
+        return owner(m.getTimestamp()).updateWhole(m);
+    }
+
+    @Override
+    public Measurement updatePartial(final Measurement m) {
+        return owner(m.getTimestamp()).updatePartial(m);
+    }
+
+    @Override
+    public Measurement delete(final long timestamp) {
+        return owner(timestamp).delete(timestamp);
+    }
+
+    /**
+     * @return the service of the node holding the timestamp
+     */
+    private MeasurementsService owner(final long timestamp) {
+        return nodes.get(cluster.owner(station, timestamp));
+    }
+
+    /**
+     * Calls the service of each node at the same time, the last one on this thread while the others run.
+     * @param owners the positions of the nodes to call
+     * @param call the call to make to each node, given its position
+     * @return the result of each node, in the order of owners
+     * @throws ServiceUnavailableException if a node cannot be reached or fails
+     */
+    private <T> List<T> fanOut(final Collection<Integer> owners, final IntFunction<T> call) {
+        if (owners.isEmpty())
+            return ImmutableList.of();
+        if (owners.size() == 1)
+            return ImmutableList.of(call.apply(Iterables.getOnlyElement(owners)));
+
+        final List<Future<T>> others = Lists.newArrayListWithCapacity(owners.size() - 1);
+        try {
+            final Iterator<Integer> remaining = owners.iterator();
+            for (int i = 0; i < owners.size() - 1; i++) {
+                final int node = remaining.next();
+                others.add(cluster.executor().submit(() -> call.apply(node)));
+            }
+            final T last = call.apply(remaining.next());
+
+            final List<T> results = Lists.newArrayListWithCapacity(owners.size());
+            for (final Future<T> other : others)
+                results.add(get(other));
+            results.add(last);
+            return results;
+        } finally {
+            //Once one call has failed nobody waits for the others, so they are stopped rather than left to run
+            for (final Future<T> other : others)
+                other.cancel(true);
+        }
+    }
+
+    private static <T> T get(final Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted while waiting for a cluster node", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new ServiceUnavailableException("Cluster node failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Merges the Measurement's of each node, each in timestamp order, into one list in timestamp order.
+     * @param parts the Measurement's of each node
+     * @param limit the maximum number of Measurement's to return
+     */
+    private static List<Measurement> merged(final List<Collection<Measurement>> parts, final int limit) {
+        if (parts.size() == 1)
+            return ImmutableList.copyOf(Iterables.limit(parts.get(0), limit));
+        return ImmutableList.copyOf(Iterables.limit(Iterables.mergeSorted(parts, BY_TIMESTAMP), limit));
+    }
+}
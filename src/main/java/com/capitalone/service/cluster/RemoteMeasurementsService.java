@@ -0,0 +1,185 @@
+package com.capitalone.service.cluster;
+
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.exception.client.ServiceUnavailableException;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricSketch;
+import com.capitalone.model.MetricTotals;
+import com.capitalone.service.MeasurementsService;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.QuantileSketch;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A service level class that implements the operations on a station's Measurement's held by another node of the
+ * Cluster, by calling the routes of ClusterController on that node.
+ *
+ * Only the running totals and the sketch centroids of each metric are sent back for stats, never the readings.
+ */
+class RemoteMeasurementsService implements MeasurementsService {
+    private static final int PAGE_SIZE = 1024;
+    private static final GenericType<List<Measurement>> MEASUREMENTS = new GenericType<List<Measurement>>() {};
+    private static final GenericType<List<Long>> TIMESTAMPS = new GenericType<List<Long>>() {};
+    private static final GenericType<List<MetricTotals>> TOTALS = new GenericType<List<MetricTotals>>() {};
+    private static final GenericType<List<MetricSketch>> SKETCHES = new GenericType<List<MetricSketch>>() {};
+
+    private final URI node;
+    private final WebTarget target;
+
+    /**
+     * @param client the client shared by the requests to every node
+     * @param node the base URI of the node
+     * @param station the id of the station
+     */
+    RemoteMeasurementsService(final Client client, final URI node, final String station) {
+        this.node = node;
+        this.target = client.target(node).path("cluster").path(station);
+    }
+
+    @Override
+    public void create(final Measurement m) {
+        if (!createAll(ImmutableList.of(m)).isEmpty())
+            throw new EntityExistsException("Measurement already exists with timestamp: " + Timestamps.format(m.getTimestamp()));
+    }
+
+    @Override
+    public Collection<Long> createAll(final Collection<Measurement> measurements) {
+        return call(() -> target.path("measurements").request(MediaType.APPLICATION_JSON).post(Entity.json(measurements), TIMESTAMPS));
+    }
+
+    @Override
+    public Measurement retrieve(final long timestamp) {
+        return call(() -> measurement(timestamp).get(Measurement.class));
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAll(final String date) {
+        final long fromTimestamp = Timestamps.parseDate(date);
+        return retrieveAll(fromTimestamp, fromTimestamp + Timestamps.MILLIS_PER_DAY);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAll(final long fromTimestamp, final long toTimestamp) {
+        return retrieveAll(fromTimestamp, toTimestamp, 0);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAll(final long fromTimestamp, final long toTimestamp, final int limit) {
+        return call(() -> target.path("measurements")
+                .queryParam("from", fromTimestamp)
+                .queryParam("to", toTimestamp)
+                .queryParam("limit", limit)
+                .request(MediaType.APPLICATION_JSON)
+                .get(MEASUREMENTS));
+    }
+
+    @Override
+    public Collection<Measurement> retrieveAfter(final long afterTimestamp, final long toTimestamp, final int limit) {
+        //Timestamps are whole milliseconds, so after a timestamp is from the next one
+        return afterTimestamp == Long.MAX_VALUE ? Collections.emptyList() : retrieveAll(afterTimestamp + 1, toTimestamp, limit);
+    }
+
+    @Override
+    public Iterator<Measurement> iterateAll(final long fromTimestamp, final long toTimestamp) {
+        return new AbstractIterator<Measurement>() {
+            private Iterator<Measurement> page = retrieveAll(fromTimestamp, toTimestamp, PAGE_SIZE).iterator();
+            private Measurement last;
+            private int read;
+
+            @Override
+            protected Measurement computeNext() {
+                //A page shorter than PAGE_SIZE is the last one
+                if (!page.hasNext() && read == PAGE_SIZE) {
+                    page = retrieveAfter(last.getTimestamp(), toTimestamp, PAGE_SIZE).iterator();
+                    read = 0;
+                }
+                if (!page.hasNext())
+                    return endOfData();
+                last = page.next();
+                read++;
+                return last;
+            }
+        };
+    }
+
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final List<MetricTotals> totals = call(() -> range("totals", metrics, fromTimestamp, toTimestamp).get(TOTALS));
+        final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+        for (final MetricTotals metricTotals : totals)
+            accumulators.get(metricTotals.getMetric()).merge(metricTotals.getCount(), metricTotals.getSum(), metricTotals.getM2(), metricTotals.getMin(), metricTotals.getMax());
+        return accumulators;
+    }
+
+    @Override
+    public Map<String, QuantileSketch> sketch(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final List<MetricSketch> centroids = call(() -> range("sketches", metrics, fromTimestamp, toTimestamp).get(SKETCHES));
+        final Map<String, QuantileSketch> sketches = QuantileSketch.forMetrics(metrics);
+        for (final MetricSketch metricSketch : centroids)
+            sketches.get(metricSketch.getMetric()).merge(metricSketch.getMeans(), metricSketch.getWeights(), metricSketch.getMin(), metricSketch.getMax());
+        return sketches;
+    }
+
+    @Override
+    public Measurement updateWhole(final Measurement m) {
+        return call(() -> measurement(m.getTimestamp()).put(Entity.json(m), Measurement.class));
+    }
+
+    @Override
+    public Measurement updatePartial(final Measurement m) {
+        return call(() -> measurement(m.getTimestamp()).method("PATCH", Entity.json(m), Measurement.class));
+    }
+
+    @Override
+    public Measurement delete(final long timestamp) {
+        return call(() -> measurement(timestamp).delete(Measurement.class));
+    }
+
+    private Invocation.Builder measurement(final long timestamp) {
+        return target.path("measurements").path(Long.toString(timestamp)).request(MediaType.APPLICATION_JSON);
+    }
+
+    private Invocation.Builder range(final String path, final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        return target.path(path)
+                .queryParam("metric", Iterables.toArray(metrics, Object.class))
+                .queryParam("from", fromTimestamp)
+                .queryParam("to", toTimestamp)
+                .request(MediaType.APPLICATION_JSON);
+    }
+
+    /**
+     * Makes a request to the node, turning its failures into those of a local service.
+     * @throws EntityNotFoundException if the node has no Measurement at the timestamp
+     * @throws ServiceUnavailableException if the node cannot be reached or fails
+     */
+    private <T> T call(final Supplier<T> request) {
+        try {
+            return request.get();
+        } catch (NotFoundException e) {
+            throw new EntityNotFoundException("Measurement not found on cluster node " + node, e);
+        } catch (WebApplicationException | ProcessingException e) {
+            throw new ServiceUnavailableException("Cluster node " + node + " failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.capitalone.service.downsample;
+
+import com.capitalone.model.SeriesPoint;
+import com.capitalone.model.StatType;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * Splits the range into equal time buckets and reduces the readings in each to one statistic.
+ * Each point is stamped with the start of its bucket. Buckets without readings produce no point, so gaps in the
+ * data stay visible as gaps in the series.
+ */
+final class BucketDownsampler implements Downsampler {
+    private final StatType statType;
+    private final long fromTimestamp;
+    private final long width;
+    private final List<SeriesPoint> points = Lists.newArrayList();
+    private long bucket = -1;
+    private MetricAccumulator accumulator;
+
+    BucketDownsampler(final StatType statType, final long fromTimestamp, final long toTimestamp, final int buckets) {
+        this.statType = statType;
+        this.fromTimestamp = fromTimestamp;
+        this.width = Downsampler.bucketWidth(fromTimestamp, toTimestamp, buckets);
+    }
+
+    @Override
+    public void add(final long timestamp, final float value) {
+        final long index = (timestamp - fromTimestamp) / width;
+        if (index != bucket) {
+            flush();
+            bucket = index;
+            accumulator = new MetricAccumulator();
+        }
+        accumulator.add(value);
+    }
+
+    @Override
+    public List<SeriesPoint> finish() {
+        flush();
+        bucket = -1;
+        accumulator = null;
+        return points;
+    }
+
+    private void flush() {
+        if (accumulator != null)
+            points.add(new SeriesPoint(fromTimestamp + bucket * width, (float) accumulator.getValue(statType)));
+    }
+}
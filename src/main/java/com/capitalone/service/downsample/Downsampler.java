@@ -0,0 +1,66 @@
+package com.capitalone.service.downsample;
+
+import com.capitalone.model.DownsampleMethod;
+import com.capitalone.model.SeriesPoint;
+import com.capitalone.model.StatType;
+
+import java.util.List;
+
+/**
+ * Reduces the readings of one metric over a range to a bounded number of points in a single pass.
+ * Readings must be added in timestamp order, and only the readings of the buckets still being decided are held, so
+ * the memory used does not depend on the size of the range.
+ *
+ * Implementations are not thread-safe and are used for one series only.
+ */
+public interface Downsampler {
+    /**
+     * Adds the next reading of the series.
+     * @param timestamp the timestamp of the reading in epoch milliseconds, not before the previous one
+     * @param value the metric value
+     */
+    void add(long timestamp, float value);
+
+    /**
+     * Completes the series. No more readings can be added afterwards.
+     * @return at most the requested number of points, in timestamp order
+     */
+    List<SeriesPoint> finish();
+
+    /**
+     * Creates the Downsampler for a method.
+     * @param method the downsample method, must not be UNSUPPORTED
+     * @param fromTimestamp the inclusive 'from' timestamp of the range in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp of the range in epoch milliseconds
+     * @param points the maximum number of points to return
+     * @return a new Downsampler
+     */
+    static Downsampler of(final DownsampleMethod method, final long fromTimestamp, final long toTimestamp, final int points) {
+        switch (method) {
+            case AVERAGE:
+                return new BucketDownsampler(StatType.AVERAGE, fromTimestamp, toTimestamp, points);
+            case MAX:
+                return new BucketDownsampler(StatType.MAX, fromTimestamp, toTimestamp, points);
+            case MIN:
+                return new BucketDownsampler(StatType.MIN, fromTimestamp, toTimestamp, points);
+            case LTTB:
+                return new LttbDownsampler(fromTimestamp, toTimestamp, points);
+            default:
+                throw new IllegalArgumentException("Unsupported DownsampleMethod: " + method);
+        }
+    }
+
+    /**
+     * Splits a range into equal time buckets.
+     * @param fromTimestamp the inclusive 'from' timestamp of the range in epoch milliseconds
+     * @param toTimestamp the exclusive 'to' timestamp of the range in epoch milliseconds
+     * @param buckets the number of buckets
+     * @return the width of each bucket in milliseconds, rounded up so that the range fits in the buckets
+     */
+    static long bucketWidth(final long fromTimestamp, final long toTimestamp, final int buckets) {
+        final long range = toTimestamp - fromTimestamp;
+        if (range <= 0 || buckets <= 0)
+            return 1;
+        return (range - 1) / buckets + 1;
+    }
+}
@@ -0,0 +1,160 @@
+package com.capitalone.service.downsample;
+
+import com.capitalone.model.SeriesPoint;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling, which keeps the actual readings that best preserve the shape of the
+ * series when it is drawn as a line.
+ *
+ * The first and last readings are always kept. The readings between them are split into equal time buckets and one
+ * reading is kept per bucket: the one forming the largest triangle with the reading kept from the previous bucket and
+ * the average of the next bucket. The textbook algorithm buckets by reading count, which needs the whole series up
+ * front; bucketing by time gives the same result for evenly reported metrics while only holding two buckets of
+ * readings at once, so the series can be reduced as it is read from the store.
+ */
+final class LttbDownsampler implements Downsampler {
+    private final long fromTimestamp;
+    private final long width;
+    private final boolean bucketed;
+    private final List<SeriesPoint> points = Lists.newArrayList();
+
+    //The reading kept from the previous bucket
+    private boolean started;
+    private long keptTimestamp;
+    private float keptValue;
+
+    //The latest reading is held back because the last reading of the series is kept outside of the buckets
+    private boolean held;
+    private long heldTimestamp;
+    private float heldValue;
+
+    //The bucket waiting for the average of the next one, and the bucket being filled
+    private Bucket pending = new Bucket();
+    private Bucket current = new Bucket();
+    private long currentIndex = -1;
+
+    LttbDownsampler(final long fromTimestamp, final long toTimestamp, final int points) {
+        this.fromTimestamp = fromTimestamp;
+        this.width = Downsampler.bucketWidth(fromTimestamp, toTimestamp, points - 2);
+        this.bucketed = points > 2;
+    }
+
+    @Override
+    public void add(final long timestamp, final float value) {
+        if (!started) {
+            keep(timestamp, value);
+            started = true;
+            return;
+        }
+        if (held && bucketed)
+            addToBucket(heldTimestamp, heldValue);
+        held = true;
+        heldTimestamp = timestamp;
+        heldValue = value;
+    }
+
+    @Override
+    public List<SeriesPoint> finish() {
+        if (!current.isEmpty()) {
+            if (!pending.isEmpty())
+                select(pending, current.averageTimestamp(), current.averageValue());
+            select(current, heldTimestamp, heldValue);
+        }
+        if (held)
+            keep(heldTimestamp, heldValue);
+        pending.clear();
+        current.clear();
+        return points;
+    }
+
+    private void addToBucket(final long timestamp, final float value) {
+        final long index = (timestamp - fromTimestamp) / width;
+        if (index != currentIndex && !current.isEmpty()) {
+            if (!pending.isEmpty())
+                select(pending, current.averageTimestamp(), current.averageValue());
+            final Bucket filled = current;
+            current = pending;
+            current.clear();
+            pending = filled;
+        }
+        currentIndex = index;
+        current.add(timestamp, value);
+    }
+
+    /**
+     * Keeps the reading of the bucket that forms the largest triangle with the previously kept reading and the next
+     * point, then empties the bucket.
+     */
+    private void select(final Bucket bucket, final double nextTimestamp, final double nextValue) {
+        //Timestamps are taken relative to the kept reading to keep the products well within double precision
+        final double nextX = nextTimestamp - keptTimestamp;
+        final double nextY = nextValue - keptValue;
+        int selected = 0;
+        double largestArea = -1;
+        for (int i = 0; i < bucket.size; i++) {
+            final double x = bucket.timestamps[i] - keptTimestamp;
+            final double y = bucket.values[i] - keptValue;
+            //Twice the area of the triangle, which is enough to compare them
+            final double area = Math.abs(x * nextY - nextX * y);
+            if (area > largestArea) {
+                largestArea = area;
+                selected = i;
+            }
+        }
+        keep(bucket.timestamps[selected], bucket.values[selected]);
+        bucket.clear();
+    }
+
+    private void keep(final long timestamp, final float value) {
+        points.add(new SeriesPoint(timestamp, value));
+        keptTimestamp = timestamp;
+        keptValue = value;
+    }
+
+    /**
+     * The readings of one bucket, in growable primitive arrays that are reused from bucket to bucket.
+     */
+    private static final class Bucket {
+        private long[] timestamps = new long[16];
+        private float[] values = new float[16];
+        private int size;
+        private long firstTimestamp;
+        private long timestampOffsets;
+        private double valueSum;
+
+        void add(final long timestamp, final float value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            if (size == 0)
+                firstTimestamp = timestamp;
+            timestamps[size] = timestamp;
+            values[size++] = value;
+            timestampOffsets += timestamp - firstTimestamp;
+            valueSum += value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double averageTimestamp() {
+            return firstTimestamp + (double) timestampOffsets / size;
+        }
+
+        double averageValue() {
+            return valueSum / size;
+        }
+
+        void clear() {
+            size = 0;
+            timestampOffsets = 0;
+            valueSum = 0;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.capitalone.service.ingest;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricValues;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Gathers ingested Measurement's into a batch per station, and writes a station's batch at once when it is full or
+ * when flushed. Like a POST of a batch, a Measurement is only created if its timestamp has none yet; a later one with
+ * the same timestamp is counted as a conflict and dropped.
+ *
+ * A written batch is handed to the writer executor, so that the listener thread goes back to reading while the batch
+ * is written to the Store's or sent to the other nodes of the cluster. The executor of writerExecutor has a bounded
+ * queue, and a listener that gets ahead of it waits for room, which slows TCP senders down rather than holding every
+ * batch they send in memory. Not thread safe: each listener thread has a batcher of its own, though the counts can be
+ * read from any thread.
+ */
+@Slf4j
+final class IngestBatcher implements Closeable {
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    private final BiFunction<String, Map<Long, Measurement>, Collection<Long>> writer;
+    private final int batchSize;
+    private final ExecutorService executor;
+    private final Map<String, Map<Long, Measurement>> batches = Maps.newHashMap();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param writer creates the batch of a station, returning the timestamps that already had a Measurement
+     * @param batchSize the number of Measurement's of a station to write at once
+     * @param executor runs the writer, and is shut down when the batcher is closed
+     */
+    IngestBatcher(final BiFunction<String, Map<Long, Measurement>, Collection<Long>> writer, final int batchSize, final ExecutorService executor) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates an executor that writes the batches one at a time, in the order they are handed to it, on a thread of its
+     * own. Once the queue is full, handing it a batch waits until there is room.
+     * @param queueSize the number of batches that can wait to be written
+     * @return the executor
+     */
+    static ExecutorService writerExecutor(final int queueSize) {
+        if (queueSize <= 0)
+            throw new IllegalArgumentException("Invalid queue size: " + queueSize);
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("ingest-writer").setDaemon(true).build(),
+                (task, full) -> {
+                    if (full.isShutdown())
+                        throw new RejectedExecutionException("The ingest writer is shut down");
+                    try {
+                        full.getQueue().put(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for the ingest writer", e);
+                    }
+                });
+    }
+
+    /**
+     * Adds a reading to the batch of its station, writing the batch if it is full.
+     * @param station the station id, already checked
+     * @param timestamp the timestamp in epoch milliseconds
+     * @param metrics the metric values
+     */
+    void add(final String station, final long timestamp, final MetricValues metrics) {
+        Map<Long, Measurement> batch = batches.get(station);
+        if (batch == null) {
+            batch = Maps.newLinkedHashMapWithExpectedSize(batchSize);
+            batches.put(station, batch);
+        }
+        if (batch.putIfAbsent(timestamp, new Measurement(station, timestamp, metrics)) != null) {
+            conflicts.incrementAndGet();
+        } else if (batch.size() >= batchSize) {
+            batches.remove(station);
+            write(station, batch);
+        }
+    }
+
+    /**
+     * Hands the batch of every station to the writer.
+     */
+    void flush() {
+        for (final Iterator<Map.Entry<String, Map<Long, Measurement>>> entries = batches.entrySet().iterator(); entries.hasNext(); ) {
+            final Map.Entry<String, Map<Long, Measurement>> entry = entries.next();
+            entries.remove();
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Flushes the batches and waits for the writer to write them.
+     */
+    @Override
+    public void close() {
+        flush();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                log.warn("Ingest writer did not finish writing within {} seconds", CLOSE_TIMEOUT_SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands a batch the batcher no longer holds to the writer.
+     */
+    private void write(final String station, final Map<Long, Measurement> batch) {
+        try {
+            executor.execute(() -> apply(station, batch));
+        } catch (RejectedExecutionException e) {
+            failed.addAndGet(batch.size());
+            log.error("Cannot write {} ingested measurements of station {}: {}", batch.size(), station, e.getMessage());
+        }
+    }
+
+    private void apply(final String station, final Map<Long, Measurement> batch) {
+        final int size = batch.size();
+        try {
+            final Collection<Long> existing = writer.apply(station, batch);
+            conflicts.addAndGet(existing.size());
+            created.addAndGet(size - existing.size());
+        } catch (RuntimeException e) {
+            failed.addAndGet(size);
+            log.error("Cannot write {} ingested measurements of station {}", size, station, e);
+        }
+    }
+
+    /**
+     * @return the number of Measurement's created
+     */
+    long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of Measurement's dropped because their timestamp already had one
+     */
+    long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return the number of Measurement's dropped because they could not be written
+     */
+    long getFailed() {
+        return failed.get();
+    }
+}
@@ -0,0 +1,323 @@
+package com.capitalone.service.ingest;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.service.cluster.Cluster;
+import com.capitalone.service.replication.Replication;
+import com.capitalone.service.store.MeasurementStores;
+import com.capitalone.util.Stations;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Takes readings over plain TCP connections and UDP datagrams, for stations that report too often for a POST per
+ * batch. The records, in the text and binary formats of LineProtocolParser, are created through the MeasurementsService
+ * of their station in batches of up to {@value #BATCH_SIZE_PROPERTY} Measurement's per station (8192 by default), so
+ * in cluster mode they are sent on to the nodes that own them. Each batch is handed to a writer thread as soon as the
+ * reads at hand are parsed, with up to {@value #WRITER_QUEUE_PROPERTY} batches waiting for it (16 by default), so a
+ * reading is stored soon after it arrives, and nothing tells the sender whether it was: a record that is not valid,
+ * or whose timestamp already has a Measurement, is counted and dropped.
+ *
+ * Since anyone who can reach the ports can send readings, they do not create stations by default. A record is only
+ * accepted for the default station, a station that already has a Store on this node, or one of the comma separated
+ * stations of the system property {@value #STATIONS_PROPERTY}, which may be {@value Stations#ALL} to accept any.
+ *
+ * The listener is started alongside the HTTP server when the system property {@value #TCP_PORT_PROPERTY} or
+ * {@value #UDP_PORT_PROPERTY} is set. One thread serves every connection and the datagram port with a Selector,
+ * reading into direct buffers of {@value #BUFFER_SIZE_PROPERTY} bytes per connection (64 KiB by default) and parsing
+ * them in place, so it makes little garbage however many readings arrive.
+ */
+@Slf4j
+public final class IngestListener implements Runnable, Closeable {
+    public static final String TCP_PORT_PROPERTY = "ingest.tcp.port";
+    public static final String UDP_PORT_PROPERTY = "ingest.udp.port";
+    public static final String BATCH_SIZE_PROPERTY = "ingest.batch.size";
+    public static final String BUFFER_SIZE_PROPERTY = "ingest.buffer.size";
+    public static final String WRITER_QUEUE_PROPERTY = "ingest.writer.queue";
+    public static final String STATIONS_PROPERTY = "ingest.stations";
+    public static final int DEFAULT_BATCH_SIZE = 8192;
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    public static final int DEFAULT_WRITER_QUEUE = 16;
+    private static final int MAX_DATAGRAM_SIZE = 1 << 16;
+    private static final long REPORT_INTERVAL_MILLIS = 60_000;
+    //Datagrams read before the connections get a turn
+    private static final int DATAGRAMS_PER_ROUND = 1024;
+
+    private static IngestListener instance;
+
+    private final Selector selector;
+    private final ServerSocketChannel tcp;
+    private final DatagramChannel udp;
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private final int bufferSize;
+    private final IngestBatcher batcher;
+    private final LineProtocolParser parser;
+    private volatile boolean open = true;
+
+    /**
+     * Binds the ports.
+     * @param tcpAddress the address to accept connections on, or null for none
+     * @param udpAddress the address to receive datagrams on, or null for none
+     * @param bufferSize the size of the buffer of each connection
+     * @param batcher the batcher to hand the readings to, which the listener closes when it stops
+     * @param stations tests whether the readings of a station other than the default one are accepted
+     */
+    IngestListener(final InetSocketAddress tcpAddress, final InetSocketAddress udpAddress, final int bufferSize,
+                   final IngestBatcher batcher, final Predicate<String> stations) throws IOException {
+        if (bufferSize < LineProtocolParser.MAX_FRAME_SIZE)
+            throw new IllegalArgumentException(String.format("%s must be at least %d: %d", BUFFER_SIZE_PROPERTY, LineProtocolParser.MAX_FRAME_SIZE, bufferSize));
+        this.bufferSize = bufferSize;
+        this.batcher = batcher;
+        this.parser = new LineProtocolParser(batcher, stations);
+        this.selector = Selector.open();
+        try {
+            tcp = tcpAddress == null ? null : ServerSocketChannel.open();
+            if (tcp != null) {
+                tcp.bind(tcpAddress);
+                tcp.configureBlocking(false);
+                tcp.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            udp = udpAddress == null ? null : DatagramChannel.open();
+            if (udp != null) {
+                udp.bind(udpAddress);
+                udp.configureBlocking(false);
+                udp.register(selector, SelectionKey.OP_READ);
+            }
+        } catch (IOException | RuntimeException e) {
+            closeChannels();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts listening on a thread of its own if either port is set. Does nothing otherwise, on a replica, whose
+     * Store's only take the primary's writes, or if already started.
+     * @throws IOException if a port cannot be bound
+     */
+    public synchronized static void start() throws IOException {
+        final Integer tcpPort = Integer.getInteger(TCP_PORT_PROPERTY);
+        final Integer udpPort = Integer.getInteger(UDP_PORT_PROPERTY);
+        if (instance != null || tcpPort == null && udpPort == null)
+            return;
+        if (Replication.getInstance().isReplica()) {
+            log.warn("Not listening for ingest on a replication {}, send the readings to the primary", Replication.REPLICA);
+            return;
+        }
+        final Predicate<String> stations = stations(System.getProperty(STATIONS_PROPERTY));
+        final IngestBatcher batcher = new IngestBatcher(IngestListener::write, Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE),
+                IngestBatcher.writerExecutor(Integer.getInteger(WRITER_QUEUE_PROPERTY, DEFAULT_WRITER_QUEUE)));
+        instance = new IngestListener(tcpPort == null ? null : new InetSocketAddress(tcpPort), udpPort == null ? null : new InetSocketAddress(udpPort),
+                Integer.getInteger(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE), batcher, stations);
+        log.info("Listening for ingest on TCP port {} and UDP port {}", tcpPort, udpPort);
+        final Thread thread = new Thread(instance, "ingest-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Tests whether ingest accepts the readings of a station, as described in the class comment.
+     * @param configured the value of {@value #STATIONS_PROPERTY}, or null
+     * @return the test
+     * @throws IllegalArgumentException if a configured station id is not well formed
+     */
+    static Predicate<String> stations(final String configured) {
+        if (Stations.ALL.equals(configured))
+            return station -> true;
+        final Set<String> stations = configured == null || configured.trim().isEmpty() ? Collections.emptySet() : Stations.parseList(configured);
+        return station -> stations.contains(station) || MeasurementStores.find(station) != null;
+    }
+
+    /**
+     * Creates a batch through the MeasurementsService of a station, on this node or across the cluster.
+     * @return the timestamps that already had a Measurement
+     */
+    private static Collection<Long> write(final String station, final Map<Long, Measurement> batch) {
+        return Cluster.getInstance().measurementsService(station).createAll(batch.values());
+    }
+
+    @Override
+    public void run() {
+        try {
+            long reported = System.nanoTime();
+            long reportedRecords = 0;
+            while (open) {
+                selector.select(REPORT_INTERVAL_MILLIS);
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else if (key.channel() == udp)
+                        receive();
+                    else
+                        read(key);
+                }
+                batcher.flush();
+                //Reports the totals once a minute, while records are arriving
+                final long records = parser.getParsed() + parser.getRejected();
+                if (records != reportedRecords && System.nanoTime() - reported >= TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL_MILLIS)) {
+                    report("Ingested");
+                    reported = System.nanoTime();
+                    reportedRecords = records;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            //Connections and datagrams handle their own failures, so only a failed select gets here
+            if (open)
+                log.error("Ingest listener failed, no longer listening", e);
+        } finally {
+            batcher.close();
+            report("Ingest listener stopped after");
+            for (final SelectionKey key : selector.keys())
+                closeQuietly(key);
+            closeChannels();
+        }
+    }
+
+    /**
+     * Stops listening and closes every connection, once the thread running the listener has written what it holds.
+     */
+    @Override
+    public void close() {
+        open = false;
+        selector.wakeup();
+    }
+
+    /**
+     * @return the port accepting connections
+     */
+    int getTcpPort() throws IOException {
+        return ((InetSocketAddress) tcp.getLocalAddress()).getPort();
+    }
+
+    /**
+     * @return the port receiving datagrams
+     */
+    int getUdpPort() throws IOException {
+        return ((InetSocketAddress) udp.getLocalAddress()).getPort();
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = tcp.accept();
+            if (channel == null)
+                return;
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(ByteBuffer.allocateDirect(bufferSize)));
+            if (log.isDebugEnabled())
+                log.debug("Accepted ingest connection from {}", channel.getRemoteAddress());
+        } catch (IOException e) {
+            log.warn("Cannot accept ingest connection: {}", e.toString());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    //Already failed
+                }
+            }
+        }
+    }
+
+    private void receive() {
+        for (int i = 0; i < DATAGRAMS_PER_ROUND; i++) {
+            datagram.clear();
+            try {
+                if (udp.receive(datagram) == null)
+                    return;
+            } catch (IOException e) {
+                log.warn("Cannot receive ingest datagram: {}", e.toString());
+                return;
+            }
+            datagram.flip();
+            parser.parse(datagram, true);
+        }
+    }
+
+    private void read(final SelectionKey key) {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        final Connection connection = (Connection) key.attachment();
+        final ByteBuffer buffer = connection.buffer;
+        final boolean end;
+        try {
+            end = channel.read(buffer) < 0;
+        } catch (IOException e) {
+            log.debug("Closing ingest connection after a failed read: {}", e.toString());
+            closeQuietly(key);
+            return;
+        }
+
+        buffer.flip();
+        if (connection.discarding)
+            connection.discarding = !LineProtocolParser.skipLine(buffer);
+        if (!connection.discarding && !parser.parse(buffer, end)) {
+            log.warn("Closing ingest connection that sent a malformed frame");
+            closeQuietly(key);
+            return;
+        }
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            //Only a text line can fill the buffer, so the rest of it is dropped up to the next line
+            parser.reject("Line longer than " + bufferSize + " bytes");
+            buffer.position(buffer.limit());
+            connection.discarding = true;
+        }
+        buffer.compact();
+        if (end)
+            closeQuietly(key);
+    }
+
+    private void report(final String prefix) {
+        log.info("{} {} records: {} created, {} conflicts, {} rejected and {} failed",
+                prefix, parser.getParsed(), batcher.getCreated(), batcher.getConflicts(), parser.getRejected(), batcher.getFailed());
+    }
+
+    private static void closeQuietly(final SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("Cannot close ingest channel: {}", e.toString());
+        }
+    }
+
+    private void closeChannels() {
+        try {
+            selector.close();
+            if (tcp != null) tcp.close();
+            if (udp != null) udp.close();
+        } catch (IOException e) {
+            log.warn("Cannot close the ingest ports: {}", e.toString());
+        }
+    }
+
+    /**
+     * The state of a TCP connection between reads.
+     */
+    private static final class Connection {
+        private final ByteBuffer buffer;
+        //True while dropping the rest of a line too long for the buffer
+        private boolean discarding;
+
+        Connection(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.capitalone.service.ingest;
+
+import com.capitalone.exception.client.BadRequestException;
+import com.capitalone.model.MetricDictionary;
+import com.capitalone.model.MetricValues;
+import com.capitalone.util.Stations;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+/**
+ * Parses the records of IngestListener's protocols from a ByteBuffer, and hands each valid one to an IngestBatcher.
+ *
+ * A text record is one line of ASCII: an optional station id, the timestamp in epoch milliseconds and one or more
+ * name=value pairs, separated by spaces, e.g. "north 1441105200000 temperature=11.5 humidity=70". The pairs may also
+ * be separated by commas. A line is ended by '\n', with an optional '\r' before it, or by the end of a datagram.
+ * Empty lines and lines starting with '#' are ignored.
+ *
+ * A binary frame starts with the byte 0xFE, which never starts a text record, so both can be sent over the same
+ * connection. All numbers are big endian:
+ *  - 0: the marker, 0xFE
+ *  - 1: the version, {@value #FRAME_VERSION}
+ *  - 2: the number of metrics n, from 1 to {@value #MAX_METRICS}
+ *  - 3: reserved, 0
+ *  - 4: the timestamp in epoch milliseconds, int64
+ *  - 12: the station id in {@value #STATION_SIZE} bytes of ASCII, padded with NUL, or all NUL for the default station
+ *  - 44: n times the metric name in {@value #NAME_SIZE} bytes of ASCII padded with NUL, then its value as a float32
+ * so a frame is {@value #FRAME_HEADER_SIZE} + {@value #FRAME_METRIC_SIZE} * n bytes long.
+ *
+ * Parsing works on the bytes in place. Station ids and metric names are resolved through NameTable's, and the
+ * metrics of a record are gathered in arrays reused for every record, so the only objects made for a valid record
+ * are those it is stored as. A record that is not valid is counted and dropped, and the records around it are still
+ * parsed; only a frame header that is not valid stops the parse, since the end of the frame cannot be known. A record
+ * of a station the parser does not accept is dropped the same way, so that senders cannot create stations at will.
+ * Metric names the MetricDictionary does not know yet are only registered once the whole record is found valid, so
+ * records that are dropped cannot fill the dictionary.
+ *
+ * Not thread safe: each listener thread has a parser of its own.
+ */
+@Slf4j
+final class LineProtocolParser {
+    static final int FRAME_MARKER_VALUE = 0xFE;
+    static final int FRAME_VERSION = 1;
+    static final int STATION_SIZE = 32;
+    static final int NAME_SIZE = 16;
+    static final int FRAME_HEADER_SIZE = 12 + STATION_SIZE;
+    static final int FRAME_METRIC_SIZE = NAME_SIZE + 4;
+    static final int MAX_METRICS = 255;
+    static final int MAX_FRAME_SIZE = FRAME_HEADER_SIZE + FRAME_METRIC_SIZE * MAX_METRICS;
+    private static final byte FRAME_MARKER = (byte) FRAME_MARKER_VALUE;
+    private static final int MAX_DIGITS = 18;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private final IngestBatcher batcher;
+    private final Predicate<String> accepted;
+    private final NameTable<String> stations = new NameTable<>(this::station);
+    private final NameTable<Integer> metrics = new NameTable<>(LineProtocolParser::metricId);
+    private final int[] ids = new int[MAX_METRICS];
+    private final String[] names = new String[MAX_METRICS];
+    private final float[] values = new float[MAX_METRICS];
+    private long parsed;
+    private long rejected;
+
+    /**
+     * @param batcher the batcher to hand the valid records to
+     * @param accepted tests whether the records of a well formed station id other than the default one are accepted;
+     *                 once accepted, a station stays accepted
+     */
+    LineProtocolParser(final IngestBatcher batcher, final Predicate<String> accepted) {
+        this.batcher = batcher;
+        this.accepted = accepted;
+    }
+
+    /**
+     * Parses the complete records between the buffer's position and limit, leaving the position at the start of the
+     * first incomplete one.
+     * @param buffer the buffer to parse, in big endian order
+     * @param endOfInput true if no more bytes follow, as at the end of a datagram or connection, in which case the
+     *                   last line need not end with '\n' and an incomplete frame is dropped
+     * @return false if a frame header was not valid, in which case the rest of the buffer is dropped
+     */
+    boolean parse(final ByteBuffer buffer, final boolean endOfInput) {
+        final int limit = buffer.limit();
+        int position = buffer.position();
+        while (position < limit) {
+            if (buffer.get(position) == FRAME_MARKER) {
+                if (limit - position < 4)
+                    break;
+                final int count = buffer.get(position + 2) & 0xFF;
+                if (buffer.get(position + 1) != FRAME_VERSION || count == 0) {
+                    reject("Unsupported frame version " + buffer.get(position + 1) + " or no metrics");
+                    buffer.position(limit);
+                    return false;
+                }
+                final int size = FRAME_HEADER_SIZE + FRAME_METRIC_SIZE * count;
+                if (limit - position < size)
+                    break;
+                try {
+                    frame(buffer, position, count);
+                } catch (IllegalArgumentException | BadRequestException e) {
+                    reject(e.getMessage());
+                }
+                position += size;
+            } else {
+                int end = indexOf(buffer, (byte) '\n', position, limit);
+                if (end < 0) {
+                    if (!endOfInput)
+                        break;
+                    end = limit;
+                }
+                try {
+                    line(buffer, position, end);
+                } catch (IllegalArgumentException | BadRequestException e) {
+                    reject(e.getMessage());
+                }
+                position = Math.min(end + 1, limit);
+            }
+        }
+        if (endOfInput && position < limit) {
+            reject("Incomplete frame of " + (limit - position) + " bytes");
+            position = limit;
+        }
+        buffer.position(position);
+        return true;
+    }
+
+    /**
+     * Skips to the start of the next line, for the rest of a line too long to parse.
+     * @param buffer the buffer to skip in
+     * @return true if the line ended in the buffer, false if all of it was skipped
+     */
+    static boolean skipLine(final ByteBuffer buffer) {
+        final int end = indexOf(buffer, (byte) '\n', buffer.position(), buffer.limit());
+        buffer.position(end < 0 ? buffer.limit() : end + 1);
+        return end >= 0;
+    }
+
+    /**
+     * Counts and logs a record that is dropped, logging less often the more there are.
+     * @param reason why the record was dropped
+     */
+    void reject(final String reason) {
+        rejected++;
+        if (Long.bitCount(rejected) == 1)
+            log.warn("Rejected {} ingested records so far, the latest because: {}", rejected, reason);
+    }
+
+    /**
+     * @return the number of records handed to the batcher
+     */
+    long getParsed() {
+        return parsed;
+    }
+
+    /**
+     * @return the number of records dropped
+     */
+    long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the station id
+     * @throws IllegalArgumentException if the station id is not well formed or not accepted
+     */
+    private String station(final String station) {
+        if (!Stations.DEFAULT.equals(Stations.check(station)) && !accepted.test(station))
+            throw new IllegalArgumentException("Not an ingest station: " + station);
+        return station;
+    }
+
+    /**
+     * @return the MetricDictionary id of the metric name, or null if it is not registered yet
+     */
+    private static Integer metricId(final String name) {
+        final int id = MetricDictionary.lookup(name);
+        return id >= 0 ? id : null;
+    }
+
+    private void line(final ByteBuffer buffer, final int from, final int to) {
+        final int end = to > from && buffer.get(to - 1) == '\r' ? to - 1 : to;
+        int i = skip(buffer, from, end, false);
+        if (i == end || buffer.get(i) == '#')
+            return;
+
+        String station = Stations.DEFAULT;
+        final byte first = buffer.get(i);
+        if ((first < '0' || first > '9') && first != '-') {
+            final int stationEnd = token(buffer, i, end);
+            station = stations.lookup(buffer, i, stationEnd);
+            i = skip(buffer, stationEnd, end, false);
+        }
+        final int timestampEnd = token(buffer, i, end);
+        final long timestamp = parseLong(buffer, i, timestampEnd);
+
+        int count = 0;
+        for (i = skip(buffer, timestampEnd, end, true); i < end; i = skip(buffer, i, end, true)) {
+            final int valueEnd = token(buffer, i, end);
+            final int equals = indexOf(buffer, (byte) '=', i, valueEnd);
+            if (equals <= i)
+                throw new IllegalArgumentException("Expected name=value, got '" + string(buffer, i, valueEnd) + "'");
+            count = add(count, buffer, i, equals, parseFloat(buffer, equals + 1, valueEnd));
+            i = valueEnd;
+        }
+        record(station, timestamp, count);
+    }
+
+    private void frame(final ByteBuffer buffer, final int from, final int count) {
+        final long timestamp = buffer.getLong(from + 4);
+        final int stationEnd = indexOf(buffer, (byte) 0, from + 12, from + 12 + STATION_SIZE);
+        final String station = stationEnd == from + 12 ? Stations.DEFAULT
+                : stations.lookup(buffer, from + 12, stationEnd < 0 ? from + 12 + STATION_SIZE : stationEnd);
+
+        int added = 0;
+        for (int metric = from + FRAME_HEADER_SIZE; added < count; metric += FRAME_METRIC_SIZE) {
+            final int nameEnd = indexOf(buffer, (byte) 0, metric, metric + NAME_SIZE);
+            if (nameEnd == metric)
+                throw new IllegalArgumentException("Empty metric name in frame");
+            added = add(added, buffer, metric, nameEnd < 0 ? metric + NAME_SIZE : nameEnd, buffer.getFloat(metric + NAME_SIZE));
+        }
+        record(station, timestamp, count);
+    }
+
+    /**
+     * Adds the metric whose name is held in a range of the buffer to the record, with an id of -1 if the name is not
+     * registered yet.
+     */
+    private int add(final int count, final ByteBuffer buffer, final int nameFrom, final int nameTo, final float value) {
+        final Integer known = metrics.lookup(buffer, nameFrom, nameTo);
+        final int id = known != null ? known : -1;
+        final String name = id >= 0 ? MetricDictionary.nameOf(id) : utf8(buffer, nameFrom, nameTo);
+        if (!Float.isFinite(value))
+            throw new IllegalArgumentException("Value of " + name + " is not finite");
+        if (count == MAX_METRICS)
+            throw new IllegalArgumentException("More than " + MAX_METRICS + " metrics");
+        for (int i = 0; i < count; i++) {
+            //A name may have been registered by another parser since it was first seen in this record
+            if (ids[i] >= 0 && id >= 0 ? ids[i] == id : names[i].equals(name))
+                throw new IllegalArgumentException("Metric " + name + " given twice");
+        }
+        ids[count] = id;
+        names[count] = name;
+        values[count] = value;
+        return count + 1;
+    }
+
+    private void record(final String station, final long timestamp, final int count) {
+        if (count == 0)
+            throw new IllegalArgumentException("No metrics at timestamp " + timestamp);
+        for (int i = 0; i < count; i++) {
+            if (ids[i] < 0)
+                ids[i] = MetricDictionary.idOf(names[i]);
+        }
+        batcher.add(station, timestamp, MetricValues.of(ids, values, count));
+        parsed++;
+    }
+
+    /**
+     * Parses a decimal integer of up to {@value #MAX_DIGITS} digits, with an optional '-'.
+     */
+    static long parseLong(final ByteBuffer buffer, final int from, final int to) {
+        final boolean negative = from < to && buffer.get(from) == '-';
+        final int start = negative ? from + 1 : from;
+        if (start == to || to - start > MAX_DIGITS)
+            throw new IllegalArgumentException("Invalid timestamp '" + string(buffer, from, to) + "'");
+        long value = 0;
+        for (int i = start; i < to; i++) {
+            final int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                throw new IllegalArgumentException("Invalid timestamp '" + string(buffer, from, to) + "'");
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal number such as "11", "-0.5" or "1.2e3". The first {@value #MAX_DIGITS} significant digits
+     * are kept, which is far more than a float holds.
+     */
+    static float parseFloat(final ByteBuffer buffer, final int from, final int to) {
+        int i = from;
+        final boolean negative = i < to && buffer.get(i) == '-';
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+            i++;
+
+        long mantissa = 0;
+        int exponent = 0;
+        int significant = 0;
+        boolean digits = false;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            final byte c = buffer.get(i);
+            if (c == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            if (c < '0' || c > '9')
+                break;
+            digits = true;
+            if (significant < MAX_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0)
+                    significant++;
+                if (fraction)
+                    exponent--;
+            } else if (!fraction) {
+                exponent++;
+            }
+        }
+        if (digits && i < to && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            final boolean negativeExponent = i < to && buffer.get(i) == '-';
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+                i++;
+            final int start = i;
+            int power = 0;
+            for (; i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++)
+                power = Math.min(power * 10 + buffer.get(i) - '0', 10_000);
+            if (i == start)
+                digits = false;
+            exponent += negativeExponent ? -power : power;
+        }
+        if (!digits || i != to)
+            throw new IllegalArgumentException("Invalid value '" + string(buffer, from, to) + "'");
+
+        double value = mantissa;
+        if (exponent > 0)
+            value *= exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[exponent] : Math.pow(10, exponent);
+        else if (exponent < 0)
+            value /= -exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[-exponent] : Math.pow(10, -exponent);
+        return (float) (negative ? -value : value);
+    }
+
+    private static int indexOf(final ByteBuffer buffer, final byte b, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index after the token starting at from, which ends at a space, tab or comma
+     */
+    private static int token(final ByteBuffer buffer, final int from, final int to) {
+        int i = from;
+        while (i < to && !isSeparator(buffer.get(i), true))
+            i++;
+        return i;
+    }
+
+    private static int skip(final ByteBuffer buffer, final int from, final int to, final boolean commas) {
+        int i = from;
+        while (i < to && isSeparator(buffer.get(i), commas))
+            i++;
+        return i;
+    }
+
+    private static boolean isSeparator(final byte b, final boolean commas) {
+        return b == ' ' || b == '\t' || commas && b == ',';
+    }
+
+    private static String utf8(final ByteBuffer buffer, final int from, final int to) {
+        final byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++)
+            bytes[i - from] = buffer.get(i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String string(final ByteBuffer buffer, final int from, final int to) {
+        final StringBuilder s = new StringBuilder(to - from);
+        for (int i = from; i < to; i++)
+            s.append((char) (buffer.get(i) & 0xFF));
+        return s.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package com.capitalone.service.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Resolves names read as bytes, such as metric names and station ids, without decoding them to a String every time.
+ *
+ * The first time a name is seen it is decoded and resolved, and the resolved value is kept against a copy of the
+ * name's bytes in an open addressing table. Later lookups of the name hash and compare the bytes in place, so they
+ * allocate nothing. A name the resolver rejects, or cannot resolve yet, is not kept, so bad input cannot fill the
+ * table.
+ *
+ * Not thread safe: each listener thread has tables of its own.
+ */
+final class NameTable<T> {
+    private final Function<String, T> resolver;
+    private byte[][] names = new byte[64][];
+    private Object[] values = new Object[64];
+    private int[] hashes = new int[64];
+    private int size;
+
+    /**
+     * @param resolver resolves a new name, throwing IllegalArgumentException if the name is not valid, or returns
+     *                 null if it cannot be resolved yet
+     */
+    NameTable(final Function<String, T> resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Resolves the name held in a range of the buffer, which is left as it was.
+     * @param buffer the buffer holding the name
+     * @param from the absolute index of the first byte of the name
+     * @param to the absolute index after the last byte of the name
+     * @return the resolved value, or null if the resolver cannot resolve the name yet
+     * @throws IllegalArgumentException if the resolver rejects the name
+     */
+    @SuppressWarnings("unchecked")
+    T lookup(final ByteBuffer buffer, final int from, final int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++)
+            hash = 31 * hash + buffer.get(i);
+        hash ^= hash >>> 16;
+
+        final int mask = names.length - 1;
+        for (int slot = hash & mask; names[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && matches(names[slot], buffer, from, to))
+                return (T) values[slot];
+        }
+
+        final byte[] name = new byte[to - from];
+        for (int i = from; i < to; i++)
+            name[i - from] = buffer.get(i);
+        final T value = resolver.apply(new String(name, StandardCharsets.UTF_8));
+        if (value != null)
+            put(name, hash, value);
+        return value;
+    }
+
+    private void put(final byte[] name, final int hash, final Object value) {
+        if (2 * (size + 1) > names.length)
+            resize();
+        final int mask = names.length - 1;
+        int slot = hash & mask;
+        while (names[slot] != null)
+            slot = (slot + 1) & mask;
+        names[slot] = name;
+        values[slot] = value;
+        hashes[slot] = hash;
+        size++;
+    }
+
+    private void resize() {
+        final byte[][] oldNames = names;
+        final Object[] oldValues = values;
+        final int[] oldHashes = hashes;
+        names = new byte[oldNames.length * 2][];
+        values = new Object[oldNames.length * 2];
+        hashes = new int[oldNames.length * 2];
+        size = 0;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null)
+                put(oldNames[i], oldHashes[i], oldValues[i]);
+        }
+    }
+
+    private static boolean matches(final byte[] name, final ByteBuffer buffer, final int from, final int to) {
+        if (name.length != to - from)
+            return false;
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != buffer.get(from + i))
+                return false;
+        }
+        return true;
+    }
+}
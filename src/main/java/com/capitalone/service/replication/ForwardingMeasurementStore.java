@@ -0,0 +1,75 @@
+package com.capitalone.service.replication;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.ParallelAggregation;
+import com.capitalone.service.aggregate.QuantileAggregator;
+import com.capitalone.service.aggregate.QuantileSketch;
+import com.capitalone.service.aggregate.RangeAggregator;
+import com.capitalone.service.store.Store;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The part shared by the stores that wrap a station's Store for replication: reads, including stats by a wrapped
+ * store that keeps running totals or sketches, go straight to the wrapped store.
+ */
+abstract class ForwardingMeasurementStore implements Store<Long, Measurement>, RangeAggregator, QuantileAggregator {
+    protected final String station;
+    protected final Store<Long, Measurement> delegate;
+
+    /**
+     * @param station the id of the station
+     * @param delegate the station's Store
+     */
+    ForwardingMeasurementStore(final String station, final Store<Long, Measurement> delegate) {
+        this.station = station;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Measurement retrieve(final Long entityId) throws AppServerException {
+        return delegate.retrieve(entityId);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive, limit);
+    }
+
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        if (delegate instanceof RangeAggregator)
+            return ((RangeAggregator) delegate).aggregate(metrics, fromTimestamp, toTimestamp);
+        return ParallelAggregation.aggregate(
+                (from, to, limit) -> delegate.retrieveInRange(from, true, to, false, limit), metrics, fromTimestamp, toTimestamp);
+    }
+
+    @Override
+    public Map<String, QuantileSketch> sketch(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        if (delegate instanceof QuantileAggregator)
+            return ((QuantileAggregator) delegate).sketch(metrics, fromTimestamp, toTimestamp);
+        final Map<String, QuantileSketch> sketches = QuantileSketch.forMetrics(metrics);
+        if (fromTimestamp < toTimestamp)
+            QuantileSketch.addAll(sketches, delegate.retrieveInRange(fromTimestamp, true, toTimestamp, false));
+        return sketches;
+    }
+}
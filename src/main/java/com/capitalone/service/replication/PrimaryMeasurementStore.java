@@ -0,0 +1,101 @@
+package com.capitalone.service.replication;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.Mutation;
+import com.capitalone.service.store.Store;
+import com.capitalone.service.store.StripedLocks;
+import com.google.common.collect.Lists;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Wraps a station's Store on a replication primary, appending every mutation to the ReplicationLog once the wrapped
+ * store has applied it, so a rejected create or update never reaches the replicas.
+ *
+ * Like DurableMeasurementStore, mutations of the same timestamp are serialised by one of a fixed set of striped
+ * locks, so their order in the log is the order they were applied in, and a clear takes every stripe.
+ */
+final class PrimaryMeasurementStore extends ForwardingMeasurementStore {
+    private final ReplicationLog replicationLog;
+    private final StripedLocks locks = new StripedLocks();
+
+    /**
+     * @param station the id of the station
+     * @param delegate the station's Store
+     * @param replicationLog the log shared by every station
+     */
+    PrimaryMeasurementStore(final String station, final Store<Long, Measurement> delegate, final ReplicationLog replicationLog) {
+        super(station, delegate);
+        this.replicationLog = replicationLog;
+    }
+
+    @Override
+    public void create(final Measurement entity, final Long entityId) throws AppServerException {
+        final Lock lock = locks.stripe(entityId);
+        lock.lock();
+        try {
+            delegate.create(entity, entityId);
+            replicationLog.append(Mutation.Operation.CREATE, station, entity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Long> createAll(final Map<Long, Measurement> entities) throws AppServerException {
+        final boolean[] locked = locks.lockAll(entities.keySet());
+        try {
+            final Collection<Long> existing = delegate.createAll(entities);
+            final List<Measurement> created = Lists.newArrayListWithCapacity(entities.size() - existing.size());
+            for (final Map.Entry<Long, Measurement> entry : entities.entrySet()) {
+                if (!existing.contains(entry.getKey()))
+                    created.add(entry.getValue());
+            }
+            replicationLog.appendAll(Mutation.Operation.CREATE, station, created);
+            return existing;
+        } finally {
+            locks.unlockAll(locked);
+        }
+    }
+
+    @Override
+    public Measurement update(final Measurement entity, final Long entityId) throws AppServerException {
+        final Lock lock = locks.stripe(entityId);
+        lock.lock();
+        try {
+            final Measurement previous = delegate.update(entity, entityId);
+            replicationLog.append(Mutation.Operation.UPDATE, station, entity);
+            return previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Measurement delete(final Long entityId) throws AppServerException {
+        final Lock lock = locks.stripe(entityId);
+        lock.lock();
+        try {
+            final Measurement deleted = delegate.delete(entityId);
+            replicationLog.append(Mutation.Operation.DELETE, station, deleted);
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        locks.lockAll();
+        try {
+            delegate.clear();
+            replicationLog.append(Mutation.Operation.CLEAR, station, null);
+        } finally {
+            locks.unlockAll();
+        }
+    }
+}
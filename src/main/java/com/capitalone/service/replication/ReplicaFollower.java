@@ -0,0 +1,309 @@
+package com.capitalone.service.replication;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.Mutation;
+import com.capitalone.model.MutationBatch;
+import com.capitalone.model.ReplicationStatus;
+import com.capitalone.service.cache.StatsCache;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the Store's of a replica up to date with the primary, on a thread of its own.
+ *
+ * The follower reads the primary's ReplicationLog from the sequence after the last mutation it applied, waiting on
+ * the primary for new mutations so that they arrive as soon as they are made. Mutations are applied with
+ * ReplicaMeasurementStore's repeatable methods, a batch at a time.
+ *
+ * When the primary no longer holds the mutations after that sequence, because the replica fell further behind than
+ * the primary's log holds or the primary has restarted since, the follower copies the primary's whole store
+ * instead. The primary takes the sequence of its latest mutation before it starts writing the copy, so the copy
+ * already holds every mutation up to that sequence and may hold some after it; applying those again does no harm.
+ * The replica's Store's are emptied first, so they hold part of the primary's readings until the copy is done.
+ *
+ * If the Store's are persisted, the epoch and sequence the replica has reached are saved to a file next to them, so
+ * a restarted replica carries on reading the primary's log from there instead of copying the whole store. The file
+ * is rewritten about once a second, each time with the position reached by the previous write, so the Store's have
+ * had time to force the mutations up to it to disk.
+ */
+@Slf4j
+final class ReplicaFollower implements Runnable {
+    static final String POSITION_FILE = "replication.position";
+    static final int BATCH_SIZE = 1000;
+    static final long WAIT_MILLIS = 1000;
+    private static final long RETRY_MILLIS = 1000;
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int SNAPSHOT_BATCH_SIZE = 8192;
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final ObjectReader MEASUREMENT_READER = new ObjectMapper().reader(Measurement.class);
+
+    private final URI primary;
+    private final WebTarget target;
+    private final Path positionFile;
+    private final Function<String, ReplicaMeasurementStore> stores;
+    private final Supplier<Set<String>> stations;
+    private final StatsCache statsCache;
+
+    private volatile String state = "starting";
+    private volatile String epoch;
+    private volatile long applied;
+    private volatile long primaryHead;
+    private volatile long lagMillis;
+    private String savedPosition;
+    private String nextPosition;
+    private long lastSave = System.nanoTime();
+
+    /**
+     * @param client the client to call the primary with
+     * @param primary the base URI of the primary
+     * @param positionFile the file to save the position reached to, or null if the Store's are not persisted
+     * @param stores the ReplicaMeasurementStore of each station
+     * @param stations the ids of the stations with a Store on this replica
+     * @param statsCache the cache to drop the stats of changed ranges from
+     */
+    ReplicaFollower(
+            final Client client,
+            final URI primary,
+            final Path positionFile,
+            final Function<String, ReplicaMeasurementStore> stores,
+            final Supplier<Set<String>> stations,
+            final StatsCache statsCache
+    ) {
+        this.primary = primary;
+        this.target = client.target(primary).path("replication");
+        this.positionFile = positionFile;
+        this.stores = stores;
+        this.stations = stations;
+        this.statsCache = statsCache;
+        loadPosition();
+    }
+
+    @Override
+    public void run() {
+        log.info("Replicating from {} after sequence {} of epoch {}", primary, applied, epoch);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (epoch == null)
+                    resync();
+                else
+                    poll();
+            } catch (WebApplicationException | ProcessingException | IOException e) {
+                if (!"disconnected".equals(state))
+                    log.warn("Cannot replicate from {}, retrying every {} ms: {}", primary, RETRY_MILLIS, e.toString());
+                state = "disconnected";
+                pause();
+            } catch (RuntimeException e) {
+                log.error("Cannot apply the mutations from {}, copying its store again", primary, e);
+                epoch = null;
+                pause();
+            }
+        }
+    }
+
+    /**
+     * @return the position reached and how far behind the primary it is
+     */
+    ReplicationStatus status() {
+        final long head = primaryHead;
+        final long sequence = applied;
+        return new ReplicationStatus(Replication.REPLICA, epoch, sequence, state, head, Math.max(0, head - sequence), lagMillis);
+    }
+
+    /**
+     * Reads and applies the next mutations, or forgets the epoch if the primary no longer holds them.
+     */
+    private void poll() {
+        final Response response = target.path("log")
+                .queryParam("epoch", epoch)
+                .queryParam("after", applied)
+                .queryParam("limit", BATCH_SIZE)
+                .queryParam("wait", WAIT_MILLIS)
+                .request(MediaType.APPLICATION_JSON)
+                .get();
+        try {
+            if (response.getStatus() == Response.Status.GONE.getStatusCode()) {
+                log.info("Primary {} no longer holds the mutations after sequence {} of epoch {}, copying its store", primary, applied, epoch);
+                epoch = null;
+                return;
+            }
+            if (response.getStatus() != Response.Status.OK.getStatusCode())
+                throw new WebApplicationException("Replication log request failed with " + response.getStatus(), response.getStatus());
+            apply(response.readEntity(MutationBatch.class));
+        } finally {
+            response.close();
+        }
+        state = "following";
+        savePosition();
+    }
+
+    /**
+     * Applies the mutations in order, in one upsert per station for the creates and updates between deletes.
+     * @param batch the mutations after the last one applied
+     */
+    void apply(final MutationBatch batch) {
+        final List<Mutation> mutations = batch.getMutations();
+        if (!mutations.isEmpty() && mutations.get(0).getSequence() != applied + 1)
+            throw new IllegalStateException("Expected the mutation after sequence " + applied + ", got " + mutations.get(0).getSequence());
+
+        final Map<String, Map<Long, Measurement>> upserts = Maps.newHashMap();
+        for (final Mutation mutation : mutations) {
+            final String station = mutation.getStation();
+            final Map<Long, Measurement> pending = upserts.computeIfAbsent(station, s -> Maps.newLinkedHashMap());
+            switch (mutation.getOperation()) {
+                case CREATE:
+                case UPDATE:
+                    final Measurement m = mutation.getMeasurement();
+                    pending.put(m.getTimestamp(), m.withStation(station).registered());
+                    break;
+                case DELETE:
+                    final long timestamp = mutation.getMeasurement().getTimestamp();
+                    //Any pending write of the timestamp came before the delete, so it need not be applied at all
+                    pending.remove(timestamp);
+                    stores.apply(station).remove(timestamp);
+                    statsCache.invalidate(station, timestamp);
+                    break;
+                case CLEAR:
+                    pending.clear();
+                    stores.apply(station).removeAll();
+                    statsCache.invalidateAll(station);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown mutation: " + mutation.getOperation());
+            }
+        }
+        for (final Map.Entry<String, Map<Long, Measurement>> entry : upserts.entrySet()) {
+            stores.apply(entry.getKey()).upsertAll(entry.getValue());
+            statsCache.invalidateAll(entry.getKey(), entry.getValue().keySet());
+        }
+
+        if (!mutations.isEmpty())
+            applied = mutations.get(mutations.size() - 1).getSequence();
+        epoch = batch.getEpoch();
+        primaryHead = batch.getHead();
+        lagMillis = applied >= batch.getHead() || mutations.isEmpty() ? 0 : batch.getTime() - mutations.get(mutations.size() - 1).getTime();
+    }
+
+    /**
+     * Replaces the Store's of every station with a copy of the primary's, and carries on from the sequence the copy
+     * was taken at.
+     */
+    private void resync() throws IOException {
+        state = "resyncing";
+        deletePosition();
+        final Response response = target.path("snapshot").request(APPLICATION_NDJSON).get();
+        try {
+            if (response.getStatus() != Response.Status.OK.getStatusCode())
+                throw new WebApplicationException("Replication snapshot request failed with " + response.getStatus(), response.getStatus());
+            final String snapshotEpoch = response.getHeaderString(Replication.EPOCH_HEADER);
+            final long snapshotSequence = Long.parseLong(response.getHeaderString(Replication.SEQUENCE_HEADER));
+
+            for (final String station : stations.get()) {
+                stores.apply(station).removeAll();
+                statsCache.invalidateAll(station);
+            }
+            long copied = 0;
+            final Map<String, Map<Long, Measurement>> upserts = Maps.newHashMap();
+            try (final InputStream body = response.readEntity(InputStream.class);
+                 final MappingIterator<Measurement> measurements = MEASUREMENT_READER.readValues(body)) {
+                while (measurements.hasNext()) {
+                    final Measurement m = measurements.next();
+                    final Map<Long, Measurement> pending = upserts.computeIfAbsent(m.getStation(), s -> Maps.newLinkedHashMap());
+                    pending.put(m.getTimestamp(), m.registered());
+                    if (pending.size() == SNAPSHOT_BATCH_SIZE) {
+                        stores.apply(m.getStation()).upsertAll(pending);
+                        pending.clear();
+                    }
+                    copied++;
+                }
+            }
+            for (final Map.Entry<String, Map<Long, Measurement>> entry : upserts.entrySet())
+                stores.apply(entry.getKey()).upsertAll(entry.getValue());
+            for (final String station : upserts.keySet())
+                statsCache.invalidateAll(station);
+
+            applied = snapshotSequence;
+            primaryHead = snapshotSequence;
+            epoch = snapshotEpoch;
+            log.info("Copied {} measurements from {} at sequence {} of epoch {}", copied, primary, snapshotSequence, snapshotEpoch);
+        } finally {
+            response.close();
+        }
+    }
+
+    private void loadPosition() {
+        if (positionFile == null || !Files.exists(positionFile))
+            return;
+        try {
+            final List<String> position = Splitter.on(' ').splitToList(new String(Files.readAllBytes(positionFile), StandardCharsets.UTF_8).trim());
+            epoch = position.get(0);
+            applied = Long.parseLong(position.get(1));
+            primaryHead = applied;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable replication position in {}: {}", positionFile, e.toString());
+        }
+    }
+
+    /**
+     * Saves the position reached by the previous call, once a second.
+     */
+    private void savePosition() {
+        final long now = System.nanoTime();
+        if (positionFile == null || now - lastSave < SAVE_INTERVAL_NANOS)
+            return;
+        if (nextPosition != null && !nextPosition.equals(savedPosition)) {
+            try {
+                final Path temporary = positionFile.resolveSibling(POSITION_FILE + ".tmp");
+                Files.write(temporary, nextPosition.getBytes(StandardCharsets.UTF_8));
+                Files.move(temporary, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                savedPosition = nextPosition;
+            } catch (IOException e) {
+                log.warn("Cannot save the replication position to {}: {}", positionFile, e.toString());
+            }
+        }
+        nextPosition = epoch + " " + applied;
+        lastSave = now;
+    }
+
+    /**
+     * Deletes the saved position before the Store's are emptied, so a replica restarted part way through a copy
+     * copies the whole store again.
+     */
+    private void deletePosition() throws IOException {
+        savedPosition = null;
+        nextPosition = null;
+        if (positionFile != null)
+            Files.deleteIfExists(positionFile);
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.capitalone.service.replication;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.exception.client.ForbiddenException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.store.Store;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Wraps a station's Store on a read-only replica. Reads go to the wrapped store, while writes from clients are
+ * rejected with a 403 FORBIDDEN naming the primary to send them to. Only the ReplicaFollower changes the wrapped
+ * store, with methods that can be repeated: a mutation applied twice leaves the store as applying it once does.
+ */
+final class ReplicaMeasurementStore extends ForwardingMeasurementStore {
+    private final URI primary;
+
+    /**
+     * @param station the id of the station
+     * @param delegate the station's Store
+     * @param primary the base URI of the primary, for the message to clients that try to write
+     */
+    ReplicaMeasurementStore(final String station, final Store<Long, Measurement> delegate, final URI primary) {
+        super(station, delegate);
+        this.primary = primary;
+    }
+
+    @Override
+    public void create(final Measurement entity, final Long entityId) throws AppServerException {
+        throw readOnly();
+    }
+
+    @Override
+    public Collection<Long> createAll(final Map<Long, Measurement> entities) throws AppServerException {
+        throw readOnly();
+    }
+
+    @Override
+    public Measurement update(final Measurement entity, final Long entityId) throws AppServerException {
+        throw readOnly();
+    }
+
+    @Override
+    public Measurement delete(final Long entityId) throws AppServerException {
+        throw readOnly();
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        throw readOnly();
+    }
+
+    /**
+     * Creates the Measurement's, replacing any that already exist.
+     * @param entities the Measurement's keyed by timestamp
+     */
+    void upsertAll(final Map<Long, Measurement> entities) {
+        if (entities.isEmpty())
+            return;
+        for (final Long existing : delegate.createAll(entities))
+            delegate.update(entities.get(existing), existing);
+    }
+
+    /**
+     * Deletes the Measurement at the timestamp, if there is one.
+     * @param timestamp the timestamp in epoch milliseconds
+     */
+    void remove(final long timestamp) {
+        try {
+            delegate.delete(timestamp);
+        } catch (EntityNotFoundException e) {
+            //Already deleted by an earlier copy of the mutation
+        }
+    }
+
+    /**
+     * Deletes every Measurement of the station.
+     */
+    void removeAll() {
+        delegate.clear();
+    }
+
+    private ForbiddenException readOnly() {
+        return new ForbiddenException("This replica is read-only. Send writes to the primary at " + primary);
+    }
+}
@@ -0,0 +1,162 @@
+package com.capitalone.service.replication;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.ReplicationStatus;
+import com.capitalone.service.cache.StatsCache;
+import com.capitalone.service.store.MeasurementStores;
+import com.capitalone.service.store.Store;
+import lombok.extern.slf4j.Slf4j;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.jackson.JacksonFeature;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The replication role of this process, chosen with the system property {@value #ROLE_PROPERTY}:
+ *  - "none" (default) does not replicate
+ *  - "primary" keeps every create, update and delete of every station in a ReplicationLog of the latest
+ *    {@value #LOG_SIZE_PROPERTY} mutations, for replicas to read from the routes of ReplicationController
+ *  - "replica" serves reads only, and applies the mutations of the primary whose base URI is the system property
+ *    {@value #PRIMARY_PROPERTY} in the background with a ReplicaFollower
+ *
+ * Replicas take read traffic off the primary, whose write path only gains an append to an in-memory log. They are
+ * eventually consistent: a write shows up on a replica once it has read and applied it, and /replication/status
+ * reports how far behind it is. A replica whose Store's are persisted, with {@value MeasurementStores#DIRECTORY_PROPERTY},
+ * carries on from where it stopped when restarted, as long as the primary has not restarted and still holds the
+ * mutations since; otherwise it copies the primary's whole store.
+ */
+@Slf4j
+public final class Replication {
+    public static final String ROLE_PROPERTY = "replication.role";
+    public static final String NONE = "none";
+    public static final String PRIMARY = "primary";
+    public static final String REPLICA = "replica";
+    public static final String PRIMARY_PROPERTY = "replication.primary";
+    public static final String LOG_SIZE_PROPERTY = "replication.log.size";
+    public static final int DEFAULT_LOG_SIZE = 1 << 18;
+    public static final String EPOCH_HEADER = "X-Replication-Epoch";
+    public static final String SEQUENCE_HEADER = "X-Replication-Sequence";
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+
+    private static Replication instance;
+
+    private final String role;
+    private final URI primary;
+    private final ReplicationLog replicationLog;
+    private ReplicaFollower follower;
+
+    /**
+     * @param role the replication role of this process
+     * @param primary the base URI of the primary, for a replica
+     * @param logSize the number of mutations a primary keeps for its replicas
+     */
+    Replication(final String role, final URI primary, final int logSize) {
+        switch (role) {
+            case NONE:
+            case PRIMARY:
+                break;
+            case REPLICA:
+                if (primary == null)
+                    throw new IllegalArgumentException(String.format("A %s needs %s to be set", REPLICA, PRIMARY_PROPERTY));
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported %s: %s", ROLE_PROPERTY, role));
+        }
+        this.role = role;
+        this.primary = primary;
+        this.replicationLog = PRIMARY.equals(role) ? new ReplicationLog(logSize) : null;
+    }
+
+    /**
+     * Returns the replication role of this process, reading the system properties on first use.
+     * @return the Replication
+     */
+    public synchronized static Replication getInstance() {
+        if (instance == null) {
+            final String primary = System.getProperty(PRIMARY_PROPERTY);
+            instance = new Replication(System.getProperty(ROLE_PROPERTY, NONE), primary == null ? null : URI.create(primary),
+                    Integer.getInteger(LOG_SIZE_PROPERTY, DEFAULT_LOG_SIZE));
+            if (!NONE.equals(instance.role))
+                log.info("Replication role '{}'{}", instance.role, primary == null ? "" : " of primary " + primary);
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if this process keeps a ReplicationLog for replicas
+     */
+    public boolean isPrimary() {
+        return PRIMARY.equals(role);
+    }
+
+    /**
+     * @return true if this process serves reads only, applying the mutations of a primary
+     */
+    public boolean isReplica() {
+        return REPLICA.equals(role);
+    }
+
+    /**
+     * @return the log of a primary
+     * @throws IllegalStateException if this process is not a primary
+     */
+    public ReplicationLog getLog() {
+        if (replicationLog == null)
+            throw new IllegalStateException("This process is not a replication " + PRIMARY);
+        return replicationLog;
+    }
+
+    /**
+     * Wraps a station's Store for the replication role: a primary logs its mutations and a replica rejects writes
+     * from clients.
+     * @param station the station id
+     * @param store the station's Store
+     * @return the wrapped Store, or the Store itself if this process does not replicate
+     */
+    public Store<Long, Measurement> wrap(final String station, final Store<Long, Measurement> store) {
+        switch (role) {
+            case PRIMARY:
+                return new PrimaryMeasurementStore(station, store, replicationLog);
+            case REPLICA:
+                return new ReplicaMeasurementStore(station, store, primary);
+            default:
+                return store;
+        }
+    }
+
+    /**
+     * Starts applying the primary's mutations on a replica. Does nothing otherwise, or if already started.
+     */
+    public synchronized void start() {
+        if (!REPLICA.equals(role) || follower != null)
+            return;
+        final Client client = ClientBuilder.newClient()
+                .register(JacksonFeature.class)
+                .property(ClientProperties.CONNECT_TIMEOUT, CONNECT_TIMEOUT_MILLIS)
+                //The primary holds a read open for up to WAIT_MILLIS when there is nothing new
+                .property(ClientProperties.READ_TIMEOUT, (int) ReplicaFollower.WAIT_MILLIS + CONNECT_TIMEOUT_MILLIS);
+        final String directory = System.getProperty(MeasurementStores.DIRECTORY_PROPERTY);
+        final Path positionFile = directory == null ? null : Paths.get(directory, ReplicaFollower.POSITION_FILE);
+        follower = new ReplicaFollower(client, primary, positionFile,
+                station -> (ReplicaMeasurementStore) MeasurementStores.getInstance(station), MeasurementStores::stations,
+                StatsCache.getInstance());
+        final Thread thread = new Thread(follower, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the replication state of this process
+     */
+    public synchronized ReplicationStatus status() {
+        if (follower != null)
+            return follower.status();
+        if (isPrimary())
+            return new ReplicationStatus(role, replicationLog.getEpoch(), replicationLog.head(), null, null, null, null);
+        return new ReplicationStatus(role, null, 0, null, null, null, null);
+    }
+}
@@ -0,0 +1,166 @@
+package com.capitalone.service.replication;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.Mutation;
+import com.capitalone.model.MutationBatch;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The ordered mutations of every station of a replication primary, kept in memory for its replicas to read.
+ *
+ * Each mutation gets the next sequence number, starting at 1. Only the latest capacity mutations are kept in a ring,
+ * so the log never grows with the number of readings; a replica that falls further behind than that has to copy the
+ * whole store again. The log starts empty with a new random epoch every time the process starts, so a replica can
+ * tell that the sequence numbers it knows belong to an earlier run.
+ *
+ * Appends take no lock: a writer reserves its sequence numbers from a counter, writes each mutation into its slot of
+ * the ring, and then moves the head past every slot that holds the next sequence, whoever wrote it. Readers only see
+ * mutations up to the head, so never a gap, and check the sequence of every slot they read in case a later append has
+ * already overwritten it. A read with nothing new to return waits for the head to move, so replicas can poll without a
+ * delay between requests and still see a mutation as soon as it is made; writers only signal when a read is waiting.
+ */
+public final class ReplicationLog {
+    private final String epoch = UUID.randomUUID().toString();
+    private final AtomicReferenceArray<Mutation> ring;
+    private final AtomicLong reserved = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Object signal = new Object();
+
+    /**
+     * @param capacity the number of mutations to keep
+     */
+    public ReplicationLog(final int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid replication log capacity: " + capacity);
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * @return the id of this run of the log
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the sequence of the latest mutation, or 0 if there is none yet
+     */
+    public long head() {
+        return head.get();
+    }
+
+    /**
+     * Appends a mutation, waking up any reads waiting for one.
+     * @param operation the kind of change
+     * @param station the id of the station changed
+     * @param measurement the Measurement created, updated or deleted, or null for a clear
+     * @return the sequence of the mutation
+     */
+    public long append(final Mutation.Operation operation, final String station, final Measurement measurement) {
+        final long sequence = reserved.incrementAndGet();
+        publish(new Mutation(sequence, System.currentTimeMillis(), operation, station, measurement));
+        advance();
+        return sequence;
+    }
+
+    /**
+     * Appends a mutation for each Measurement under consecutive sequences, waking up any reads waiting for one.
+     * @param operation the kind of change
+     * @param station the id of the station changed
+     * @param measurements the Measurement's created, updated or deleted
+     * @return the sequence of the last mutation, or the head if there are no Measurement's
+     */
+    public long appendAll(final Mutation.Operation operation, final String station, final Collection<Measurement> measurements) {
+        if (measurements.isEmpty())
+            return head();
+
+        final long time = System.currentTimeMillis();
+        long sequence = reserved.getAndAdd(measurements.size());
+        for (final Measurement measurement : measurements)
+            publish(new Mutation(++sequence, time, operation, station, measurement));
+        advance();
+        return sequence;
+    }
+
+    /**
+     * Reads the mutations after a sequence, waiting up to waitMillis for one if there are none yet.
+     * @param after the sequence of the last mutation already read, or 0 to read from the start
+     * @param limit the maximum number of mutations to return
+     * @param waitMillis how long to wait for a mutation, or 0 to return at once
+     * @return the mutations in sequence order, possibly none, or null if the log no longer holds the mutations
+     *         after the sequence, or never had it
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public MutationBatch read(final long after, final int limit, final long waitMillis) throws InterruptedException {
+        if (after == head.get() && waitMillis > 0)
+            await(after, waitMillis);
+
+        final long head = this.head.get();
+        if (after < head - ring.length() || after > head || after < 0)
+            return null;
+
+        final int count = (int) Math.min(limit, head - after);
+        final ImmutableList.Builder<Mutation> mutations = ImmutableList.builder();
+        for (long sequence = after + 1; sequence <= after + count; sequence++) {
+            final Mutation mutation = ring.get(index(sequence));
+            if (mutation.getSequence() != sequence)
+                return null;
+            mutations.add(mutation);
+        }
+        return new MutationBatch(epoch, head, System.currentTimeMillis(), mutations.build());
+    }
+
+    /**
+     * Writes the mutation into its slot, once the mutation a whole ring earlier has been written there, so that a
+     * writer running behind cannot overwrite a later one.
+     */
+    private void publish(final Mutation mutation) {
+        while (head.get() < mutation.getSequence() - ring.length()) {
+            advance();
+            Thread.yield();
+        }
+        ring.set(index(mutation.getSequence()), mutation);
+    }
+
+    /**
+     * Moves the head past every slot holding the next sequence, then wakes up any waiting reads.
+     */
+    private void advance() {
+        for (long current = head.get(); ; current = head.get()) {
+            final Mutation next = ring.get(index(current + 1));
+            if (next == null || next.getSequence() != current + 1)
+                break;
+            head.compareAndSet(current, current + 1);
+        }
+        if (waiting.get() > 0) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        }
+    }
+
+    private void await(final long after, final long waitMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        waiting.incrementAndGet();
+        try {
+            synchronized (signal) {
+                for (long remaining = waitMillis; after == head.get() && remaining > 0; remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))
+                    signal.wait(remaining);
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private int index(final long sequence) {
+        return (int) ((sequence - 1) % ring.length());
+    }
+}
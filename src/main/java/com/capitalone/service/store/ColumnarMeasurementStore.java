@@ -0,0 +1,430 @@
+package com.capitalone.service.store;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.ParallelAggregation;
+import com.capitalone.service.aggregate.RangeAggregator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A column oriented in-memory store for Measurement's.
+ *
+ * The timestamps are held as epoch milliseconds in a single sorted long[] and every metric is held in its own
+ * float[] column, with a bitmap flagging which rows actually have a value for that metric. This avoids boxing the
+ * metric values, the per-measurement map and the String keys that SortedInMemoryStore holds for every reading.
+ * Lookups use a binary search over the timestamps and Measurement objects are only created when they are read.
+ *
+ * Readings are expected to arrive mostly in timestamp order, which makes an insert an append. Inserting or
+ * deleting in the middle of the store shifts the rows after it.
+ *
+ * Aggregating a range reads the float columns directly, without creating a Measurement per row. Ranges of more
+ * rows than the parallel threshold are split into row ranges that are totalled on the ParallelAggregation pool.
+ */
+public final class ColumnarMeasurementStore implements Store<Long, Measurement>, RangeAggregator {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int parallelThreshold;
+    private final Map<String, MetricColumn> columns = Maps.newLinkedHashMap();
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int size;
+
+    public ColumnarMeasurementStore() {
+        this(ParallelAggregation.threshold());
+    }
+
+    /**
+     * @param parallelThreshold the number of rows above which a range is aggregated in parallel
+     */
+    ColumnarMeasurementStore(final int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @Override
+    public void create(final Measurement entity, final Long entityId) throws AppServerException {
+        final long timestamp = entityId;
+        lock.writeLock().lock();
+        try {
+            final int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            if (index >= 0)
+                throw new EntityExistsException("Cannot create new entity. Entity already exists with ID: " + entityId);
+
+            final int row = -(index + 1);
+            insertRow(row, timestamp);
+            writeRow(row, entity.getMetrics());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The batch is applied in timestamp order under a single write lock. Each binary search starts from the row of the
+     * previous insert, so a batch of readings newer than everything in the store is a sequence of appends.
+     */
+    @Override
+    public Collection<Long> createAll(final Map<Long, Measurement> entities) throws AppServerException {
+        final List<Long> existing = Lists.newArrayList();
+        final Map<Long, Measurement> sorted = new TreeMap<>(entities);
+        lock.writeLock().lock();
+        try {
+            int fromRow = 0;
+            for (final Map.Entry<Long, Measurement> entry : sorted.entrySet()) {
+                final long timestamp = entry.getKey();
+                final int index = Arrays.binarySearch(timestamps, fromRow, size, timestamp);
+                if (index >= 0) {
+                    existing.add(timestamp);
+                    fromRow = index;
+                    continue;
+                }
+
+                final int row = -(index + 1);
+                insertRow(row, timestamp);
+                writeRow(row, entry.getValue().getMetrics());
+                fromRow = row + 1;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return existing;
+    }
+
+    @Override
+    public Measurement retrieve(final Long entityId) throws AppServerException {
+        final long timestamp = entityId;
+        lock.readLock().lock();
+        try {
+            final int row = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            if (row < 0)
+                throw new EntityNotFoundException("Cannot retrieve entity. Entity not found with ID " + entityId);
+
+            return readRow(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive
+    ) throws AppServerException {
+        return retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        final long from = fromEntityId;
+        final long to = toEntityId;
+        lock.readLock().lock();
+        try {
+            final int fromRow = fromInclusive ? lowerBound(from) : upperBound(from);
+            final int toRow = Math.min(toInclusive ? upperBound(to) : lowerBound(to), (int) Math.min((long) fromRow + limit, Integer.MAX_VALUE));
+            final List<Measurement> measurements = Lists.newArrayListWithCapacity(Math.max(toRow - fromRow, 0));
+            for (int row = fromRow; row < toRow; row++)
+                measurements.add(readRow(row));
+            return measurements;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Measurement update(final Measurement entity, final Long entityId) throws AppServerException {
+        final long timestamp = entityId;
+        lock.writeLock().lock();
+        try {
+            final int row = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            if (row < 0)
+                throw new EntityNotFoundException("Cannot update entity. Entity not found with ID " + entityId);
+
+            final Measurement previous = readRow(row);
+            for (final MetricColumn column : columns.values())
+                column.clear(row);
+            writeRow(row, entity.getMetrics());
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Measurement delete(final Long entityId) throws AppServerException {
+        final long timestamp = entityId;
+        lock.writeLock().lock();
+        try {
+            final int row = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            if (row < 0)
+                throw new EntityNotFoundException("Cannot delete entity. Entity not found with ID " + entityId);
+
+            final Measurement deleted = readRow(row);
+            removeRow(row);
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        lock.writeLock().lock();
+        try {
+            columns.clear();
+            timestamps = new long[INITIAL_CAPACITY];
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+        lock.readLock().lock();
+        try {
+            final int fromRow = lowerBound(fromTimestamp);
+            final int toRow = lowerBound(toTimestamp);
+            if (fromRow >= toRow)
+                return accumulators;
+            if (toRow - fromRow > parallelThreshold) {
+                //The read lock is held by this thread while the pool reads the columns, which keeps writers out
+                final List<String> names = Lists.newArrayList(accumulators.keySet());
+                final MetricColumn[] metricColumns = new MetricColumn[names.size()];
+                for (int i = 0; i < metricColumns.length; i++)
+                    metricColumns[i] = columns.get(names.get(i));
+                final MetricAccumulator[] totals = ParallelAggregation.invoke(new RowsTask(metricColumns, fromRow, toRow, parallelThreshold));
+                for (int i = 0; i < totals.length; i++)
+                    accumulators.get(names.get(i)).merge(totals[i]);
+                return accumulators;
+            }
+            for (final Map.Entry<String, MetricAccumulator> entry : accumulators.entrySet()) {
+                final MetricColumn column = columns.get(entry.getKey());
+                if (column != null)
+                    column.addTo(entry.getValue(), fromRow, toRow);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return accumulators;
+    }
+
+    /**
+     * Totals up a range of rows, splitting it in half until it holds no more than the threshold rows.
+     * The result holds an accumulator for each column, in the same order; a null column is a metric never seen.
+     */
+    private static final class RowsTask extends RecursiveTask<MetricAccumulator[]> {
+        private final MetricColumn[] columns;
+        private final int fromRow;
+        private final int toRow;
+        private final int threshold;
+
+        RowsTask(final MetricColumn[] columns, final int fromRow, final int toRow, final int threshold) {
+            this.columns = columns;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected MetricAccumulator[] compute() {
+            if (toRow - fromRow <= threshold) {
+                final MetricAccumulator[] totals = new MetricAccumulator[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    totals[i] = new MetricAccumulator();
+                    if (columns[i] != null)
+                        columns[i].addTo(totals[i], fromRow, toRow);
+                }
+                return totals;
+            }
+
+            final int middle = (fromRow + toRow) >>> 1;
+            final RowsTask lower = new RowsTask(columns, fromRow, middle, threshold);
+            lower.fork();
+            final MetricAccumulator[] totals = new RowsTask(columns, middle, toRow, threshold).compute();
+            final MetricAccumulator[] lowerTotals = lower.join();
+            for (int i = 0; i < totals.length; i++)
+                totals[i].merge(lowerTotals[i]);
+            return totals;
+        }
+    }
+
+    /**
+     * @return the index of the first row with a timestamp greater than or equal to the key
+     */
+    private int lowerBound(final long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (timestamps[mid] < key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first row with a timestamp strictly greater than the key
+     */
+    private int upperBound(final long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (timestamps[mid] <= key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private void insertRow(final int row, final long timestamp) {
+        if (size == timestamps.length)
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+        System.arraycopy(timestamps, row, timestamps, row + 1, size - row);
+        timestamps[row] = timestamp;
+        for (final MetricColumn column : columns.values())
+            column.insert(row, size, timestamps.length);
+        size++;
+    }
+
+    private void removeRow(final int row) {
+        System.arraycopy(timestamps, row + 1, timestamps, row, size - row - 1);
+        for (final MetricColumn column : columns.values())
+            column.remove(row, size);
+        size--;
+    }
+
+    private void writeRow(final int row, final Map<String, Float> metrics) {
+        for (final Map.Entry<String, Float> metric : metrics.entrySet()) {
+            MetricColumn column = columns.get(metric.getKey());
+            if (column == null) {
+                column = new MetricColumn(timestamps.length);
+                columns.put(metric.getKey(), column);
+            }
+            column.set(row, metric.getValue());
+        }
+    }
+
+    private Measurement readRow(final int row) {
+        final ImmutableMap.Builder<String, Float> metrics = ImmutableMap.builder();
+        for (final Map.Entry<String, MetricColumn> column : columns.entrySet()) {
+            if (column.getValue().isPresent(row))
+                metrics.put(column.getKey(), column.getValue().get(row));
+        }
+        return new Measurement(timestamps[row], metrics.build());
+    }
+
+    /**
+     * The values of a single metric, aligned by row with the timestamps. A set bit in the presence bitmap means the
+     * row has a value for the metric. Bits beyond the last row are always clear.
+     */
+    static final class MetricColumn {
+        private float[] values;
+        private long[] present;
+
+        MetricColumn(final int capacity) {
+            values = new float[capacity];
+            present = new long[words(capacity)];
+        }
+
+        boolean isPresent(final int row) {
+            return (present[row >>> 6] & (1L << row)) != 0;
+        }
+
+        float get(final int row) {
+            return values[row];
+        }
+
+        void set(final int row, final float value) {
+            values[row] = value;
+            present[row >>> 6] |= 1L << row;
+        }
+
+        void clear(final int row) {
+            present[row >>> 6] &= ~(1L << row);
+        }
+
+        /**
+         * Adds the values of the rows that have one, visiting only the set bits of the presence bitmap.
+         * @param accumulator the accumulator to add to
+         * @param fromRow the first row, inclusive
+         * @param toRow the last row, exclusive
+         */
+        void addTo(final MetricAccumulator accumulator, final int fromRow, final int toRow) {
+            final int lastWord = (toRow - 1) >>> 6;
+            for (int word = fromRow >>> 6; word <= lastWord; word++) {
+                long bits = present[word];
+                if (word == fromRow >>> 6)
+                    bits &= -1L << fromRow;
+                if (word == lastWord)
+                    bits &= -1L >>> (63 - ((toRow - 1) & 63));
+                while (bits != 0) {
+                    accumulator.add(values[(word << 6) + Long.numberOfTrailingZeros(bits)]);
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        /**
+         * Opens an empty row at the index, shifting the following rows up by one.
+         * @param row the row to open
+         * @param size the number of rows before the insert
+         * @param capacity the capacity the column must be able to hold
+         */
+        void insert(final int row, final int size, final int capacity) {
+            if (values.length < capacity) {
+                values = Arrays.copyOf(values, capacity);
+                present = Arrays.copyOf(present, words(capacity));
+            }
+            System.arraycopy(values, row, values, row + 1, size - row);
+
+            final int firstWord = row >>> 6;
+            for (int word = size >>> 6; word > firstWord; word--)
+                present[word] = (present[word] << 1) | (present[word - 1] >>> 63);
+            final long keep = (1L << row) - 1;
+            present[firstWord] = (present[firstWord] & keep) | ((present[firstWord] & ~keep) << 1);
+        }
+
+        /**
+         * Removes the row at the index, shifting the following rows down by one.
+         * @param row the row to remove
+         * @param size the number of rows before the removal
+         */
+        void remove(final int row, final int size) {
+            System.arraycopy(values, row + 1, values, row, size - row - 1);
+
+            final int firstWord = row >>> 6;
+            final int lastWord = (size - 1) >>> 6;
+            final long keep = (1L << row) - 1;
+            present[firstWord] = (present[firstWord] & keep) | ((present[firstWord] >>> 1) & ~keep);
+            for (int word = firstWord; word < lastWord; word++) {
+                present[word] |= present[word + 1] << 63;
+                present[word + 1] >>>= 1;
+            }
+        }
+
+        private static int words(final int capacity) {
+            return (capacity + 63) >>> 6;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.capitalone.service.store;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A lock-free in-memory store for generic entities.
+ * The generic type parameter I represents the entity ID
+ * The generic type parameter E represents the entity to be stored.
+ *
+ * Internally, a ConcurrentSkipListMap is used so that readers and writers on different threads never block each
+ * other, while still allowing a sub-map to be returned with from/to parameters. Each operation is a single atomic
+ * call on the map (putIfAbsent, replace, remove), so the existence check and the write cannot interleave with
+ * another request for the same entity ID.
+ */
+public final class ConcurrentInMemoryStore<I, E> implements Store<I, E> {
+    private final ConcurrentNavigableMap<I, E> inMemoryStore = new ConcurrentSkipListMap<>();
+
+    @Override
+    public void create(final E entity, final I entityId) throws AppServerException {
+        if (inMemoryStore.putIfAbsent(entityId, entity) != null)
+            throw new EntityExistsException("Cannot create new entity. Entity already exists with ID: " + entityId);
+    }
+
+    /**
+     * Each entity is created atomically, but the batch as a whole is not: other threads may see part of the batch
+     * before the rest of it has been created.
+     */
+    @Override
+    public Collection<I> createAll(final Map<I, E> entities) throws AppServerException {
+        final List<I> existing = Lists.newArrayList();
+        for (final Map.Entry<I, E> entry : entities.entrySet()) {
+            if (inMemoryStore.putIfAbsent(entry.getKey(), entry.getValue()) != null)
+                existing.add(entry.getKey());
+        }
+        return existing;
+    }
+
+    @Override
+    public E retrieve(final I entityId) throws AppServerException {
+        final E entity = inMemoryStore.get(entityId);
+        if (entity == null)
+            throw new EntityNotFoundException("Cannot retrieve entity. Entity not found with ID " + entityId);
+
+        return entity;
+    }
+
+    /**
+     * Returns a copy of the entities in range, so the result is safe to iterate after the call returns. The copy is
+     * weakly consistent: writes made to the range while it is being copied may or may not be included.
+     */
+    @Override
+    public Collection<E> retrieveInRange(
+            final I fromEntityId,
+            final boolean fromInclusive,
+            final I toEntityId,
+            final boolean toInclusive
+    ) throws AppServerException {
+        return ImmutableList.copyOf(inMemoryStore.subMap(fromEntityId, fromInclusive, toEntityId, toInclusive).values());
+    }
+
+    /**
+     * Copies no more than limit entities, however large the range is.
+     */
+    @Override
+    public Collection<E> retrieveInRange(
+            final I fromEntityId,
+            final boolean fromInclusive,
+            final I toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        final ImmutableList.Builder<E> entities = ImmutableList.builder();
+        int count = 0;
+        for (final E entity : inMemoryStore.subMap(fromEntityId, fromInclusive, toEntityId, toInclusive).values()) {
+            if (count++ == limit)
+                break;
+            entities.add(entity);
+        }
+        return entities.build();
+    }
+
+    @Override
+    public E update(final E entity, final I entityId) throws AppServerException {
+        final E previous = inMemoryStore.replace(entityId, entity);
+        if (previous == null)
+            throw new EntityNotFoundException("Cannot update entity. Entity not found with ID " + entityId);
+
+        return previous;
+    }
+
+    @Override
+    public E delete(final I entityId) throws AppServerException {
+        final E deleted = inMemoryStore.remove(entityId);
+        if (deleted == null)
+            throw new EntityNotFoundException("Cannot delete entity. Entity not found with ID " + entityId);
+
+        return deleted;
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        inMemoryStore.clear();
+    }
+}
@@ -0,0 +1,186 @@
+package com.capitalone.service.store;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.RangeAggregator;
+import com.capitalone.service.aggregate.RangeTree;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Wraps another Measurement store and keeps a RangeTree for every metric, so the count, sum, min and max of a metric
+ * over any timestamp range are found in O(log n) time instead of by scanning the range.
+ *
+ * Mutations of the same timestamp are serialised by one of a fixed set of striped locks, so the trees are changed in
+ * the same order as the wrapped store. Each tree has its own read-write lock: mutations hold it only while changing
+ * that metric's tree, and aggregation holds the read lock only while walking it. Aggregating several metrics is
+ * weakly consistent, like retrieveInRange: a Measurement created meanwhile may be counted for some of them only.
+ */
+public final class IndexedMeasurementStore implements Store<Long, Measurement>, RangeAggregator {
+    private final Store<Long, Measurement> delegate;
+    private final ConcurrentMap<String, MetricIndex> indexes = Maps.newConcurrentMap();
+    private final StripedLocks locks = new StripedLocks();
+
+    /**
+     * Wraps the store, indexing any Measurement's it already holds.
+     * @param delegate the store holding the raw Measurement's
+     */
+    public IndexedMeasurementStore(final Store<Long, Measurement> delegate) {
+        this.delegate = delegate;
+        for (final Measurement m : delegate.retrieveInRange(Long.MIN_VALUE, true, Long.MAX_VALUE, true))
+            put(m.getTimestamp(), m.getMetrics());
+    }
+
+    @Override
+    public void create(final Measurement entity, final Long entityId) throws AppServerException {
+        final Lock lock = locks.stripe(entityId);
+        lock.lock();
+        try {
+            delegate.create(entity, entityId);
+            put(entityId, entity.getMetrics());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Long> createAll(final Map<Long, Measurement> entities) throws AppServerException {
+        final boolean[] locked = locks.lockAll(entities.keySet());
+        try {
+            final Collection<Long> existing = delegate.createAll(entities);
+            for (final Map.Entry<Long, Measurement> entry : entities.entrySet()) {
+                if (!existing.contains(entry.getKey()))
+                    put(entry.getKey(), entry.getValue().getMetrics());
+            }
+            return existing;
+        } finally {
+            locks.unlockAll(locked);
+        }
+    }
+
+    @Override
+    public Measurement retrieve(final Long entityId) throws AppServerException {
+        return delegate.retrieve(entityId);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive, limit);
+    }
+
+    @Override
+    public Measurement update(final Measurement entity, final Long entityId) throws AppServerException {
+        final Lock lock = locks.stripe(entityId);
+        lock.lock();
+        try {
+            final Measurement previous = delegate.update(entity, entityId);
+            for (final String metric : previous.getMetrics().keySet()) {
+                if (!entity.getMetrics().containsKey(metric))
+                    indexes.get(metric).remove(entityId);
+            }
+            put(entityId, entity.getMetrics());
+            return previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Measurement delete(final Long entityId) throws AppServerException {
+        final Lock lock = locks.stripe(entityId);
+        lock.lock();
+        try {
+            final Measurement deleted = delegate.delete(entityId);
+            for (final String metric : deleted.getMetrics().keySet())
+                indexes.get(metric).remove(entityId);
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        locks.lockAll();
+        try {
+            delegate.clear();
+            indexes.clear();
+        } finally {
+            locks.unlockAll();
+        }
+    }
+
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+        for (final Map.Entry<String, MetricAccumulator> entry : accumulators.entrySet()) {
+            final MetricIndex index = indexes.get(entry.getKey());
+            if (index != null)
+                index.aggregate(fromTimestamp, toTimestamp, entry.getValue());
+        }
+        return accumulators;
+    }
+
+    private void put(final long timestamp, final Map<String, Float> metrics) {
+        for (final Map.Entry<String, Float> metric : metrics.entrySet())
+            indexes.computeIfAbsent(metric.getKey(), k -> new MetricIndex()).put(timestamp, metric.getValue());
+    }
+
+    /**
+     * The RangeTree of one metric and the lock guarding it.
+     */
+    private static final class MetricIndex {
+        private final RangeTree tree = new RangeTree();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        void put(final long timestamp, final float value) {
+            lock.writeLock().lock();
+            try {
+                tree.put(timestamp, value);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(final long timestamp) {
+            lock.writeLock().lock();
+            try {
+                tree.remove(timestamp);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void aggregate(final long fromTimestamp, final long toTimestamp, final MetricAccumulator accumulator) {
+            lock.readLock().lock();
+            try {
+                tree.aggregate(fromTimestamp, toTimestamp, accumulator);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.capitalone.service.store;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.service.replication.Replication;
+import com.capitalone.service.store.durable.DurableMeasurementStore;
+import com.capitalone.service.store.durable.SegmentedMeasurementStore;
+import com.capitalone.service.store.offheap.OffHeapMeasurementStore;
+import com.capitalone.util.Stations;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Provides the Store instances used to persist Measurement's, one per station. Each station's Store is a separate
+ * shard with its own locks, so ingest and queries for different stations never contend with each other.
+ *
+ * The Store implementation is chosen with the system property {@value #STORE_PROPERTY}:
+ *  - "concurrent" (default) uses ConcurrentInMemoryStore, which lets requests read and write in parallel
+ *  - "sorted" uses SortedInMemoryStore
+ *  - "columnar" uses ColumnarMeasurementStore, which has a much smaller heap footprint per reading
+ *  - "offheap" uses OffHeapMeasurementStore, which keeps the readings in direct memory outside the heap
+ *  - "segmented" uses SegmentedMeasurementStore, which keeps older readings in memory-mapped segment files in the
+ *    directory given by the system property {@value #DIRECTORY_PROPERTY}, which must be set
+ *
+ * If the system property {@value #DIRECTORY_PROPERTY} is set, any other Store is wrapped in a DurableMeasurementStore
+ * that logs every change to that directory and restores the Measurement's from it on startup.
+ *
+ * The Store is also wrapped so that stats are answered without scanning every Measurement in the range. The index
+ * is chosen with the system property {@value #INDEX_PROPERTY}:
+ *  - "tree" (default) uses IndexedMeasurementStore, which answers any range in O(log n)
+ *  - "rollups" uses RollupMeasurementStore, which keeps per minute, hour and day totals
+ *  - "none" leaves stats to scan the range
+ * The default is "none" for the "columnar", "offheap" and "segmented" stores, which aggregate straight from their
+ * columns, direct memory or the segment files, so that the index does not add objects for every reading.
+ *
+ * Unless the system property {@value #QUANTILES_PROPERTY} is "false", the Store is finally wrapped in a
+ * QuantileMeasurementStore so that percentile stats merge hour and day sketches instead of scanning the range. The
+ * default is "false" for the "offheap" and "segmented" stores, since the sketches are kept on the heap and are
+ * rebuilt from every reading when the Store is opened.
+ * Outside all of these, a replication primary logs the mutations for its replicas and a replica rejects writes from
+ * clients, as set up by Replication.
+ *
+ * The default station is persisted to the directory itself, and every other station to its own subdirectory
+ * stations/&lt;station&gt;. The stations found there are opened again the first time the stations are listed or found.
+ * Only getInstance creates the Store of a new station, so reads should use find to not leave a station behind.
+ */
+@Slf4j
+public final class MeasurementStores {
+    public static final String STORE_PROPERTY = "measurement.store";
+    public static final String CONCURRENT = "concurrent";
+    public static final String SORTED = "sorted";
+    public static final String COLUMNAR = "columnar";
+    public static final String OFF_HEAP = "offheap";
+    public static final String SEGMENTED = "segmented";
+    public static final String DIRECTORY_PROPERTY = "measurement.store.dir";
+    public static final String INDEX_PROPERTY = "measurement.store.index";
+    public static final String TREE_INDEX = "tree";
+    public static final String ROLLUPS_INDEX = "rollups";
+    public static final String NO_INDEX = "none";
+    public static final String QUANTILES_PROPERTY = "measurement.store.quantiles";
+
+    private static final String STATIONS_DIRECTORY = "stations";
+
+    private static final ConcurrentMap<String, Store<Long, Measurement>> shards = Maps.newConcurrentMap();
+    private static boolean persistedStationsOpened;
+
+    private MeasurementStores() {}
+
+    /**
+     * Returns the Store instance of the default station, creating it on first use.
+     * @return the Store used for Measurement's
+     */
+    public static Store<Long, Measurement> getInstance() {
+        return getInstance(Stations.DEFAULT);
+    }
+
+    /**
+     * Returns the Store instance of a station, creating it on first use.
+     * @param station the station id
+     * @return the Store used for the station's Measurement's
+     * @throws IllegalArgumentException if the station id is not well formed
+     */
+    public static Store<Long, Measurement> getInstance(final String station) {
+        final Store<Long, Measurement> shard = shards.get(station);
+        return shard != null ? shard : shards.computeIfAbsent(Stations.check(station), MeasurementStores::createShard);
+    }
+
+    /**
+     * Returns the Store instance of a station if it has one, without creating it.
+     * @param station the station id
+     * @return the Store used for the station's Measurement's, or null if the station has none
+     * @throws IllegalArgumentException if the station id is not well formed
+     */
+    public static Store<Long, Measurement> find(final String station) {
+        if (Stations.DEFAULT.equals(station))
+            return getInstance();
+        final Store<Long, Measurement> shard = shards.get(Stations.check(station));
+        if (shard != null)
+            return shard;
+        openPersistedStations();
+        return shards.get(station);
+    }
+
+    /**
+     * @return the ids of the default station and every station that has a Store, sorted
+     */
+    public static Set<String> stations() {
+        openPersistedStations();
+        final ImmutableSortedSet.Builder<String> stations = ImmutableSortedSet.naturalOrder();
+        return stations.add(Stations.DEFAULT).addAll(shards.keySet()).build();
+    }
+
+    private static Store<Long, Measurement> createShard(final String station) {
+        final String storeType = System.getProperty(STORE_PROPERTY, CONCURRENT);
+        final String directory = directory(station);
+        Store<Long, Measurement> store;
+        if (SEGMENTED.equals(storeType)) {
+            store = segmented(directory);
+        } else {
+            store = create(storeType, station);
+            if (directory != null)
+                store = durable(store, directory);
+        }
+        final boolean heapIndependent = OFF_HEAP.equals(storeType) || SEGMENTED.equals(storeType);
+        store = indexed(store, System.getProperty(INDEX_PROPERTY, defaultIndex(storeType)));
+        if (Boolean.parseBoolean(System.getProperty(QUANTILES_PROPERTY, String.valueOf(!heapIndependent))))
+            store = new QuantileMeasurementStore(store);
+        return Replication.getInstance().wrap(station, store);
+    }
+
+    /**
+     * @return the index used unless {@value #INDEX_PROPERTY} is set, which is none for the stores that aggregate
+     * without one
+     */
+    static String defaultIndex(final String storeType) {
+        return COLUMNAR.equals(storeType) || OFF_HEAP.equals(storeType) || SEGMENTED.equals(storeType) ? NO_INDEX : TREE_INDEX;
+    }
+
+    /**
+     * @return the directory the station is persisted to, or null if the Store is not persisted
+     */
+    private static String directory(final String station) {
+        final String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null || Stations.DEFAULT.equals(station))
+            return directory;
+        return Paths.get(directory, STATIONS_DIRECTORY, station).toString();
+    }
+
+    /**
+     * Opens the Store of every station persisted to the directory, so that they are listed before they are written
+     * to again.
+     */
+    private synchronized static void openPersistedStations() {
+        final String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (persistedStationsOpened || directory == null)
+            return;
+        final Path stationsDirectory = Paths.get(directory, STATIONS_DIRECTORY);
+        if (Files.isDirectory(stationsDirectory)) {
+            try (final DirectoryStream<Path> stations = Files.newDirectoryStream(stationsDirectory, Files::isDirectory)) {
+                for (final Path station : stations)
+                    getInstance(station.getFileName().toString());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot list the stations in " + stationsDirectory, e);
+            }
+        }
+        persistedStationsOpened = true;
+    }
+
+    private static Store<Long, Measurement> durable(final Store<Long, Measurement> store, final String directory) {
+        log.info("Persisting measurements to {}", directory);
+        final DurableMeasurementStore durableStore = new DurableMeasurementStore(store, Paths.get(directory));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                durableStore.close();
+            } catch (IOException e) {
+                log.error("Cannot flush the measurement log on shutdown", e);
+            }
+        }, "measurement-store-shutdown"));
+        return durableStore;
+    }
+
+    private static Store<Long, Measurement> segmented(final String directory) {
+        if (directory == null)
+            throw new IllegalArgumentException(String.format("The '%s' store needs %s to be set", SEGMENTED, DIRECTORY_PROPERTY));
+        log.info("Using '{}' measurement store in {}", SEGMENTED, directory);
+        final SegmentedMeasurementStore segmentedStore = new SegmentedMeasurementStore(Paths.get(directory));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                segmentedStore.close();
+            } catch (IOException e) {
+                log.error("Cannot flush the measurement log on shutdown", e);
+            }
+        }, "measurement-store-shutdown"));
+        return segmentedStore;
+    }
+
+    private static Store<Long, Measurement> indexed(final Store<Long, Measurement> store, final String indexType) {
+        log.info("Using '{}' measurement index", indexType);
+        switch (indexType) {
+            case TREE_INDEX:
+                return new IndexedMeasurementStore(store);
+            case ROLLUPS_INDEX:
+                return new RollupMeasurementStore(store);
+            case NO_INDEX:
+                return store;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported %s: %s", INDEX_PROPERTY, indexType));
+        }
+    }
+
+    private static Store<Long, Measurement> create(final String storeType, final String station) {
+        log.info("Using '{}' measurement store for station '{}'", storeType, station);
+        switch (storeType) {
+            case CONCURRENT:
+                return new ConcurrentInMemoryStore<>();
+            case SORTED:
+                return Stations.DEFAULT.equals(station) ? SortedInMemoryStore.getInstance() : new SortedInMemoryStore<>();
+            case COLUMNAR:
+                return new ColumnarMeasurementStore();
+            case OFF_HEAP:
+                return new OffHeapMeasurementStore();
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported %s: %s", STORE_PROPERTY, storeType));
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.capitalone.service.store;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.ParallelAggregation;
+import com.capitalone.service.aggregate.QuantileAggregator;
+import com.capitalone.service.aggregate.QuantileSketch;
+import com.capitalone.service.aggregate.RangeAggregator;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Wraps another Measurement store and keeps a QuantileSketch of every metric for each hour and day that has
+ * Measurement's, so percentiles over a range are estimated by merging the sketches of the whole days and hours in it
+ * and adding the raw Measurement's of its ragged edges, instead of sorting every value in the range. A year-long
+ * range merges about 365 day sketches, a few dozen hour sketches and at most two hours of raw Measurement's.
+ *
+ * A create only adds to its two sketches. A sketch cannot forget a value, so an update or delete rebuilds the hour
+ * sketch from the raw Measurement's and the day sketch from its hours. Locking follows RollupMeasurementStore:
+ * creates of the same day share a read lock, updates and deletes take the day's write lock, and sketching a range
+ * takes no locks and is weakly consistent.
+ *
+ * Running totals are passed through to the wrapped store when it keeps them, so this store can wrap any of the
+ * other indexes.
+ */
+public final class QuantileMeasurementStore implements Store<Long, Measurement>, RangeAggregator, QuantileAggregator {
+    private static final long[] BUCKET_SIZES = {Timestamps.MILLIS_PER_DAY, Timestamps.MILLIS_PER_HOUR};
+    private static final int DAY = 0;
+    private static final int HOUR = BUCKET_SIZES.length - 1;
+    private static final int STRIPES = 1 << 6;
+
+    private final Store<Long, Measurement> delegate;
+    private final List<ConcurrentNavigableMap<Long, Bucket>> buckets = Lists.newArrayListWithCapacity(BUCKET_SIZES.length);
+    private final ReadWriteLock[] stripes = new ReadWriteLock[STRIPES];
+
+    /**
+     * Wraps the store, sketching any Measurement's it already holds.
+     * @param delegate the store holding the raw Measurement's
+     */
+    public QuantileMeasurementStore(final Store<Long, Measurement> delegate) {
+        this.delegate = delegate;
+        for (int level = 0; level < BUCKET_SIZES.length; level++)
+            buckets.add(new ConcurrentSkipListMap<>());
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new ReentrantReadWriteLock();
+
+        for (final Measurement m : delegate.retrieveInRange(Long.MIN_VALUE, true, Long.MAX_VALUE, true))
+            add(m.getTimestamp(), m);
+    }
+
+    @Override
+    public void create(final Measurement entity, final Long entityId) throws AppServerException {
+        final ReadWriteLock lock = stripe(entityId);
+        lock.readLock().lock();
+        try {
+            delegate.create(entity, entityId);
+            add(entityId, entity);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Long> createAll(final Map<Long, Measurement> entities) throws AppServerException {
+        final boolean[] needed = new boolean[STRIPES];
+        for (final Long entityId : entities.keySet())
+            needed[stripeIndex(entityId)] = true;
+
+        for (int i = 0; i < STRIPES; i++) {
+            if (needed[i]) stripes[i].readLock().lock();
+        }
+        try {
+            final Collection<Long> existing = delegate.createAll(entities);
+            for (final Map.Entry<Long, Measurement> entry : entities.entrySet()) {
+                if (!existing.contains(entry.getKey()))
+                    add(entry.getKey(), entry.getValue());
+            }
+            return existing;
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--) {
+                if (needed[i]) stripes[i].readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public Measurement retrieve(final Long entityId) throws AppServerException {
+        return delegate.retrieve(entityId);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive, limit);
+    }
+
+    @Override
+    public Measurement update(final Measurement entity, final Long entityId) throws AppServerException {
+        final ReadWriteLock lock = stripe(entityId);
+        lock.writeLock().lock();
+        try {
+            final Measurement previous = delegate.update(entity, entityId);
+            rebuild(entityId);
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Measurement delete(final Long entityId) throws AppServerException {
+        final ReadWriteLock lock = stripe(entityId);
+        lock.writeLock().lock();
+        try {
+            final Measurement deleted = delegate.delete(entityId);
+            rebuild(entityId);
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i].writeLock().lock();
+        try {
+            delegate.clear();
+            for (final ConcurrentNavigableMap<Long, Bucket> level : buckets)
+                level.clear();
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--)
+                stripes[i].writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        if (delegate instanceof RangeAggregator)
+            return ((RangeAggregator) delegate).aggregate(metrics, fromTimestamp, toTimestamp);
+        return ParallelAggregation.aggregate(
+                (from, to, limit) -> delegate.retrieveInRange(from, true, to, false, limit), metrics, fromTimestamp, toTimestamp);
+    }
+
+    /**
+     * Sketches the range from the largest whole buckets that fit in it, recursing into smaller buckets for the
+     * parts of the range that do not line up with a bucket boundary.
+     */
+    @Override
+    public Map<String, QuantileSketch> sketch(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Map<String, QuantileSketch> sketches = QuantileSketch.forMetrics(metrics);
+        if (fromTimestamp < toTimestamp)
+            sketch(sketches, fromTimestamp, toTimestamp, DAY);
+        return sketches;
+    }
+
+    private void sketch(final Map<String, QuantileSketch> sketches, final long from, final long to, final int level) {
+        if (level > HOUR) {
+            QuantileSketch.addAll(sketches, delegate.retrieveInRange(from, true, to, false));
+            return;
+        }
+
+        final long size = BUCKET_SIZES[level];
+        final long first = from - Math.floorMod(from, size) + (Math.floorMod(from, size) == 0 ? 0 : size);
+        final long last = to - Math.floorMod(to, size);
+        if (first >= last) {
+            sketch(sketches, from, to, level + 1);
+            return;
+        }
+
+        if (from < first)
+            sketch(sketches, from, first, level + 1);
+        for (final Bucket bucket : buckets.get(level).subMap(first, true, last, false).values())
+            bucket.mergeInto(sketches);
+        if (last < to)
+            sketch(sketches, last, to, level + 1);
+    }
+
+    /**
+     * Adds the metrics of a new Measurement to its hour and day sketches.
+     */
+    private void add(final long timestamp, final Measurement m) {
+        for (int level = 0; level < BUCKET_SIZES.length; level++) {
+            final Long start = bucketStart(timestamp, level);
+            Bucket bucket = buckets.get(level).get(start);
+            if (bucket == null) {
+                final Bucket created = new Bucket();
+                bucket = buckets.get(level).putIfAbsent(start, created);
+                if (bucket == null) bucket = created;
+            }
+            bucket.add(m.getMetrics());
+        }
+    }
+
+    /**
+     * Rebuilds the hour and day sketches holding the timestamp. The caller must hold the day's write lock.
+     */
+    private void rebuild(final long timestamp) {
+        final Map<String, QuantileSketch> hour = Maps.newHashMap();
+        for (final Measurement m : delegate.retrieveInRange(bucketStart(timestamp, HOUR), true, bucketEnd(timestamp, HOUR), false)) {
+            for (final Map.Entry<String, Float> metric : m.getMetrics().entrySet())
+                hour.computeIfAbsent(metric.getKey(), k -> new QuantileSketch()).add(metric.getValue());
+        }
+        replace(HOUR, timestamp, hour);
+
+        final Map<String, QuantileSketch> day = Maps.newHashMap();
+        for (final Bucket bucket : buckets.get(HOUR).subMap(bucketStart(timestamp, DAY), true, bucketEnd(timestamp, DAY), false).values())
+            bucket.mergeAllInto(day);
+        replace(DAY, timestamp, day);
+    }
+
+    private void replace(final int level, final long timestamp, final Map<String, QuantileSketch> sketches) {
+        final Long start = bucketStart(timestamp, level);
+        if (sketches.isEmpty()) {
+            buckets.get(level).remove(start);
+            return;
+        }
+        final Bucket bucket = buckets.get(level).get(start);
+        if (bucket == null)
+            buckets.get(level).put(start, new Bucket(sketches));
+        else
+            bucket.replace(sketches);
+    }
+
+    private static long bucketStart(final long timestamp, final int level) {
+        return timestamp - Math.floorMod(timestamp, BUCKET_SIZES[level]);
+    }
+
+    private static long bucketEnd(final long timestamp, final int level) {
+        return bucketStart(timestamp, level) + BUCKET_SIZES[level];
+    }
+
+    /**
+     * All of a bucket's Measurement's lie within a single day, so the day picks the lock.
+     */
+    private ReadWriteLock stripe(final long entityId) {
+        return stripes[stripeIndex(entityId)];
+    }
+
+    private static int stripeIndex(final long entityId) {
+        return (int) Math.floorMod(Math.floorDiv(entityId, Timestamps.MILLIS_PER_DAY), (long) STRIPES);
+    }
+
+    /**
+     * The sketch of each metric reported within one bucket.
+     */
+    private static final class Bucket {
+        private Map<String, QuantileSketch> sketches;
+
+        Bucket() {
+            this.sketches = Maps.newHashMap();
+        }
+
+        Bucket(final Map<String, QuantileSketch> sketches) {
+            this.sketches = sketches;
+        }
+
+        synchronized void add(final Map<String, Float> metrics) {
+            for (final Map.Entry<String, Float> metric : metrics.entrySet())
+                sketches.computeIfAbsent(metric.getKey(), k -> new QuantileSketch()).add(metric.getValue());
+        }
+
+        synchronized void replace(final Map<String, QuantileSketch> sketches) {
+            this.sketches = sketches;
+        }
+
+        /**
+         * Merges the sketches of the metrics that have a sketch.
+         */
+        synchronized void mergeInto(final Map<String, QuantileSketch> target) {
+            for (final Map.Entry<String, QuantileSketch> entry : target.entrySet()) {
+                final QuantileSketch bucketSketch = sketches.get(entry.getKey());
+                if (bucketSketch != null) entry.getValue().merge(bucketSketch);
+            }
+        }
+
+        /**
+         * Merges the sketches of every metric, adding sketches for metrics that do not have one yet.
+         */
+        synchronized void mergeAllInto(final Map<String, QuantileSketch> target) {
+            for (final Map.Entry<String, QuantileSketch> entry : sketches.entrySet())
+                target.computeIfAbsent(entry.getKey(), k -> new QuantileSketch()).merge(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.capitalone.service.store;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.RangeAggregator;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Wraps another Measurement store and keeps the running totals (count, sum, min, max) of every metric for each
+ * minute, hour and day that has Measurement's, so a range can be aggregated from whole buckets plus the raw
+ * Measurement's at its ragged edges. A year-long range is answered from about 365 day buckets, a few dozen hour and
+ * minute buckets and at most two minutes of raw Measurement's.
+ *
+ * A create only adds to the totals of its three buckets. An update or delete can remove a bucket's min or max, so it
+ * rebuilds the minute bucket from the raw Measurement's, then the hour bucket from its minutes and the day bucket
+ * from its hours. Creates of the same day share a read lock so ingest stays parallel; updates and deletes take the
+ * day's write lock so no create can change the Measurement's of that day while its buckets are rebuilt.
+ *
+ * Aggregation takes no locks. Like retrieveInRange it is weakly consistent: a mutation made while a range is being
+ * aggregated may or may not be included.
+ */
+public final class RollupMeasurementStore implements Store<Long, Measurement>, RangeAggregator {
+    private static final long[] BUCKET_SIZES = {Timestamps.MILLIS_PER_DAY, Timestamps.MILLIS_PER_HOUR, Timestamps.MILLIS_PER_MINUTE};
+    private static final int DAY = 0;
+    private static final int MINUTE = BUCKET_SIZES.length - 1;
+    private static final int STRIPES = 1 << 6;
+
+    private final Store<Long, Measurement> delegate;
+    private final List<ConcurrentNavigableMap<Long, Bucket>> buckets = Lists.newArrayListWithCapacity(BUCKET_SIZES.length);
+    private final ReadWriteLock[] stripes = new ReadWriteLock[STRIPES];
+
+    /**
+     * Wraps the store, building the totals of any Measurement's it already holds.
+     * @param delegate the store holding the raw Measurement's
+     */
+    public RollupMeasurementStore(final Store<Long, Measurement> delegate) {
+        this.delegate = delegate;
+        for (int level = 0; level < BUCKET_SIZES.length; level++)
+            buckets.add(new ConcurrentSkipListMap<>());
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new ReentrantReadWriteLock();
+
+        for (final Measurement m : delegate.retrieveInRange(Long.MIN_VALUE, true, Long.MAX_VALUE, true))
+            add(m.getTimestamp(), m);
+    }
+
+    @Override
+    public void create(final Measurement entity, final Long entityId) throws AppServerException {
+        final ReadWriteLock lock = stripe(entityId);
+        lock.readLock().lock();
+        try {
+            delegate.create(entity, entityId);
+            add(entityId, entity);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Long> createAll(final Map<Long, Measurement> entities) throws AppServerException {
+        final boolean[] needed = new boolean[STRIPES];
+        for (final Long entityId : entities.keySet())
+            needed[stripeIndex(entityId)] = true;
+
+        for (int i = 0; i < STRIPES; i++) {
+            if (needed[i]) stripes[i].readLock().lock();
+        }
+        try {
+            final Collection<Long> existing = delegate.createAll(entities);
+            for (final Map.Entry<Long, Measurement> entry : entities.entrySet()) {
+                if (!existing.contains(entry.getKey()))
+                    add(entry.getKey(), entry.getValue());
+            }
+            return existing;
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--) {
+                if (needed[i]) stripes[i].readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public Measurement retrieve(final Long entityId) throws AppServerException {
+        return delegate.retrieve(entityId);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive, limit);
+    }
+
+    @Override
+    public Measurement update(final Measurement entity, final Long entityId) throws AppServerException {
+        final ReadWriteLock lock = stripe(entityId);
+        lock.writeLock().lock();
+        try {
+            final Measurement previous = delegate.update(entity, entityId);
+            rebuild(entityId);
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Measurement delete(final Long entityId) throws AppServerException {
+        final ReadWriteLock lock = stripe(entityId);
+        lock.writeLock().lock();
+        try {
+            final Measurement deleted = delegate.delete(entityId);
+            rebuild(entityId);
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i].writeLock().lock();
+        try {
+            delegate.clear();
+            for (final ConcurrentNavigableMap<Long, Bucket> level : buckets)
+                level.clear();
+        } finally {
+            for (int i = STRIPES - 1; i >= 0; i--)
+                stripes[i].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Aggregates the range from the largest whole buckets that fit in it, recursing into smaller buckets for the
+     * parts of the range that do not line up with a bucket boundary.
+     */
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+        if (fromTimestamp < toTimestamp)
+            aggregate(accumulators, fromTimestamp, toTimestamp, DAY);
+        return accumulators;
+    }
+
+    private void aggregate(final Map<String, MetricAccumulator> accumulators, final long from, final long to, final int level) {
+        if (level > MINUTE) {
+            MetricAccumulator.addAll(accumulators, delegate.retrieveInRange(from, true, to, false));
+            return;
+        }
+
+        final long size = BUCKET_SIZES[level];
+        final long first = from - Math.floorMod(from, size) + (Math.floorMod(from, size) == 0 ? 0 : size);
+        final long last = to - Math.floorMod(to, size);
+        if (first >= last) {
+            aggregate(accumulators, from, to, level + 1);
+            return;
+        }
+
+        if (from < first)
+            aggregate(accumulators, from, first, level + 1);
+        for (final Bucket bucket : buckets.get(level).subMap(first, true, last, false).values())
+            bucket.mergeInto(accumulators);
+        if (last < to)
+            aggregate(accumulators, last, to, level + 1);
+    }
+
+    /**
+     * Adds the metrics of a new Measurement to its minute, hour and day buckets.
+     */
+    private void add(final long timestamp, final Measurement m) {
+        for (int level = 0; level < BUCKET_SIZES.length; level++) {
+            final Long start = bucketStart(timestamp, level);
+            Bucket bucket = buckets.get(level).get(start);
+            if (bucket == null) {
+                final Bucket created = new Bucket();
+                bucket = buckets.get(level).putIfAbsent(start, created);
+                if (bucket == null) bucket = created;
+            }
+            bucket.add(m.getMetrics());
+        }
+    }
+
+    /**
+     * Rebuilds the minute, hour and day buckets holding the timestamp. The caller must hold the day's write lock.
+     */
+    private void rebuild(final long timestamp) {
+        final Map<String, MetricAccumulator> minute = Maps.newHashMap();
+        for (final Measurement m : delegate.retrieveInRange(bucketStart(timestamp, MINUTE), true, bucketEnd(timestamp, MINUTE), false)) {
+            for (final Map.Entry<String, Float> metric : m.getMetrics().entrySet())
+                minute.computeIfAbsent(metric.getKey(), k -> new MetricAccumulator()).add(metric.getValue());
+        }
+        replace(MINUTE, timestamp, minute);
+
+        for (int level = MINUTE - 1; level >= DAY; level--) {
+            final Map<String, MetricAccumulator> totals = Maps.newHashMap();
+            for (final Bucket bucket : buckets.get(level + 1).subMap(bucketStart(timestamp, level), true, bucketEnd(timestamp, level), false).values())
+                bucket.mergeAllInto(totals);
+            replace(level, timestamp, totals);
+        }
+    }
+
+    private void replace(final int level, final long timestamp, final Map<String, MetricAccumulator> totals) {
+        final Long start = bucketStart(timestamp, level);
+        if (totals.isEmpty()) {
+            buckets.get(level).remove(start);
+            return;
+        }
+        final Bucket bucket = buckets.get(level).get(start);
+        if (bucket == null)
+            buckets.get(level).put(start, new Bucket(totals));
+        else
+            bucket.replace(totals);
+    }
+
+    private static long bucketStart(final long timestamp, final int level) {
+        return timestamp - Math.floorMod(timestamp, BUCKET_SIZES[level]);
+    }
+
+    private static long bucketEnd(final long timestamp, final int level) {
+        return bucketStart(timestamp, level) + BUCKET_SIZES[level];
+    }
+
+    /**
+     * All of a bucket's Measurement's lie within a single day, so the day picks the lock.
+     */
+    private ReadWriteLock stripe(final long entityId) {
+        return stripes[stripeIndex(entityId)];
+    }
+
+    private static int stripeIndex(final long entityId) {
+        return (int) Math.floorMod(Math.floorDiv(entityId, Timestamps.MILLIS_PER_DAY), (long) STRIPES);
+    }
+
+    /**
+     * The running totals of each metric reported within one bucket.
+     */
+    private static final class Bucket {
+        private Map<String, MetricAccumulator> totals;
+
+        Bucket() {
+            this.totals = Maps.newHashMap();
+        }
+
+        Bucket(final Map<String, MetricAccumulator> totals) {
+            this.totals = totals;
+        }
+
+        synchronized void add(final Map<String, Float> metrics) {
+            for (final Map.Entry<String, Float> metric : metrics.entrySet())
+                totals.computeIfAbsent(metric.getKey(), k -> new MetricAccumulator()).add(metric.getValue());
+        }
+
+        synchronized void replace(final Map<String, MetricAccumulator> totals) {
+            this.totals = totals;
+        }
+
+        /**
+         * Merges the totals of the metrics that have an accumulator.
+         */
+        synchronized void mergeInto(final Map<String, MetricAccumulator> accumulators) {
+            for (final Map.Entry<String, MetricAccumulator> entry : accumulators.entrySet()) {
+                final MetricAccumulator bucketTotal = totals.get(entry.getKey());
+                if (bucketTotal != null) entry.getValue().merge(bucketTotal);
+            }
+        }
+
+        /**
+         * Merges the totals of every metric, adding accumulators for metrics that do not have one yet.
+         */
+        synchronized void mergeAllInto(final Map<String, MetricAccumulator> accumulators) {
+            for (final Map.Entry<String, MetricAccumulator> entry : totals.entrySet())
+                accumulators.computeIfAbsent(entry.getKey(), k -> new MetricAccumulator()).merge(entry.getValue());
+        }
+    }
+}
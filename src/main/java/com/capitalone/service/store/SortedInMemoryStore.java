@@ -4,8 +4,12 @@ import com.capitalone.exception.AppServerException;
 import com.capitalone.exception.EntityExistsException;
 import com.capitalone.exception.EntityNotFoundException;
 
+import com.google.common.collect.Lists;
+
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 
@@ -16,7 +20,8 @@ import java.util.TreeMap;
  *
  * This class is singleton to represent one single state of storage i.e. like a diskspace or a database there is one
  * instance where the data is stored. In an ideal case, this whole class would be replaced with a database DAO and the
- * singleton pattern can be removed because the database itself would act as the global state.
+ * singleton pattern can be removed because the database itself would act as the global state. The instance holds
+ * the default station; MeasurementStores creates a separate one for every other station.
  *
  * Internally, a TreeMap is used to store the data because it allows a sub-map to be returned with from/to parameters.
  * This allows the store to be queried for a multiple entities using an entity ID range.
@@ -25,8 +30,8 @@ public final class SortedInMemoryStore<I, E> implements Store<I, E> {
     private final NavigableMap<I, E> inMemoryStore = Collections.synchronizedNavigableMap(new TreeMap<>());
     private static Store instance;
 
-    //Private constructor to prevent more than one instance being created.
-    private SortedInMemoryStore(){}
+    //Package-private constructor so that only MeasurementStores creates more instances, one per station.
+    SortedInMemoryStore(){}
 
     /**
      * Returns an instance of the store.
@@ -46,6 +51,21 @@ public final class SortedInMemoryStore<I, E> implements Store<I, E> {
         inMemoryStore.put(entityId, entity);
     }
 
+    @Override
+    public Collection<I> createAll(final Map<I, E> entities) throws AppServerException {
+        final List<I> existing = Lists.newArrayList();
+        //The synchronized map uses itself as the lock, so holding it makes the whole batch one operation
+        synchronized (inMemoryStore) {
+            for (final Map.Entry<I, E> entry : entities.entrySet()) {
+                if (inMemoryStore.containsKey(entry.getKey()))
+                    existing.add(entry.getKey());
+                else
+                    inMemoryStore.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return existing;
+    }
+
     @Override
     public E retrieve(final I entityId) throws AppServerException {
         if (!inMemoryStore.containsKey(entityId))
@@ -64,6 +84,26 @@ public final class SortedInMemoryStore<I, E> implements Store<I, E> {
         return inMemoryStore.subMap(fromEntityId, fromInclusive, toEntityId, toInclusive).values();
     }
 
+    @Override
+    public Collection<E> retrieveInRange(
+            final I fromEntityId,
+            final boolean fromInclusive,
+            final I toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        final List<E> entities = Lists.newArrayListWithCapacity(Math.min(limit, 1024));
+        //Iterating a view of the synchronized map must hold its lock
+        synchronized (inMemoryStore) {
+            for (final E entity : inMemoryStore.subMap(fromEntityId, fromInclusive, toEntityId, toInclusive).values()) {
+                if (entities.size() == limit)
+                    break;
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+
     @Override
     public E update(final E entity,final I entityId) throws AppServerException {
         if (!inMemoryStore.containsKey(entityId))
@@ -3,6 +3,7 @@ package com.capitalone.service.store;
 import com.capitalone.exception.AppServerException;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * An interface specifying the methods that must be implemented to manage storing of an entity.
@@ -16,6 +17,15 @@ public interface Store<I, E> {
      */
     void create(E entity, I entityId) throws AppServerException;
 
+    /**
+     * Creates many new entities in a single store operation. Unlike create, an entity ID that already exists does
+     * not fail the whole operation; the entity is skipped and its ID is returned.
+     * @param entities the entities to persist, keyed by their unique entity ID
+     * @return the entity IDs that already existed and were not created
+     * @throws AppServerException an exception resulting from this application
+     */
+    Collection<I> createAll(Map<I, E> entities) throws AppServerException;
+
     /**
      * Retrieves an entity using entity ID.
      * @param entityId the unique ID for the entity to retrieve
@@ -35,6 +45,19 @@ public interface Store<I, E> {
      */
     Collection<E> retrieveInRange(I fromEntityId, boolean fromInclusive, I toEntityId, boolean toInclusive) throws AppServerException;
 
+    /**
+     * Retrieves the first entities, in entity ID order, within an ID range. Reading a large range one page at a time
+     * by passing the last ID of each page as an exclusive "from" ID keeps only a page of entities in memory at once.
+     * @param fromEntityId the "from" entity ID boundary
+     * @param fromInclusive flag to indicate whether the "from" ID should be included for matching
+     * @param toEntityId the "to" entity ID boundary
+     * @param toInclusive flag to indicate whether the "to" ID should be included for matching
+     * @param limit the maximum number of entities to return
+     * @return at most limit entities from the start of the range
+     * @throws AppServerException an exception resulting from this application
+     */
+    Collection<E> retrieveInRange(I fromEntityId, boolean fromInclusive, I toEntityId, boolean toInclusive, int limit) throws AppServerException;
+
     /**
      * Updates the entity matching the ID by replacing with the entity specified.
      * @param entity the updated entity to persist
@@ -0,0 +1,70 @@
+package com.capitalone.service.store;
+
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared out by timestamp, which the wrapping stores use to serialise mutations of the same
+ * timestamp while letting the others go ahead. Several stripes are always locked in index order, so two callers
+ * cannot deadlock.
+ */
+public final class StripedLocks {
+    private static final int BITS = 6;
+    private static final int STRIPES = 1 << BITS;
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    public StripedLocks() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new ReentrantLock();
+    }
+
+    /**
+     * @return the lock of the timestamp's stripe, which the caller locks and unlocks
+     */
+    public Lock stripe(final long timestamp) {
+        return stripes[index(timestamp)];
+    }
+
+    /**
+     * Locks the stripes of all the timestamps.
+     * @return the stripes locked, to be passed to unlockAll
+     */
+    public boolean[] lockAll(final Collection<Long> timestamps) {
+        final boolean[] locked = new boolean[STRIPES];
+        for (final Long timestamp : timestamps)
+            locked[index(timestamp)] = true;
+        for (int i = 0; i < STRIPES; i++) {
+            if (locked[i]) stripes[i].lock();
+        }
+        return locked;
+    }
+
+    /**
+     * Unlocks the stripes returned by lockAll.
+     */
+    public void unlockAll(final boolean[] locked) {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            if (locked[i]) stripes[i].unlock();
+        }
+    }
+
+    /**
+     * Locks every stripe, so that no mutation is in progress until unlockAll is called.
+     */
+    public void lockAll() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i].lock();
+    }
+
+    public void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--)
+            stripes[i].unlock();
+    }
+
+    private static int index(final long timestamp) {
+        // Readings are usually whole seconds or minutes apart, so the low bits alone would pick very few stripes
+        return (int) ((timestamp * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - BITS));
+    }
+}
@@ -0,0 +1,382 @@
+package com.capitalone.service.store.durable;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.ParallelAggregation;
+import com.capitalone.service.aggregate.RangeAggregator;
+import com.capitalone.service.store.Store;
+import com.capitalone.service.store.StripedLocks;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Makes another Measurement store durable across restarts by writing every mutation to a MutationLog in the given
+ * directory, and periodically replacing the log with a SnapshotFile of the whole store.
+ *
+ * Mutations are checked against the wrapped store, logged and only then applied, so a rejected create or update
+ * never reaches the log, and a mutation that cannot be logged, say on a full disk, is never seen by readers either.
+ * The log is forced to disk every flushIntervalMillis by a background thread rather than on every request: a process
+ * crash loses nothing, a host crash loses at most the last flush interval.
+ *
+ * Mutations of the same timestamp are serialised by one of a fixed set of striped locks, so the order in the log is
+ * the order they were applied in, and the check cannot be overtaken by another mutation before it is applied. A
+ * snapshot takes every stripe just long enough to roll the log over, then reads the store a page at a time and writes
+ * it to disk in the background while requests carry on. The pages may already hold some mutations logged after the
+ * roll, which recovery replays on top of the snapshot again, to the same result.
+ *
+ * On construction the latest snapshot, if any, is loaded into the wrapped store and the log written after it is
+ * replayed on top, so the wrapped store should start out empty.
+ *
+ * Reads, including aggregation by a wrapped store that supports it, go straight to the wrapped store. Other stores
+ * are aggregated by ParallelAggregation, a sub-range at a time.
+ */
+@Slf4j
+public final class DurableMeasurementStore implements Store<Long, Measurement>, RangeAggregator, Closeable {
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+    static final long DEFAULT_SNAPSHOT_THRESHOLD = 4L * DEFAULT_SEGMENT_SIZE;
+
+    private static final int RECOVERY_BATCH_SIZE = 8192;
+    private static final int SNAPSHOT_PAGE_SIZE = 8192;
+
+    private final Store<Long, Measurement> delegate;
+    private final Path directory;
+    private final long snapshotThresholdSegments;
+    private final StripedLocks locks = new StripedLocks();
+    private final AtomicBoolean snapshotPending = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService snapshotter;
+    private final MutationLog mutationLog;
+    private volatile long snapshotSegment;
+
+    /**
+     * Wraps the store with the default log segment size, flush interval and snapshot threshold.
+     * @param delegate the empty store to hold the Measurement's in memory
+     * @param directory the directory to keep the log and snapshots in, created if it does not exist
+     */
+    public DurableMeasurementStore(final Store<Long, Measurement> delegate, final Path directory) {
+        this(delegate, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    /**
+     * @param delegate the empty store to hold the Measurement's in memory
+     * @param directory the directory to keep the log and snapshots in, created if it does not exist
+     * @param segmentSize the size in bytes of each log segment
+     * @param flushIntervalMillis how often the log is forced to disk
+     * @param snapshotThreshold the number of bytes of log after which a new snapshot is written
+     */
+    DurableMeasurementStore(
+            final Store<Long, Measurement> delegate,
+            final Path directory,
+            final int segmentSize,
+            final long flushIntervalMillis,
+            final long snapshotThreshold
+    ) {
+        this.delegate = delegate;
+        this.directory = directory;
+        this.snapshotThresholdSegments = Math.max(1, snapshotThreshold / segmentSize);
+
+        try {
+            Files.createDirectories(directory);
+            final long lastSegment = recover();
+            mutationLog = new MutationLog(directory, segmentSize, lastSegment + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot recover measurements from " + directory, e);
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(daemon("measurement-log-flusher"));
+        flusher.scheduleWithFixedDelay(mutationLog::force, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        snapshotter = Executors.newSingleThreadExecutor(daemon("measurement-snapshotter"));
+    }
+
+    @Override
+    public void create(final Measurement entity, final Long entityId) throws AppServerException {
+        final Lock lock = locks.stripe(entityId);
+        lock.lock();
+        try {
+            if (exists(entityId))
+                throw new EntityExistsException("Cannot create new entity. Entity already exists with ID: " + entityId);
+            append(MutationLog.CREATE, entityId, entity.getMetrics());
+            delegate.create(entity, entityId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Long> createAll(final Map<Long, Measurement> entities) throws AppServerException {
+        final boolean[] locked = locks.lockAll(entities.keySet());
+        try {
+            final List<Long> existing = Lists.newArrayList();
+            final Map<Long, Measurement> created = Maps.newLinkedHashMapWithExpectedSize(entities.size());
+            for (final Map.Entry<Long, Measurement> entry : entities.entrySet()) {
+                if (exists(entry.getKey())) {
+                    existing.add(entry.getKey());
+                } else {
+                    append(MutationLog.CREATE, entry.getKey(), entry.getValue().getMetrics());
+                    created.put(entry.getKey(), entry.getValue());
+                }
+            }
+            delegate.createAll(created);
+            return existing;
+        } finally {
+            locks.unlockAll(locked);
+        }
+    }
+
+    @Override
+    public Measurement retrieve(final Long entityId) throws AppServerException {
+        return delegate.retrieve(entityId);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        return delegate.retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive, limit);
+    }
+
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        if (delegate instanceof RangeAggregator)
+            return ((RangeAggregator) delegate).aggregate(metrics, fromTimestamp, toTimestamp);
+        return ParallelAggregation.aggregate(
+                (from, to, limit) -> delegate.retrieveInRange(from, true, to, false, limit), metrics, fromTimestamp, toTimestamp);
+    }
+
+    @Override
+    public Measurement update(final Measurement entity, final Long entityId) throws AppServerException {
+        final Lock lock = locks.stripe(entityId);
+        lock.lock();
+        try {
+            //Throws before anything is logged if there is nothing to update
+            delegate.retrieve(entityId);
+            append(MutationLog.UPDATE, entityId, entity.getMetrics());
+            return delegate.update(entity, entityId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Measurement delete(final Long entityId) throws AppServerException {
+        final Lock lock = locks.stripe(entityId);
+        lock.lock();
+        try {
+            delegate.retrieve(entityId);
+            append(MutationLog.DELETE, entityId, null);
+            return delegate.delete(entityId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        locks.lockAll();
+        try {
+            append(MutationLog.CLEAR, 0L, null);
+            delegate.clear();
+        } finally {
+            locks.unlockAll();
+        }
+    }
+
+    /**
+     * Stops the background threads and forces the log to disk. The store must not be mutated afterwards.
+     * @throws IOException if the log cannot be forced to disk
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mutationLog.close();
+    }
+
+    /**
+     * Writes a snapshot of the whole store and deletes the log and snapshots it replaces.
+     * @throws IOException if the snapshot cannot be written
+     */
+    void snapshot() throws IOException {
+        final long segment;
+        //Every mutation logged before the roll has been applied once the stripes are free again
+        locks.lockAll();
+        try {
+            segment = mutationLog.roll();
+        } finally {
+            locks.unlockAll();
+        }
+
+        final long count = SnapshotFile.write(directory, segment, this::pages);
+        snapshotSegment = segment;
+        SnapshotFile.deleteBefore(directory, segment);
+        MutationLog.deleteBefore(directory, segment);
+        log.info("Wrote snapshot of {} measurements, replacing log segments before {}", count, segment);
+    }
+
+    /**
+     * @return every Measurement of the wrapped store, read a page at a time so that only a page is copied at once
+     */
+    private Iterator<Measurement> pages() {
+        return new AbstractIterator<Measurement>() {
+            private long from = Long.MIN_VALUE;
+            private boolean fromInclusive = true;
+            private Iterator<Measurement> page = Collections.emptyIterator();
+            private boolean last;
+
+            @Override
+            protected Measurement computeNext() {
+                if (!page.hasNext() && !last) {
+                    final Collection<Measurement> next = delegate.retrieveInRange(from, fromInclusive, Long.MAX_VALUE, true, SNAPSHOT_PAGE_SIZE);
+                    last = next.size() < SNAPSHOT_PAGE_SIZE;
+                    page = next.iterator();
+                }
+                if (!page.hasNext())
+                    return endOfData();
+                final Measurement m = page.next();
+                from = m.getTimestamp();
+                fromInclusive = false;
+                return m;
+            }
+        };
+    }
+
+    /**
+     * @return true if the wrapped store holds a Measurement with the timestamp, without throwing if it does not
+     */
+    private boolean exists(final long entityId) {
+        return !delegate.retrieveInRange(entityId, true, entityId, true, 1).isEmpty();
+    }
+
+    private void append(final byte operation, final long timestamp, final Map<String, Float> metrics) {
+        final boolean rolled;
+        try {
+            rolled = mutationLog.append(operation, timestamp, metrics);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot log measurement mutation", e);
+        }
+        if (rolled && mutationLog.getSegment() - snapshotSegment >= snapshotThresholdSegments && snapshotPending.compareAndSet(false, true))
+            snapshotter.execute(this::backgroundSnapshot);
+    }
+
+    private void backgroundSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Cannot write measurement snapshot, the log will keep growing until the next attempt", e);
+        } finally {
+            snapshotPending.set(false);
+        }
+    }
+
+    /**
+     * Loads the latest snapshot and replays the log after it into the wrapped store.
+     * @return the number of the last log segment found
+     */
+    private long recover() throws IOException {
+        final List<Long> snapshots = SnapshotFile.segments(directory);
+        if (!snapshots.isEmpty()) {
+            snapshotSegment = snapshots.get(snapshots.size() - 1);
+            SnapshotFile.read(directory, snapshotSegment, RECOVERY_BATCH_SIZE, this::recoverCreates);
+        }
+
+        final Map<Long, Measurement> creates = Maps.newLinkedHashMap();
+        final long lastSegment = MutationLog.replay(directory, snapshotSegment, (operation, m) -> {
+            if (operation == MutationLog.CREATE) {
+                creates.put(m.getTimestamp(), m);
+                if (creates.size() < RECOVERY_BATCH_SIZE)
+                    return;
+            }
+            recoverCreates(creates.values());
+            creates.clear();
+            switch (operation) {
+                case MutationLog.UPDATE:
+                    try {
+                        delegate.update(m, m.getTimestamp());
+                    } catch (EntityNotFoundException e) {
+                        delegate.create(m, m.getTimestamp());
+                    }
+                    break;
+                case MutationLog.DELETE:
+                    try {
+                        delegate.delete(m.getTimestamp());
+                    } catch (EntityNotFoundException e) {
+                        log.debug("Replayed delete of missing measurement {}", m.getTimestamp());
+                    }
+                    break;
+                case MutationLog.CLEAR:
+                    delegate.clear();
+                    break;
+                default:
+                    break;
+            }
+        });
+        recoverCreates(creates.values());
+        MutationLog.deleteBefore(directory, snapshotSegment);
+        return Math.max(lastSegment, snapshotSegment);
+    }
+
+    /**
+     * Creates the recovered Measurement's, overwriting any that already exist.
+     */
+    private void recoverCreates(final Collection<Measurement> measurements) {
+        if (measurements.isEmpty())
+            return;
+
+        final Map<Long, Measurement> entities = Maps.newLinkedHashMap();
+        for (final Measurement m : measurements)
+            entities.put(m.getTimestamp(), m);
+        for (final Long existing : delegate.createAll(entities))
+            delegate.update(entities.get(existing), existing);
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package com.capitalone.service.store.durable;
+
+import com.capitalone.model.Measurement;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The binary layout of a Measurement shared by the mutation log and the snapshot files:
+ *  - long timestamp in epoch milliseconds
+ *  - short number of metrics
+ *  - for each metric: short length of the UTF-8 name, the name bytes and the float value
+ *
+ * Stations report the same handful of metric names over and over, so the encoded names are cached when writing and
+ * the decoded names are shared when reading, rather than allocating a new String for every metric of every reading.
+ * Instances are not thread-safe because of the decode cache; use one per reader.
+ */
+final class MeasurementCodec {
+    private static final int MAX_CACHED_NAMES = 1024;
+    private static final ConcurrentMap<String, byte[]> ENCODED_NAMES = Maps.newConcurrentMap();
+
+    private final Map<ByteBuffer, String> decodedNames = Maps.newHashMap();
+
+    /**
+     * @param metrics the metrics of the Measurement
+     * @return the number of bytes encode will write for a Measurement with these metrics
+     */
+    static int encodedSize(final Map<String, Float> metrics) {
+        if (metrics.size() > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Too many metrics in one measurement: " + metrics.size());
+        int size = Long.BYTES + Short.BYTES;
+        for (final String name : metrics.keySet())
+            size += Short.BYTES + encodedName(name).length + Float.BYTES;
+        return size;
+    }
+
+    /**
+     * Writes the Measurement at the buffer's position. The buffer must have at least encodedSize bytes remaining.
+     * @param buffer the buffer to write to
+     * @param timestamp the timestamp in epoch milliseconds
+     * @param metrics the metrics of the Measurement
+     */
+    static void encode(final ByteBuffer buffer, final long timestamp, final Map<String, Float> metrics) {
+        buffer.putLong(timestamp);
+        buffer.putShort((short) metrics.size());
+        for (final Map.Entry<String, Float> metric : metrics.entrySet()) {
+            final byte[] name = encodedName(metric.getKey());
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+            buffer.putFloat(metric.getValue());
+        }
+    }
+
+    /**
+     * Reads a Measurement from the buffer's position.
+     * @param buffer the buffer to read from
+     * @return the decoded Measurement
+     */
+    Measurement decode(final ByteBuffer buffer) {
+        final long timestamp = buffer.getLong();
+        final int count = buffer.getShort();
+        final ImmutableMap.Builder<String, Float> metrics = ImmutableMap.builder();
+        for (int i = 0; i < count; i++) {
+            final int length = buffer.getShort();
+            final ByteBuffer name = buffer.slice();
+            name.limit(length);
+            buffer.position(buffer.position() + length);
+            metrics.put(decodedName(name), buffer.getFloat());
+        }
+        return new Measurement(timestamp, metrics.build());
+    }
+
+    private String decodedName(final ByteBuffer name) {
+        String decoded = decodedNames.get(name);
+        if (decoded == null) {
+            final byte[] bytes = new byte[name.remaining()];
+            name.duplicate().get(bytes);
+            decoded = new String(bytes, StandardCharsets.UTF_8);
+            decodedNames.put(ByteBuffer.wrap(bytes), decoded);
+        }
+        return decoded;
+    }
+
+    private static byte[] encodedName(final String name) {
+        byte[] encoded = ENCODED_NAMES.get(name);
+        if (encoded == null) {
+            encoded = name.getBytes(StandardCharsets.UTF_8);
+            if (encoded.length > Short.MAX_VALUE)
+                throw new IllegalArgumentException("Metric name is too long: " + name.substring(0, 64) + "...");
+            if (ENCODED_NAMES.size() < MAX_CACHED_NAMES)
+                ENCODED_NAMES.putIfAbsent(name, encoded);
+        }
+        return encoded;
+    }
+}
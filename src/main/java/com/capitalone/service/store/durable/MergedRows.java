@@ -0,0 +1,193 @@
+package com.capitalone.service.store.durable;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricValues;
+import com.capitalone.service.aggregate.MetricAccumulator;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Merges the rows of several sorted sources of a SegmentedMeasurementStore into one sorted run, keeping only the
+ * newest version of each timestamp. The sources are given newest first, so when more than one holds a timestamp the
+ * first of them wins. A winning row may record a delete, which hides the older versions.
+ *
+ * Call next to move to each row in turn, then read its timestamp and either its Measurement or its metric values.
+ */
+final class MergedRows {
+    /**
+     * The Measurement held in memory for a timestamp that was deleted.
+     */
+    static final Measurement DELETED = new Measurement(0L, Collections.<String, Float>emptyMap());
+
+    private final List<Cursor> cursors;
+    private Cursor current;
+
+    /**
+     * @param cursors the sources, newest first
+     */
+    MergedRows(final List<Cursor> cursors) {
+        this.cursors = cursors;
+    }
+
+    /**
+     * Moves to the next timestamp held by any source.
+     * @return false once every source is exhausted
+     */
+    boolean next() {
+        if (current != null) {
+            final long timestamp = current.timestamp();
+            for (final Cursor cursor : cursors) {
+                if (cursor.valid() && cursor.timestamp() == timestamp)
+                    cursor.advance();
+            }
+        }
+        current = null;
+        for (final Cursor cursor : cursors) {
+            if (cursor.valid() && (current == null || cursor.timestamp() < current.timestamp()))
+                current = cursor;
+        }
+        return current != null;
+    }
+
+    long timestamp() {
+        return current.timestamp();
+    }
+
+    boolean deleted() {
+        return current.deleted();
+    }
+
+    Measurement read() {
+        return current.read();
+    }
+
+    void addTo(final MetricAccumulator[] targets) {
+        current.addTo(targets);
+    }
+
+    /**
+     * A position in one sorted source.
+     */
+    abstract static class Cursor {
+        abstract boolean valid();
+
+        abstract long timestamp();
+
+        abstract boolean deleted();
+
+        abstract Measurement read();
+
+        abstract void addTo(MetricAccumulator[] targets);
+
+        abstract void advance();
+
+        /**
+         * @param rows the rows of an in-memory tier, with DELETED for the timestamps that were deleted
+         * @return a cursor over every row of the map
+         */
+        static Cursor of(final NavigableMap<Long, Measurement> rows) {
+            return new MapCursor(rows.entrySet().iterator());
+        }
+
+        /**
+         * @param segment the segment
+         * @param fromRow the first row, inclusive
+         * @param toRow the last row, exclusive
+         * @return a cursor over the rows of the segment
+         */
+        static Cursor of(final SegmentFile segment, final int fromRow, final int toRow) {
+            return new SegmentCursor(segment, fromRow, toRow);
+        }
+    }
+
+    private static final class MapCursor extends Cursor {
+        private final Iterator<Map.Entry<Long, Measurement>> entries;
+        private Map.Entry<Long, Measurement> entry;
+
+        MapCursor(final Iterator<Map.Entry<Long, Measurement>> entries) {
+            this.entries = entries;
+            advance();
+        }
+
+        @Override
+        boolean valid() {
+            return entry != null;
+        }
+
+        @Override
+        long timestamp() {
+            return entry.getKey();
+        }
+
+        @Override
+        boolean deleted() {
+            return entry.getValue() == DELETED;
+        }
+
+        @Override
+        Measurement read() {
+            return entry.getValue();
+        }
+
+        @Override
+        void addTo(final MetricAccumulator[] targets) {
+            final MetricValues metrics = entry.getValue().getMetrics();
+            for (int i = 0; i < metrics.size(); i++) {
+                final int id = metrics.idAt(i);
+                if (id < targets.length && targets[id] != null)
+                    targets[id].add(metrics.valueAt(i));
+            }
+        }
+
+        @Override
+        void advance() {
+            entry = entries.hasNext() ? entries.next() : null;
+        }
+    }
+
+    private static final class SegmentCursor extends Cursor {
+        private final SegmentFile segment;
+        private final int toRow;
+        private int row;
+
+        SegmentCursor(final SegmentFile segment, final int fromRow, final int toRow) {
+            this.segment = segment;
+            this.row = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        boolean valid() {
+            return row < toRow;
+        }
+
+        @Override
+        long timestamp() {
+            return segment.timestamp(row);
+        }
+
+        @Override
+        boolean deleted() {
+            return segment.deleted(row);
+        }
+
+        @Override
+        Measurement read() {
+            return segment.read(row);
+        }
+
+        @Override
+        void addTo(final MetricAccumulator[] targets) {
+            segment.addTo(targets, row);
+        }
+
+        @Override
+        void advance() {
+            row++;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.capitalone.service.store.durable;
+
+import com.capitalone.model.Measurement;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of store mutations, written to a sequence of fixed size, memory-mapped segment files named
+ * wal-&lt;segment&gt;.log.
+ *
+ * An append only copies the record into the mapped segment, which is as durable as the OS page cache: it survives
+ * the process dying but not the host. The log is forced to disk by the caller, typically every few milliseconds
+ * from a background thread, so that many appends share one fsync (group commit) and requests never wait for it.
+ *
+ * Each record is laid out as:
+ *  - int length of the body
+ *  - int CRC32 of the body
+ *  - the body: byte operation, followed by the MeasurementCodec encoding of the timestamp and metrics
+ * The length is written last, so a record that was only partly copied before a crash reads as the end of the log.
+ */
+@Slf4j
+final class MutationLog implements Closeable {
+    static final byte CREATE = 1;
+    static final byte UPDATE = 2;
+    static final byte DELETE = 3;
+    static final byte CLEAR = 4;
+
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final Map<String, Float> NO_METRICS = Collections.emptyMap();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final CRC32 crc = new CRC32();
+    private long segment;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Opens a new, empty segment to append to.
+     * @param directory the directory holding the segment files
+     * @param segmentSize the size in bytes of each segment file
+     * @param segment the number of the first segment to write
+     * @throws IOException if the segment cannot be created
+     */
+    MutationLog(final Path directory, final int segmentSize, final long segment) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        open(segment);
+    }
+
+    /**
+     * Appends a mutation to the log, rolling over to a new segment if the current one is full.
+     * @param operation the mutation, one of CREATE, UPDATE, DELETE or CLEAR
+     * @param timestamp the timestamp of the affected Measurement
+     * @param metrics the metrics of the created or updated Measurement, or null
+     * @return true if this append rolled the log over to a new segment
+     * @throws IOException if a new segment is needed and cannot be created
+     */
+    synchronized boolean append(final byte operation, final long timestamp, final Map<String, Float> metrics) throws IOException {
+        final Map<String, Float> body = metrics == null ? NO_METRICS : metrics;
+        final int length = Byte.BYTES + MeasurementCodec.encodedSize(body);
+        if (HEADER_SIZE + length > segmentSize)
+            throw new IllegalArgumentException("Mutation of " + length + " bytes does not fit in a log segment");
+
+        boolean rolled = false;
+        if (buffer.remaining() < HEADER_SIZE + length) {
+            roll();
+            rolled = true;
+        }
+
+        final int start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+        buffer.put(operation);
+        MeasurementCodec.encode(buffer, timestamp, body);
+
+        final ByteBuffer written = buffer.duplicate();
+        written.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+        crc.reset();
+        crc.update(written);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+        buffer.putInt(start, length);
+        return rolled;
+    }
+
+    /**
+     * Forces the current segment to disk and starts appending to a new one.
+     * @return the number of the new segment
+     * @throws IOException if the new segment cannot be created
+     */
+    synchronized long roll() throws IOException {
+        buffer.force();
+        channel.close();
+        open(segment + 1);
+        return segment;
+    }
+
+    /**
+     * Forces everything appended so far to disk. The appending threads are not blocked while the data is written.
+     */
+    void force() {
+        final MappedByteBuffer current;
+        synchronized (this) {
+            current = buffer;
+        }
+        current.force();
+    }
+
+    /**
+     * @return the number of the segment currently appended to
+     */
+    synchronized long getSegment() {
+        return segment;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private void open(final long segment) throws IOException {
+        this.segment = segment;
+        this.channel = FileChannel.open(path(directory, segment),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    /**
+     * A mutation read back from the log.
+     */
+    interface Replay {
+        void apply(byte operation, Measurement m);
+    }
+
+    /**
+     * Reads every mutation in the segments numbered from the given segment onwards, in order. Reading a segment stops
+     * at the first record that is incomplete or fails its checksum.
+     * @param directory the directory holding the segment files
+     * @param fromSegment the number of the first segment to read
+     * @param replay receives each mutation
+     * @return the number of the last segment found, or fromSegment - 1 if there are none
+     * @throws IOException if a segment cannot be read
+     */
+    static long replay(final Path directory, final long fromSegment, final Replay replay) throws IOException {
+        final MeasurementCodec codec = new MeasurementCodec();
+        final CRC32 crc = new CRC32();
+        long last = fromSegment - 1;
+        for (final long segment : segments(directory)) {
+            if (segment < fromSegment)
+                continue;
+            last = segment;
+            try (final FileChannel channel = FileChannel.open(path(directory, segment), StandardOpenOption.READ)) {
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int records = 0;
+                while (buffer.remaining() >= HEADER_SIZE) {
+                    final int length = buffer.getInt();
+                    final int checksum = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining())
+                        break;
+
+                    final ByteBuffer body = buffer.slice();
+                    body.limit(length);
+                    crc.reset();
+                    crc.update(body.duplicate());
+                    if ((int) crc.getValue() != checksum) {
+                        log.warn("Checksum mismatch in log segment {} after {} records, ignoring the rest of it", segment, records);
+                        break;
+                    }
+                    replay.apply(body.get(), codec.decode(body));
+                    buffer.position(buffer.position() + length);
+                    records++;
+                }
+                log.info("Replayed {} records from log segment {}", records, segment);
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Deletes the segments numbered below the given segment.
+     * @param directory the directory holding the segment files
+     * @param beforeSegment the first segment to keep
+     * @throws IOException if a segment cannot be deleted
+     */
+    static void deleteBefore(final Path directory, final long beforeSegment) throws IOException {
+        for (final long segment : segments(directory)) {
+            if (segment < beforeSegment)
+                Files.delete(path(directory, segment));
+        }
+    }
+
+    /**
+     * @return the numbers of the segment files in the directory, in ascending order
+     */
+    static List<Long> segments(final Path directory) throws IOException {
+        final List<Long> segments = Lists.newArrayList();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static Path path(final Path directory, final long segment) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, segment, SUFFIX));
+    }
+}
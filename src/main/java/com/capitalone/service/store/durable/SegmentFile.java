@@ -0,0 +1,332 @@
+package com.capitalone.service.store.durable;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricDictionary;
+import com.capitalone.model.MetricValues;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * An immutable run of Measurement's sorted by timestamp, written once by SegmentedMeasurementStore and then read in
+ * place through a read-only memory mapping, so the rows never take up heap however many segments there are.
+ *
+ * The file is named segment-&lt;first&gt;-&lt;last&gt;.seg after the range of segment numbers it was merged from, and
+ * is laid out in columns so that a timestamp is found with a binary search over the timestamps alone:
+ *  - header: int magic number, int format version, long number of the first log segment not included, int number of
+ *    rows, int number of metric values and int number of metric names
+ *  - the metric names, each a short length and the UTF-8 bytes, padded to a multiple of 8 bytes. Values refer to them
+ *    by their position, since MetricDictionary ids are not kept across restarts
+ *  - long timestamp of each row
+ *  - int index of the first metric value of each row, and one more holding the total number of values
+ *  - float value of each metric value
+ *  - unsigned short name position of each metric value
+ *  - byte of each row, 1 if the row records a delete rather than a Measurement
+ * A segment is written to a temporary file and forced to disk before it is published under its final name, so a
+ * crash never leaves a partial segment behind.
+ */
+final class SegmentFile {
+    private static final int MAGIC = 0x57535347;
+    private static final int VERSION = 1;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".seg";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES + 3 * Integer.BYTES;
+
+    private final Path path;
+    private final long first;
+    private final long last;
+    private final ByteBuffer buffer;
+    private final long logSegment;
+    private final int rows;
+    private final int[] ids;
+    private final int timestamps;
+    private final int offsets;
+    private final int values;
+    private final int names;
+    private final int deletes;
+
+    private SegmentFile(final Path path, final long first, final long last, final ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.first = first;
+        this.last = last;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION)
+            throw new IOException("Not a segment file: " + path);
+        this.logSegment = buffer.getLong(2 * Integer.BYTES);
+        this.rows = buffer.getInt(2 * Integer.BYTES + Long.BYTES);
+        final int entries = buffer.getInt(3 * Integer.BYTES + Long.BYTES);
+
+        final ByteBuffer table = buffer.duplicate();
+        table.position(HEADER_SIZE);
+        this.ids = new int[buffer.getInt(4 * Integer.BYTES + Long.BYTES)];
+        for (int i = 0; i < ids.length; i++) {
+            final byte[] name = new byte[table.getShort() & 0xFFFF];
+            table.get(name);
+            ids[i] = MetricDictionary.idOf(new String(name, StandardCharsets.UTF_8));
+        }
+        this.timestamps = align(table.position());
+        this.offsets = timestamps + rows * Long.BYTES;
+        this.values = offsets + (rows + 1) * Integer.BYTES;
+        this.names = values + entries * Float.BYTES;
+        this.deletes = names + entries * Short.BYTES;
+        if (buffer.capacity() != deletes + rows)
+            throw new IOException("Segment file is truncated: " + path);
+    }
+
+    /**
+     * Writes a segment to a temporary file, to be published once the caller is ready for it to be read.
+     * @param directory the directory holding the segment files
+     * @param first the first segment number merged into the segment
+     * @param last the last segment number merged into the segment
+     * @param logSegment the first log segment holding mutations that are not in the segment
+     * @param rows creates the rows to write, newest version first; it is called twice, to size and then to fill the file
+     * @param dropDeletes true to leave out rows that record a delete, when there is no older segment they could hide
+     * @return the temporary file, or null if there are no rows to write
+     * @throws IOException if the file cannot be written
+     */
+    static Path write(
+            final Path directory,
+            final long first,
+            final long last,
+            final long logSegment,
+            final Supplier<MergedRows> rows,
+            final boolean dropDeletes
+    ) throws IOException {
+        //Position of each metric in the name table, indexed by MetricDictionary id
+        int[] positions = new int[MetricDictionary.size()];
+        Arrays.fill(positions, -1);
+        final List<byte[]> nameTable = Lists.newArrayList();
+        int tableSize = 0;
+        int count = 0;
+        long entries = 0;
+        for (final MergedRows merged = rows.get(); merged.next(); ) {
+            if (dropDeletes && merged.deleted())
+                continue;
+            count++;
+            final MetricValues metrics = merged.deleted() ? null : merged.read().getMetrics();
+            for (int i = 0; metrics != null && i < metrics.size(); i++) {
+                final int id = metrics.idAt(i);
+                if (id >= positions.length) {
+                    final int size = positions.length;
+                    positions = Arrays.copyOf(positions, Math.max(id + 1, 2 * size));
+                    Arrays.fill(positions, size, positions.length, -1);
+                }
+                if (positions[id] < 0) {
+                    final byte[] name = MetricDictionary.nameOf(id).getBytes(StandardCharsets.UTF_8);
+                    positions[id] = nameTable.size();
+                    nameTable.add(name);
+                    tableSize += Short.BYTES + name.length;
+                }
+            }
+            entries += metrics == null ? 0 : metrics.size();
+        }
+        if (count == 0)
+            return null;
+
+        final int timestamps = align(HEADER_SIZE + tableSize);
+        final long size = timestamps + (long) count * (Long.BYTES + Integer.BYTES + Byte.BYTES) + Integer.BYTES
+                + entries * (Float.BYTES + Short.BYTES);
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segment of " + size + " bytes is too large to map");
+
+        final Path temporary = directory.resolve(name(first, last) + TEMPORARY_SUFFIX);
+        try (final FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(logSegment).putInt(count).putInt((int) entries).putInt(nameTable.size());
+            for (final byte[] name : nameTable) {
+                buffer.putShort((short) name.length);
+                buffer.put(name);
+            }
+
+            final int offsets = timestamps + count * Long.BYTES;
+            final int values = offsets + (count + 1) * Integer.BYTES;
+            final int names = values + (int) entries * Float.BYTES;
+            final int deletes = names + (int) entries * Short.BYTES;
+            int row = 0;
+            int entry = 0;
+            for (final MergedRows merged = rows.get(); merged.next(); ) {
+                if (dropDeletes && merged.deleted())
+                    continue;
+                buffer.putLong(timestamps + row * Long.BYTES, merged.timestamp());
+                buffer.putInt(offsets + row * Integer.BYTES, entry);
+                buffer.put(deletes + row, (byte) (merged.deleted() ? 1 : 0));
+                final MetricValues metrics = merged.deleted() ? null : merged.read().getMetrics();
+                for (int i = 0; metrics != null && i < metrics.size(); i++, entry++) {
+                    buffer.putFloat(values + entry * Float.BYTES, metrics.valueAt(i));
+                    buffer.putShort(names + entry * Short.BYTES, (short) positions[metrics.idAt(i)]);
+                }
+                row++;
+            }
+            if (row != count)
+                throw new IllegalStateException("Segment rows changed while it was written");
+            buffer.putInt(offsets + count * Integer.BYTES, entry);
+            buffer.force();
+        }
+        return temporary;
+    }
+
+    /**
+     * Renames a written segment into place and maps it.
+     * @param temporary the temporary file returned by write
+     * @return the segment
+     * @throws IOException if the file cannot be renamed or mapped
+     */
+    static SegmentFile publish(final Path temporary) throws IOException {
+        final String name = temporary.getFileName().toString();
+        final Path target = temporary.resolveSibling(name.substring(0, name.length() - TEMPORARY_SUFFIX.length()));
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        return open(target);
+    }
+
+    /**
+     * Maps every segment file in the directory and deletes any leftover temporary files.
+     * @param directory the directory holding the segment files
+     * @return the segments, in no particular order
+     * @throws IOException if a segment cannot be read, or is corrupt
+     */
+    static List<SegmentFile> openAll(final Path directory) throws IOException {
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX + TEMPORARY_SUFFIX)) {
+            for (final Path file : files)
+                Files.delete(file);
+        }
+        final List<SegmentFile> segments = Lists.newArrayList();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (final Path file : files)
+                segments.add(open(file));
+        }
+        return segments;
+    }
+
+    private static SegmentFile open(final Path file) throws IOException {
+        final String name = file.getFileName().toString();
+        final String[] range = name.substring(PREFIX.length(), name.length() - SUFFIX.length()).split("-");
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new SegmentFile(file, Long.parseLong(range[0]), Long.parseLong(range[1]),
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Deletes the file. The mapping stays readable until it is garbage collected.
+     * @throws IOException if the file cannot be deleted
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    long first() {
+        return first;
+    }
+
+    long last() {
+        return last;
+    }
+
+    long logSegment() {
+        return logSegment;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    long bytes() {
+        return buffer.capacity();
+    }
+
+    long timestamp(final int row) {
+        return buffer.getLong(timestamps + row * Long.BYTES);
+    }
+
+    long minTimestamp() {
+        return timestamp(0);
+    }
+
+    long maxTimestamp() {
+        return timestamp(rows - 1);
+    }
+
+    boolean deleted(final int row) {
+        return buffer.get(deletes + row) != 0;
+    }
+
+    /**
+     * @return the index of the row with the timestamp, or a negative number if there is none
+     */
+    int find(final long timestamp) {
+        final int row = lowerBound(timestamp, true);
+        return row < rows && timestamp(row) == timestamp ? row : -1;
+    }
+
+    /**
+     * @return the index of the first row with a timestamp greater than or equal to the key, or above it if exclusive
+     */
+    int lowerBound(final long key, final boolean inclusive) {
+        int low = 0;
+        int high = rows;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final long midTimestamp = timestamp(mid);
+            if (midTimestamp < key || !inclusive && midTimestamp == key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Creates the Measurement held by a row, which must not record a delete.
+     */
+    Measurement read(final int row) {
+        final int from = buffer.getInt(offsets + row * Integer.BYTES);
+        final int count = buffer.getInt(offsets + (row + 1) * Integer.BYTES) - from;
+        final int[] metricIds = new int[count];
+        final float[] metricValues = new float[count];
+        for (int i = 0; i < count; i++) {
+            metricIds[i] = ids[buffer.getShort(names + (from + i) * Short.BYTES) & 0xFFFF];
+            metricValues[i] = buffer.getFloat(values + (from + i) * Float.BYTES);
+        }
+        return new Measurement(timestamp(row), MetricValues.of(metricIds, metricValues, count));
+    }
+
+    /**
+     * Adds the metric values of a row to their accumulators, without creating a Measurement.
+     * @param targets the accumulators indexed by MetricDictionary id, null for metrics that are not wanted
+     * @param row the row to add
+     */
+    void addTo(final MetricAccumulator[] targets, final int row) {
+        final int to = buffer.getInt(offsets + (row + 1) * Integer.BYTES);
+        for (int entry = buffer.getInt(offsets + row * Integer.BYTES); entry < to; entry++) {
+            final int id = ids[buffer.getShort(names + entry * Short.BYTES) & 0xFFFF];
+            if (id < targets.length && targets[id] != null)
+                targets[id].add(buffer.getFloat(values + entry * Float.BYTES));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName().toString();
+    }
+
+    private static String name(final long first, final long last) {
+        return String.format("%s%020d-%020d%s", PREFIX, first, last, SUFFIX);
+    }
+
+    private static int align(final int position) {
+        return (position + Long.BYTES - 1) & -Long.BYTES;
+    }
+}
@@ -0,0 +1,550 @@
+package com.capitalone.service.store.durable;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.RangeAggregator;
+import com.capitalone.service.store.Store;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A durable store for Measurement's that keeps only the recent readings on the heap and seals older ones into
+ * immutable SegmentFile's, which are memory-mapped and read in place. Years of history take up disk and page cache
+ * rather than heap, and a restart maps the segments instead of loading them.
+ *
+ * Every mutation is written to a MutationLog and applied to a sorted in-memory tier. Updates and deletes never touch
+ * a segment: an update puts the new version in the memory tier, and a delete puts a marker there that hides the older
+ * versions. Once the memory tier holds the system property {@value #ROWS_PROPERTY} rows, the log is rolled over and
+ * the tier is frozen and written to a new segment by a background thread, after which the log before it is deleted.
+ *
+ * Reads merge the memory tiers and the segments that may hold the range, newest first, so the newest version of each
+ * timestamp wins. To keep the number of segments a read has to merge small, the same background thread compacts
+ * them in tiers: whenever {@value #FANOUT} neighbouring segments are of about the same size they are merged into one,
+ * dropping the versions they hide. Delete markers are dropped once they reach the oldest segment.
+ */
+@Slf4j
+public final class SegmentedMeasurementStore implements Store<Long, Measurement>, RangeAggregator, Closeable {
+    public static final String ROWS_PROPERTY = "measurement.store.segment.rows";
+    public static final int DEFAULT_ROWS = 65536;
+    static final int FANOUT = 4;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Path directory;
+    private final int memoryRows;
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService writer;
+    private final MutationLog mutationLog;
+    private NavigableMap<Long, Measurement> memory = new TreeMap<>();
+    private NavigableMap<Long, Measurement> frozen;
+    private long frozenSegment;
+    private long frozenLogSegment;
+    //Newest first
+    private List<SegmentFile> segments;
+    private long nextSegment;
+    private long clears;
+
+    /**
+     * Opens the store with the default log segment size and flush interval.
+     * @param directory the directory to keep the log and segments in, created if it does not exist
+     */
+    public SegmentedMeasurementStore(final Path directory) {
+        this(directory, Integer.getInteger(ROWS_PROPERTY, DEFAULT_ROWS),
+                DurableMeasurementStore.DEFAULT_SEGMENT_SIZE, DurableMeasurementStore.DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param directory the directory to keep the log and segments in, created if it does not exist
+     * @param memoryRows the number of rows in memory after which they are written to a segment
+     * @param logSegmentSize the size in bytes of each log segment
+     * @param flushIntervalMillis how often the log is forced to disk
+     */
+    SegmentedMeasurementStore(final Path directory, final int memoryRows, final int logSegmentSize, final long flushIntervalMillis) {
+        this.directory = directory;
+        this.memoryRows = memoryRows;
+        try {
+            Files.createDirectories(directory);
+            final long lastLogSegment = recover();
+            mutationLog = new MutationLog(directory, logSegmentSize, lastLogSegment + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open measurement segments in " + directory, e);
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(daemon("measurement-log-flusher"));
+        flusher.scheduleWithFixedDelay(mutationLog::force, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        writer = Executors.newSingleThreadExecutor(daemon("measurement-segment-writer"));
+        lock.writeLock().lock();
+        try {
+            freezeIfFull();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writer.execute(this::compact);
+    }
+
+    @Override
+    public void create(final Measurement entity, final Long entityId) throws AppServerException {
+        lock.writeLock().lock();
+        try {
+            if (find(entityId) != null)
+                throw new EntityExistsException("Cannot create new entity. Entity already exists with ID: " + entityId);
+            append(MutationLog.CREATE, entityId, entity);
+            freezeIfFull();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Long> createAll(final Map<Long, Measurement> entities) throws AppServerException {
+        final List<Long> existing = Lists.newArrayList();
+        lock.writeLock().lock();
+        try {
+            for (final Map.Entry<Long, Measurement> entry : entities.entrySet()) {
+                if (find(entry.getKey()) != null)
+                    existing.add(entry.getKey());
+                else
+                    append(MutationLog.CREATE, entry.getKey(), entry.getValue());
+            }
+            freezeIfFull();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return existing;
+    }
+
+    @Override
+    public Measurement retrieve(final Long entityId) throws AppServerException {
+        lock.readLock().lock();
+        try {
+            final Measurement m = find(entityId);
+            if (m == null)
+                throw new EntityNotFoundException("Cannot retrieve entity. Entity not found with ID " + entityId);
+            return m;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive
+    ) throws AppServerException {
+        return retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        final List<Measurement> measurements = Lists.newArrayListWithCapacity(Math.min(limit, 1024));
+        if (fromEntityId > toEntityId)
+            return measurements;
+        lock.readLock().lock();
+        try {
+            final MergedRows rows = merge(fromEntityId, fromInclusive, toEntityId, toInclusive);
+            while (measurements.size() < limit && rows.next()) {
+                if (!rows.deleted())
+                    measurements.add(rows.read());
+            }
+            return measurements;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+        if (fromTimestamp >= toTimestamp)
+            return accumulators;
+
+        final MetricAccumulator[] targets = MetricAccumulator.byId(accumulators);
+        lock.readLock().lock();
+        try {
+            final MergedRows rows = merge(fromTimestamp, true, toTimestamp, false);
+            while (rows.next()) {
+                if (!rows.deleted())
+                    rows.addTo(targets);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return accumulators;
+    }
+
+    @Override
+    public Measurement update(final Measurement entity, final Long entityId) throws AppServerException {
+        lock.writeLock().lock();
+        try {
+            final Measurement previous = find(entityId);
+            if (previous == null)
+                throw new EntityNotFoundException("Cannot update entity. Entity not found with ID " + entityId);
+            append(MutationLog.UPDATE, entityId, entity);
+            freezeIfFull();
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Measurement delete(final Long entityId) throws AppServerException {
+        lock.writeLock().lock();
+        try {
+            final Measurement deleted = find(entityId);
+            if (deleted == null)
+                throw new EntityNotFoundException("Cannot delete entity. Entity not found with ID " + entityId);
+            append(MutationLog.DELETE, entityId, MergedRows.DELETED);
+            freezeIfFull();
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        lock.writeLock().lock();
+        try {
+            //The clear is logged and forced first, so a crash while the segments are deleted still clears them
+            mutationLog.append(MutationLog.CLEAR, 0L, null);
+            mutationLog.force();
+            for (final SegmentFile segment : segments)
+                segment.delete();
+            segments = ImmutableList.of();
+            memory = new TreeMap<>();
+            frozen = null;
+            clears++;
+            MutationLog.deleteBefore(directory, mutationLog.roll());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot clear measurement segments", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops the background threads, waiting for a segment being written, and forces the log to disk. The store must
+     * not be used afterwards.
+     * @throws IOException if the log cannot be forced to disk
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mutationLog.close();
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for the segments that are being written or compacted in the background.
+     */
+    void awaitWriter() throws Exception {
+        writer.submit(() -> {}).get();
+    }
+
+    /**
+     * @return the Measurement with the timestamp in the newest tier that holds it, or null if it is not stored
+     */
+    private Measurement find(final long timestamp) {
+        Measurement m = memory.get(timestamp);
+        if (m == null && frozen != null)
+            m = frozen.get(timestamp);
+        if (m != null)
+            return m == MergedRows.DELETED ? null : m;
+        for (final SegmentFile segment : segments) {
+            if (timestamp < segment.minTimestamp() || timestamp > segment.maxTimestamp())
+                continue;
+            final int row = segment.find(timestamp);
+            if (row >= 0)
+                return segment.deleted(row) ? null : segment.read(row);
+        }
+        return null;
+    }
+
+    private MergedRows merge(final long from, final boolean fromInclusive, final long to, final boolean toInclusive) {
+        final List<MergedRows.Cursor> cursors = Lists.newArrayList();
+        cursors.add(MergedRows.Cursor.of(memory.subMap(from, fromInclusive, to, toInclusive)));
+        if (frozen != null)
+            cursors.add(MergedRows.Cursor.of(frozen.subMap(from, fromInclusive, to, toInclusive)));
+        for (final SegmentFile segment : segments) {
+            if (segment.maxTimestamp() < from || segment.minTimestamp() > to)
+                continue;
+            final int fromRow = segment.lowerBound(from, fromInclusive);
+            final int toRow = segment.lowerBound(to, !toInclusive);
+            if (fromRow < toRow)
+                cursors.add(MergedRows.Cursor.of(segment, fromRow, toRow));
+        }
+        return new MergedRows(cursors);
+    }
+
+    private void append(final byte operation, final long timestamp, final Measurement m) {
+        try {
+            mutationLog.append(operation, timestamp, m == MergedRows.DELETED ? null : m.getMetrics());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot log measurement mutation", e);
+        }
+        memory.put(timestamp, m);
+    }
+
+    /**
+     * Freezes the memory tier and has it written to a segment once it is full, unless the previous one is still
+     * being written. Must be called with the write lock held.
+     */
+    private void freezeIfFull() {
+        if (memory.size() < memoryRows || frozen != null)
+            return;
+        try {
+            frozenLogSegment = mutationLog.roll();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot roll the measurement log over", e);
+        }
+        frozen = memory;
+        frozenSegment = nextSegment++;
+        memory = new TreeMap<>();
+        writer.execute(this::writeFrozen);
+    }
+
+    private void writeFrozen() {
+        final NavigableMap<Long, Measurement> rows;
+        final long segment;
+        final long logSegment;
+        final long clearsBefore;
+        lock.readLock().lock();
+        try {
+            rows = frozen;
+            segment = frozenSegment;
+            logSegment = frozenLogSegment;
+            clearsBefore = clears;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (rows == null)
+            return;
+
+        try {
+            final Path written = SegmentFile.write(directory, segment, segment, logSegment,
+                    () -> new MergedRows(ImmutableList.of(MergedRows.Cursor.of(rows))), false);
+            lock.writeLock().lock();
+            try {
+                if (clears != clearsBefore) {
+                    Files.delete(written);
+                    return;
+                }
+                segments = ImmutableList.<SegmentFile>builder().add(SegmentFile.publish(written)).addAll(segments).build();
+                frozen = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            MutationLog.deleteBefore(directory, logSegment);
+            log.info("Wrote {} measurements to segment {}", rows.size(), segment);
+        } catch (IOException | RuntimeException e) {
+            //The rows stay frozen in memory and logged, and the next attempt is made once the memory tier is full
+            log.error("Cannot write measurement segment {}", segment, e);
+            lock.writeLock().lock();
+            try {
+                if (frozen == rows) {
+                    rows.putAll(memory);
+                    memory = rows;
+                    frozen = null;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+        compact();
+    }
+
+    /**
+     * Merges runs of neighbouring segments of about the same size until there are none left.
+     */
+    private void compact() {
+        while (true) {
+            final List<SegmentFile> current;
+            final long clearsBefore;
+            lock.readLock().lock();
+            try {
+                current = segments;
+                clearsBefore = clears;
+            } finally {
+                lock.readLock().unlock();
+            }
+            final int start = findRun(current);
+            if (start < 0)
+                return;
+
+            final List<SegmentFile> run = current.subList(start, start + FANOUT);
+            final SegmentFile newest = run.get(0);
+            final SegmentFile oldest = run.get(run.size() - 1);
+            final boolean dropDeletes = start + FANOUT == current.size();
+            try {
+                final Path written = SegmentFile.write(directory, oldest.first(), newest.last(), newest.logSegment(), () -> {
+                    final List<MergedRows.Cursor> cursors = Lists.newArrayList();
+                    for (final SegmentFile segment : run)
+                        cursors.add(MergedRows.Cursor.of(segment, 0, segment.rows()));
+                    return new MergedRows(cursors);
+                }, dropDeletes);
+
+                lock.writeLock().lock();
+                try {
+                    if (clears != clearsBefore) {
+                        if (written != null)
+                            Files.delete(written);
+                        return;
+                    }
+                    //Only this thread adds or removes segments, apart from clear, so the run is still in place
+                    final int index = segments.indexOf(newest);
+                    final ImmutableList.Builder<SegmentFile> merged = ImmutableList.builder();
+                    merged.addAll(segments.subList(0, index));
+                    if (written != null)
+                        merged.add(SegmentFile.publish(written));
+                    merged.addAll(segments.subList(index + FANOUT, segments.size()));
+                    segments = merged.build();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                for (final SegmentFile segment : run)
+                    segment.delete();
+                log.info("Compacted segments {} to {}", oldest, newest);
+            } catch (IOException | RuntimeException e) {
+                log.error("Cannot compact measurement segments {} to {}, leaving them as they are", oldest, newest, e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Segments are tiered by their number of rows: tier 0 holds up to FANOUT times the rows of a flush, each tier
+     * after that FANOUT times more.
+     * @return the index of the newest of FANOUT neighbouring segments in the same tier, or -1 if there are none
+     */
+    private int findRun(final List<SegmentFile> current) {
+        for (int start = 0; start + FANOUT <= current.size(); start++) {
+            final int tier = tier(current.get(start));
+            long bytes = 0;
+            int end = start;
+            while (end < start + FANOUT && tier(current.get(end)) == tier) {
+                bytes += current.get(end).bytes();
+                end++;
+            }
+            if (end == start + FANOUT && bytes <= MAX_SEGMENT_BYTES)
+                return start;
+        }
+        return -1;
+    }
+
+    private int tier(final SegmentFile segment) {
+        int tier = 0;
+        for (long rows = segment.rows() / FANOUT; rows >= memoryRows; rows /= FANOUT)
+            tier++;
+        return tier;
+    }
+
+    /**
+     * Maps the segments, deleting any made redundant by a compaction that did not finish, and replays the log written
+     * after them into the memory tier.
+     * @return the number of the last log segment found
+     */
+    private long recover() throws IOException {
+        final List<SegmentFile> found = SegmentFile.openAll(directory);
+        //A compaction that did not finish leaves segments behind within the range of the one it wrote
+        found.sort(Comparator.comparingLong((SegmentFile segment) -> -segment.last()).thenComparingLong(SegmentFile::first));
+        final List<SegmentFile> kept = Lists.newArrayList();
+        long logSegment = 0;
+        for (final SegmentFile segment : found) {
+            if (!kept.isEmpty() && segment.last() >= kept.get(kept.size() - 1).first()) {
+                segment.delete();
+                continue;
+            }
+            kept.add(segment);
+            logSegment = Math.max(logSegment, segment.logSegment());
+            nextSegment = Math.max(nextSegment, segment.last() + 1);
+        }
+        segments = ImmutableList.copyOf(kept);
+
+        final long lastLogSegment = MutationLog.replay(directory, logSegment, (operation, m) -> {
+            switch (operation) {
+                case MutationLog.CREATE:
+                case MutationLog.UPDATE:
+                    memory.put(m.getTimestamp(), m);
+                    break;
+                case MutationLog.DELETE:
+                    memory.put(m.getTimestamp(), MergedRows.DELETED);
+                    break;
+                case MutationLog.CLEAR:
+                    memory.clear();
+                    for (final SegmentFile segment : segments) {
+                        try {
+                            segment.delete();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    segments = Collections.emptyList();
+                    break;
+                default:
+                    break;
+            }
+        });
+        MutationLog.deleteBefore(directory, logSegment);
+        log.info("Mapped {} measurement segments and replayed {} logged measurements", segments.size(), memory.size());
+        return Math.max(lastLogSegment, logSegment);
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,171 @@
+package com.capitalone.service.store.durable;
+
+import com.capitalone.model.Measurement;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A point-in-time copy of every Measurement in the store, named snapshot-&lt;segment&gt;.bin. The snapshot holds the
+ * effect of every mutation logged before the given log segment, so recovery loads it and then replays the log from
+ * that segment onwards.
+ *
+ * The file is laid out as:
+ *  - int magic number and int format version
+ *  - long number of Measurement's
+ *  - for each Measurement: int length followed by the MeasurementCodec encoding
+ *  - long CRC32 of everything after the header
+ * A snapshot is written to a temporary file, forced to disk and then renamed into place, so a crash while writing
+ * leaves the previous snapshot untouched. The number of Measurement's is only known once they are all written, so it
+ * is filled in last.
+ */
+final class SnapshotFile {
+    private static final int MAGIC = 0x57534E50;
+    private static final int VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long COUNT_OFFSET = 2 * Integer.BYTES;
+
+    private SnapshotFile() {}
+
+    /**
+     * Writes a snapshot of the Measurement's, replacing any snapshot for the same segment.
+     * @param directory the directory holding the snapshot files
+     * @param segment the first log segment not included in the snapshot
+     * @param measurements the Measurement's to write, which are read once
+     * @return the number of Measurement's written
+     * @throws IOException if the snapshot cannot be written
+     */
+    static long write(final Path directory, final long segment, final Iterable<Measurement> measurements) throws IOException {
+        final Path target = path(directory, segment);
+        final Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        long count = 0;
+        try (final FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            final DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(0);
+
+            final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, BUFFER_SIZE), new CRC32());
+            final DataOutputStream out = new DataOutputStream(checked);
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            for (final Measurement m : measurements) {
+                final int length = MeasurementCodec.encodedSize(m.getMetrics());
+                if (buffer.capacity() < length)
+                    buffer = ByteBuffer.allocate(length);
+                buffer.clear();
+                MeasurementCodec.encode(buffer, m.getTimestamp(), m.getMetrics());
+                out.writeInt(length);
+                out.write(buffer.array(), 0, length);
+                count++;
+            }
+            final long checksum = checked.getChecksum().getValue();
+            out.writeLong(checksum);
+            out.flush();
+            final ByteBuffer countBytes = ByteBuffer.allocate(Long.BYTES).putLong(0, count);
+            file.getChannel().write(countBytes, COUNT_OFFSET);
+            file.getFD().sync();
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return count;
+    }
+
+    /**
+     * Reads a snapshot, handing the Measurement's to the consumer in batches.
+     * @param directory the directory holding the snapshot files
+     * @param segment the segment the snapshot was written for
+     * @param batchSize the maximum number of Measurement's in each batch
+     * @param consumer receives each batch
+     * @throws IOException if the snapshot cannot be read, or is corrupt
+     */
+    static void read(
+            final Path directory,
+            final long segment,
+            final int batchSize,
+            final Consumer<List<Measurement>> consumer
+    ) throws IOException {
+        final Path file = path(directory, segment);
+        try (final InputStream in = Files.newInputStream(file)) {
+            final DataInputStream header = new DataInputStream(in);
+            if (header.readInt() != MAGIC || header.readInt() != VERSION)
+                throw new IOException("Not a snapshot file: " + file);
+            final long count = header.readLong();
+
+            final CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in, BUFFER_SIZE), new CRC32());
+            final DataInputStream data = new DataInputStream(checked);
+            final MeasurementCodec codec = new MeasurementCodec();
+            List<Measurement> batch = Lists.newArrayListWithCapacity(batchSize);
+            byte[] bytes = new byte[256];
+            for (long i = 0; i < count; i++) {
+                final int length = data.readInt();
+                if (bytes.length < length)
+                    bytes = new byte[length];
+                data.readFully(bytes, 0, length);
+                batch.add(codec.decode(ByteBuffer.wrap(bytes, 0, length)));
+                if (batch.size() == batchSize) {
+                    consumer.accept(batch);
+                    batch = Lists.newArrayListWithCapacity(batchSize);
+                }
+            }
+            final long checksum = checked.getChecksum().getValue();
+            if (data.readLong() != checksum)
+                throw new IOException("Snapshot file is corrupt: " + file);
+            if (!batch.isEmpty())
+                consumer.accept(batch);
+        }
+    }
+
+    /**
+     * Deletes the snapshots written for segments below the given segment, and any leftover temporary files.
+     * @param directory the directory holding the snapshot files
+     * @param beforeSegment the segment of the snapshot to keep
+     * @throws IOException if a file cannot be deleted
+     */
+    static void deleteBefore(final Path directory, final long beforeSegment) throws IOException {
+        for (final long segment : segments(directory)) {
+            if (segment < beforeSegment)
+                Files.delete(path(directory, segment));
+        }
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX + ".tmp")) {
+            for (final Path file : files)
+                Files.delete(file);
+        }
+    }
+
+    /**
+     * @return the segments of the snapshot files in the directory, in ascending order
+     */
+    static List<Long> segments(final Path directory) throws IOException {
+        final List<Long> segments = Lists.newArrayList();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static Path path(final Path directory, final long segment) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, segment, SUFFIX));
+    }
+}
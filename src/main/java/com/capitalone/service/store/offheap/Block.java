@@ -0,0 +1,201 @@
+package com.capitalone.service.store.offheap;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricValues;
+import com.capitalone.service.aggregate.MetricAccumulator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A run of Measurement's sorted by timestamp, held in one direct ByteBuffer.
+ *
+ * The buffer is filled from both ends:
+ *  - from the start, a directory with one fixed size row per Measurement: long timestamp and int payload offset,
+ *    sorted by timestamp so a row is found with a binary search
+ *  - from the end, the payloads: short number of metrics and, for each metric, the unsigned short MetricDictionary id
+ *    and the float value
+ *
+ * Inserting or removing a row only shifts the directory rows after it. A removed payload is left in place as garbage
+ * until the block is copied. Only the directory bounds live on the heap.
+ *
+ * This class is not thread-safe; OffHeapMeasurementStore guards it with its lock.
+ */
+final class Block {
+    static final int ROW_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int METRIC_BYTES = Short.BYTES + Float.BYTES;
+
+    private final ByteBuffer buffer;
+    private int rows;
+    private int payloadStart;
+    private int garbage;
+
+    Block(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.payloadStart = buffer.capacity();
+    }
+
+    /**
+     * @param metrics the metrics of a Measurement
+     * @return the number of bytes of the payload of a Measurement with these metrics
+     */
+    static int payloadSize(final MetricValues metrics) {
+        return Short.BYTES + metrics.size() * METRIC_BYTES;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    long timestamp(final int row) {
+        return buffer.getLong(row * ROW_BYTES);
+    }
+
+    /**
+     * @param size the number of bytes of a payload
+     * @return true if a row with a payload of that size fits without copying the block
+     */
+    boolean fits(final int size) {
+        return payloadStart - rows * ROW_BYTES >= ROW_BYTES + size;
+    }
+
+    /**
+     * @return the number of bytes held by removed payloads
+     */
+    int garbage() {
+        return garbage;
+    }
+
+    /**
+     * @return the index of the row with the timestamp, or -(insertion point + 1) if there is none
+     */
+    int find(final long timestamp) {
+        int low = 0;
+        int high = rows - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midTimestamp = timestamp(mid);
+            if (midTimestamp < timestamp) low = mid + 1;
+            else if (midTimestamp > timestamp) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the index of the first row with a timestamp greater than or equal to the key, or above it if exclusive
+     */
+    int lowerBound(final long key, final boolean inclusive) {
+        int low = 0;
+        int high = rows;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final long midTimestamp = timestamp(mid);
+            if (midTimestamp < key || !inclusive && midTimestamp == key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Inserts a row, which must fit.
+     * @param row the index of the new row, which keeps the rows sorted
+     * @param timestamp the timestamp of the Measurement
+     * @param metrics the metrics of the Measurement
+     */
+    void insert(final int row, final long timestamp, final MetricValues metrics) {
+        payloadStart -= payloadSize(metrics);
+        int position = payloadStart;
+        buffer.putShort(position, (short) metrics.size());
+        position += Short.BYTES;
+        for (int i = 0; i < metrics.size(); i++) {
+            buffer.putShort(position, (short) metrics.idAt(i));
+            buffer.putFloat(position + Short.BYTES, metrics.valueAt(i));
+            position += METRIC_BYTES;
+        }
+        openRow(row);
+        writeRow(row, timestamp, payloadStart);
+    }
+
+    /**
+     * Copies a row of another block, with its payload, after the last row of this block. The row must fit.
+     * @param other the block to copy from
+     * @param row the row of the other block
+     */
+    void append(final Block other, final int row) {
+        final int from = other.payloadOffset(row);
+        final int size = Short.BYTES + other.buffer.getShort(from) * METRIC_BYTES;
+        payloadStart -= size;
+        for (int i = 0; i < size; i++)
+            buffer.put(payloadStart + i, other.buffer.get(from + i));
+        writeRow(rows++, other.timestamp(row), payloadStart);
+    }
+
+    /**
+     * Removes a row, leaving its payload as garbage.
+     * @param row the row to remove
+     */
+    void remove(final int row) {
+        garbage += Short.BYTES + buffer.getShort(payloadOffset(row)) * METRIC_BYTES;
+        for (int i = row + 1; i < rows; i++)
+            writeRow(i - 1, timestamp(i), payloadOffset(i));
+        rows--;
+    }
+
+    /**
+     * Creates the Measurement held by a row.
+     * @param row the row to read
+     * @return the Measurement
+     */
+    Measurement read(final int row) {
+        int position = payloadOffset(row);
+        final int count = buffer.getShort(position);
+        position += Short.BYTES;
+        final int[] ids = new int[count];
+        final float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = buffer.getShort(position) & 0xFFFF;
+            values[i] = buffer.getFloat(position + Short.BYTES);
+            position += METRIC_BYTES;
+        }
+        return new Measurement(timestamp(row), MetricValues.of(ids, values, count));
+    }
+
+    /**
+     * Adds the metric values of a range of rows to their accumulators, without creating Measurement's.
+     * @param targets the accumulators indexed by MetricDictionary id, null for metrics that are not wanted
+     * @param fromRow the first row, inclusive
+     * @param toRow the last row, exclusive
+     */
+    void addTo(final MetricAccumulator[] targets, final int fromRow, final int toRow) {
+        for (int row = fromRow; row < toRow; row++) {
+            int position = payloadOffset(row);
+            final int count = buffer.getShort(position);
+            position += Short.BYTES;
+            for (int i = 0; i < count; i++) {
+                final int id = buffer.getShort(position) & 0xFFFF;
+                if (id < targets.length && targets[id] != null)
+                    targets[id].add(buffer.getFloat(position + Short.BYTES));
+                position += METRIC_BYTES;
+            }
+        }
+    }
+
+    private int payloadOffset(final int row) {
+        return buffer.getInt(row * ROW_BYTES + Long.BYTES);
+    }
+
+    private void openRow(final int row) {
+        for (int i = rows - 1; i >= row; i--)
+            writeRow(i + 1, timestamp(i), payloadOffset(i));
+        rows++;
+    }
+
+    private void writeRow(final int row, final long timestamp, final int payloadOffset) {
+        buffer.putLong(row * ROW_BYTES, timestamp);
+        buffer.putInt(row * ROW_BYTES + Long.BYTES, payloadOffset);
+    }
+}
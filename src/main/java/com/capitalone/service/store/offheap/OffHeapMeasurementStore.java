@@ -0,0 +1,423 @@
+package com.capitalone.service.store.offheap;
+
+import com.capitalone.exception.AppServerException;
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricValues;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.ParallelAggregation;
+import com.capitalone.service.aggregate.RangeAggregator;
+import com.capitalone.service.store.Store;
+import com.google.common.collect.Lists;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A store for Measurement's that keeps the timestamps and metric values outside the Java heap, so that the heap, and
+ * the time a full GC takes, stay flat however many readings are stored.
+ *
+ * The Measurement's are held in Block's of direct memory, {@value #DEFAULT_BLOCK_SIZE} bytes each by default, that
+ * each cover a run of timestamps. The only per-block state on the heap is a sparse index from the first timestamp of
+ * each block to the block, which is used to seek to the start of a range. Within a block a timestamp is found with a
+ * binary search. Measurement objects are only created when they are read; aggregating a range reads the values
+ * straight from the blocks.
+ *
+ * Appending a reading newer than everything in the store fills the last block and then starts a new one. A reading
+ * inserted into a full block in the middle of the store splits the block in two. Blocks that become empty are kept
+ * for reuse, up to a few, rather than left for the GC to free the direct memory.
+ *
+ * The direct memory used is limited by the JVM option -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ */
+public final class OffHeapMeasurementStore implements Store<Long, Measurement>, RangeAggregator {
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+    private static final int MAX_FREE_BLOCKS = 8;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<Long, Block> blocks = new TreeMap<>();
+    private final Deque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private final int blockSize;
+    private final int parallelThreshold;
+
+    public OffHeapMeasurementStore() {
+        this(DEFAULT_BLOCK_SIZE, ParallelAggregation.threshold());
+    }
+
+    /**
+     * @param blockSize the number of bytes of direct memory in each block
+     * @param parallelThreshold the number of rows above which a range is aggregated in parallel
+     */
+    OffHeapMeasurementStore(final int blockSize, final int parallelThreshold) {
+        this.blockSize = blockSize;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @Override
+    public void create(final Measurement entity, final Long entityId) throws AppServerException {
+        final long timestamp = entityId;
+        final MetricValues metrics = checkSize(entity.getMetrics());
+        lock.writeLock().lock();
+        try {
+            if (find(timestamp) != null)
+                throw new EntityExistsException("Cannot create new entity. Entity already exists with ID: " + entityId);
+            insert(timestamp, metrics);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Long> createAll(final Map<Long, Measurement> entities) throws AppServerException {
+        final List<Long> existing = Lists.newArrayList();
+        final Map<Long, Measurement> sorted = new TreeMap<>(entities);
+        for (final Measurement m : sorted.values())
+            checkSize(m.getMetrics());
+        lock.writeLock().lock();
+        try {
+            for (final Map.Entry<Long, Measurement> entry : sorted.entrySet()) {
+                if (find(entry.getKey()) != null)
+                    existing.add(entry.getKey());
+                else
+                    insert(entry.getKey(), entry.getValue().getMetrics());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return existing;
+    }
+
+    @Override
+    public Measurement retrieve(final Long entityId) throws AppServerException {
+        lock.readLock().lock();
+        try {
+            final Row row = find(entityId);
+            if (row == null)
+                throw new EntityNotFoundException("Cannot retrieve entity. Entity not found with ID " + entityId);
+            return row.block.read(row.index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive
+    ) throws AppServerException {
+        return retrieveInRange(fromEntityId, fromInclusive, toEntityId, toInclusive, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<Measurement> retrieveInRange(
+            final Long fromEntityId,
+            final boolean fromInclusive,
+            final Long toEntityId,
+            final boolean toInclusive,
+            final int limit
+    ) throws AppServerException {
+        final long from = fromEntityId;
+        final long to = toEntityId;
+        final List<Measurement> measurements = Lists.newArrayListWithCapacity(Math.min(limit, 1024));
+        lock.readLock().lock();
+        try {
+            boolean first = true;
+            for (final Block block : blocksFrom(from)) {
+                for (int row = first ? block.lowerBound(from, fromInclusive) : 0; row < block.rows(); row++) {
+                    final long timestamp = block.timestamp(row);
+                    if (measurements.size() == limit || timestamp > to || !toInclusive && timestamp == to)
+                        return measurements;
+                    measurements.add(block.read(row));
+                }
+                first = false;
+            }
+            return measurements;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Measurement update(final Measurement entity, final Long entityId) throws AppServerException {
+        final MetricValues metrics = checkSize(entity.getMetrics());
+        lock.writeLock().lock();
+        try {
+            final Row row = find(entityId);
+            if (row == null)
+                throw new EntityNotFoundException("Cannot update entity. Entity not found with ID " + entityId);
+
+            final Measurement previous = row.block.read(row.index);
+            row.block.remove(row.index);
+            insert(entityId, metrics);
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Measurement delete(final Long entityId) throws AppServerException {
+        lock.writeLock().lock();
+        try {
+            final Row row = find(entityId);
+            if (row == null)
+                throw new EntityNotFoundException("Cannot delete entity. Entity not found with ID " + entityId);
+
+            final Measurement deleted = row.block.read(row.index);
+            row.block.remove(row.index);
+            if (row.block.rows() == 0) {
+                blocks.remove(row.key);
+                release(row.block);
+            }
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() throws AppServerException {
+        lock.writeLock().lock();
+        try {
+            for (final Block block : blocks.values())
+                release(block);
+            blocks.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, MetricAccumulator> aggregate(final Collection<String> metrics, final long fromTimestamp, final long toTimestamp) {
+        final Map<String, MetricAccumulator> accumulators = MetricAccumulator.forMetrics(metrics);
+        if (fromTimestamp >= toTimestamp)
+            return accumulators;
+        lock.readLock().lock();
+        try {
+            //The row range of every block that holds part of the timestamp range
+            final List<Block> ranged = Lists.newArrayList();
+            final List<int[]> rows = Lists.newArrayList();
+            long total = 0;
+            boolean first = true;
+            for (final Block block : blocksFrom(fromTimestamp)) {
+                final int fromRow = first ? block.lowerBound(fromTimestamp, true) : 0;
+                final int toRow = block.lowerBound(toTimestamp, true);
+                if (fromRow < toRow) {
+                    ranged.add(block);
+                    rows.add(new int[] {fromRow, toRow});
+                    total += toRow - fromRow;
+                }
+                if (toRow < block.rows())
+                    break;
+                first = false;
+            }
+
+            final MetricAccumulator[] targets = MetricAccumulator.byId(accumulators);
+            if (total > parallelThreshold) {
+                //The read lock is held by this thread while the pool reads the blocks, which keeps writers out
+                final MetricAccumulator[] totals = ParallelAggregation.invoke(new BlocksTask(ranged, rows, 0, ranged.size(), targets, parallelThreshold));
+                for (int id = 0; id < targets.length; id++) {
+                    if (targets[id] != null)
+                        targets[id].merge(totals[id]);
+                }
+                return accumulators;
+            }
+            for (int i = 0; i < ranged.size(); i++)
+                ranged.get(i).addTo(targets, rows.get(i)[0], rows.get(i)[1]);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return accumulators;
+    }
+
+    /**
+     * @return the number of bytes of direct memory held by blocks, including the free blocks kept for reuse
+     */
+    public long getOffHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) (blocks.size() + freeBuffers.size()) * blockSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Totals up the rows of a run of blocks, splitting the run until it holds no more than the threshold rows.
+     * The result has an accumulator at the MetricDictionary id of each wanted metric and is null elsewhere.
+     */
+    private static final class BlocksTask extends RecursiveTask<MetricAccumulator[]> {
+        private final List<Block> blocks;
+        private final List<int[]> rows;
+        private final int fromBlock;
+        private final int toBlock;
+        private final MetricAccumulator[] wanted;
+        private final int threshold;
+
+        BlocksTask(final List<Block> blocks, final List<int[]> rows, final int fromBlock, final int toBlock, final MetricAccumulator[] wanted, final int threshold) {
+            this.blocks = blocks;
+            this.rows = rows;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.wanted = wanted;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected MetricAccumulator[] compute() {
+            long total = 0;
+            for (int i = fromBlock; i < toBlock; i++)
+                total += rows.get(i)[1] - rows.get(i)[0];
+            if (total <= threshold || toBlock - fromBlock == 1) {
+                final MetricAccumulator[] totals = new MetricAccumulator[wanted.length];
+                for (int id = 0; id < wanted.length; id++) {
+                    if (wanted[id] != null)
+                        totals[id] = new MetricAccumulator();
+                }
+                for (int i = fromBlock; i < toBlock; i++)
+                    blocks.get(i).addTo(totals, rows.get(i)[0], rows.get(i)[1]);
+                return totals;
+            }
+
+            final int middle = (fromBlock + toBlock) >>> 1;
+            final BlocksTask lower = new BlocksTask(blocks, rows, fromBlock, middle, wanted, threshold);
+            lower.fork();
+            final MetricAccumulator[] totals = new BlocksTask(blocks, rows, middle, toBlock, wanted, threshold).compute();
+            final MetricAccumulator[] lowerTotals = lower.join();
+            for (int id = 0; id < totals.length; id++) {
+                if (totals[id] != null)
+                    totals[id].merge(lowerTotals[id]);
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * A row of a block, with the key of the block in the sparse index.
+     */
+    private static final class Row {
+        private final long key;
+        private final Block block;
+        private final int index;
+
+        Row(final long key, final Block block, final int index) {
+            this.key = key;
+            this.block = block;
+            this.index = index;
+        }
+    }
+
+    /**
+     * @return the row holding the timestamp, or null if there is none
+     */
+    private Row find(final long timestamp) {
+        final Map.Entry<Long, Block> entry = blocks.floorEntry(timestamp);
+        if (entry == null)
+            return null;
+        final int index = entry.getValue().find(timestamp);
+        return index >= 0 ? new Row(entry.getKey(), entry.getValue(), index) : null;
+    }
+
+    /**
+     * @return the blocks in timestamp order, starting with the one that would hold the timestamp
+     */
+    private Collection<Block> blocksFrom(final long timestamp) {
+        final Long key = blocks.floorKey(timestamp);
+        return key == null ? blocks.values() : blocks.tailMap(key, true).values();
+    }
+
+    /**
+     * Inserts a Measurement whose timestamp is not in the store.
+     * Every key of the sparse index is at most the first timestamp of its block and above the last of the one before.
+     */
+    private void insert(final long timestamp, final MetricValues metrics) {
+        final int size = Block.payloadSize(metrics);
+        Map.Entry<Long, Block> entry = blocks.floorEntry(timestamp);
+        if (entry == null)
+            entry = blocks.firstEntry();
+        if (entry == null) {
+            final Block block = allocate();
+            block.insert(0, timestamp, metrics);
+            blocks.put(timestamp, block);
+            return;
+        }
+
+        Block block = entry.getValue();
+        final int row = -(block.find(timestamp) + 1);
+        if (!block.fits(size)) {
+            if (row == block.rows() && blocks.higherKey(entry.getKey()) == null) {
+                //Appending to the last block, which is full, so start a new one
+                final Block next = allocate();
+                next.insert(0, timestamp, metrics);
+                blocks.put(timestamp, next);
+                return;
+            }
+            if (block.garbage() >= blockSize / 4) {
+                block = copy(block, 0, block.rows());
+                release(blocks.put(entry.getKey(), block));
+            } else {
+                split(entry.getKey(), block);
+            }
+            if (!block.fits(size) || blocks.get(entry.getKey()) != block) {
+                insert(timestamp, metrics);
+                return;
+            }
+        }
+
+        block.insert(row, timestamp, metrics);
+        if (timestamp < entry.getKey()) {
+            //Only the first block can be given a timestamp below its key
+            blocks.remove(entry.getKey());
+            blocks.put(timestamp, block);
+        }
+    }
+
+    /**
+     * Replaces a block with two blocks that each hold half of its rows.
+     */
+    private void split(final long key, final Block block) {
+        final int half = block.rows() / 2;
+        final Block lower = copy(block, 0, half);
+        final Block upper = copy(block, half, block.rows());
+        blocks.put(key, lower);
+        blocks.put(upper.timestamp(0), upper);
+        release(block);
+    }
+
+    private Block copy(final Block block, final int fromRow, final int toRow) {
+        final Block copy = allocate();
+        for (int row = fromRow; row < toRow; row++)
+            copy.append(block, row);
+        return copy;
+    }
+
+    private Block allocate() {
+        final ByteBuffer buffer = freeBuffers.poll();
+        return new Block(buffer != null ? buffer : ByteBuffer.allocateDirect(blockSize));
+    }
+
+    private void release(final Block block) {
+        if (freeBuffers.size() < MAX_FREE_BLOCKS)
+            freeBuffers.push(block.buffer());
+    }
+
+    /**
+     * A Measurement must fit in a quarter of a block, so that a full block always has at least two rows to split.
+     */
+    private MetricValues checkSize(final MetricValues metrics) {
+        if (Block.ROW_BYTES + Block.payloadSize(metrics) > blockSize / 4 || metrics.size() > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Too many metrics in one measurement: " + metrics.size());
+        return metrics;
+    }
+}
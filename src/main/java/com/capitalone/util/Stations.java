@@ -0,0 +1,43 @@
+package com.capitalone.util;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.regex.Pattern;
+
+/**
+ * Station identifiers. A station id names the directory its readings are persisted to, so it is limited to letters,
+ * digits, '-' and '_'. Readings that do not name a station belong to the {@value #DEFAULT} station.
+ */
+public final class Stations {
+    public static final String DEFAULT = "default";
+    public static final String ALL = "*";
+    private static final Pattern STATION = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final Splitter LIST = Splitter.on(',').trimResults();
+
+    private Stations() {}
+
+    /**
+     * @param station the station id to check
+     * @return the station id
+     * @throws IllegalArgumentException if the station id is not well formed
+     */
+    public static String check(final String station) {
+        if (station == null || !STATION.matcher(station).matches())
+            throw new IllegalArgumentException("Invalid station: " + station);
+        return station;
+    }
+
+    /**
+     * Parses a comma separated list of station ids.
+     * @param stations the list, e.g. "north,south"
+     * @return the distinct station ids, sorted
+     * @throws IllegalArgumentException if any station id is not well formed
+     */
+    public static ImmutableSortedSet<String> parseList(final String stations) {
+        final ImmutableSortedSet.Builder<String> parsed = ImmutableSortedSet.naturalOrder();
+        for (final String station : LIST.split(stations))
+            parsed.add(check(station));
+        return parsed.build();
+    }
+}
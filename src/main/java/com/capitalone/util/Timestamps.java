@@ -0,0 +1,158 @@
+package com.capitalone.util;
+
+/**
+ * Conversions between the UTC timestamp format used by the API (e.g. 2015-09-01T16:00:00.000Z) and epoch
+ * milliseconds. The format is fixed width, so both directions are implemented by hand without going through
+ * java.time's general purpose formatters.
+ */
+public final class Timestamps {
+    private static final int TIMESTAMP_LENGTH = 24;
+    private static final int DATE_LENGTH = 10;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    public static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    public static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    public static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private Timestamps() {}
+
+    /**
+     * Parses a UTC timestamp in the format yyyy-MM-ddTHH:mm:ss.SSSZ into epoch milliseconds.
+     * @param timestamp the timestamp to parse
+     * @return the epoch milliseconds
+     * @throws IllegalArgumentException if the timestamp is not well formed or is not a valid date-time
+     */
+    public static long parse(final CharSequence timestamp) {
+        if (timestamp == null || timestamp.length() != TIMESTAMP_LENGTH
+                || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-' || timestamp.charAt(10) != 'T'
+                || timestamp.charAt(13) != ':' || timestamp.charAt(16) != ':' || timestamp.charAt(19) != '.'
+                || timestamp.charAt(23) != 'Z')
+            throw invalid(timestamp);
+
+        final int hour = digits(timestamp, 11, 2);
+        final int minute = digits(timestamp, 14, 2);
+        final int second = digits(timestamp, 17, 2);
+        final int millis = digits(timestamp, 20, 3);
+        if (hour > 23 || minute > 59 || second > 59)
+            throw invalid(timestamp);
+
+        return startOfDay(timestamp)
+                + hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE + second * MILLIS_PER_SECOND + millis;
+    }
+
+    /**
+     * Parses a UTC date in the format yyyy-MM-dd into the epoch milliseconds at the start of that day.
+     * @param date the date to parse
+     * @return the epoch milliseconds at midnight UTC
+     * @throws IllegalArgumentException if the date is not well formed or is not a valid date
+     */
+    public static long parseDate(final CharSequence date) {
+        if (date == null || date.length() != DATE_LENGTH || date.charAt(4) != '-' || date.charAt(7) != '-')
+            throw invalid(date);
+
+        return startOfDay(date);
+    }
+
+    /**
+     * Formats epoch milliseconds as a UTC timestamp in the format yyyy-MM-ddTHH:mm:ss.SSSZ.
+     * @param epochMillis the epoch milliseconds
+     * @return the formatted timestamp
+     */
+    public static String format(final long epochMillis) {
+        final long days = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        long millisOfDay = Math.floorMod(epochMillis, MILLIS_PER_DAY);
+
+        // Civil from days: http://howardhinnant.github.io/date_algorithms.html
+        final long z = days + 719468;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final long doe = z - era * 146097;
+        final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final long mp = (5 * doy + 2) / 153;
+        final int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        final int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+        final char[] chars = new char[TIMESTAMP_LENGTH];
+        write(chars, 0, year, 4);
+        chars[4] = '-';
+        write(chars, 5, month, 2);
+        chars[7] = '-';
+        write(chars, 8, day, 2);
+        chars[10] = 'T';
+        write(chars, 11, (int) (millisOfDay / MILLIS_PER_HOUR), 2);
+        millisOfDay %= MILLIS_PER_HOUR;
+        chars[13] = ':';
+        write(chars, 14, (int) (millisOfDay / MILLIS_PER_MINUTE), 2);
+        millisOfDay %= MILLIS_PER_MINUTE;
+        chars[16] = ':';
+        write(chars, 17, (int) (millisOfDay / MILLIS_PER_SECOND), 2);
+        chars[19] = '.';
+        write(chars, 20, (int) (millisOfDay % MILLIS_PER_SECOND), 3);
+        chars[23] = 'Z';
+        return new String(chars);
+    }
+
+    /**
+     * @return the epoch milliseconds at the start of the yyyy-MM-dd date at the beginning of the sequence
+     */
+    private static long startOfDay(final CharSequence s) {
+        final int year = digits(s, 0, 4);
+        final int month = digits(s, 5, 2);
+        final int day = digits(s, 8, 2);
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month))
+            throw invalid(s);
+
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+    }
+
+    /**
+     * Days from civil: http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(final int year, final int month, final int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final long era = (y >= 0 ? y : y - 399) / 400;
+        final long yoe = y - era * 400;
+        final long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int lengthOfMonth(final int year, final int month) {
+        switch (month) {
+            case 2:
+                final boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static int digits(final CharSequence s, final int offset, final int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                throw invalid(s);
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void write(final char[] chars, final int offset, int value, final int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static IllegalArgumentException invalid(final CharSequence s) {
+        return s != null && s.length() == DATE_LENGTH
+                ? new IllegalArgumentException("Invalid UTC date, expected e.g. 2015-09-01 but was: " + s)
+                : new IllegalArgumentException("Invalid UTC timestamp, expected e.g. 2015-09-01T16:00:00.000Z but was: " + s);
+    }
+}
@@ -0,0 +1,206 @@
+package com.capitalone.controller.async;
+
+import com.capitalone.exception.client.ServiceUnavailableException;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for QueryExecutor, with a stand-in for the AsyncResponse of the server.
+ */
+public class QueryExecutorTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final QueryExecutor executor = new QueryExecutor(2, 10);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void releaseQueries() {
+        release.countDown();
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void queryResultResumesTheResponse() throws InterruptedException {
+        final Response response = new Response(0);
+        executor.submit("test-result", response, () -> "done");
+        assertEquals("done", response.await());
+    }
+
+    @Test
+    public void queryExceptionResumesTheResponse() throws InterruptedException {
+        final Response response = new Response(0);
+        executor.submit("test-exception", response, () -> {
+            throw new IllegalArgumentException("bad query");
+        });
+        assertTrue(response.await() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void queriesBeyondTheEndpointLimitAreRejected() throws InterruptedException {
+        System.setProperty(String.format(QueryExecutor.CONCURRENCY_PROPERTY, "test-limit"), "1");
+        try {
+            final Response running = new Response(0);
+            executor.submit("test-limit", running, this::blocked);
+            final Response rejected = new Response(0);
+            executor.submit("test-limit", rejected, () -> "done");
+            assertTrue("Over the limit", rejected.await() instanceof ServiceUnavailableException);
+
+            final Response otherEndpoint = new Response(0);
+            executor.submit("test-other", otherEndpoint, () -> "done");
+            assertEquals("Other endpoints are not held up", "done", otherEndpoint.await());
+
+            release.countDown();
+            assertEquals("released", running.await());
+            //The permit is only given back once the response has been written, just after it is resumed
+            Object afterwards = null;
+            for (int attempt = 0; attempt < 100 && !"done".equals(afterwards); attempt++) {
+                final Response response = new Response(0);
+                executor.submit("test-limit", response, () -> "done");
+                afterwards = response.await();
+                Thread.sleep(10);
+            }
+            assertEquals("Permit given back", "done", afterwards);
+        } finally {
+            System.clearProperty(String.format(QueryExecutor.CONCURRENCY_PROPERTY, "test-limit"));
+        }
+    }
+
+    @Test
+    public void endpointsOnlyHaveAShareOfTheThreadsByDefault() throws InterruptedException {
+        final Response running = new Response(0);
+        executor.submit("test-share", running, this::blocked);
+        final Response rejected = new Response(0);
+        executor.submit("test-share", rejected, () -> "done");
+        assertTrue("Over half the threads", rejected.await() instanceof ServiceUnavailableException);
+
+        final Response otherEndpoint = new Response(0);
+        executor.submit("test-share-other", otherEndpoint, () -> "done");
+        assertEquals("A thread is left for other endpoints", "done", otherEndpoint.await());
+        release.countDown();
+        assertEquals("released", running.await());
+    }
+
+    @Test
+    public void slowQueryTimesOut() throws InterruptedException {
+        final Response response = new Response(50);
+        executor.submit("test-timeout", response, this::blocked);
+        assertTrue(response.await() instanceof ServiceUnavailableException);
+    }
+
+    private String blocked() {
+        try {
+            release.await();
+            return "released";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        }
+    }
+
+    /**
+     * Records what the response is resumed with, and times it out after the given delay instead of the one asked for.
+     */
+    private final class Response implements AsyncResponse {
+        private final long timeoutMillis;
+        private final CountDownLatch resumed = new CountDownLatch(1);
+        private volatile Object result;
+        private volatile TimeoutHandler timeoutHandler;
+
+        Response(final long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        Object await() throws InterruptedException {
+            assertTrue("Resumed", resumed.await(10, TimeUnit.SECONDS));
+            return result;
+        }
+
+        @Override
+        public synchronized boolean resume(final Object response) {
+            if (resumed.getCount() == 0)
+                return false;
+            result = response;
+            resumed.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean resume(final Throwable response) {
+            return resume((Object) response);
+        }
+
+        @Override
+        public boolean cancel() {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(final int retryAfter) {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(final Date retryAfter) {
+            return false;
+        }
+
+        @Override
+        public boolean isSuspended() {
+            return resumed.getCount() > 0;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return resumed.getCount() == 0;
+        }
+
+        @Override
+        public boolean setTimeout(final long time, final TimeUnit unit) {
+            if (timeoutMillis > 0)
+                timer.schedule(() -> timeoutHandler.handleTimeout(this), timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        @Override
+        public void setTimeoutHandler(final TimeoutHandler handler) {
+            this.timeoutHandler = handler;
+        }
+
+        @Override
+        public Collection<Class<?>> register(final Class<?> callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(final Class<?> callback, final Class<?>... callbacks) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Collection<Class<?>> register(final Object callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(final Object callback, final Object... callbacks) {
+            return Collections.emptyMap();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.capitalone.controller.param;
+
+import com.capitalone.exception.client.BadRequestException;
+import com.capitalone.util.Timestamps;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for encoding and decoding the opaque page cursor.
+ */
+public class CursorParamTest {
+
+    @Test
+    public void testCursorDecodesToTheTimestampItWasBuiltFrom() throws Exception {
+        final long timestamp = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        assertEquals(timestamp, new CursorParam(CursorParam.after(timestamp)).afterTimestamp());
+        assertEquals(Long.MIN_VALUE, new CursorParam(CursorParam.after(Long.MIN_VALUE)).afterTimestamp());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testCursorThatIsNotBase64IsRejected() throws Exception {
+        new CursorParam("not a cursor!").afterTimestamp();
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testCursorOfTheWrongLengthIsRejected() throws Exception {
+        new CursorParam("AQ").afterTimestamp();
+    }
+}
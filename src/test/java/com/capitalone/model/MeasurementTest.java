@@ -0,0 +1,59 @@
+package com.capitalone.model;
+
+import com.capitalone.util.Constants;
+import com.capitalone.util.Stations;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the JSON of Measurement.
+ */
+public class MeasurementTest {
+    private static final Map<String, Float> METRICS = ImmutableMap.of(Constants.TEMPERATURE, 27.1F);
+    private static final String JSON = "{\"timestamp\":\"2015-09-01T16:00:00.000Z\",\"metrics\":{\"temperature\":27.1}";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void defaultStationIsNotWritten() throws Exception {
+        final String json = mapper.writeValueAsString(new Measurement("2015-09-01T16:00:00.000Z", METRICS));
+        assertEquals(JSON + "}", json);
+        assertEquals(Stations.DEFAULT, mapper.readValue(json, Measurement.class).getStation());
+    }
+
+    @Test
+    public void otherStationIsWrittenAndRead() throws Exception {
+        final Measurement m = new Measurement("north", 1441123200000L, METRICS);
+        final String json = mapper.writeValueAsString(m);
+        assertEquals(JSON + ",\"station\":\"north\"}", json);
+        assertEquals(m, mapper.readValue(json, Measurement.class));
+    }
+
+    @Test
+    public void invalidStationIsRejected() throws Exception {
+        for (final String station : new String[]{"\"\"", "\"north/south\"", "\"north.south\""}) {
+            try {
+                mapper.readValue(JSON + ",\"station\":" + station + "}", Measurement.class);
+                fail("Station " + station + " is accepted");
+            } catch (JsonMappingException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Invalid station"));
+            }
+        }
+    }
+
+    @Test
+    public void missingTimestampIsRejected() throws Exception {
+        try {
+            mapper.readValue("{\"metrics\":{\"temperature\":27.1},\"station\":\"north\"}", Measurement.class);
+            fail("Measurement without a timestamp is accepted");
+        } catch (JsonMappingException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("timestamp"));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.capitalone.model;
+
+import com.capitalone.util.Constants;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for MetricValues.
+ */
+public class MetricValuesTest {
+    private static final Map<String, Float> METRICS = ImmutableMap.of(
+            "windSpeedForMetricValuesTest", 3.5F, Constants.TEMPERATURE, 27.1F, Constants.DEW_POINT, 16.9F);
+
+    @Test
+    public void copyIsEqualToTheOriginalMap() {
+        final MetricValues values = MetricValues.copyOf(METRICS);
+        assertEquals(METRICS, values);
+        assertEquals(values, METRICS);
+        assertEquals(METRICS.hashCode(), values.hashCode());
+        assertEquals(27.1F, values.get(Constants.TEMPERATURE), 0F);
+        assertTrue(values.containsKey("windSpeedForMetricValuesTest"));
+        assertFalse(values.containsKey(Constants.PRECIPITATION));
+        assertNull(values.get("neverReportedForMetricValuesTest"));
+        assertEquals("Lookups do not register names", -1, MetricDictionary.lookup("neverReportedForMetricValuesTest"));
+    }
+
+    @Test
+    public void metricsAreSortedByIdWithTheirValues() {
+        final MetricValues values = MetricValues.copyOf(METRICS);
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0)
+                assertTrue("Sorted by id", values.idAt(i - 1) < values.idAt(i));
+            final String name = MetricDictionary.nameOf(values.idAt(i));
+            assertEquals(name, METRICS.get(name), values.valueAt(i), 0F);
+            assertEquals(i, values.indexOf(values.idAt(i)));
+        }
+        assertTrue(values.indexOf(MetricDictionary.idOf(Constants.PRECIPITATION)) < 0);
+    }
+
+    @Test
+    public void namesAreSharedAcrossMeasurements() {
+        final String name = new String(Constants.TEMPERATURE.toCharArray());
+        final Measurement m = new Measurement(0L, ImmutableMap.of(name, 1F));
+        assertSame(Constants.TEMPERATURE, m.getMetrics().keySet().iterator().next());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void valuesAreImmutable() {
+        MetricValues.copyOf(METRICS).put(Constants.PRECIPITATION, 1F);
+    }
+
+    @Test
+    public void namesReadFromJsonAreOnlyRegisteredOnceWritten() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final Measurement read = mapper.readValue(
+                "{\"timestamp\":\"2015-09-01T16:00:00.000Z\",\"metrics\":{\"temperature\":27.1,\"unregisteredForMetricValuesTest\":2}}", Measurement.class);
+        assertEquals("Not registered by parsing", -1, MetricDictionary.lookup("unregisteredForMetricValuesTest"));
+        assertEquals(2F, read.getMetrics().get("unregisteredForMetricValuesTest"), 0F);
+        assertEquals(ImmutableMap.of(Constants.TEMPERATURE, 27.1F, "unregisteredForMetricValuesTest", 2F), read.getMetrics());
+
+        final Measurement registered = read.registered();
+        assertEquals(read, registered);
+        final int id = MetricDictionary.lookup("unregisteredForMetricValuesTest");
+        assertTrue("Registered once written", id >= 0);
+        assertEquals(2F, registered.getMetrics().valueAt(registered.getMetrics().indexOf(id)), 0F);
+        assertSame(registered, registered.registered());
+    }
+
+    @Test
+    public void measurementJsonRoundTrip() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final Measurement m = new Measurement("2015-09-01T16:00:00.000Z", METRICS);
+        final Measurement read = mapper.readValue(mapper.writeValueAsString(m), Measurement.class);
+        assertEquals(m, read);
+    }
+}
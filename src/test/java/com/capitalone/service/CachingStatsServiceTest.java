@@ -0,0 +1,110 @@
+package com.capitalone.service;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.Stat;
+import com.capitalone.model.StatType;
+import com.capitalone.service.cache.StatsCache;
+import com.capitalone.service.store.ConcurrentInMemoryStore;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the CachingStatsService class.
+ */
+public class CachingStatsServiceTest {
+    private static final List<StatType> STAT_TYPES = ImmutableList.of(StatType.MAX, StatType.COUNT);
+    private static final long FROM = Timestamps.parse("2015-09-01T16:00:00.000Z");
+    private static final long TO = Timestamps.parse("2015-09-01T17:00:00.000Z");
+
+    private final StatsCache statsCache = new StatsCache(100, 1, TimeUnit.HOURS);
+    private final MeasurementsService measurementsService = new MeasurementsServiceImpl(new ConcurrentInMemoryStore<>(), statsCache);
+    private final StatsService statsService = new CachingStatsService(new StatsServiceImpl(measurementsService), statsCache);
+
+    @Before
+    public void setupMeasurements() {
+        measurementsService.create(new Measurement("2015-09-01T16:00:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 27.1F, Constants.DEW_POINT, 16.9F)));
+        measurementsService.create(new Measurement("2015-09-01T16:10:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 27.3F)));
+        measurementsService.create(new Measurement("2015-09-01T17:00:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 28.1F)));
+    }
+
+    @Test
+    public void repeatedQueryIsAnsweredFromTheCache() {
+        final List<Stat> first = getStats(Constants.TEMPERATURE, Constants.DEW_POINT, "unreported");
+        final List<Stat> second = getStats(Constants.TEMPERATURE, Constants.DEW_POINT, "unreported");
+        assertEquals(first, second);
+        assertEquals(ImmutableList.of(
+                new Stat(Constants.TEMPERATURE, StatType.MAX, 27.3F), new Stat(Constants.TEMPERATURE, StatType.COUNT, 2F),
+                new Stat(Constants.DEW_POINT, StatType.MAX, 16.9F), new Stat(Constants.DEW_POINT, StatType.COUNT, 1F)), second);
+        assertEquals("Misses", 3, statsCache.getCounters().getMisses());
+        assertEquals("Hits", 3, statsCache.getCounters().getHits());
+    }
+
+    @Test
+    public void cachedMetricsAreKeptInRequestOrder() {
+        getStats(Constants.DEW_POINT);
+        final List<Stat> stats = getStats(Constants.TEMPERATURE, Constants.DEW_POINT);
+        assertEquals(Constants.TEMPERATURE, stats.get(0).getMetric());
+        assertEquals(Constants.DEW_POINT, stats.get(2).getMetric());
+        assertEquals("Only the new metric is computed", 2, statsCache.getCounters().getMisses());
+    }
+
+    @Test
+    public void writesInsideTheRangeInvalidateTheStats() {
+        getStats(Constants.TEMPERATURE);
+
+        measurementsService.create(new Measurement("2015-09-01T17:10:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 40F)));
+        assertEquals("Write outside the range", 27.3, getStats(Constants.TEMPERATURE).get(0).getValue(), 0F);
+
+        measurementsService.create(new Measurement("2015-09-01T16:20:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 30F)));
+        assertEquals("Create", 30F, getStats(Constants.TEMPERATURE).get(0).getValue(), 0F);
+
+        measurementsService.updatePartial(new Measurement("2015-09-01T16:20:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 31F)));
+        assertEquals("Partial update", 31F, getStats(Constants.TEMPERATURE).get(0).getValue(), 0F);
+
+        measurementsService.updateWhole(new Measurement("2015-09-01T16:20:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 32F)));
+        assertEquals("Whole update", 32F, getStats(Constants.TEMPERATURE).get(0).getValue(), 0F);
+
+        measurementsService.delete(Timestamps.parse("2015-09-01T16:20:00.000Z"));
+        assertEquals("Delete", 27.3, getStats(Constants.TEMPERATURE).get(0).getValue(), 0F);
+
+        measurementsService.createAll(ImmutableList.of(
+                new Measurement("2015-09-01T16:00:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 50F)),
+                new Measurement("2015-09-01T16:50:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 33F))));
+        assertEquals("Batch create", 33F, getStats(Constants.TEMPERATURE).get(0).getValue(), 0F);
+
+        assertEquals("Hits", 1, statsCache.getCounters().getHits());
+        assertEquals("Invalidations", 5, statsCache.getCounters().getInvalidations());
+    }
+
+    @Test
+    public void statsOfSeveralStationsAreMergedAndInvalidatedByEither() {
+        final MeasurementsService north = new MeasurementsServiceImpl("caching-test-north");
+        final MeasurementsService south = new MeasurementsServiceImpl("caching-test-south");
+        north.create(new Measurement("2015-09-01T16:00:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 20F)));
+        south.create(new Measurement("2015-09-01T16:00:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 30F)));
+        final StatsService stations = new CachingStatsService(ImmutableList.of("caching-test-north", "caching-test-south"));
+
+        assertEquals("Merged over both stations", ImmutableList.of(
+                new Stat(Constants.TEMPERATURE, StatType.MAX, 30F), new Stat(Constants.TEMPERATURE, StatType.COUNT, 2F)),
+                stations.getStats(ImmutableList.of(Constants.TEMPERATURE), STAT_TYPES, Collections.emptyList(), FROM, TO));
+        assertEquals("Stamped with the station", "caching-test-north", north.retrieve(FROM).getStation());
+
+        south.updateWhole(new Measurement("2015-09-01T16:00:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 35F)));
+        assertEquals("Write to one station", 35F,
+                stations.getStats(ImmutableList.of(Constants.TEMPERATURE), STAT_TYPES, Collections.emptyList(), FROM, TO).get(0).getValue(), 0F);
+    }
+
+    private List<Stat> getStats(final String... metrics) {
+        return statsService.getStats(ImmutableList.copyOf(metrics), STAT_TYPES, Collections.emptyList(), FROM, TO);
+    }
+}
@@ -1,7 +1,11 @@
 package com.capitalone.service;
 
 import com.capitalone.model.Measurement;
+import com.capitalone.model.Stat;
+import com.capitalone.model.StatType;
 import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import org.junit.Test;
@@ -9,6 +13,7 @@ import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -18,63 +23,127 @@ import static org.junit.Assert.assertEquals;
  * Unit tests for the StatsServiceImpl class.
  */
 public class StatsServiceImplTest {
-    private final MeasurementsService measurementsServiceMock = Mockito.mock(MeasurementsService.class);
+    private final MeasurementsService measurementsServiceMock = Mockito.mock(MeasurementsService.class, Mockito.CALLS_REAL_METHODS);
     private final StatsService statsService = new StatsServiceImpl(measurementsServiceMock);
 
     @Test
     public void averageCalculation() {
         setupMeasurementsServiceMock();
-        final String from = "2015-09-01T16:00:00.000Z";
-        final String to = "2015-09-01T16:30:00.000Z";
+        final long from = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T16:30:00.000Z");
         final Collection<Measurement> retrieved = measurementsServiceMock.retrieveAll(from, to);
         float avgExpected = 0;
         for (final Measurement m : retrieved)
             avgExpected += m.getMetrics().get(Constants.TEMPERATURE);
         avgExpected = avgExpected / retrieved.size();
-        final float avgActual = statsService.getAverage(Constants.TEMPERATURE, from, to).getValue();
+        final float avgActual = (float) statsService.getAverage(Constants.TEMPERATURE, from, to).getValue();
         assertEquals("Average calculation is correct", avgExpected, avgActual, 0.000002F);
     }
 
     @Test
     public void maxCalculation() {
         setupMeasurementsServiceMock();
-        final String from = "2015-09-01T16:00:00.000Z";
-        final String to = "2015-09-01T17:00:00.000Z";
+        final long from = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T17:00:00.000Z");
         final Collection<Measurement> retrieved = measurementsServiceMock.retrieveAll(from, to);
         float maxExpected = Float.MIN_VALUE;
         for (final Measurement m : retrieved) {
             float value = m.getMetrics().get(Constants.DEW_POINT);
             maxExpected = value > maxExpected ? value : maxExpected;
         }
-        final float maxActual = statsService.getMax(Constants.DEW_POINT, from, to).getValue();
+        final float maxActual = (float) statsService.getMax(Constants.DEW_POINT, from, to).getValue();
         assertEquals("Max calculation is correct", maxExpected, maxActual, 0F);
     }
 
     @Test
     public void minCalculation() {
         setupMeasurementsServiceMock();
-        final String from = "2015-09-01T16:00:00.000Z";
-        final String to = "2015-09-01T17:00:00.000Z";
+        final long from = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T17:00:00.000Z");
         final Collection<Measurement> retrieved = measurementsServiceMock.retrieveAll(from, to);
         float minExpected = Float.MAX_VALUE;
         for (final Measurement m : retrieved) {
             float value = m.getMetrics().get(Constants.PRECIPITATION);
             minExpected = value < minExpected ? value : minExpected;
         }
-        final float maxActual = statsService.getMin(Constants.PRECIPITATION, from, to).getValue();
+        final float maxActual = (float) statsService.getMin(Constants.PRECIPITATION, from, to).getValue();
         assertEquals("Min calculation is correct", minExpected, maxActual, 0F);
     }
 
 
+    @Test
+    public void multipleStatsAndMetricsCalculatedInSinglePass() {
+        setupMeasurementsServiceMock();
+        final long from = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T17:00:00.000Z");
+        final List<Stat> stats = statsService.getStats(
+                ImmutableList.of(Constants.TEMPERATURE, Constants.DEW_POINT, "unreported"),
+                ImmutableList.of(StatType.MIN, StatType.MAX, StatType.AVERAGE),
+                from, to);
+        Mockito.verify(measurementsServiceMock, Mockito.times(1)).retrieveAll(from, to);
+
+        assertEquals("Six stat results", 6, stats.size());
+        final Map<String, Stat> actualStats = Maps.uniqueIndex(stats, s -> s.getMetric() + ":" + s.getStat());
+        assertEquals("Temperature min is correct", 29.2, actualStats.get("temperature:min").getValue(), 0F);
+        assertEquals("Temperature max is correct", 35.2, actualStats.get("temperature:max").getValue(), 0F);
+        assertEquals("Temperature average is correct", 196.2F / 6, actualStats.get("temperature:average").getValue(), 0.00001F);
+        assertEquals("Dew point min is correct", 8F, actualStats.get("dewPoint:min").getValue(), 0F);
+        assertEquals("Dew point max is correct", 12F, actualStats.get("dewPoint:max").getValue(), 0F);
+        assertEquals("Dew point average is correct", 59F / 6, actualStats.get("dewPoint:average").getValue(), 0.00001F);
+    }
+
+    @Test
+    public void countSumAndSpreadShareTheSinglePass() {
+        setupMeasurementsServiceMock();
+        final long from = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T17:00:00.000Z");
+        final List<Stat> stats = statsService.getStats(
+                ImmutableList.of(Constants.TEMPERATURE),
+                ImmutableList.of(StatType.COUNT, StatType.SUM, StatType.VARIANCE, StatType.STANDARD_DEVIATION),
+                from, to);
+        Mockito.verify(measurementsServiceMock, Mockito.times(1)).retrieveAll(from, to);
+
+        assertEquals("Count", 6F, stats.get(0).getValue(), 0F);
+        assertEquals("Sum", 196.2F, stats.get(1).getValue(), 0.0001F);
+        assertEquals("Variance", 27.5F / 6, stats.get(2).getValue(), 0.0001F);
+        assertEquals("Standard deviation", (float) Math.sqrt(27.5 / 6), stats.get(3).getValue(), 0.0001F);
+    }
+
+    @Test
+    public void percentilesAreEstimatedFromTheSketch() {
+        setupMeasurementsServiceMock();
+        final long from = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T17:00:00.000Z");
+        final List<Stat> stats = statsService.getStats(
+                ImmutableList.of(Constants.TEMPERATURE),
+                ImmutableList.of(StatType.MEDIAN, StatType.MAX),
+                ImmutableList.of(0.25),
+                from, to);
+
+        assertEquals("Three stat results", 3, stats.size());
+        assertEquals("Median is between the middle values", 32.7F, stats.get(0).getValue(), 0.00001F);
+        assertEquals("Max still comes from the running totals", 35.2, stats.get(1).getValue(), 0F);
+        assertEquals("Arbitrary quantile is returned as QUANTILE", StatType.QUANTILE, stats.get(2).getStat());
+        assertEquals("Arbitrary quantile is echoed back", 0.25, stats.get(2).getQuantile(), 0);
+        assertEquals("Lower quartile", 31.2F, stats.get(2).getValue(), 0.00001F);
+    }
+
     private void setupMeasurementsServiceMock() {
-        final TreeMap<String, Measurement> measurements = Maps.newTreeMap();
-        measurements.putAll(setupMeasurements());
-        Mockito.when(measurementsServiceMock.retrieveAll(ArgumentMatchers.anyString(), ArgumentMatchers.anyString()))
+        final TreeMap<Long, Measurement> measurements = Maps.newTreeMap();
+        for (final Measurement m : setupMeasurements().values())
+            measurements.put(m.getTimestamp(), m);
+        Mockito.when(measurementsServiceMock.retrieveAll(ArgumentMatchers.anyLong(), ArgumentMatchers.anyLong()))
                 .thenAnswer(invocationOnMock -> {
-                    final String from = invocationOnMock.getArgument(0);
-                    final String to = invocationOnMock.getArgument(1);
+                    final long from = invocationOnMock.getArgument(0);
+                    final long to = invocationOnMock.getArgument(1);
                     return measurements.subMap(from, true, to, false).values();
                 });
+        Mockito.when(measurementsServiceMock.iterateAll(ArgumentMatchers.anyLong(), ArgumentMatchers.anyLong()))
+                .thenAnswer(invocationOnMock -> {
+                    final long from = invocationOnMock.getArgument(0);
+                    final long to = invocationOnMock.getArgument(1);
+                    return measurements.subMap(from, true, to, false).values().iterator();
+                });
     }
 
     private Map<String, Measurement> setupMeasurements() {
@@ -101,4 +170,4 @@ public class StatsServiceImplTest {
                 new Measurement("2015-09-01T17:30:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 35.2F, Constants.DEW_POINT, 8F, Constants.PRECIPITATION, 8F)));
         return ImmutableMap.copyOf(measurements);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package com.capitalone.service.aggregate;
+
+import com.capitalone.model.StatType;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for MetricAccumulator.
+ */
+public class MetricAccumulatorTest {
+
+    @Test
+    public void countSumVarianceAndStandardDeviation() {
+        final MetricAccumulator accumulator = new MetricAccumulator();
+        for (final float value : new float[] {2F, 4F, 4F, 4F, 5F, 5F, 7F, 9F})
+            accumulator.add(value);
+        assertEquals("Count", 8F, accumulator.getValue(StatType.COUNT), 0F);
+        assertEquals("Sum", 40F, accumulator.getValue(StatType.SUM), 0F);
+        assertEquals("Variance", 4F, accumulator.getValue(StatType.VARIANCE), 0F);
+        assertEquals("Standard deviation", 2F, accumulator.getValue(StatType.STANDARD_DEVIATION), 0F);
+    }
+
+    @Test
+    public void countAndSumStayExactBeyondFloatPrecision() {
+        //2^24 + 1 is the first integer a float cannot hold
+        final MetricAccumulator accumulator = new MetricAccumulator();
+        for (int i = 0; i <= 1 << 24; i++)
+            accumulator.add(1F);
+        assertEquals("Count", (1 << 24) + 1, accumulator.getValue(StatType.COUNT), 0);
+        assertEquals("Sum", (1 << 24) + 1, accumulator.getValue(StatType.SUM), 0);
+    }
+
+    @Test
+    public void statsOfTheReadingsKeepTheirDecimalForm() {
+        final MetricAccumulator accumulator = new MetricAccumulator();
+        accumulator.add(27.1F);
+        assertEquals("Min", 27.1, accumulator.getValue(StatType.MIN), 0);
+        assertEquals("Average", 27.1, accumulator.getValue(StatType.AVERAGE), 0);
+    }
+
+    @Test
+    public void singleValueHasNoVariance() {
+        final MetricAccumulator accumulator = new MetricAccumulator();
+        accumulator.add(27.1F);
+        assertEquals(0F, accumulator.getValue(StatType.VARIANCE), 0F);
+    }
+
+    @Test
+    public void varianceStaysAccurateAroundALargeMean() {
+        //Naive sum of squares minus square of sum loses every significant digit here
+        final MetricAccumulator accumulator = new MetricAccumulator();
+        for (int i = 0; i < 1_000_000; i++)
+            accumulator.add(i % 2 == 0 ? 100_000.5F : 100_001.5F);
+        assertEquals("Variance", 0.25, accumulator.getVariance(), 1e-9);
+    }
+
+    @Test
+    public void mergedPartitionsMatchOneAccumulator() {
+        final Random random = new Random(3);
+        final MetricAccumulator whole = new MetricAccumulator();
+        final MetricAccumulator merged = new MetricAccumulator();
+        for (int part = 0; part < 10; part++) {
+            final MetricAccumulator partition = new MetricAccumulator();
+            //Partitions of different sizes and means
+            for (int i = 0; i < 100 * (part + 1); i++) {
+                final float value = part * 3 + random.nextFloat() * 10;
+                partition.add(value);
+                whole.add(value);
+            }
+            merged.merge(partition);
+        }
+        merged.merge(new MetricAccumulator());
+
+        assertEquals("Count", whole.getCount(), merged.getCount());
+        assertEquals("Sum", whole.getSum(), merged.getSum(), 1e-6);
+        assertEquals("Variance", whole.getVariance(), merged.getVariance(), 1e-9);
+        assertEquals("Min", whole.getMin(), merged.getMin(), 0F);
+        assertEquals("Max", whole.getMax(), merged.getMax(), 0F);
+    }
+}
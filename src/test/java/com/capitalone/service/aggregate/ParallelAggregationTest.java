@@ -0,0 +1,84 @@
+package com.capitalone.service.aggregate;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.util.Constants;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for ParallelAggregation.
+ */
+public class ParallelAggregationTest {
+    private static final List<String> METRICS = ImmutableList.of(Constants.TEMPERATURE, Constants.DEW_POINT, "unreported");
+
+    private final NavigableMap<Long, Measurement> measurements = new TreeMap<>();
+    private final AtomicInteger rowsRead = new AtomicInteger();
+
+    private Collection<Measurement> read(final long fromTimestamp, final long toTimestamp, final int limit) {
+        final List<Measurement> page = Lists.newArrayList();
+        for (final Measurement measurement : measurements.subMap(fromTimestamp, true, toTimestamp, false).values()) {
+            if (page.size() == limit)
+                break;
+            page.add(measurement);
+        }
+        rowsRead.addAndGet(page.size());
+        return page;
+    }
+
+    @Test
+    public void splitRangesMatchOneSequentialPass() {
+        final Random random = new Random(5);
+        long timestamp = 0;
+        for (int i = 0; i < 100_000; i++) {
+            //Bursts of readings a second apart between long gaps, so that halving the time range is uneven
+            timestamp += i % 1_000 == 0 ? 86_400_000L : 1_000L;
+            measurements.put(timestamp, i % 5 == 0
+                    ? new Measurement(timestamp, ImmutableMap.of(Constants.TEMPERATURE, random.nextInt(400) / 10F))
+                    : new Measurement(timestamp, ImmutableMap.of(Constants.TEMPERATURE, random.nextInt(400) / 10F, Constants.DEW_POINT, (float) (i % 20))));
+        }
+
+        final long from = measurements.firstKey() + 12_345_000L;
+        final long to = measurements.lastKey() - 54_321_000L;
+        final Map<String, MetricAccumulator> expected = MetricAccumulator.forMetrics(METRICS);
+        MetricAccumulator.addAll(expected, measurements.subMap(from, true, to, false).values());
+
+        final Map<String, MetricAccumulator> actual = ParallelAggregation.aggregate(this::read, METRICS, from, to, 1_000);
+        for (final String metric : METRICS) {
+            assertEquals("Count of " + metric, expected.get(metric).getCount(), actual.get(metric).getCount());
+            assertEquals("Sum of " + metric, expected.get(metric).getSum(), actual.get(metric).getSum(), 1e-3);
+            assertEquals("Variance of " + metric, expected.get(metric).getVariance(), actual.get(metric).getVariance(), 1e-6);
+            assertEquals("Min of " + metric, expected.get(metric).getMin(), actual.get(metric).getMin(), 0F);
+            assertEquals("Max of " + metric, expected.get(metric).getMax(), actual.get(metric).getMax(), 0F);
+        }
+    }
+
+    @Test
+    public void smallRangeIsReadOnce() {
+        for (long timestamp = 0; timestamp < 100; timestamp++)
+            measurements.put(timestamp, new Measurement(timestamp, ImmutableMap.of(Constants.TEMPERATURE, (float) timestamp)));
+
+        final Map<String, MetricAccumulator> actual = ParallelAggregation.aggregate(this::read, METRICS, 0, 100, 100);
+        assertEquals(100, actual.get(Constants.TEMPERATURE).getCount());
+        assertEquals(4950D, actual.get(Constants.TEMPERATURE).getSum(), 0D);
+        assertEquals("Rows read", 100, rowsRead.get());
+    }
+
+    @Test
+    public void emptyRangeIsNotRead() {
+        final Map<String, MetricAccumulator> actual = ParallelAggregation.aggregate(this::read, METRICS, 100, 100, 10);
+        assertEquals(0, actual.get(Constants.TEMPERATURE).getCount());
+        assertEquals("Rows read", 0, rowsRead.get());
+    }
+}
@@ -0,0 +1,101 @@
+package com.capitalone.service.aggregate;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for QuantileSketch.
+ */
+public class QuantileSketchTest {
+
+    @Test
+    public void smallSketchIsExact() {
+        final QuantileSketch sketch = new QuantileSketch();
+        for (final float value : new float[] {4F, 1F, 3F, 2F})
+            sketch.add(value);
+        assertEquals("Median interpolates between the middle values", 2.5, sketch.quantile(0.5), 0);
+        assertEquals("Quantile 0 is the min", 1, sketch.quantile(0), 0);
+        assertEquals("Quantile 1 is the max", 4, sketch.quantile(1), 0);
+        assertEquals("Count", 4, sketch.getCount());
+    }
+
+    @Test
+    public void emptySketchHasNoQuantiles() {
+        final QuantileSketch sketch = new QuantileSketch();
+        assertTrue(sketch.isEmpty());
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void quantileOutsideZeroToOneIsRejected() {
+        new QuantileSketch().quantile(1.5);
+    }
+
+    @Test
+    public void largeSketchIsCloseToTheExactQuantiles() {
+        final Random random = new Random(11);
+        final int count = 200_000;
+        final float[] values = new float[count];
+        final QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < count; i++) {
+            values[i] = (float) (20 + 5 * random.nextGaussian());
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        for (final double q : new double[] {0.01, 0.1, 0.5, 0.9, 0.95, 0.99, 0.999})
+            assertEquals("Rank error at " + q, q, rank(values, sketch.quantile(q)), 0.005);
+        assertEquals("Count", count, sketch.getCount());
+    }
+
+    @Test
+    public void mergedSketchesMatchOneSketchOfAllValues() {
+        final Random random = new Random(5);
+        final int count = 100_000;
+        final float[] values = new float[count];
+        final QuantileSketch whole = new QuantileSketch();
+        final QuantileSketch merged = new QuantileSketch();
+        //Each part covers a different slice of time, with its own distribution
+        for (int part = 0; part < 100; part++) {
+            final QuantileSketch sketch = new QuantileSketch();
+            for (int i = 0; i < count / 100; i++) {
+                final float value = (float) (part / 10 + random.nextDouble() * 10);
+                values[part * (count / 100) + i] = value;
+                sketch.add(value);
+                whole.add(value);
+            }
+            merged.merge(sketch);
+        }
+        Arrays.sort(values);
+        for (final double q : new double[] {0.01, 0.5, 0.95, 0.99})
+            assertEquals("Rank error at " + q, q, rank(values, merged.quantile(q)), 0.005);
+        assertEquals("Count", whole.getCount(), merged.getCount());
+    }
+
+    @Test
+    public void centroidsCopiedToAnotherSketchGiveTheSameQuantiles() {
+        final Random random = new Random(7);
+        final QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < 10_000; i++)
+            sketch.add((float) random.nextGaussian());
+        final QuantileSketch copy = new QuantileSketch();
+        copy.merge(sketch.getMeans(), sketch.getWeights(), sketch.getMin(), sketch.getMax());
+
+        assertEquals("Count", sketch.getCount(), copy.getCount());
+        for (final double q : new double[] {0, 0.01, 0.5, 0.99, 1})
+            assertEquals("Quantile " + q, sketch.quantile(q), copy.quantile(q), 1e-9);
+    }
+
+    /**
+     * @return the fraction of the sorted values below the estimate
+     */
+    private static double rank(final float[] sorted, final double estimate) {
+        int index = Arrays.binarySearch(sorted, (float) estimate);
+        if (index < 0) index = -index - 1;
+        return (double) index / sorted.length;
+    }
+}
@@ -0,0 +1,90 @@
+package com.capitalone.service.aggregate;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for RangeTree.
+ */
+public class RangeTreeTest {
+    private final RangeTree tree = new RangeTree();
+
+    @Test
+    public void emptyTreeAggregatesNothing() {
+        final MetricAccumulator accumulator = new MetricAccumulator();
+        tree.aggregate(Long.MIN_VALUE, Long.MAX_VALUE, accumulator);
+        assertTrue("Nothing aggregated", accumulator.isEmpty());
+    }
+
+    @Test
+    public void rangeIsInclusiveFromAndExclusiveTo() {
+        tree.put(10, 1F);
+        tree.put(20, 2F);
+        tree.put(30, 3F);
+        final MetricAccumulator accumulator = new MetricAccumulator();
+        tree.aggregate(10, 30, accumulator);
+        assertEquals("Count", 2, accumulator.getCount());
+        assertEquals("Max excludes the 'to' timestamp", 2F, accumulator.getMax(), 0F);
+        assertEquals("Min includes the 'from' timestamp", 1F, accumulator.getMin(), 0F);
+    }
+
+    @Test
+    public void putReplacesAndRemoveDeletes() {
+        tree.put(10, 1F);
+        tree.put(10, 5F);
+        tree.put(20, 2F);
+        tree.remove(20);
+        tree.remove(99);
+        final MetricAccumulator accumulator = new MetricAccumulator();
+        tree.aggregate(0, 100, accumulator);
+        assertEquals("Size", 1, tree.size());
+        assertEquals("Sum of the replaced value only", 5D, accumulator.getSum(), 0D);
+    }
+
+    @Test
+    public void randomMutationsAndRangesMatchAFullScan() {
+        final Random random = new Random(11);
+        final TreeMap<Long, Float> expected = Maps.newTreeMap();
+        for (int i = 0; i < 20000; i++) {
+            final long timestamp = random.nextInt(50000);
+            if (random.nextInt(4) == 0) {
+                tree.remove(timestamp);
+                expected.remove(timestamp);
+            } else {
+                final float value = random.nextFloat() * 100 - 50;
+                tree.put(timestamp, value);
+                expected.put(timestamp, value);
+            }
+        }
+        assertEquals("Size", expected.size(), tree.size());
+
+        final List<Long> bounds = Lists.newArrayList(-1L, 0L, 50000L, 60000L);
+        for (int i = 0; i < 500; i++)
+            bounds.add((long) random.nextInt(50000));
+        for (int i = 0; i < bounds.size() - 1; i++) {
+            final long from = Math.min(bounds.get(i), bounds.get(i + 1));
+            final long to = Math.max(bounds.get(i), bounds.get(i + 1));
+            final MetricAccumulator scanned = new MetricAccumulator();
+            for (final Map.Entry<Long, Float> entry : expected.subMap(from, true, to, false).entrySet())
+                scanned.add(entry.getValue());
+            final MetricAccumulator actual = new MetricAccumulator();
+            tree.aggregate(from, to, actual);
+
+            assertEquals("Count from " + from + " to " + to, scanned.getCount(), actual.getCount());
+            assertEquals("Sum from " + from + " to " + to, scanned.getSum(), actual.getSum(), 0.01);
+            if (!scanned.isEmpty()) {
+                assertEquals("Min from " + from + " to " + to, scanned.getMin(), actual.getMin(), 0F);
+                assertEquals("Max from " + from + " to " + to, scanned.getMax(), actual.getMax(), 0F);
+                assertEquals("Variance from " + from + " to " + to, scanned.getVariance(), actual.getVariance(), 1e-6 * scanned.getVariance());
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.capitalone.service.cache;
+
+import com.capitalone.model.CacheCounters;
+import com.capitalone.model.Stat;
+import com.capitalone.model.StatType;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Stations;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for StatsCache.
+ */
+public class StatsCacheTest {
+    private static final List<String> STATIONS = ImmutableList.of(Stations.DEFAULT);
+    private static final List<StatType> STAT_TYPES = ImmutableList.of(StatType.MIN, StatType.MAX);
+    private static final List<Double> QUANTILES = Collections.emptyList();
+    private static final List<Stat> STATS = ImmutableList.of(
+            new Stat(Constants.TEMPERATURE, StatType.MIN, 27.1F), new Stat(Constants.TEMPERATURE, StatType.MAX, 27.5F));
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final StatsCache cache = new StatsCache(2, 60, TimeUnit.SECONDS, new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    });
+
+    @Test
+    public void putStatsAreReturnedForTheSameQuery() {
+        put(Constants.TEMPERATURE, 100, 200);
+        assertEquals(STATS, cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+        assertNull("Other stats", cache.get(STATIONS, Constants.TEMPERATURE, ImmutableList.of(StatType.MIN), QUANTILES, 100, 200));
+        assertNull("Other range", cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 201));
+        assertNull("Other metric", cache.get(STATIONS, Constants.DEW_POINT, STAT_TYPES, QUANTILES, 100, 200));
+        assertEquals(new CacheCounters(1, 3, 0, 0, 1), cache.getCounters());
+    }
+
+    @Test
+    public void writesOnlyInvalidateTheRangesThatHoldThem() {
+        put(Constants.TEMPERATURE, 100, 200);
+        put(Constants.DEW_POINT, 200, 300);
+
+        cache.invalidate(Stations.DEFAULT, 200);
+        assertEquals("Exclusive end of the range", STATS, cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+        assertNull("Inclusive start of the range", cache.get(STATIONS, Constants.DEW_POINT, STAT_TYPES, QUANTILES, 200, 300));
+
+        cache.invalidateAll(Stations.DEFAULT, ImmutableList.of(50L, 300L, 99L));
+        assertEquals(STATS, cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+        cache.invalidateAll(Stations.DEFAULT, ImmutableList.of(500L, 150L));
+        assertNull(cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+        assertEquals("Invalidations", 2, cache.getCounters().getInvalidations());
+    }
+
+    @Test
+    public void writesOnlyInvalidateTheStationsWritten() {
+        put(Constants.TEMPERATURE, 100, 200);
+        try (StatsCache.Computation computation = cache.begin(ImmutableList.of("north", Stations.DEFAULT), STAT_TYPES, QUANTILES, 100, 200)) {
+            computation.put(Constants.TEMPERATURE, STATS);
+        }
+
+        cache.invalidate("south", 150);
+        assertEquals("Other station", STATS, cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+        assertEquals("Stations in any order", STATS, cache.get(ImmutableList.of(Stations.DEFAULT, "north"), Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+        cache.invalidateAll("north");
+        assertEquals("Single station", STATS, cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+        assertNull("Stats over the cleared station", cache.get(ImmutableList.of("north", Stations.DEFAULT), Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+    }
+
+    @Test
+    public void writeDuringAComputationKeepsItsResultOutOfTheCache() {
+        try (StatsCache.Computation computation = cache.begin(STATIONS, STAT_TYPES, QUANTILES, 100, 200)) {
+            cache.invalidate(Stations.DEFAULT, 300);
+            computation.put(Constants.DEW_POINT, STATS);
+            assertEquals("Write outside the range", STATS, cache.get(STATIONS, Constants.DEW_POINT, STAT_TYPES, QUANTILES, 100, 200));
+            cache.invalidate(Stations.DEFAULT, 150);
+            computation.put(Constants.TEMPERATURE, STATS);
+        }
+        assertNull("Put after a write inside the range", cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+    }
+
+    @Test
+    public void entriesAreEvictedBySizeAndAge() {
+        put(Constants.TEMPERATURE, 0, 100);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        put(Constants.TEMPERATURE, 100, 200);
+        put(Constants.TEMPERATURE, 200, 300);
+        assertEquals("Evicted for size", 1, cache.getCounters().getEvictions());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200);
+        cache.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 200, 300);
+        final CacheCounters counters = cache.getCounters();
+        assertEquals("Evicted for age", 3, counters.getEvictions());
+        assertEquals(0, counters.getHits());
+        assertEquals(0, counters.getSize());
+    }
+
+    @Test
+    public void indexOnlyHoldsTheCachedEntries() {
+        put(Constants.TEMPERATURE, 100, 200);
+        put(Constants.TEMPERATURE, 100, 200);
+        assertEquals("Replaced", 1, cache.indexSize(Stations.DEFAULT));
+        put(Constants.DEW_POINT, 100, 200);
+        put(Constants.PRECIPITATION, 300, 400);
+        assertEquals("Evicted for size", 2, cache.indexSize(Stations.DEFAULT));
+
+        cache.invalidate(Stations.DEFAULT, 350);
+        assertEquals("Invalidated", 1, cache.indexSize(Stations.DEFAULT));
+        assertEquals(STATS, cache.get(STATIONS, Constants.DEW_POINT, STAT_TYPES, QUANTILES, 100, 200));
+        cache.invalidateAll(Stations.DEFAULT);
+        assertEquals("Cleared", 0, cache.indexSize(Stations.DEFAULT));
+        assertEquals(0, cache.getCounters().getSize());
+    }
+
+    @Test
+    public void disabledCacheHoldsNothing() {
+        final StatsCache disabled = StatsCache.disabled();
+        try (StatsCache.Computation computation = disabled.begin(STATIONS, STAT_TYPES, QUANTILES, 100, 200)) {
+            computation.put(Constants.TEMPERATURE, STATS);
+        }
+        assertNull(disabled.get(STATIONS, Constants.TEMPERATURE, STAT_TYPES, QUANTILES, 100, 200));
+        assertEquals(new CacheCounters(0, 0, 0, 0, 0), disabled.getCounters());
+    }
+
+    private void put(final String metric, final long from, final long to) {
+        try (StatsCache.Computation computation = cache.begin(STATIONS, STAT_TYPES, QUANTILES, from, to)) {
+            computation.put(metric, STATS);
+        }
+    }
+}
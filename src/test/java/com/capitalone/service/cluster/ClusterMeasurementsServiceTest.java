@@ -0,0 +1,178 @@
+package com.capitalone.service.cluster;
+
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.MeasurementsService;
+import com.capitalone.service.MeasurementsServiceImpl;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.aggregate.QuantileSketch;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.capitalone.service.store.TestMeasurements.BASE;
+import static com.capitalone.service.store.TestMeasurements.measurement;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ClusterMeasurementsService, with the Store of a separate station in this process standing in for
+ * each node.
+ */
+public class ClusterMeasurementsServiceTest {
+    private static final int NODES = 3;
+    private static final long PARTITION = Timestamps.MILLIS_PER_HOUR;
+    private static final int HOURS = 24;
+    private static final AtomicInteger RUN = new AtomicInteger();
+
+    private final Cluster nodes = new Cluster(
+            ImmutableList.of(URI.create("http://node0"), URI.create("http://node1"), URI.create("http://node2")),
+            -1, PARTITION, 1000, 4);
+    private final List<MeasurementsService> nodeServices = Lists.newArrayList();
+    private MeasurementsService service;
+
+    @Before
+    public void setupNodes() {
+        //The Stores are shared by the whole JVM, so every test gets stations of its own
+        final int run = RUN.incrementAndGet();
+        for (int node = 0; node < NODES; node++)
+            nodeServices.add(new MeasurementsServiceImpl("cluster-test-" + run + "-" + node));
+        service = new ClusterMeasurementsService(nodes, "north", nodeServices);
+    }
+
+    @Test
+    public void measurementsAreWrittenToTheNodeOwningTheirBucket() {
+        for (int hour = 0; hour < HOURS; hour++)
+            service.create(measurement(hour * PARTITION, hour));
+
+        int total = 0;
+        for (int node = 0; node < NODES; node++) {
+            final Collection<Measurement> held = nodeServices.get(node).retrieveAll(Long.MIN_VALUE, Long.MAX_VALUE);
+            for (final Measurement m : held)
+                assertEquals("Held by its owner", node, nodes.owner("north", m.getTimestamp()));
+            assertFalse("Every node holds some buckets", held.isEmpty());
+            total += held.size();
+        }
+        assertEquals(HOURS, total);
+        assertEquals(7F, service.retrieve(BASE + 7 * PARTITION).getMetrics().get(Constants.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void batchIsSplitByNodeAndConflictsAreCollected() {
+        service.create(measurement(3 * PARTITION, 3));
+        final List<Measurement> batch = Lists.newArrayList();
+        for (int hour = 0; hour < HOURS; hour++)
+            batch.add(measurement(hour * PARTITION, hour));
+
+        assertEquals(ImmutableList.of(BASE + 3 * PARTITION), ImmutableList.copyOf(service.createAll(batch)));
+        assertEquals(HOURS, service.retrieveAll(BASE, BASE + HOURS * PARTITION).size());
+    }
+
+    @Test(expected = EntityExistsException.class)
+    public void existingMeasurementCannotBeCreatedAgain() {
+        service.create(measurement(0, 1));
+        service.create(measurement(0, 2));
+    }
+
+    @Test
+    public void rangesAreMergedInTimestampOrder() {
+        for (int hour = HOURS - 1; hour >= 0; hour--) {
+            service.create(measurement(hour * PARTITION, hour));
+            service.create(measurement(hour * PARTITION + 1, hour));
+        }
+
+        assertTimestampOrder(service.retrieveAll(BASE, BASE + HOURS * PARTITION), 2 * HOURS);
+        assertTimestampOrder(ImmutableList.copyOf(service.iterateAll(BASE, BASE + HOURS * PARTITION)), 2 * HOURS);
+        final List<Measurement> page = ImmutableList.copyOf(service.retrieveAll(BASE, BASE + HOURS * PARTITION, 5));
+        assertTimestampOrder(page, 5);
+        final List<Measurement> next = ImmutableList.copyOf(service.retrieveAfter(page.get(4).getTimestamp(), BASE + HOURS * PARTITION, 5));
+        assertEquals("Next page carries on after the last one", BASE + 2 * PARTITION + 1, next.get(0).getTimestamp());
+    }
+
+    @Test
+    public void statsAreMergedFromEveryNode() {
+        final MetricAccumulator expected = new MetricAccumulator();
+        final QuantileSketch expectedSketch = new QuantileSketch();
+        for (int hour = 0; hour < HOURS; hour++) {
+            service.create(measurement(hour * PARTITION, hour));
+            expected.add(hour);
+            expectedSketch.add(hour);
+        }
+
+        final List<String> metrics = ImmutableList.of(Constants.TEMPERATURE);
+        final MetricAccumulator total = service.aggregate(metrics, BASE, BASE + HOURS * PARTITION).get(Constants.TEMPERATURE);
+        assertEquals("Count", expected.getCount(), total.getCount());
+        assertEquals("Average", expected.getAverage(), total.getAverage(), 1e-6);
+        assertEquals("Variance", expected.getVariance(), total.getVariance(), 1e-6);
+        assertEquals("Min", 0F, total.getMin(), 0);
+        assertEquals("Max", HOURS - 1, total.getMax(), 0);
+        final QuantileSketch sketch = service.sketch(metrics, BASE, BASE + HOURS * PARTITION).get(Constants.TEMPERATURE);
+        assertEquals("Median", expectedSketch.quantile(0.5), sketch.quantile(0.5), 1e-9);
+    }
+
+    @Test
+    public void shortRangeOnlyTouchesTheNodesOwningIt() {
+        assertEquals(1, nodes.owners("north", BASE, BASE + PARTITION).size());
+        assertEquals(ImmutableList.of(0, 1, 2), ImmutableList.copyOf(nodes.owners("north", Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertTrue(nodes.owners("north", BASE, BASE).isEmpty());
+        assertFalse("No nodes, no cluster", new Cluster(ImmutableList.of(), -1, PARTITION, 1000, 4).isEnabled());
+    }
+
+    @Test
+    public void otherNodesAreCancelledWhenOneFails() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(NODES - 1);
+        final CountDownLatch interrupted = new CountDownLatch(NODES - 1);
+        final List<MeasurementsService> failing = Lists.newArrayList();
+        for (int node = 0; node < NODES - 1; node++) {
+            failing.add(new MeasurementsServiceImpl("cluster-test-cancel-" + node) {
+                @Override
+                public Collection<Measurement> retrieveAll(final long fromTimestamp, final long toTimestamp) {
+                    started.countDown();
+                    try {
+                        Thread.sleep(60_000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return ImmutableList.of();
+                }
+            });
+        }
+        //The last node is called on the request thread, and fails once the calls to the others are under way
+        failing.add(new MeasurementsServiceImpl("cluster-test-cancel-" + (NODES - 1)) {
+            @Override
+            public Collection<Measurement> retrieveAll(final long fromTimestamp, final long toTimestamp) {
+                try {
+                    started.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("Node failed");
+            }
+        });
+
+        try {
+            new ClusterMeasurementsService(nodes, "north", failing).retrieveAll(Long.MIN_VALUE, Long.MAX_VALUE);
+            fail("The failure of a node is not thrown");
+        } catch (IllegalStateException e) {
+            assertTrue("The other nodes are cancelled", interrupted.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static void assertTimestampOrder(final Collection<Measurement> measurements, final int size) {
+        assertEquals("Size", size, measurements.size());
+        long previous = Long.MIN_VALUE;
+        for (final Measurement m : measurements) {
+            assertTrue("Timestamp order", m.getTimestamp() > previous);
+            previous = m.getTimestamp();
+        }
+    }
+}
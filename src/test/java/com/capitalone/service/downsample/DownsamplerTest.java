@@ -0,0 +1,81 @@
+package com.capitalone.service.downsample;
+
+import com.capitalone.model.DownsampleMethod;
+import com.capitalone.model.SeriesPoint;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the bucket and LTTB Downsampler's.
+ */
+public class DownsamplerTest {
+    private static final long FROM = Timestamps.parse("2015-09-01T00:00:00.000Z");
+    private static final long TO = FROM + Timestamps.MILLIS_PER_HOUR;
+    private static final long TEN_MINUTES = 10 * Timestamps.MILLIS_PER_MINUTE;
+
+    @Test
+    public void bucketsAreStampedWithTheirStartAndSkippedWhenEmpty() {
+        final Downsampler average = Downsampler.of(DownsampleMethod.AVERAGE, FROM, TO, 3);
+        final Downsampler max = Downsampler.of(DownsampleMethod.MAX, FROM, TO, 3);
+        //Readings in the first and last 20 minute buckets only
+        for (final long offset : new long[] {0, 5, 10, 45, 50}) {
+            average.add(FROM + offset * Timestamps.MILLIS_PER_MINUTE, offset);
+            max.add(FROM + offset * Timestamps.MILLIS_PER_MINUTE, offset);
+        }
+        assertEquals(ImmutableList.of(new SeriesPoint(FROM, 5f), new SeriesPoint(FROM + 4 * TEN_MINUTES, 47.5f)), average.finish());
+        assertEquals(ImmutableList.of(new SeriesPoint(FROM, 10f), new SeriesPoint(FROM + 4 * TEN_MINUTES, 50f)), max.finish());
+    }
+
+    @Test
+    public void lttbKeepsEveryReadingWhenThereAreFewerReadingsThanPoints() {
+        final Downsampler lttb = Downsampler.of(DownsampleMethod.LTTB, FROM, TO, 8);
+        for (int i = 0; i < 6; i++)
+            lttb.add(FROM + i * TEN_MINUTES, i % 2);
+        final List<SeriesPoint> points = lttb.finish();
+        assertEquals("Every reading is kept", 6, points.size());
+        for (int i = 0; i < 6; i++)
+            assertEquals(new SeriesPoint(FROM + i * TEN_MINUTES, i % 2), points.get(i));
+    }
+
+    @Test
+    public void lttbKeepsTheFirstAndLastReadingsAndThePeaks() {
+        final Downsampler lttb = Downsampler.of(DownsampleMethod.LTTB, FROM, TO, 5);
+        final Random random = new Random(42);
+        for (int i = 0; i < 3600; i++) {
+            //A flat noisy line with one spike in each of the three middle buckets
+            final float value = i == 700 ? 100f : i == 1800 ? -100f : i == 2900 ? 100f : random.nextFloat();
+            lttb.add(FROM + i * 1000L, value);
+        }
+        final List<SeriesPoint> points = lttb.finish();
+        assertEquals("The requested number of points", 5, points.size());
+        assertEquals("First reading is kept", FROM, points.get(0).getTimestamp());
+        assertEquals("Spike is kept", new SeriesPoint(FROM + 700_000L, 100f), points.get(1));
+        assertEquals("Dip is kept", new SeriesPoint(FROM + 1_800_000L, -100f), points.get(2));
+        assertEquals("Spike is kept", new SeriesPoint(FROM + 2_900_000L, 100f), points.get(3));
+        assertEquals("Last reading is kept", FROM + 3_599_000L, points.get(4).getTimestamp());
+    }
+
+    @Test
+    public void lttbWithTwoPointsKeepsTheFirstAndLastReadings() {
+        final Downsampler lttb = Downsampler.of(DownsampleMethod.LTTB, FROM, TO, 2);
+        for (int i = 0; i < 60; i++)
+            lttb.add(FROM + i * Timestamps.MILLIS_PER_MINUTE, i);
+        assertEquals(ImmutableList.of(new SeriesPoint(FROM, 0f), new SeriesPoint(FROM + 59 * Timestamps.MILLIS_PER_MINUTE, 59f)), lttb.finish());
+    }
+
+    @Test
+    public void emptySeriesHasNoPoints() {
+        for (final DownsampleMethod method : new DownsampleMethod[] {DownsampleMethod.AVERAGE, DownsampleMethod.LTTB})
+            assertTrue(method + " has no points", Downsampler.of(method, FROM, TO, 10).finish().isEmpty());
+        final Downsampler lttb = Downsampler.of(DownsampleMethod.LTTB, FROM, TO, 10);
+        lttb.add(FROM, 1f);
+        assertEquals("A single reading is kept", ImmutableList.of(new SeriesPoint(FROM, 1f)), lttb.finish());
+    }
+}
@@ -0,0 +1,333 @@
+package com.capitalone.service.ingest;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.MetricDictionary;
+import com.capitalone.model.MetricValues;
+import com.capitalone.service.store.MeasurementStores;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Stations;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the parsing of the ingest protocols and for IngestListener over the loopback interface.
+ */
+public class IngestListenerTest {
+    private static final long BASE = Timestamps.parse("2015-09-01T00:00:00.000Z");
+
+    private static final Predicate<String> STATIONS = ImmutableSet.of("north", "south", "tcp", "udp")::contains;
+
+    private final ConcurrentMap<String, Map<Long, Measurement>> stores = Maps.newConcurrentMap();
+    private final IngestBatcher batcher = new IngestBatcher(this::write, 3, MoreExecutors.newDirectExecutorService());
+    private final LineProtocolParser parser = new LineProtocolParser(batcher, STATIONS);
+
+    @Test
+    public void textRecordsAreParsed() {
+        parse("north " + BASE + " temperature=11.5 humidity=70\r\n"
+                + BASE + ",temperature=-0.25,dewPoint=1.2e1\n"
+                + "\n# a comment\n"
+                + (BASE + 1) + "\ttemperature=+3", true);
+
+        final Measurement north = stores.get("north").get(BASE);
+        assertEquals(11.5F, north.getMetrics().get(Constants.TEMPERATURE), 0);
+        assertEquals(70F, north.getMetrics().get("humidity"), 0);
+        assertEquals(-0.25F, stored(Stations.DEFAULT, BASE, Constants.TEMPERATURE), 0);
+        assertEquals(12F, stored(Stations.DEFAULT, BASE, Constants.DEW_POINT), 0);
+        assertEquals("The last line of a datagram needs no newline", 3F, stored(Stations.DEFAULT, BASE + 1, Constants.TEMPERATURE), 0);
+        assertEquals(3, parser.getParsed());
+        assertEquals(0, parser.getRejected());
+    }
+
+    @Test
+    public void invalidRecordsAreDroppedAndTheRestParsed() {
+        parse("north/east " + BASE + " temperature=1\n"
+                + BASE + " temperature=1 temperature=2\n"
+                + BASE + " temperature=abc\n"
+                + BASE + " temperature\n"
+                + BASE + " temperature=1e99\n"
+                + "12x temperature=1\n"
+                + BASE + "\n"
+                + BASE + " temperature=4\n", false);
+        batcher.flush();
+
+        assertEquals(7, parser.getRejected());
+        assertEquals(1, parser.getParsed());
+        assertEquals(4F, stored(Stations.DEFAULT, BASE, Constants.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void incompleteRecordsWaitForTheRestOfTheStream() {
+        final ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put((BASE + " temperature=1\n" + (BASE + 1) + " tempera").getBytes(StandardCharsets.US_ASCII));
+        buffer.flip();
+        assertTrue(parser.parse(buffer, false));
+        assertEquals("Only the complete line is parsed", 1, parser.getParsed());
+
+        final byte[] frame = frame("south", BASE, Constants.TEMPERATURE, 7F, "humidity", 80F);
+        buffer.compact();
+        buffer.put("ture=2\n".getBytes(StandardCharsets.US_ASCII));
+        buffer.put(frame, 0, 10);
+        buffer.flip();
+        assertTrue(parser.parse(buffer, false));
+        assertEquals(2, parser.getParsed());
+        assertEquals("The frame is still incomplete", 10, buffer.remaining());
+
+        buffer.compact();
+        buffer.put(frame, 10, frame.length - 10);
+        buffer.flip();
+        assertTrue(parser.parse(buffer, false));
+        assertEquals(3, parser.getParsed());
+        assertFalse(buffer.hasRemaining());
+
+        final ByteBuffer truncated = ByteBuffer.wrap(frame, 0, frame.length - 1);
+        assertTrue(parser.parse(truncated, true));
+        assertEquals("Dropped at the end of the input", 1, parser.getRejected());
+    }
+
+    @Test
+    public void framesAndTextShareAStream() {
+        final ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put(frame("south", BASE, Constants.TEMPERATURE, 7F, "humidity", 80F));
+        buffer.put(("north " + BASE + " temperature=1\n").getBytes(StandardCharsets.US_ASCII));
+        buffer.put(frame("", BASE + 1, Constants.PRECIPITATION, 0.5F));
+        buffer.flip();
+        assertTrue(parser.parse(buffer, true));
+        batcher.flush();
+
+        assertEquals(7F, stored("south", BASE, Constants.TEMPERATURE), 0);
+        assertEquals(80F, stored("south", BASE, "humidity"), 0);
+        assertEquals(1F, stored("north", BASE, Constants.TEMPERATURE), 0);
+        assertEquals(0.5F, stored(Stations.DEFAULT, BASE + 1, Constants.PRECIPITATION), 0);
+
+        final ByteBuffer corrupt = ByteBuffer.wrap(new byte[]{(byte) 0xFE, 9, 1, 0, 0, 0});
+        assertFalse("Unknown frame version", parser.parse(corrupt, false));
+        assertFalse(corrupt.hasRemaining());
+    }
+
+    @Test
+    public void batchesAreWrittenWhenFullAndConflictsCounted() {
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 5; i++)
+            lines.append(BASE + i).append(" temperature=").append(i).append('\n');
+        lines.append(BASE + 3).append(" temperature=9\n");
+        parse(lines.toString(), false);
+        assertEquals("Only the full batch is written", 3, stores.get(Stations.DEFAULT).size());
+
+        batcher.flush();
+        assertEquals(5, stores.get(Stations.DEFAULT).size());
+        assertEquals(5, batcher.getCreated());
+        assertEquals("The last line repeats a timestamp", 1, batcher.getConflicts());
+        assertEquals(3F, stored(Stations.DEFAULT, BASE + 3, Constants.TEMPERATURE), 0);
+
+        parse(BASE + " temperature=9\n", true);
+        assertEquals("Conflicts with a stored Measurement are counted too", 2, batcher.getConflicts());
+        assertEquals(0F, stored(Stations.DEFAULT, BASE, Constants.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void metricNamesOfDroppedRecordsAreNotRegistered() {
+        parse("east " + BASE + " dropped1ForIngestTest=1\n"
+                + BASE + " dropped2ForIngestTest=1 dropped2ForIngestTest=2\n"
+                + BASE + " dropped3ForIngestTest=1 temperature=abc\n"
+                + BASE + " kept1ForIngestTest=1 kept2ForIngestTest=2\n", true);
+
+        assertEquals(3, parser.getRejected());
+        assertEquals(-1, MetricDictionary.lookup("dropped1ForIngestTest"));
+        assertEquals(-1, MetricDictionary.lookup("dropped2ForIngestTest"));
+        assertEquals(-1, MetricDictionary.lookup("dropped3ForIngestTest"));
+        assertTrue(MetricDictionary.lookup("kept1ForIngestTest") >= 0);
+        assertEquals(2F, stored(Stations.DEFAULT, BASE, "kept2ForIngestTest"), 0);
+    }
+
+    @Test
+    public void recordsOfStationsThatAreNotAcceptedAreDropped() {
+        parse("east " + BASE + " temperature=1\n"
+                + "north " + BASE + " temperature=2\n"
+                + "default " + BASE + " temperature=3\n", true);
+        final ByteBuffer frame = ByteBuffer.wrap(frame("east", BASE + 1, Constants.TEMPERATURE, 4F));
+        assertTrue(parser.parse(frame, true));
+        batcher.flush();
+
+        assertEquals(2, parser.getRejected());
+        assertNull(stores.get("east"));
+        assertEquals(2F, stored("north", BASE, Constants.TEMPERATURE), 0);
+        assertEquals(3F, stored(Stations.DEFAULT, BASE, Constants.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void stationsAreAcceptedIfConfiguredOrStored() {
+        assertFalse(IngestListener.stations(null).test("ingest-test-unknown"));
+        assertFalse(IngestListener.stations(" ").test("ingest-test-unknown"));
+        assertTrue(IngestListener.stations("ingest-test-a, ingest-test-b").test("ingest-test-b"));
+        assertTrue(IngestListener.stations(Stations.ALL).test("ingest-test-unknown"));
+
+        MeasurementStores.getInstance("ingest-test-stored");
+        assertTrue("Already has a Store", IngestListener.stations(null).test("ingest-test-stored"));
+        try {
+            IngestListener.stations("ingest-test-a,ingest.test");
+            fail("Invalid configured station");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void batchesAreWrittenOffTheListenerThread() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> writers = Lists.newCopyOnWriteArrayList();
+        final IngestBatcher queued = new IngestBatcher((station, batch) -> {
+            writers.add(Thread.currentThread().getName());
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return write(station, batch);
+        }, 1, IngestBatcher.writerExecutor(1));
+
+        final MetricValues metrics = MetricValues.copyOf(ImmutableMap.of(Constants.TEMPERATURE, 1F));
+        queued.add("north", BASE, metrics);
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        queued.add("north", BASE + 1, metrics);
+        assertEquals("Not written while the writer is busy", 0, queued.getCreated());
+
+        release.countDown();
+        queued.close();
+        assertEquals(2, queued.getCreated());
+        assertEquals(2, size("north"));
+        assertEquals(ImmutableList.of("ingest-writer", "ingest-writer"), writers);
+    }
+
+    @Test
+    public void numbersAreParsedLikeTheJdk() {
+        for (final String value : ImmutableList.of("0", "-0.0", "36.6", "0.1", "1013.25", ".5", "5.", "123456789.123456789",
+                "1E-5", "2.5e+3", "0.000000000000000000000000000000000001", "340000000000000000000000000000000000000")) {
+            final ByteBuffer buffer = ascii(value);
+            assertEquals(value, Float.parseFloat(value), LineProtocolParser.parseFloat(buffer, 0, buffer.limit()), 0);
+        }
+        for (final String value : ImmutableList.of("", "-", ".", "1e", "1.2.3", "e5", "0x10", "1f")) {
+            try {
+                final ByteBuffer buffer = ascii(value);
+                LineProtocolParser.parseFloat(buffer, 0, buffer.limit());
+                fail("Parsed '" + value + "'");
+            } catch (IllegalArgumentException e) {
+                //Expected
+            }
+        }
+        final ByteBuffer negative = ascii("-1441105200000");
+        assertEquals(-1441105200000L, LineProtocolParser.parseLong(negative, 0, negative.limit()));
+    }
+
+    @Test
+    public void readingsArriveOverTcpAndUdp() throws Exception {
+        final InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        final IngestListener listener = new IngestListener(loopback, loopback, LineProtocolParser.MAX_FRAME_SIZE,
+                new IngestBatcher(this::write, 100, IngestBatcher.writerExecutor(4)), STATIONS);
+        final Thread thread = new Thread(listener, "ingest-listener-test");
+        thread.start();
+        try {
+            try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), listener.getTcpPort())) {
+                final OutputStream out = socket.getOutputStream();
+                final StringBuilder lines = new StringBuilder();
+                for (int i = 0; i < 1000; i++)
+                    lines.append("tcp ").append(BASE + i).append(" temperature=").append(i).append('\n');
+                out.write(lines.toString().getBytes(StandardCharsets.US_ASCII));
+                out.write(frame("tcp", BASE + 1000, Constants.TEMPERATURE, 1000F));
+                out.flush();
+            }
+            try (final DatagramSocket socket = new DatagramSocket()) {
+                final byte[] text = ("udp " + BASE + " temperature=1\nudp " + (BASE + 1) + " temperature=2").getBytes(StandardCharsets.US_ASCII);
+                socket.send(new DatagramPacket(text, text.length, InetAddress.getLoopbackAddress(), listener.getUdpPort()));
+                final byte[] frame = frame("udp", BASE + 2, Constants.TEMPERATURE, 3F);
+                socket.send(new DatagramPacket(frame, frame.length, InetAddress.getLoopbackAddress(), listener.getUdpPort()));
+            }
+
+            for (int i = 0; i < 500 && (size("tcp") < 1001 || size("udp") < 3); i++)
+                Thread.sleep(10);
+            assertEquals(1001, size("tcp"));
+            assertEquals(999F, stored("tcp", BASE + 999, Constants.TEMPERATURE), 0);
+            assertEquals(1000F, stored("tcp", BASE + 1000, Constants.TEMPERATURE), 0);
+            assertEquals(3, size("udp"));
+            assertEquals(2F, stored("udp", BASE + 1, Constants.TEMPERATURE), 0);
+        } finally {
+            listener.close();
+            thread.join(10_000);
+        }
+    }
+
+    private Collection<Long> write(final String station, final Map<Long, Measurement> batch) {
+        final Map<Long, Measurement> store = stores.computeIfAbsent(station, s -> Maps.newConcurrentMap());
+        final List<Long> existing = Lists.newArrayList();
+        for (final Measurement m : batch.values()) {
+            if (store.putIfAbsent(m.getTimestamp(), m) != null)
+                existing.add(m.getTimestamp());
+        }
+        return existing;
+    }
+
+    private void parse(final String records, final boolean endOfInput) {
+        final ByteBuffer buffer = ascii(records);
+        assertTrue(parser.parse(buffer, endOfInput));
+        assertFalse("Everything parsed", buffer.hasRemaining());
+        if (endOfInput)
+            batcher.flush();
+    }
+
+    private float stored(final String station, final long timestamp, final String metric) {
+        return stores.get(station).get(timestamp).getMetrics().get(metric);
+    }
+
+    private int size(final String station) {
+        final Map<Long, Measurement> store = stores.get(station);
+        return store == null ? 0 : store.size();
+    }
+
+    private static ByteBuffer ascii(final String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Builds a binary frame from the station id and pairs of metric name and value.
+     */
+    private static byte[] frame(final String station, final long timestamp, final Object... metrics) {
+        final int count = metrics.length / 2;
+        final ByteBuffer frame = ByteBuffer.allocate(LineProtocolParser.FRAME_HEADER_SIZE + LineProtocolParser.FRAME_METRIC_SIZE * count);
+        frame.put((byte) LineProtocolParser.FRAME_MARKER_VALUE).put((byte) LineProtocolParser.FRAME_VERSION).put((byte) count).put((byte) 0);
+        frame.putLong(timestamp);
+        frame.put(station.getBytes(StandardCharsets.US_ASCII));
+        frame.position(LineProtocolParser.FRAME_HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            final int start = frame.position();
+            frame.put(((String) metrics[2 * i]).getBytes(StandardCharsets.US_ASCII));
+            frame.position(start + LineProtocolParser.NAME_SIZE);
+            frame.putFloat((Float) metrics[2 * i + 1]);
+        }
+        return frame.array();
+    }
+}
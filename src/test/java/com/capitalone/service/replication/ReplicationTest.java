@@ -0,0 +1,172 @@
+package com.capitalone.service.replication;
+
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.client.ForbiddenException;
+import com.capitalone.model.Measurement;
+import com.capitalone.model.Mutation;
+import com.capitalone.model.MutationBatch;
+import com.capitalone.service.cache.StatsCache;
+import com.capitalone.service.store.ConcurrentInMemoryStore;
+import com.capitalone.service.store.Store;
+import com.capitalone.util.Constants;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import javax.ws.rs.client.ClientBuilder;
+import java.net.URI;
+import java.util.Map;
+
+import static com.capitalone.service.store.TestMeasurements.BASE;
+import static com.capitalone.service.store.TestMeasurements.measurement;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the replication of a primary's Store's through its ReplicationLog to a replica's Store's.
+ */
+public class ReplicationTest {
+    private static final URI PRIMARY = URI.create("http://primary");
+
+    private final ReplicationLog replicationLog = new ReplicationLog(100);
+    private final Map<String, Store<Long, Measurement>> primaryStores = Maps.newHashMap();
+    private final Map<String, ReplicaMeasurementStore> replicaStores = Maps.newHashMap();
+    private final ReplicaFollower follower = new ReplicaFollower(ClientBuilder.newClient(), PRIMARY, null,
+            station -> replicaStores.computeIfAbsent(station, s -> new ReplicaMeasurementStore(s, new ConcurrentInMemoryStore<>(), PRIMARY)),
+            replicaStores::keySet, StatsCache.disabled());
+
+    @Test
+    public void onlyAppliedMutationsAreLoggedInOrder() {
+        final Store<Long, Measurement> north = primary("north");
+        north.create(measurement(0, 1), BASE);
+        try {
+            north.create(measurement(0, 2), BASE);
+            fail("Duplicate create");
+        } catch (EntityExistsException e) {
+            //Not logged
+        }
+        north.update(measurement(0, 3), BASE);
+        north.delete(BASE);
+
+        final MutationBatch batch = read(0, 10);
+        assertEquals(3, batch.getHead());
+        assertEquals(ImmutableList.of(Mutation.Operation.CREATE, Mutation.Operation.UPDATE, Mutation.Operation.DELETE),
+                ImmutableList.of(batch.getMutations().get(0).getOperation(), batch.getMutations().get(1).getOperation(), batch.getMutations().get(2).getOperation()));
+        assertEquals(3F, batch.getMutations().get(1).getMeasurement().getMetrics().get(Constants.TEMPERATURE), 0);
+        assertEquals("north", batch.getMutations().get(2).getStation());
+    }
+
+    @Test
+    public void logOnlyHoldsTheLatestMutations() throws InterruptedException {
+        final Store<Long, Measurement> north = primary("north");
+        for (int i = 0; i < 150; i++)
+            north.create(measurement(i, i), BASE + i);
+
+        assertNull("Overwritten by later mutations", replicationLog.read(10, 10, 0));
+        assertNull("Never written", replicationLog.read(151, 10, 0));
+        assertEquals(51, read(50, 10).getMutations().get(0).getSequence());
+        assertTrue("Caught up", read(150, 10).getMutations().isEmpty());
+    }
+
+    @Test
+    public void replicaConvergesOnThePrimaryEvenWhenMutationsAreAppliedAgain() {
+        final Store<Long, Measurement> north = primary("north");
+        final Store<Long, Measurement> south = primary("south");
+        for (int i = 0; i < 20; i++) {
+            north.create(measurement(i, i), BASE + i);
+            south.create(measurement(i, -i), BASE + i);
+        }
+        north.update(measurement(5, 50), BASE + 5);
+        north.delete(BASE + 6);
+        south.clear();
+        south.create(measurement(1, 100), BASE + 1);
+
+        follower.apply(read(0, 30));
+        assertEquals(14, follower.status().getLag().longValue());
+        follower.apply(read(30, 100));
+        assertEquals(0, follower.status().getLag().longValue());
+        assertReplicated("north", north);
+        assertReplicated("south", south);
+
+        //A replica restarted from an older saved position applies some mutations again
+        final ReplicaFollower restarted = new ReplicaFollower(ClientBuilder.newClient(), PRIMARY, null,
+                replicaStores::get, replicaStores::keySet, StatsCache.disabled());
+        restarted.apply(read(0, 100));
+        assertReplicated("north", north);
+        assertReplicated("south", south);
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void replicaRejectsWritesFromClients() {
+        new ReplicaMeasurementStore("north", new ConcurrentInMemoryStore<>(), PRIMARY).create(measurement(0, 1), BASE);
+    }
+
+    @Test
+    public void readWaitsForTheNextMutation() throws InterruptedException {
+        final Store<Long, Measurement> north = primary("north");
+        final Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            north.create(measurement(0, 1), BASE);
+        });
+        writer.start();
+        assertEquals(1, replicationLog.read(0, 10, 10_000).getMutations().size());
+        writer.join();
+    }
+
+    @Test
+    public void concurrentAppendsAreReadWithoutGaps() throws InterruptedException {
+        final ReplicationLog small = new ReplicationLog(64);
+        final Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            final String station = "writer-" + w;
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    if (i % 2 == 0)
+                        small.append(Mutation.Operation.CREATE, station, measurement(i, i));
+                    else
+                        small.appendAll(Mutation.Operation.CREATE, station, ImmutableList.of(measurement(i, i), measurement(i, -i)));
+                }
+            });
+            writers[w].start();
+        }
+        for (final Thread writer : writers)
+            writer.join();
+        assertEquals(3000, small.head());
+
+        final ImmutableList.Builder<Measurement> batch = ImmutableList.builder();
+        for (int i = 0; i < 100; i++)
+            batch.add(measurement(i, i));
+        assertEquals("A batch larger than the log", 3100, small.appendAll(Mutation.Operation.CREATE, "north", batch.build()));
+
+        final MutationBatch latest = small.read(3100 - 64, 64, 0);
+        assertEquals(3100, latest.getHead());
+        for (int i = 0; i < 64; i++)
+            assertEquals(3100 - 63 + i, latest.getMutations().get(i).getSequence());
+    }
+
+    private Store<Long, Measurement> primary(final String station) {
+        return primaryStores.computeIfAbsent(station, s -> new PrimaryMeasurementStore(s, new ConcurrentInMemoryStore<>(), replicationLog));
+    }
+
+    private MutationBatch read(final long after, final int limit) {
+        try {
+            return replicationLog.read(after, limit, 0);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void assertReplicated(final String station, final Store<Long, Measurement> primary) {
+        assertEquals(metrics(primary), metrics(replicaStores.get(station)));
+    }
+
+    private static Map<Long, Map<String, Float>> metrics(final Store<Long, Measurement> store) {
+        final Map<Long, Map<String, Float>> metrics = Maps.newHashMap();
+        for (final Measurement m : store.retrieveInRange(Long.MIN_VALUE, true, Long.MAX_VALUE, true))
+            metrics.put(m.getTimestamp(), m.getMetrics());
+        return metrics;
+    }
+}
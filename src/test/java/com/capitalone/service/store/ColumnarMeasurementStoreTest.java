@@ -0,0 +1,241 @@
+package com.capitalone.service.store;
+
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for ColumnarMeasurementStore.
+ */
+public class ColumnarMeasurementStoreTest {
+    private final Store<Long, Measurement> store = new ColumnarMeasurementStore();
+
+    @Test
+    public void createValidMeasurementIsPersisted() throws Exception {
+        final String entityId = "2015-09-01T16:00:00.000Z";
+        final Measurement m = new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, 35.2F));
+        store.create(m, Timestamps.parse(entityId));
+        assertEquals("New measurement is persisted", m, store.retrieve(Timestamps.parse(entityId)));
+    }
+
+    @Test(expected = EntityExistsException.class)
+    public void createAlreadyExistingMeasurementThrowsException() throws Exception {
+        final Map<String, Measurement> measurements = setupMeasurementsStore();
+        final String entityId = "2015-09-01T16:40:00.000Z";
+        store.create(measurements.get(entityId), Timestamps.parse(entityId));
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void retrieveNonExistingMeasurementThrowsException() throws Exception {
+        setupMeasurementsStore();
+        store.retrieve(Timestamps.parse("2015-09-01T18:00:00.000Z"));
+    }
+
+    @Test
+    public void sparselyReportedMetricsAreNotFilledIn() throws Exception {
+        final Map<String, Measurement> measurements = setupMeasurementsStore();
+        for (final Map.Entry<String, Measurement> entry : measurements.entrySet())
+            assertEquals("Measurement ID " + entry.getKey() + " round trips", entry.getValue(), store.retrieve(Timestamps.parse(entry.getKey())));
+    }
+
+    @Test
+    public void retrieveInRangeWithInclusiveAndExclusiveBounds() throws Exception {
+        final Map<String, Measurement> measurements = setupMeasurementsStore();
+        final Collection<Measurement> inclusive = store.retrieveInRange(Timestamps.parse("2015-09-01T16:10:00.000Z"), true, Timestamps.parse("2015-09-01T16:30:00.000Z"), true);
+        assertEquals("Inclusive range is returned in order", ImmutableList.of(
+                measurements.get("2015-09-01T16:10:00.000Z"),
+                measurements.get("2015-09-01T16:20:00.000Z"),
+                measurements.get("2015-09-01T16:30:00.000Z")), inclusive);
+
+        final Collection<Measurement> exclusive = store.retrieveInRange(Timestamps.parse("2015-09-01T16:10:00.000Z"), false, Timestamps.parse("2015-09-01T16:30:00.000Z"), false);
+        assertEquals("Exclusive range is returned", ImmutableList.of(measurements.get("2015-09-01T16:20:00.000Z")), exclusive);
+
+        final Collection<Measurement> between = store.retrieveInRange(Timestamps.parse("2015-09-01T16:05:00.000Z"), true, Timestamps.parse("2015-09-01T16:15:00.000Z"), false);
+        assertEquals("Range bounds between readings are returned", ImmutableList.of(measurements.get("2015-09-01T16:10:00.000Z")), between);
+    }
+
+    @Test
+    public void retrieveInRangeWithLimitReturnsTheStartOfTheRange() throws Exception {
+        final Map<String, Measurement> measurements = setupMeasurementsStore();
+        final long from = Timestamps.parse("2015-09-01T16:10:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T16:30:00.000Z");
+        assertEquals("Only the first entities are returned", ImmutableList.of(
+                measurements.get("2015-09-01T16:10:00.000Z"),
+                measurements.get("2015-09-01T16:20:00.000Z")), store.retrieveInRange(from, true, to, true, 2));
+        assertEquals("A limit past the end of the range returns the whole range", ImmutableList.of(
+                measurements.get("2015-09-01T16:20:00.000Z"),
+                measurements.get("2015-09-01T16:30:00.000Z")), store.retrieveInRange(from, false, to, true, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void updateExistingMeasurementReplacesAllMetrics() throws Exception {
+        final Map<String, Measurement> measurements = setupMeasurementsStore();
+        final String entityId = "2015-09-01T16:20:00.000Z";
+        final Measurement mUpdated = new Measurement(entityId, ImmutableMap.of(Constants.PRECIPITATION, 0F));
+        assertEquals("Previous measurement is returned", measurements.get(entityId), store.update(mUpdated, Timestamps.parse(entityId)));
+        assertEquals("Measurement ID 2015-09-01T16:20:00.000Z has been updated.", mUpdated, store.retrieve(Timestamps.parse(entityId)));
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void updateNonExistingMeasurementThrowsException() throws Exception {
+        final String entityId = "2015-09-01T16:00:00.000Z";
+        store.update(new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, 100F)), Timestamps.parse(entityId));
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void deleteExistingMeasurementRemovesMeasurement() throws Exception {
+        setupMeasurementsStore();
+        final String entityId = "2015-09-01T17:10:00.000Z";
+        assertNotNull("Measurement ID: 2015-09-01T17:10:00.000Z exists.", store.delete(Timestamps.parse(entityId)));
+        store.retrieve(Timestamps.parse(entityId));
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void deleteNonExistingMeasurementThrowsException() throws Exception {
+        store.delete(Timestamps.parse("2015-09-01T16:30:00.000Z"));
+    }
+
+    @Test
+    public void createAllSkipsExistingMeasurementsAndCreatesTheRest() throws Exception {
+        final Map<String, Measurement> measurements = setupMeasurementsStore();
+        final long existingId = Timestamps.parse("2015-09-01T16:10:00.000Z");
+        final long newId1 = Timestamps.parse("2015-09-01T16:05:00.000Z");
+        final long newId2 = Timestamps.parse("2015-09-01T18:00:00.000Z");
+        final Map<Long, Measurement> batch = ImmutableMap.of(
+                newId2, new Measurement(newId2, ImmutableMap.of(Constants.TEMPERATURE, 1F)),
+                existingId, new Measurement(existingId, ImmutableMap.of(Constants.TEMPERATURE, 2F)),
+                newId1, new Measurement(newId1, ImmutableMap.of(Constants.DEW_POINT, 3F)));
+        assertEquals("Existing measurement is reported", ImmutableList.of(existingId), ImmutableList.copyOf(store.createAll(batch)));
+        assertEquals("Existing measurement is unchanged", measurements.get("2015-09-01T16:10:00.000Z"), store.retrieve(existingId));
+        assertEquals("New measurement is persisted", batch.get(newId1), store.retrieve(newId1));
+        assertEquals("New measurement is persisted", batch.get(newId2), store.retrieve(newId2));
+    }
+
+    @Test
+    public void outOfOrderInsertsAndDeletesAcrossBitmapWordsKeepRowsAligned() throws Exception {
+        // Enough rows to span several bitmap words and force the columns to grow
+        final TreeMap<Long, Measurement> expected = Maps.newTreeMap();
+        final List<Integer> minutes = Lists.newArrayList();
+        for (int i = 0; i < 3000; i++)
+            minutes.add(i);
+        Collections.shuffle(minutes, new Random(42));
+        for (final int minute : minutes) {
+            final long entityId = minute * 60_000L;
+            final Measurement m = minute % 3 == 0
+                    ? new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, (float) minute))
+                    : new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, (float) minute, Constants.DEW_POINT, (float) -minute));
+            store.create(m, entityId);
+            expected.put(entityId, m);
+        }
+        for (final int minute : minutes.subList(0, 1000)) {
+            final long entityId = minute * 60_000L;
+            store.delete(entityId);
+            expected.remove(entityId);
+        }
+
+        final Collection<Measurement> all = store.retrieveInRange(expected.firstKey(), true, expected.lastKey(), true);
+        assertEquals("All remaining measurements are returned in order", Lists.newArrayList(expected.values()), all);
+    }
+
+    @Test
+    public void aggregateReadsOnlyThePresentValuesInRange() throws Exception {
+        final ColumnarMeasurementStore columnar = new ColumnarMeasurementStore();
+        final Map<Long, Measurement> measurements = Maps.newLinkedHashMap();
+        for (int minute = 0; minute < 300; minute++) {
+            final long entityId = minute * 60_000L;
+            measurements.put(entityId, minute % 3 == 0
+                    ? new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, (float) minute))
+                    : new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, (float) minute, Constants.DEW_POINT, (float) -minute)));
+        }
+        columnar.createAll(measurements);
+
+        final List<String> metrics = ImmutableList.of(Constants.TEMPERATURE, Constants.DEW_POINT, "unreported");
+        for (final int[] range : new int[][] {{0, 300}, {1, 64}, {63, 65}, {64, 128}, {70, 71}, {100, 100}, {-5, 400}}) {
+            final long from = range[0] * 60_000L;
+            final long to = range[1] * 60_000L;
+            final Map<String, MetricAccumulator> expected = MetricAccumulator.forMetrics(metrics);
+            MetricAccumulator.addAll(expected, columnar.retrieveInRange(from, true, to, false));
+            final Map<String, MetricAccumulator> actual = columnar.aggregate(metrics, from, to);
+            for (final String metric : metrics) {
+                final String message = metric + " from minute " + range[0] + " to " + range[1];
+                assertEquals("Count of " + message, expected.get(metric).getCount(), actual.get(metric).getCount());
+                assertEquals("Sum of " + message, expected.get(metric).getSum(), actual.get(metric).getSum(), 0D);
+                assertEquals("Min of " + message, expected.get(metric).getMin(), actual.get(metric).getMin(), 0F);
+                assertEquals("Max of " + message, expected.get(metric).getMax(), actual.get(metric).getMax(), 0F);
+            }
+        }
+    }
+
+    @Test
+    public void parallelAggregateMatchesSequentialAggregate() throws Exception {
+        final ColumnarMeasurementStore sequential = new ColumnarMeasurementStore(Integer.MAX_VALUE);
+        final ColumnarMeasurementStore parallel = new ColumnarMeasurementStore(50);
+        final Random random = new Random(11);
+        final Map<Long, Measurement> measurements = Maps.newLinkedHashMap();
+        for (int minute = 0; minute < 5_000; minute++) {
+            final long entityId = minute * 60_000L;
+            final float temperature = random.nextInt(400) / 10F;
+            measurements.put(entityId, minute % 7 == 0
+                    ? new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, temperature))
+                    : new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, temperature, Constants.DEW_POINT, (float) (minute % 20))));
+        }
+        sequential.createAll(measurements);
+        parallel.createAll(measurements);
+
+        final List<String> metrics = ImmutableList.of(Constants.TEMPERATURE, Constants.DEW_POINT, "unreported");
+        for (final int[] range : new int[][] {{0, 5_000}, {13, 4_321}, {100, 151}, {-5, 6_000}}) {
+            final long from = range[0] * 60_000L;
+            final long to = range[1] * 60_000L;
+            final Map<String, MetricAccumulator> expected = sequential.aggregate(metrics, from, to);
+            final Map<String, MetricAccumulator> actual = parallel.aggregate(metrics, from, to);
+            for (final String metric : metrics) {
+                final String message = metric + " from minute " + range[0] + " to " + range[1];
+                assertEquals("Count of " + message, expected.get(metric).getCount(), actual.get(metric).getCount());
+                assertEquals("Sum of " + message, expected.get(metric).getSum(), actual.get(metric).getSum(), 1e-6);
+                assertEquals("Variance of " + message, expected.get(metric).getVariance(), actual.get(metric).getVariance(), 1e-6);
+                assertEquals("Min of " + message, expected.get(metric).getMin(), actual.get(metric).getMin(), 0F);
+                assertEquals("Max of " + message, expected.get(metric).getMax(), actual.get(metric).getMax(), 0F);
+            }
+        }
+    }
+
+    private Map<String, Measurement> setupMeasurementsStore() {
+        final Map<String, Measurement> measurements = Maps.newHashMap();
+        measurements.put("2015-09-01T16:00:00.000Z",
+                new Measurement("2015-09-01T16:00:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 29.2F, Constants.DEW_POINT, 12F, Constants.PRECIPITATION, 10F)));
+        measurements.put("2015-09-01T16:10:00.000Z",
+                new Measurement("2015-09-01T16:10:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 31.2F)));
+        measurements.put("2015-09-01T16:20:00.000Z",
+                new Measurement("2015-09-01T16:20:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 32.2F, Constants.DEW_POINT, 8F)));
+        measurements.put("2015-09-01T16:30:00.000Z",
+                new Measurement("2015-09-01T16:30:00.000Z", ImmutableMap.of(Constants.DEW_POINT, 11F, Constants.PRECIPITATION, 10F)));
+        measurements.put("2015-09-01T16:40:00.000Z",
+                new Measurement("2015-09-01T16:40:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 35.2F, Constants.DEW_POINT, 8F, Constants.PRECIPITATION, 9F)));
+        measurements.put("2015-09-01T17:10:00.000Z",
+                new Measurement("2015-09-01T17:10:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 24.2F, Constants.DEW_POINT, 8F, Constants.PRECIPITATION, 8F)));
+        // Inserted out of order on purpose
+        for (final String entityId : ImmutableList.of(
+                "2015-09-01T16:40:00.000Z", "2015-09-01T16:00:00.000Z", "2015-09-01T17:10:00.000Z",
+                "2015-09-01T16:20:00.000Z", "2015-09-01T16:30:00.000Z", "2015-09-01T16:10:00.000Z"))
+            store.create(measurements.get(entityId), Timestamps.parse(entityId));
+
+        return ImmutableMap.copyOf(measurements);
+    }
+}
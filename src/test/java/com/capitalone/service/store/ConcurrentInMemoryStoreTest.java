@@ -0,0 +1,181 @@
+package com.capitalone.service.store;
+
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for ConcurrentInMemoryStore.
+ */
+public class ConcurrentInMemoryStoreTest {
+    private final Store<Long, Measurement> store = new ConcurrentInMemoryStore<>();
+
+    @Test
+    public void createValidMeasurementIsPersisted() throws Exception {
+        final long entityId = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        final Measurement m = new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, 35.2F));
+        store.create(m, entityId);
+        assertEquals("New measurement is persisted", m, store.retrieve(entityId));
+    }
+
+    @Test(expected = EntityExistsException.class)
+    public void createAlreadyExistingMeasurementThrowsException() throws Exception {
+        final Map<Long, Measurement> measurements = setupMeasurementsStore();
+        final long entityId = Timestamps.parse("2015-09-01T16:40:00.000Z");
+        store.create(measurements.get(entityId), entityId);
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void retrieveNonExistingMeasurementThrowsException() throws Exception {
+        setupMeasurementsStore();
+        store.retrieve(Timestamps.parse("2015-09-01T18:00:00.000Z"));
+    }
+
+    @Test
+    public void retrieveInRangeWithInclusiveAndExclusiveBounds() throws Exception {
+        final Map<Long, Measurement> measurements = setupMeasurementsStore();
+        final long from = Timestamps.parse("2015-09-01T16:10:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T16:30:00.000Z");
+        assertEquals("Inclusive range is returned in order", ImmutableList.of(
+                measurements.get(from),
+                measurements.get(Timestamps.parse("2015-09-01T16:20:00.000Z")),
+                measurements.get(to)), store.retrieveInRange(from, true, to, true));
+        assertEquals("Exclusive range is returned", ImmutableList.of(
+                measurements.get(Timestamps.parse("2015-09-01T16:20:00.000Z"))), store.retrieveInRange(from, false, to, false));
+    }
+
+    @Test
+    public void retrieveInRangeWithLimitReturnsTheStartOfTheRange() throws Exception {
+        final Map<Long, Measurement> measurements = setupMeasurementsStore();
+        final long from = Timestamps.parse("2015-09-01T16:10:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T16:30:00.000Z");
+        assertEquals("Only the first entities are returned", ImmutableList.of(
+                measurements.get(from),
+                measurements.get(Timestamps.parse("2015-09-01T16:20:00.000Z"))), store.retrieveInRange(from, true, to, true, 2));
+        assertEquals("The next page starts after the last entity", ImmutableList.of(
+                measurements.get(to)), store.retrieveInRange(Timestamps.parse("2015-09-01T16:20:00.000Z"), false, to, true, 2));
+        assertTrue("A limit of zero returns nothing", store.retrieveInRange(from, true, to, true, 0).isEmpty());
+    }
+
+    @Test
+    public void retrieveInRangeIsNotAffectedByLaterWrites() throws Exception {
+        setupMeasurementsStore();
+        final long from = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        final long to = Timestamps.parse("2015-09-01T17:00:00.000Z");
+        final Collection<Measurement> retrieved = store.retrieveInRange(from, true, to, false);
+        final int sizeBefore = retrieved.size();
+
+        final long newEntityId = Timestamps.parse("2015-09-01T16:05:00.000Z");
+        store.create(new Measurement(newEntityId, ImmutableMap.of(Constants.TEMPERATURE, 30F)), newEntityId);
+        store.delete(from);
+        assertEquals("Retrieved range is a snapshot", sizeBefore, retrieved.size());
+    }
+
+    @Test
+    public void updateExistingMeasurementReturnsPreviousAndPersistsNew() throws Exception {
+        final Map<Long, Measurement> measurements = setupMeasurementsStore();
+        final long entityId = Timestamps.parse("2015-09-01T16:20:00.000Z");
+        final Measurement mUpdated = new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, 100F));
+        assertEquals("Previous measurement is returned", measurements.get(entityId), store.update(mUpdated, entityId));
+        assertEquals("Measurement ID 2015-09-01T16:20:00.000Z has been updated.", mUpdated, store.retrieve(entityId));
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void updateNonExistingMeasurementThrowsException() throws Exception {
+        final long entityId = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        store.update(new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, 100F)), entityId);
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void deleteExistingMeasurementRemovesMeasurement() throws Exception {
+        setupMeasurementsStore();
+        final long entityId = Timestamps.parse("2015-09-01T17:10:00.000Z");
+        assertNotNull("Measurement ID: 2015-09-01T17:10:00.000Z exists.", store.delete(entityId));
+        store.retrieve(entityId);
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void deleteNonExistingMeasurementThrowsException() throws Exception {
+        store.delete(Timestamps.parse("2015-09-01T16:30:00.000Z"));
+    }
+
+    @Test
+    public void createAllSkipsExistingMeasurementsAndCreatesTheRest() throws Exception {
+        final Map<Long, Measurement> measurements = setupMeasurementsStore();
+        final long existingId = Timestamps.parse("2015-09-01T16:10:00.000Z");
+        final long newId1 = Timestamps.parse("2015-09-01T16:05:00.000Z");
+        final long newId2 = Timestamps.parse("2015-09-01T18:00:00.000Z");
+        final Map<Long, Measurement> batch = ImmutableMap.of(
+                newId2, new Measurement(newId2, ImmutableMap.of(Constants.TEMPERATURE, 1F)),
+                existingId, new Measurement(existingId, ImmutableMap.of(Constants.TEMPERATURE, 2F)),
+                newId1, new Measurement(newId1, ImmutableMap.of(Constants.DEW_POINT, 3F)));
+        assertEquals("Existing measurement is reported", ImmutableList.of(existingId), ImmutableList.copyOf(store.createAll(batch)));
+        assertEquals("Existing measurement is unchanged", measurements.get(existingId), store.retrieve(existingId));
+        assertEquals("New measurement is persisted", batch.get(newId1), store.retrieve(newId1));
+        assertEquals("New measurement is persisted", batch.get(newId2), store.retrieve(newId2));
+    }
+
+    @Test
+    public void concurrentCreatesOfTheSameMeasurementOnlySucceedOnce() throws Exception {
+        final int threads = 8;
+        final long entityId = Timestamps.parse("2015-09-01T16:00:00.000Z");
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<Boolean>> results = Lists.newArrayList();
+            for (int i = 0; i < threads; i++) {
+                final Measurement m = new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, (float) i));
+                results.add(executor.submit((Callable<Boolean>) () -> {
+                    start.await();
+                    try {
+                        store.create(m, entityId);
+                        return true;
+                    } catch (EntityExistsException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+
+            int created = 0;
+            for (final Future<Boolean> result : results)
+                if (result.get()) created++;
+            assertEquals("Exactly one create succeeds", 1, created);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<Long, Measurement> setupMeasurementsStore() {
+        final Map<Long, Measurement> measurements = Maps.newHashMap();
+        for (final Measurement m : ImmutableList.of(
+                new Measurement("2015-09-01T16:00:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 29.2F, Constants.DEW_POINT, 12F)),
+                new Measurement("2015-09-01T16:10:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 31.2F)),
+                new Measurement("2015-09-01T16:20:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 32.2F, Constants.DEW_POINT, 8F)),
+                new Measurement("2015-09-01T16:30:00.000Z", ImmutableMap.of(Constants.DEW_POINT, 11F, Constants.PRECIPITATION, 10F)),
+                new Measurement("2015-09-01T16:40:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 35.2F)),
+                new Measurement("2015-09-01T17:10:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 24.2F, Constants.PRECIPITATION, 8F)))) {
+            store.create(m, m.getTimestamp());
+            measurements.put(m.getTimestamp(), m);
+        }
+        return ImmutableMap.copyOf(measurements);
+    }
+}
@@ -0,0 +1,68 @@
+package com.capitalone.service.store;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for IndexedMeasurementStore.
+ */
+public class IndexedMeasurementStoreTest {
+    private static final List<String> METRICS = ImmutableList.of(Constants.TEMPERATURE, Constants.DEW_POINT);
+    private static final long BASE = Timestamps.parse("2015-09-01T16:00:00.000Z");
+
+    private final Store<Long, Measurement> raw = new ConcurrentInMemoryStore<>();
+    private final IndexedMeasurementStore store = new IndexedMeasurementStore(raw);
+
+    @Test
+    public void createdMeasurementsAreAggregated() throws Exception {
+        store.create(measurement(0, 10F, 1F), BASE);
+        store.createAll(ImmutableMap.of(BASE + 1, measurement(1, 20F, 2F), BASE, measurement(0, 99F, 99F)));
+
+        final Map<String, MetricAccumulator> stats = store.aggregate(METRICS, BASE, BASE + 2);
+        assertEquals("Conflicting create is not indexed", 30D, stats.get(Constants.TEMPERATURE).getSum(), 0D);
+        assertEquals("Every metric is indexed", 2, stats.get(Constants.DEW_POINT).getCount());
+    }
+
+    @Test
+    public void updateReplacesValuesAndDropsMissingMetrics() throws Exception {
+        store.create(measurement(0, 10F, 1F), BASE);
+        store.update(new Measurement(BASE, ImmutableMap.of(Constants.TEMPERATURE, 30F)), BASE);
+
+        final Map<String, MetricAccumulator> stats = store.aggregate(METRICS, BASE, BASE + 1);
+        assertEquals("Temperature is replaced", 30F, stats.get(Constants.TEMPERATURE).getMax(), 0F);
+        assertTrue("Dew point is no longer reported", stats.get(Constants.DEW_POINT).isEmpty());
+    }
+
+    @Test
+    public void deleteRemovesEveryMetric() throws Exception {
+        store.create(measurement(0, 10F, 1F), BASE);
+        store.create(measurement(1, 20F, 2F), BASE + 1);
+        store.delete(BASE);
+
+        final Map<String, MetricAccumulator> stats = store.aggregate(METRICS, BASE, BASE + 2);
+        assertEquals("Min falls back to the remaining value", 20F, stats.get(Constants.TEMPERATURE).getMin(), 0F);
+        assertEquals("Dew point count", 1, stats.get(Constants.DEW_POINT).getCount());
+    }
+
+    @Test
+    public void existingMeasurementsAreIndexedWhenWrapped() throws Exception {
+        raw.create(measurement(5, 10F, 1F), BASE + 5);
+        final MetricAccumulator temperature = new IndexedMeasurementStore(raw)
+                .aggregate(METRICS, BASE, BASE + 10).get(Constants.TEMPERATURE);
+        assertEquals("Existing measurement is counted", 1, temperature.getCount());
+    }
+
+    private static Measurement measurement(final int offset, final float temperature, final float dewPoint) {
+        return new Measurement(BASE + offset, ImmutableMap.of(Constants.TEMPERATURE, temperature, Constants.DEW_POINT, dewPoint));
+    }
+}
@@ -0,0 +1,59 @@
+package com.capitalone.service.store;
+
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.MeasurementsService;
+import com.capitalone.service.MeasurementsServiceImpl;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Stations;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the shards of MeasurementStores.
+ */
+public class MeasurementStoresTest {
+
+    @Test
+    public void onlyWritesCreateTheStoreOfAStation() {
+        final String station = "stores-test-lazy";
+        final MeasurementsService measurementsService = new MeasurementsServiceImpl(station);
+        assertTrue(measurementsService.retrieveAll(Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+        assertTrue(measurementsService.aggregate(ImmutableList.of(Constants.TEMPERATURE), Long.MIN_VALUE, Long.MAX_VALUE).get(Constants.TEMPERATURE).isEmpty());
+        try {
+            measurementsService.delete(100);
+            fail("Deleted from a station without a Store");
+        } catch (EntityNotFoundException e) {
+            //expected
+        }
+        assertNull("Reads do not create the Store", MeasurementStores.find(station));
+        assertFalse(MeasurementStores.stations().contains(station));
+
+        measurementsService.create(new Measurement(100, ImmutableMap.of(Constants.TEMPERATURE, 27.1F)));
+        assertSame(MeasurementStores.getInstance(station), MeasurementStores.find(station));
+        assertTrue(MeasurementStores.stations().contains(station));
+        assertEquals(station, new MeasurementsServiceImpl(station).retrieve(100).getStation());
+    }
+
+    @Test
+    public void defaultStationAlwaysHasAStore() {
+        assertSame(MeasurementStores.getInstance(), MeasurementStores.find(Stations.DEFAULT));
+    }
+
+    @Test
+    public void storesThatAggregateThemselvesAreNotIndexedByDefault() {
+        assertEquals(MeasurementStores.NO_INDEX, MeasurementStores.defaultIndex(MeasurementStores.COLUMNAR));
+        assertEquals(MeasurementStores.NO_INDEX, MeasurementStores.defaultIndex(MeasurementStores.OFF_HEAP));
+        assertEquals(MeasurementStores.NO_INDEX, MeasurementStores.defaultIndex(MeasurementStores.SEGMENTED));
+        assertEquals(MeasurementStores.TREE_INDEX, MeasurementStores.defaultIndex(MeasurementStores.CONCURRENT));
+        assertEquals(MeasurementStores.TREE_INDEX, MeasurementStores.defaultIndex(MeasurementStores.SORTED));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidStationIsRejected() {
+        MeasurementStores.find("stores.test");
+    }
+}
@@ -0,0 +1,149 @@
+package com.capitalone.service.store;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.QuantileSketch;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for QuantileMeasurementStore.
+ */
+public class QuantileMeasurementStoreTest {
+    private static final List<String> METRICS = ImmutableList.of(Constants.TEMPERATURE, Constants.DEW_POINT);
+    private static final long BASE = Timestamps.parse("2015-09-01T00:00:00.000Z");
+
+    private final Store<Long, Measurement> raw = new ConcurrentInMemoryStore<>();
+    private final QuantileMeasurementStore store = new QuantileMeasurementStore(raw);
+
+    @Test
+    public void rangeSpanningDaysCombinesSketchesAndRawEdges() throws Exception {
+        create(Timestamps.parse("2015-09-01T23:30:00.000Z"), 10F);
+        create(Timestamps.parse("2015-09-02T10:00:00.000Z"), 20F);
+        create(Timestamps.parse("2015-09-03T00:15:00.000Z"), 30F);
+        create(Timestamps.parse("2015-09-03T00:45:00.000Z"), 40F);
+
+        final QuantileSketch temperature = store.sketch(METRICS,
+                Timestamps.parse("2015-09-01T23:15:00.000Z"), Timestamps.parse("2015-09-03T00:30:00.000Z")).get(Constants.TEMPERATURE);
+        assertEquals("Count includes both ragged edges", 3, temperature.getCount());
+        assertEquals("Median", 20, temperature.quantile(0.5), 0);
+        assertEquals("Max", 30, temperature.quantile(1), 0);
+    }
+
+    @Test
+    public void deletingAValueRebuildsTheHourAndDay() throws Exception {
+        create(BASE + 1000, 10F);
+        create(BASE + 2000, 50F);
+        create(BASE + Timestamps.MILLIS_PER_HOUR, 20F);
+        store.delete(BASE + 2000);
+
+        final QuantileSketch day = store.sketch(METRICS, BASE, BASE + Timestamps.MILLIS_PER_DAY).get(Constants.TEMPERATURE);
+        assertEquals("Deleted value is no longer counted", 2, day.getCount());
+        assertEquals("Max falls back to the next largest value", 20, day.quantile(1), 0);
+    }
+
+    @Test
+    public void updatingAValueRebuildsTheHourAndDay() throws Exception {
+        create(BASE + 1000, 10F);
+        create(BASE + 2000, 50F);
+        create(BASE + 3000, 60F);
+        store.update(new Measurement(BASE + 1000, ImmutableMap.of(Constants.TEMPERATURE, 55F)), BASE + 1000);
+
+        final QuantileSketch day = store.sketch(METRICS, BASE, BASE + Timestamps.MILLIS_PER_DAY).get(Constants.TEMPERATURE);
+        assertEquals("Median reflects the update", 55, day.quantile(0.5), 0);
+    }
+
+    @Test
+    public void clearRemovesAllSketches() throws Exception {
+        create(BASE, 10F);
+        store.clear();
+        assertTrue("No sketch after clear", store.sketch(METRICS, BASE, BASE + Timestamps.MILLIS_PER_DAY).get(Constants.TEMPERATURE).isEmpty());
+    }
+
+    @Test
+    public void runningTotalsArePassedThroughToTheWrappedIndex() throws Exception {
+        final QuantileMeasurementStore indexed = new QuantileMeasurementStore(new IndexedMeasurementStore(raw));
+        indexed.create(new Measurement(BASE, ImmutableMap.of(Constants.TEMPERATURE, 10F)), BASE);
+        indexed.create(new Measurement(BASE + 1000, ImmutableMap.of(Constants.TEMPERATURE, 20F)), BASE + 1000);
+        assertEquals("Average", 15F, indexed.aggregate(METRICS, BASE, BASE + 2000).get(Constants.TEMPERATURE).getAverage(), 0F);
+        assertEquals("Median", 15, indexed.sketch(METRICS, BASE, BASE + 2000).get(Constants.TEMPERATURE).quantile(0.5), 0);
+    }
+
+    @Test
+    public void randomMutationsAndRangesMatchTheExactQuantiles() throws Exception {
+        final Random random = new Random(13);
+        final long span = 20 * Timestamps.MILLIS_PER_DAY;
+        final Map<Long, Measurement> batch = Maps.newLinkedHashMap();
+        for (int i = 0; i < 50_000; i++) {
+            final long timestamp = BASE + (long) (random.nextDouble() * span);
+            batch.put(timestamp, measurement(timestamp, random));
+        }
+        store.createAll(batch);
+        final List<Long> timestamps = Lists.newArrayList(batch.keySet());
+        for (int i = 0; i < 1000; i++) {
+            final long timestamp = timestamps.get(random.nextInt(timestamps.size()));
+            if (raw.retrieveInRange(timestamp, true, timestamp, true).isEmpty())
+                store.create(measurement(timestamp, random), timestamp);
+            else if (random.nextBoolean())
+                store.update(measurement(timestamp, random), timestamp);
+            else
+                store.delete(timestamp);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            final long from = BASE - Timestamps.MILLIS_PER_HOUR + (long) (random.nextDouble() * span);
+            final long to = from + Timestamps.MILLIS_PER_DAY + (long) (random.nextDouble() * span);
+            final Map<String, QuantileSketch> actual = store.sketch(METRICS, from, to);
+            for (final String metric : METRICS) {
+                final float[] expected = sortedValues(metric, from, to);
+                assertEquals("Count of " + metric, expected.length, actual.get(metric).getCount());
+                if (expected.length < 1000)
+                    continue;
+                for (final double q : new double[] {0.5, 0.9, 0.95, 0.99})
+                    assertEquals(q + " of " + metric, q, rank(expected, actual.get(metric).quantile(q)), 0.01);
+            }
+        }
+    }
+
+    private float[] sortedValues(final String metric, final long from, final long to) {
+        final List<Float> values = Lists.newArrayList();
+        for (final Measurement m : raw.retrieveInRange(from, true, to, false)) {
+            final Float value = m.getMetrics().get(metric);
+            if (value != null) values.add(value);
+        }
+        final float[] sorted = new float[values.size()];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = values.get(i);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static double rank(final float[] sorted, final double estimate) {
+        int index = Arrays.binarySearch(sorted, (float) estimate);
+        if (index < 0) index = -index - 1;
+        return (double) index / sorted.length;
+    }
+
+    private void create(final long timestamp, final float temperature) {
+        store.create(new Measurement(timestamp, ImmutableMap.of(Constants.TEMPERATURE, temperature)), timestamp);
+    }
+
+    private static Measurement measurement(final long timestamp, final Random random) {
+        final Map<String, Float> metrics = Maps.newHashMap();
+        metrics.put(Constants.TEMPERATURE, (float) (20 + 5 * random.nextGaussian()));
+        if (random.nextInt(3) > 0)
+            metrics.put(Constants.DEW_POINT, random.nextFloat() * 20);
+        return new Measurement(timestamp, metrics);
+    }
+}
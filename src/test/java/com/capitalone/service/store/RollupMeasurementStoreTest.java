@@ -0,0 +1,131 @@
+package com.capitalone.service.store;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.model.StatType;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for RollupMeasurementStore.
+ */
+public class RollupMeasurementStoreTest {
+    private static final List<String> METRICS = ImmutableList.of(Constants.TEMPERATURE, Constants.DEW_POINT);
+    private static final long BASE = Timestamps.parse("2015-09-01T00:00:00.000Z");
+
+    private final Store<Long, Measurement> raw = new ConcurrentInMemoryStore<>();
+    private final RollupMeasurementStore store = new RollupMeasurementStore(raw);
+
+    @Test
+    public void rangeSpanningDaysCombinesBucketsAndRawEdges() throws Exception {
+        create(Timestamps.parse("2015-09-01T23:59:30.000Z"), 10F);
+        create(Timestamps.parse("2015-09-02T10:00:00.000Z"), 20F);
+        create(Timestamps.parse("2015-09-03T00:00:15.000Z"), 30F);
+        create(Timestamps.parse("2015-09-03T00:01:00.000Z"), 40F);
+
+        final MetricAccumulator temperature = store.aggregate(METRICS,
+                Timestamps.parse("2015-09-01T23:59:15.000Z"), Timestamps.parse("2015-09-03T00:00:45.000Z")).get(Constants.TEMPERATURE);
+        assertEquals("Count includes both ragged edges", 3, temperature.getCount());
+        assertEquals("Min", 10F, temperature.getMin(), 0F);
+        assertEquals("Max", 30F, temperature.getMax(), 0F);
+        assertEquals("Average", 20F, temperature.getAverage(), 0F);
+    }
+
+    @Test
+    public void deletingTheMaxRebuildsEveryLevel() throws Exception {
+        create(BASE + 1000, 10F);
+        create(BASE + 2000, 50F);
+        create(BASE + Timestamps.MILLIS_PER_HOUR, 20F);
+        store.delete(BASE + 2000);
+
+        final MetricAccumulator day = store.aggregate(METRICS, BASE, BASE + Timestamps.MILLIS_PER_DAY).get(Constants.TEMPERATURE);
+        assertEquals("Deleted value is no longer counted", 2, day.getCount());
+        assertEquals("Max falls back to the next largest value", 20F, day.getMax(), 0F);
+    }
+
+    @Test
+    public void updatingTheMinRebuildsEveryLevel() throws Exception {
+        create(BASE + 1000, 10F);
+        create(BASE + 2000, 50F);
+        store.update(new Measurement(BASE + 1000, ImmutableMap.of(Constants.TEMPERATURE, 30F)), BASE + 1000);
+
+        final MetricAccumulator day = store.aggregate(METRICS, BASE, BASE + Timestamps.MILLIS_PER_DAY).get(Constants.TEMPERATURE);
+        assertEquals("Min reflects the update", 30F, day.getMin(), 0F);
+        assertEquals("Average reflects the update", 40F, day.getAverage(), 0F);
+    }
+
+    @Test
+    public void clearRemovesAllTotals() throws Exception {
+        create(BASE, 10F);
+        store.clear();
+        assertTrue("No totals after clear", store.aggregate(METRICS, BASE, BASE + Timestamps.MILLIS_PER_DAY).get(Constants.TEMPERATURE).isEmpty());
+    }
+
+    @Test
+    public void existingMeasurementsAreRolledUpWhenWrapped() throws Exception {
+        raw.create(new Measurement(BASE, ImmutableMap.of(Constants.TEMPERATURE, 10F)), BASE);
+        final MetricAccumulator temperature = new RollupMeasurementStore(raw)
+                .aggregate(METRICS, BASE - Timestamps.MILLIS_PER_DAY, BASE + Timestamps.MILLIS_PER_DAY).get(Constants.TEMPERATURE);
+        assertEquals("Existing measurement is counted", 1, temperature.getCount());
+    }
+
+    @Test
+    public void randomMutationsAndRangesMatchAFullScan() throws Exception {
+        final Random random = new Random(7);
+        final long span = 5 * Timestamps.MILLIS_PER_DAY;
+        final Map<Long, Measurement> batch = Maps.newLinkedHashMap();
+        for (int i = 0; i < 5000; i++) {
+            final long timestamp = BASE + (long) (random.nextDouble() * span);
+            batch.put(timestamp, measurement(timestamp, random));
+        }
+        store.createAll(batch);
+        final List<Long> timestamps = Lists.newArrayList(batch.keySet());
+        for (int i = 0; i < 500; i++) {
+            final long timestamp = timestamps.get(random.nextInt(timestamps.size()));
+            if (raw.retrieveInRange(timestamp, true, timestamp, true).isEmpty())
+                store.create(measurement(timestamp, random), timestamp);
+            else if (random.nextBoolean())
+                store.update(measurement(timestamp, random), timestamp);
+            else
+                store.delete(timestamp);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            final long from = BASE - Timestamps.MILLIS_PER_HOUR + (long) (random.nextDouble() * span);
+            final long to = from + (long) (random.nextDouble() * span);
+            final Map<String, MetricAccumulator> expected = MetricAccumulator.forMetrics(METRICS);
+            MetricAccumulator.addAll(expected, raw.retrieveInRange(from, true, to, false));
+            final Map<String, MetricAccumulator> actual = store.aggregate(METRICS, from, to);
+            for (final String metric : METRICS) {
+                assertEquals("Count of " + metric, expected.get(metric).getCount(), actual.get(metric).getCount());
+                if (expected.get(metric).isEmpty())
+                    continue;
+                for (final StatType statType : ImmutableList.of(StatType.MIN, StatType.MAX, StatType.AVERAGE, StatType.STANDARD_DEVIATION))
+                    assertEquals(statType + " of " + metric, expected.get(metric).getValue(statType), actual.get(metric).getValue(statType), 0.0001F);
+            }
+        }
+    }
+
+    private void create(final long timestamp, final float temperature) {
+        store.create(new Measurement(timestamp, ImmutableMap.of(Constants.TEMPERATURE, temperature)), timestamp);
+    }
+
+    private static Measurement measurement(final long timestamp, final Random random) {
+        final Map<String, Float> metrics = Maps.newHashMap();
+        metrics.put(Constants.TEMPERATURE, random.nextFloat() * 40);
+        if (random.nextInt(3) > 0)
+            metrics.put(Constants.DEW_POINT, random.nextFloat() * 20);
+        return new Measurement(timestamp, metrics);
+    }
+}
@@ -4,6 +4,8 @@ import com.capitalone.exception.EntityExistsException;
 import com.capitalone.exception.EntityNotFoundException;
 import com.capitalone.model.Measurement;
 import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Maps;
@@ -19,7 +21,7 @@ import static org.junit.Assert.*;
  * Unit test for SortedInMemoryStore.
  */
 public class SortedInMemoryStoreTest {
-    private final Store<String, Measurement> store = SortedInMemoryStore.getInstance();
+    private final Store<Long, Measurement> store = SortedInMemoryStore.getInstance();
 
     @Before
     public void resetStore() {
@@ -30,8 +32,8 @@ public class SortedInMemoryStoreTest {
     public void createValidMeasurementIsPersisted() throws Exception {
         final String entityId = "2015-09-01T16:00:00.000Z";
         final Measurement m = new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, 35.2F));
-        store.create(m, entityId);
-        final Measurement retrieved = store.retrieve(entityId);
+        store.create(m, Timestamps.parse(entityId));
+        final Measurement retrieved = store.retrieve(Timestamps.parse(entityId));
         assertEquals("New measurement is persisted", m, retrieved);
     }
 
@@ -40,20 +42,20 @@ public class SortedInMemoryStoreTest {
         final Map<String, Measurement> measurements = setupMeasurementsStore();
         final String entityId = ImmutableSortedSet.copyOf(measurements.keySet()).asList().get(4);
         final Measurement m = measurements.get(entityId);
-        store.create(m, entityId);
+        store.create(m, Timestamps.parse(entityId));
     }
 
     @Test(expected = EntityNotFoundException.class)
     public void retrieveNonExistingMeasurementThrowsException() throws Exception {
         setupMeasurementsStore();
-        store.retrieve("2015-09-01T18:00:00.000Z");
+        store.retrieve(Timestamps.parse("2015-09-01T18:00:00.000Z"));
     }
 
     @Test
     public void retrieveExistingMeasurementIsReturned() throws Exception {
         final Map<String, Measurement> measurements = setupMeasurementsStore();
         final String entityId = ImmutableSortedSet.copyOf(measurements.keySet()).asList().get(1);
-        final Measurement retrieved = store.retrieve(entityId);
+        final Measurement retrieved = store.retrieve(Timestamps.parse(entityId));
         assertEquals("Measurement ID 2015-09-01T16:10:00.000Z can be retrieved", measurements.get(entityId), retrieved);
 
     }
@@ -63,7 +65,7 @@ public class SortedInMemoryStoreTest {
         final Map<String, Measurement> measurements = setupMeasurementsStore();
         final String entityIdFrom = ImmutableSortedSet.copyOf(measurements.keySet()).asList().get(1);
         final String entityIdTo = ImmutableSortedSet.copyOf(measurements.keySet()).asList().get(3);
-        final Collection<Measurement> retrieved = store.retrieveInRange(entityIdFrom, true, entityIdTo, true);
+        final Collection<Measurement> retrieved = store.retrieveInRange(Timestamps.parse(entityIdFrom), true, Timestamps.parse(entityIdTo), true);
         assertEquals("Three measurements are returned", 3, retrieved.size());
         assertTrue("Retrieved contains Measurement ID: 2015-09-01T16:10:00.000Z", retrieved.contains(measurements.get("2015-09-01T16:10:00.000Z")));
         assertTrue("Retrieved contains Measurement ID: 2015-09-01T16:20:00.000Z", retrieved.contains(measurements.get("2015-09-01T16:20:00.000Z")));
@@ -75,7 +77,7 @@ public class SortedInMemoryStoreTest {
         final Map<String, Measurement> measurements = setupMeasurementsStore();
         final String entityIdFrom = ImmutableSortedSet.copyOf(measurements.keySet()).asList().get(1);
         final String entityIdTo = ImmutableSortedSet.copyOf(measurements.keySet()).asList().get(3);
-        final Collection<Measurement> retrieved = store.retrieveInRange(entityIdFrom, false, entityIdTo, false);
+        final Collection<Measurement> retrieved = store.retrieveInRange(Timestamps.parse(entityIdFrom), false, Timestamps.parse(entityIdTo), false);
         assertEquals("Three measurements are returned", 1, retrieved.size());
         assertTrue("Retrieved contains Measurement ID: 2015-09-01T16:20:00.000Z", retrieved.contains(measurements.get("2015-09-01T16:20:00.000Z")));
     }
@@ -87,8 +89,8 @@ public class SortedInMemoryStoreTest {
         final Measurement m = measurements.get(entityId);
         final Map<String, Float> updatedMetrics = ImmutableMap.of(Constants.TEMPERATURE, 100F, Constants.DEW_POINT, 50F, Constants.PRECIPITATION, 0F);
         final Measurement mUpdated = new Measurement(m.getTimestamp(), updatedMetrics);
-        store.update(mUpdated, entityId);
-        assertEquals("Measurement ID 2015-09-01T16:20:00.000Z has been updated.", mUpdated, store.retrieve(entityId));
+        store.update(mUpdated, Timestamps.parse(entityId));
+        assertEquals("Measurement ID 2015-09-01T16:20:00.000Z has been updated.", mUpdated, store.retrieve(Timestamps.parse(entityId)));
     }
 
     @Test(expected = EntityNotFoundException.class)
@@ -96,22 +98,38 @@ public class SortedInMemoryStoreTest {
         final String entityId = "2015-09-01T16:00:00.000Z";
         final Map<String, Float> updatedMetrics = ImmutableMap.of(Constants.TEMPERATURE, 100F, Constants.DEW_POINT, 50F, Constants.PRECIPITATION, 0F);
         final Measurement mUpdated = new Measurement("2015-09-01T16:00:00.000Z", updatedMetrics);
-        store.update(mUpdated, entityId);
+        store.update(mUpdated, Timestamps.parse(entityId));
     }
 
     @Test(expected = EntityNotFoundException.class)
     public void deleteExistingMeasurementRemovesMeasurement() throws Exception {
         final Map<String, Measurement> measurements = setupMeasurementsStore();
         final String entityId = ImmutableSortedSet.copyOf(measurements.keySet()).asList().get(7);
-        assertNotNull("Measurement ID: 2015-09-01T17:10:00.000Z exists.", store.retrieve(entityId));
-        store.delete(entityId);
+        assertNotNull("Measurement ID: 2015-09-01T17:10:00.000Z exists.", store.retrieve(Timestamps.parse(entityId)));
+        store.delete(Timestamps.parse(entityId));
         //This call should throw the exception
-        store.retrieve(entityId);
+        store.retrieve(Timestamps.parse(entityId));
     }
 
     @Test(expected = EntityNotFoundException.class)
     public void deleteNonExistingMeasurementThrowsException() throws Exception {
-        store.delete("2015-09-01T16:30:00.000Z");
+        store.delete(Timestamps.parse("2015-09-01T16:30:00.000Z"));
+    }
+
+    @Test
+    public void createAllSkipsExistingMeasurementsAndCreatesTheRest() throws Exception {
+        final Map<String, Measurement> measurements = setupMeasurementsStore();
+        final long existingId = Timestamps.parse("2015-09-01T16:10:00.000Z");
+        final long newId1 = Timestamps.parse("2015-09-01T16:05:00.000Z");
+        final long newId2 = Timestamps.parse("2015-09-01T18:00:00.000Z");
+        final Map<Long, Measurement> batch = ImmutableMap.of(
+                newId2, new Measurement(newId2, ImmutableMap.of(Constants.TEMPERATURE, 1F)),
+                existingId, new Measurement(existingId, ImmutableMap.of(Constants.TEMPERATURE, 2F)),
+                newId1, new Measurement(newId1, ImmutableMap.of(Constants.DEW_POINT, 3F)));
+        assertEquals("Existing measurement is reported", ImmutableList.of(existingId), ImmutableList.copyOf(store.createAll(batch)));
+        assertEquals("Existing measurement is unchanged", measurements.get("2015-09-01T16:10:00.000Z"), store.retrieve(existingId));
+        assertEquals("New measurement is persisted", batch.get(newId1), store.retrieve(newId1));
+        assertEquals("New measurement is persisted", batch.get(newId2), store.retrieve(newId2));
     }
 
     private Map<String, Measurement> setupMeasurementsStore() {
@@ -137,8 +155,8 @@ public class SortedInMemoryStoreTest {
         measurements.put("2015-09-01T17:30:00.000Z",
                 new Measurement("2015-09-01T17:30:00.000Z", ImmutableMap.of(Constants.TEMPERATURE, 35.2F, Constants.DEW_POINT, 8F, Constants.PRECIPITATION, 8F)));
         for (Map.Entry<String, Measurement> entry : measurements.entrySet())
-            store.create(entry.getValue(), entry.getKey());
+            store.create(entry.getValue(), Timestamps.parse(entry.getKey()));
 
         return ImmutableMap.copyOf(measurements);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.capitalone.service.store;
+
+import com.capitalone.model.Measurement;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.List;
+
+/**
+ * Measurement's and Store reads shared by the tests of the stores and of the services built on them.
+ */
+public final class TestMeasurements {
+    public static final long BASE = Timestamps.parse("2015-09-01T00:00:00.000Z");
+
+    private TestMeasurements() {}
+
+    /**
+     * @return a Measurement of the temperature only, offset milliseconds after BASE
+     */
+    public static Measurement measurement(final long offset, final float temperature) {
+        return new Measurement(BASE + offset, ImmutableMap.of(Constants.TEMPERATURE, temperature));
+    }
+
+    /**
+     * @return every Measurement of the store, in timestamp order
+     */
+    public static List<Measurement> all(final Store<Long, Measurement> store) {
+        return ImmutableList.copyOf(store.retrieveInRange(Long.MIN_VALUE, true, Long.MAX_VALUE, true));
+    }
+}
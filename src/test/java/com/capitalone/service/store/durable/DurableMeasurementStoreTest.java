@@ -0,0 +1,221 @@
+package com.capitalone.service.store.durable;
+
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.store.ColumnarMeasurementStore;
+import com.capitalone.service.store.ConcurrentInMemoryStore;
+import com.capitalone.service.store.Store;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static com.capitalone.service.store.TestMeasurements.BASE;
+import static com.capitalone.service.store.TestMeasurements.measurement;
+import static com.capitalone.service.store.TestMeasurements.all;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for DurableMeasurementStore.
+ */
+public class DurableMeasurementStoreTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private DurableMeasurementStore store;
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null)
+            store.close();
+    }
+
+    @Test
+    public void mutationsAreRestoredAfterRestart() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory, Long.MAX_VALUE);
+        store.create(measurement(0, 10F), BASE);
+        store.create(measurement(1, 11F), BASE + 1);
+        store.create(measurement(2, 12F), BASE + 2);
+        store.update(measurement(1, 21F), BASE + 1);
+        store.delete(BASE + 2);
+
+        final Store<Long, Measurement> restored = restart(directory, Long.MAX_VALUE);
+        assertEquals("Only the surviving measurements are restored",
+                ImmutableList.of(measurement(0, 10F), measurement(1, 21F)), all(restored));
+    }
+
+    @Test
+    public void createAllLogsOnlyTheCreatedMeasurements() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory, Long.MAX_VALUE);
+        store.create(measurement(0, 10F), BASE);
+        final Map<Long, Measurement> batch = Maps.newLinkedHashMap();
+        batch.put(BASE, measurement(0, 99F));
+        batch.put(BASE + 1, measurement(1, 11F));
+        assertEquals("Existing measurement is skipped", ImmutableList.of(BASE), ImmutableList.copyOf(store.createAll(batch)));
+
+        final Store<Long, Measurement> restored = restart(directory, Long.MAX_VALUE);
+        assertEquals("Skipped measurement does not overwrite the original",
+                ImmutableList.of(measurement(0, 10F), measurement(1, 11F)), all(restored));
+    }
+
+    @Test
+    public void clearIsRestoredAfterRestart() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory, Long.MAX_VALUE);
+        store.create(measurement(0, 10F), BASE);
+        store.clear();
+        store.create(measurement(1, 11F), BASE + 1);
+
+        assertEquals("Only the measurement after the clear is restored",
+                ImmutableList.of(measurement(1, 11F)), all(restart(directory, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void snapshotAndLogTailAreBothRestored() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory, Long.MAX_VALUE);
+        for (int i = 0; i < 100; i++)
+            store.create(measurement(i, i), BASE + i);
+        store.snapshot();
+        store.update(measurement(5, -5F), BASE + 5);
+        store.delete(BASE + 6);
+        store.create(measurement(100, 100F), BASE + 100);
+
+        assertEquals("Only the latest snapshot is kept", 1, SnapshotFile.segments(directory).size());
+        final List<Measurement> restored = all(restart(directory, Long.MAX_VALUE));
+        assertEquals("Snapshot plus tail", 100, restored.size());
+        assertTrue("Updated after snapshot", restored.contains(measurement(5, -5F)));
+        assertFalse("Deleted after snapshot", restored.contains(measurement(6, 6F)));
+        assertTrue("Created after snapshot", restored.contains(measurement(100, 100F)));
+    }
+
+    @Test
+    public void logRollsOverAndTriggersSnapshots() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory, 2 * SEGMENT_SIZE);
+        for (int i = 0; i < 2000; i++)
+            store.create(measurement(i, i), BASE + i);
+
+        final List<Measurement> restored = all(restart(directory, 2 * SEGMENT_SIZE));
+        assertEquals("Every measurement is restored", 2000, restored.size());
+        assertFalse("Snapshots were written in the background", SnapshotFile.segments(directory).isEmpty());
+    }
+
+    @Test
+    public void tornRecordAtTheEndOfTheLogIsIgnored() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory, Long.MAX_VALUE);
+        store.create(measurement(0, 10F), BASE);
+        store.create(measurement(1, 11F), BASE + 1);
+        store.close();
+        store = null;
+
+        // Corrupt the last byte of the second record, as if the host crashed before it reached the disk
+        final Path segment = directory.resolve(String.format("wal-%020d.log", MutationLog.segments(directory).get(0)));
+        final int recordSize = 2 * Integer.BYTES + Byte.BYTES + MeasurementCodec.encodedSize(measurement(0, 10F).getMetrics());
+        try (final RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(2 * recordSize - 1);
+            final int last = file.read();
+            file.seek(2 * recordSize - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        assertEquals("Only the intact record is restored",
+                ImmutableList.of(measurement(0, 10F)), all(restart(directory, Long.MAX_VALUE)));
+    }
+
+    @Test(expected = EntityExistsException.class)
+    public void rejectedMutationIsNotLogged() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory, Long.MAX_VALUE);
+        store.create(measurement(0, 10F), BASE);
+        try {
+            store.create(measurement(0, 99F), BASE);
+        } finally {
+            assertEquals("The rejected create is not replayed",
+                    ImmutableList.of(measurement(0, 10F)), all(restart(directory, Long.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    public void mutationThatCannotBeLoggedIsNotApplied() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final ConcurrentInMemoryStore<Long, Measurement> memory = new ConcurrentInMemoryStore<>();
+        store = new DurableMeasurementStore(memory, directory, SEGMENT_SIZE, 1, Long.MAX_VALUE);
+        // The next log segment already exists, so the log cannot roll over to it
+        final List<Long> segments = MutationLog.segments(directory);
+        Files.createFile(directory.resolve(String.format("wal-%020d.log", segments.get(segments.size() - 1) + 1)));
+
+        int created = 0;
+        try {
+            for (; created < 1000; created++)
+                store.create(measurement(created, created), BASE + created);
+            fail("The log never rolled over");
+        } catch (UncheckedIOException e) {
+            //Expected
+        }
+        assertEquals("Only the logged creates are applied", created, all(memory).size());
+        try {
+            memory.retrieve(BASE + created);
+            fail("The create that failed to log was applied");
+        } catch (EntityNotFoundException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void snapshotIsWrittenInPages() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory, Long.MAX_VALUE);
+        final Map<Long, Measurement> batch = Maps.newLinkedHashMap();
+        for (int i = 0; i < 20_000; i++)
+            batch.put(BASE + i, measurement(i, i));
+        store.createAll(batch);
+        store.snapshot();
+        final long snapshot = SnapshotFile.segments(directory).get(0);
+        for (final long segment : MutationLog.segments(directory))
+            assertTrue("Only the log after the snapshot is kept", segment >= snapshot);
+
+        assertEquals("Every page is restored", ImmutableList.copyOf(batch.values()), all(restart(directory, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void restoresIntoAColumnarStore() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory, Long.MAX_VALUE);
+        store.create(measurement(0, 10F), BASE);
+        store.snapshot();
+        store.create(measurement(1, 11F), BASE + 1);
+        store.close();
+
+        store = new DurableMeasurementStore(new ColumnarMeasurementStore(), directory, SEGMENT_SIZE, 1, Long.MAX_VALUE);
+        assertEquals("Snapshot and log are loaded into the columnar store",
+                ImmutableList.of(measurement(0, 10F), measurement(1, 11F)), all(store));
+    }
+
+    private DurableMeasurementStore open(final Path directory, final long snapshotThreshold) {
+        return new DurableMeasurementStore(new ConcurrentInMemoryStore<>(), directory, SEGMENT_SIZE, 1, snapshotThreshold);
+    }
+
+    private Store<Long, Measurement> restart(final Path directory, final long snapshotThreshold) throws IOException {
+        if (store != null)
+            store.close();
+        store = open(directory, snapshotThreshold);
+        return store;
+    }
+}
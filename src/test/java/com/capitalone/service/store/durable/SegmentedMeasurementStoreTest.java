@@ -0,0 +1,173 @@
+package com.capitalone.service.store.durable;
+
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.store.Store;
+import com.capitalone.util.Constants;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static com.capitalone.service.store.TestMeasurements.BASE;
+import static com.capitalone.service.store.TestMeasurements.measurement;
+import static com.capitalone.service.store.TestMeasurements.all;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for SegmentedMeasurementStore.
+ */
+public class SegmentedMeasurementStoreTest {
+    private static final int MEMORY_ROWS = 10;
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentedMeasurementStore store;
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null)
+            store.close();
+    }
+
+    @Test
+    public void fullMemoryTierIsWrittenToASegment() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory);
+        for (int i = 0; i < MEMORY_ROWS; i++)
+            store.create(measurement(i, i), BASE + i);
+        store.awaitWriter();
+
+        assertEquals("One segment written", 1, store.getSegmentCount());
+        assertEquals("Read back from the segment", measurement(3, 3F), store.retrieve(BASE + 3));
+        assertEquals("Range read back from the segment", MEMORY_ROWS, all(store).size());
+    }
+
+    @Test
+    public void newerVersionsHideOlderOnes() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory);
+        for (int i = 0; i < MEMORY_ROWS; i++)
+            store.create(measurement(i, i), BASE + i);
+        store.awaitWriter();
+        store.update(measurement(2, -2F), BASE + 2);
+        store.delete(BASE + 5);
+
+        assertEquals("Update wins over the segment", measurement(2, -2F), store.retrieve(BASE + 2));
+        final List<Measurement> measurements = all(store);
+        assertEquals("Deleted measurement is hidden", MEMORY_ROWS - 1, measurements.size());
+        assertFalse("Deleted measurement is hidden", measurements.contains(measurement(5, 5F)));
+        assertTrue("Updated measurement is returned", measurements.contains(measurement(2, -2F)));
+
+        final MetricAccumulator total = store.aggregate(ImmutableList.of(Constants.TEMPERATURE), BASE, BASE + MEMORY_ROWS)
+                .get(Constants.TEMPERATURE);
+        assertEquals("Aggregate sees the newest versions only", MEMORY_ROWS - 1, total.getCount());
+        assertEquals("Aggregate sees the newest versions only", 45 - 2 - 5 - 2, total.getSum(), 0.0001);
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void deletedMeasurementCannotBeRetrieved() throws Exception {
+        store = open(folder.getRoot().toPath());
+        for (int i = 0; i < MEMORY_ROWS; i++)
+            store.create(measurement(i, i), BASE + i);
+        store.awaitWriter();
+        store.delete(BASE);
+        store.retrieve(BASE);
+    }
+
+    @Test(expected = EntityExistsException.class)
+    public void measurementInASegmentCannotBeCreatedAgain() throws Exception {
+        store = open(folder.getRoot().toPath());
+        for (int i = 0; i < MEMORY_ROWS; i++)
+            store.create(measurement(i, i), BASE + i);
+        store.awaitWriter();
+        store.create(measurement(0, 99F), BASE);
+    }
+
+    @Test
+    public void neighbouringSegmentsAreCompacted() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory);
+        for (int i = 0; i < SegmentedMeasurementStore.FANOUT * MEMORY_ROWS; i++) {
+            store.create(measurement(i, i), BASE + i);
+            if (i == MEMORY_ROWS + 1)
+                store.delete(BASE + 1);
+            //Wait for each flush, so that none is skipped while the previous one is still being written
+            store.awaitWriter();
+        }
+
+        assertEquals("Segments merged into one", 1, store.getSegmentCount());
+        final List<Measurement> measurements = all(store);
+        assertEquals("Delete applied by the compaction", SegmentedMeasurementStore.FANOUT * MEMORY_ROWS - 1, measurements.size());
+        assertFalse("Delete applied by the compaction", measurements.contains(measurement(1, 1F)));
+    }
+
+    @Test
+    public void segmentsAndLogAreRestoredAfterRestart() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory);
+        for (int i = 0; i < MEMORY_ROWS + 3; i++)
+            store.create(measurement(i, i), BASE + i);
+        store.awaitWriter();
+        store.update(measurement(4, -4F), BASE + 4);
+        store.delete(BASE + 11);
+
+        final List<Measurement> restored = all(restart(directory));
+        assertEquals("Segment plus log", MEMORY_ROWS + 2, restored.size());
+        assertTrue("Updated after the segment was written", restored.contains(measurement(4, -4F)));
+        assertFalse("Deleted after the segment was written", restored.contains(measurement(11, 11F)));
+        assertEquals("The segment is mapped again", 1, store.getSegmentCount());
+    }
+
+    @Test
+    public void clearDeletesTheSegments() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        store = open(directory);
+        for (int i = 0; i < MEMORY_ROWS; i++)
+            store.create(measurement(i, i), BASE + i);
+        store.awaitWriter();
+        store.clear();
+        store.create(measurement(100, 100F), BASE + 100);
+
+        assertEquals("Only the measurement after the clear is restored",
+                ImmutableList.of(measurement(100, 100F)), all(restart(directory)));
+        assertEquals("No segment files left", 0, Files.list(directory).filter(p -> p.toString().endsWith(".seg")).count());
+    }
+
+    @Test
+    public void createAllSkipsMeasurementsInSegments() throws Exception {
+        store = open(folder.getRoot().toPath());
+        for (int i = 0; i < MEMORY_ROWS; i++)
+            store.create(measurement(i, i), BASE + i);
+        store.awaitWriter();
+
+        final Map<Long, Measurement> batch = Maps.newLinkedHashMap();
+        batch.put(BASE, measurement(0, 99F));
+        batch.put(BASE + MEMORY_ROWS, measurement(MEMORY_ROWS, 11F));
+        assertEquals("Existing measurement is skipped", ImmutableList.of(BASE), ImmutableList.copyOf(store.createAll(batch)));
+        assertEquals("Original is kept", measurement(0, 0F), store.retrieve(BASE));
+    }
+
+    private SegmentedMeasurementStore open(final Path directory) {
+        return new SegmentedMeasurementStore(directory, MEMORY_ROWS, SEGMENT_SIZE, 1);
+    }
+
+    private Store<Long, Measurement> restart(final Path directory) throws IOException {
+        if (store != null)
+            store.close();
+        store = open(directory);
+        return store;
+    }
+}
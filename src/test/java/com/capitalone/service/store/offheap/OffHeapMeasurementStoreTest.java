@@ -0,0 +1,153 @@
+package com.capitalone.service.store.offheap;
+
+import com.capitalone.exception.EntityExistsException;
+import com.capitalone.exception.EntityNotFoundException;
+import com.capitalone.model.Measurement;
+import com.capitalone.service.aggregate.MetricAccumulator;
+import com.capitalone.service.store.Store;
+import com.capitalone.util.Constants;
+import com.capitalone.util.Timestamps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for OffHeapMeasurementStore.
+ */
+public class OffHeapMeasurementStoreTest {
+    //Small blocks so that a few hundred readings already split and copy blocks
+    private final OffHeapMeasurementStore store = new OffHeapMeasurementStore(512, Integer.MAX_VALUE);
+
+    @Test
+    public void createdMeasurementIsRetrieved() throws Exception {
+        final String entityId = "2015-09-01T16:00:00.000Z";
+        final Measurement m = new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, 35.2F, Constants.DEW_POINT, 12F));
+        store.create(m, Timestamps.parse(entityId));
+        assertEquals("New measurement is persisted", m, store.retrieve(Timestamps.parse(entityId)));
+    }
+
+    @Test(expected = EntityExistsException.class)
+    public void createAlreadyExistingMeasurementThrowsException() throws Exception {
+        store.create(new Measurement(1L, ImmutableMap.of(Constants.TEMPERATURE, 1F)), 1L);
+        store.create(new Measurement(1L, ImmutableMap.of(Constants.TEMPERATURE, 2F)), 1L);
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void updateNonExistingMeasurementThrowsException() throws Exception {
+        store.update(new Measurement(1L, ImmutableMap.of(Constants.TEMPERATURE, 1F)), 1L);
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void deletedMeasurementIsNotFound() throws Exception {
+        store.create(new Measurement(1L, ImmutableMap.of(Constants.TEMPERATURE, 1F)), 1L);
+        store.delete(1L);
+        store.retrieve(1L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void measurementLargerThanAQuarterBlockIsRejected() throws Exception {
+        final Map<String, Float> metrics = Maps.newHashMap();
+        for (int i = 0; i < 30; i++)
+            metrics.put("offHeapTestMetric" + i, (float) i);
+        store.create(new Measurement(1L, metrics), 1L);
+    }
+
+    @Test
+    public void randomWritesMatchASortedMap() throws Exception {
+        final NavigableMap<Long, Measurement> expected = new TreeMap<>();
+        final Random random = new Random(19);
+        for (int i = 0; i < 20_000; i++) {
+            final long entityId = random.nextInt(2_000) * 60_000L;
+            final Measurement m = measurement(entityId, random);
+            final int operation = random.nextInt(10);
+            if (operation < 6 && !expected.containsKey(entityId)) {
+                store.create(m, entityId);
+                expected.put(entityId, m);
+            } else if (operation < 8 && expected.containsKey(entityId)) {
+                assertEquals("Updated " + entityId, expected.put(entityId, m), store.update(m, entityId));
+            } else if (expected.containsKey(entityId)) {
+                assertEquals("Deleted " + entityId, expected.remove(entityId), store.delete(entityId));
+            }
+        }
+
+        assertEquals("All measurements in order", Lists.newArrayList(expected.values()),
+                store.retrieveInRange(Long.MIN_VALUE, true, Long.MAX_VALUE, true));
+        for (int i = 0; i < 200; i++) {
+            final long from = random.nextInt(2_100) * 60_000L - 30_000L * random.nextInt(2);
+            final long to = from + random.nextInt(300) * 60_000L;
+            final boolean fromInclusive = random.nextBoolean();
+            final boolean toInclusive = random.nextBoolean();
+            final String range = from + (fromInclusive ? " inclusive" : " exclusive") + " to " + to + (toInclusive ? " inclusive" : " exclusive");
+            assertEquals(range, Lists.newArrayList(expected.subMap(from, fromInclusive, to, toInclusive).values()),
+                    store.retrieveInRange(from, fromInclusive, to, toInclusive));
+            assertEquals("Limited " + range, Lists.newArrayList(expected.subMap(from, fromInclusive, to, toInclusive).values()).subList(0, Math.min(7, expected.subMap(from, fromInclusive, to, toInclusive).size())),
+                    store.retrieveInRange(from, fromInclusive, to, toInclusive, 7));
+        }
+    }
+
+    @Test
+    public void aggregateMatchesTheRetrievedMeasurements() throws Exception {
+        final Store<Long, Measurement> parallel = new OffHeapMeasurementStore(512, 50);
+        final Random random = new Random(23);
+        final Map<Long, Measurement> measurements = Maps.newLinkedHashMap();
+        for (int minute = 0; minute < 3_000; minute++) {
+            final long entityId = minute * 60_000L;
+            measurements.put(entityId, measurement(entityId, random));
+        }
+        store.createAll(measurements);
+        parallel.createAll(measurements);
+
+        final List<String> metrics = ImmutableList.of(Constants.TEMPERATURE, Constants.DEW_POINT, "unreported");
+        for (final int[] range : new int[][] {{0, 3_000}, {1, 64}, {100, 100}, {2_999, 3_000}, {-5, 4_000}, {700, 2_345}}) {
+            final long from = range[0] * 60_000L;
+            final long to = range[1] * 60_000L;
+            final Map<String, MetricAccumulator> expected = MetricAccumulator.forMetrics(metrics);
+            MetricAccumulator.addAll(expected, store.retrieveInRange(from, true, to, false));
+            for (final OffHeapMeasurementStore aggregator : ImmutableList.of(store, (OffHeapMeasurementStore) parallel)) {
+                final Map<String, MetricAccumulator> actual = aggregator.aggregate(metrics, from, to);
+                for (final String metric : metrics) {
+                    final String message = metric + " from minute " + range[0] + " to " + range[1];
+                    assertEquals("Count of " + message, expected.get(metric).getCount(), actual.get(metric).getCount());
+                    assertEquals("Sum of " + message, expected.get(metric).getSum(), actual.get(metric).getSum(), 1e-3);
+                    assertEquals("Min of " + message, expected.get(metric).getMin(), actual.get(metric).getMin(), 0F);
+                    assertEquals("Max of " + message, expected.get(metric).getMax(), actual.get(metric).getMax(), 0F);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void clearedBlocksAreReused() throws Exception {
+        for (long entityId = 0; entityId < 1_000; entityId++)
+            store.create(new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, 1F)), entityId);
+        final long used = store.getOffHeapBytes();
+        store.clear();
+        assertEquals("Empty after clear", 0, store.retrieveInRange(Long.MIN_VALUE, true, Long.MAX_VALUE, true).size());
+        for (long entityId = 0; entityId < 1_000; entityId++)
+            store.create(new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, 1F)), entityId);
+        assertEquals("Same direct memory the second time", used, store.getOffHeapBytes());
+    }
+
+    private static Measurement measurement(final long entityId, final Random random) {
+        final float temperature = random.nextInt(400) / 10F;
+        switch (random.nextInt(3)) {
+            case 0:
+                return new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, temperature));
+            case 1:
+                return new Measurement(entityId, ImmutableMap.of(Constants.TEMPERATURE, temperature, Constants.DEW_POINT, random.nextInt(200) / 10F));
+            default:
+                return new Measurement(entityId, ImmutableMap.of(Constants.DEW_POINT, random.nextInt(200) / 10F,
+                        Constants.PRECIPITATION, random.nextFloat(), Constants.TEMPERATURE, temperature));
+        }
+    }
+}
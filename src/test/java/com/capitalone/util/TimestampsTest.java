@@ -0,0 +1,68 @@
+package com.capitalone.util;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the conversions between UTC timestamps and epoch milliseconds.
+ */
+public class TimestampsTest {
+    private static final DateTimeFormatter FORMATTER =
+            DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    @Test
+    public void parseMatchesJavaTime() {
+        assertEquals(Instant.parse("2015-09-01T16:00:00.000Z").toEpochMilli(), Timestamps.parse("2015-09-01T16:00:00.000Z"));
+        assertEquals(Instant.parse("2016-02-29T23:59:59.999Z").toEpochMilli(), Timestamps.parse("2016-02-29T23:59:59.999Z"));
+        assertEquals(0L, Timestamps.parse("1970-01-01T00:00:00.000Z"));
+        assertEquals(-1L, Timestamps.parse("1969-12-31T23:59:59.999Z"));
+    }
+
+    @Test
+    public void formatAndParseRoundTripAndMatchJavaTime() {
+        final Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            final long epochMillis = (long) (random.nextDouble() * 253402300799999L);
+            final String timestamp = Timestamps.format(epochMillis);
+            assertEquals(FORMATTER.format(Instant.ofEpochMilli(epochMillis)), timestamp);
+            assertEquals(epochMillis, Timestamps.parse(timestamp));
+        }
+    }
+
+    @Test
+    public void parseDateIsStartOfDay() {
+        assertEquals(Timestamps.parse("2015-09-01T00:00:00.000Z"), Timestamps.parseDate("2015-09-01"));
+        assertEquals(Timestamps.parse("2016-02-29T00:00:00.000Z"), Timestamps.parseDate("2016-02-29"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidDateOnlyIsRejected() {
+        Timestamps.parseDate("2015-02-29");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowerCaseTimestampIsRejected() {
+        Timestamps.parse("2015-09-01t16:00:00.000z");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingZIsRejected() {
+        Timestamps.parse("2015-09-01T16:00:00.000");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidDateIsRejected() {
+        Timestamps.parse("2015-02-29T16:00:00.000Z");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTimeIsRejected() {
+        Timestamps.parse("2015-09-01T24:00:00.000Z");
+    }
+}